@@ -27,6 +27,7 @@ import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.api.repository2.unified.RepositoryFileAcl;
 import org.pentaho.platform.api.repository2.unified.webservices.RepositoryFileAclDto;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.BulkOperations;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -48,6 +49,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -210,6 +213,87 @@ public class AnalysisService extends DatasourceService {
     flushDataSources();
   }
 
+  /**
+   * Removes several analysis data sources, checking the access of the user once for all of them.
+   *
+   * @return the failure of each id, null for the data sources removed
+   */
+  public Map<String, Exception> removeAnalysis( List<String> analysisIds ) throws PentahoAccessControlException {
+    try {
+      ensureDataAccessPermissionCheck();
+    } catch ( ConnectionServiceException e ) {
+      throw new PentahoAccessControlException();
+    }
+    final IPentahoSession session = getSession();
+    final Set<String> catalogNames = new HashSet<String>( getHostedCatalogs() );
+    return BulkOperations.applyEach( analysisIds, analysisId -> {
+      String catalogName = toExistingCatalogName( analysisId, catalogNames );
+      mondrianCatalogService.removeCatalog( catalogName, session );
+    } );
+  }
+
+  /**
+   * Sets the same ACL on several analysis data sources, flushing the catalogs updated once when done.
+   *
+   * @return the failure of each id, null for the data sources updated
+   */
+  public Map<String, Exception> setAnalysisDatasourceAcl( List<String> analysisIds, RepositoryFileAclDto aclDto )
+    throws PentahoAccessControlException {
+    if ( !canManageACL() ) {
+      throw new PentahoAccessControlException();
+    }
+    final RepositoryFileAcl acl = aclDto == null ? null : repositoryFileAclAdapter.unmarshal( aclDto );
+    final Set<String> catalogNames = new HashSet<String>( getHostedCatalogs() );
+    final Set<String> updated = new LinkedHashSet<String>();
+    Map<String, Exception> results = BulkOperations.applyEach( analysisIds, analysisId -> {
+      String catalogName = toExistingCatalogName( analysisId, catalogNames );
+      if ( aclAwareMondrianCatalogService != null ) {
+        aclAwareMondrianCatalogService.setAclFor( catalogName, acl );
+        updated.add( catalogName );
+      }
+    } );
+    flushCatalogs( updated );
+    return results;
+  }
+
+  /**
+   * Collects the files of several analysis data sources for one export, each in a folder named after its id.
+   *
+   * @param export the files to export, by their path in the export
+   * @return the failure of each id, null for the data sources exported
+   */
+  public Map<String, Exception> getAnalysisFiles( List<String> analysisIds, final Map<String, InputStream> export )
+    throws PentahoAccessControlException {
+    if ( !canManageACL() ) {
+      throw new PentahoAccessControlException();
+    }
+    final MondrianCatalogRepositoryHelper helper = createNewMondrianCatalogRepositoryHelper();
+    final Set<String> catalogNames = new HashSet<String>( helper.getHostedCatalogs() );
+    return BulkOperations.applyEach( analysisIds, analysisId -> {
+      String catalogName = toExistingCatalogName( analysisId, catalogNames );
+      Map<String, InputStream> fileData = helper.getModrianSchemaFiles( catalogName );
+      if ( fileData != null ) {
+        parseMondrianSchemaName( catalogName, fileData );
+      }
+      putExportFiles( catalogName, fileData, export );
+    } );
+  }
+
+  /**
+   * @return the name of the catalog an id of a bulk request stands for, decoded as for a single data source
+   */
+  private String toExistingCatalogName( String analysisId, Set<String> catalogNames ) throws FileNotFoundException {
+    String catalogName = fixEncodedSlashParam( analysisId );
+    if ( !catalogNames.contains( catalogName ) ) {
+      throw new FileNotFoundException( analysisId + " doesn't exist" );
+    }
+    return catalogName;
+  }
+
+  protected List<String> getHostedCatalogs() {
+    return createNewMondrianCatalogRepositoryHelper().getHostedCatalogs();
+  }
+
   private void checkAnalysisExists( String analysisId ) throws FileNotFoundException, PentahoAccessControlException {
     if ( !canManageACL() ) {
       throw new PentahoAccessControlException();
@@ -447,6 +531,13 @@ public class AnalysisService extends DatasourceService {
     super.validateAccess();
   }
 
+  /**
+   * Checks that the current user may import, for callers that check before they take an upload on.
+   */
+  public void checkImportAccess() throws PentahoAccessControlException {
+    accessValidation();
+  }
+
   protected IPentahoSession getSession() {
     return PentahoSessionHolder.getSession();
   }
@@ -19,9 +19,21 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -49,14 +61,16 @@ import org.pentaho.platform.dataaccess.datasource.api.resources.MetadataTempFile
 import org.pentaho.platform.dataaccess.datasource.utils.DataAccessPermissionUtil;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingCleanupQueue;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.IDSWDatasourceService;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.DSWDatasourceServiceImpl;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.ModelerService;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.QueryMaterializer;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.BulkOperations;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.UtilHtmlSanitizer;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
-import org.pentaho.platform.engine.services.metadata.MetadataPublisher;
-import org.pentaho.platform.plugin.action.mondrian.MondrianCachePublisher;
 import org.pentaho.platform.plugin.action.mondrian.catalog.IAclAwareMondrianCatalogService;
 import org.pentaho.platform.plugin.action.mondrian.catalog.MondrianCatalogServiceException;
 import org.pentaho.platform.plugin.services.importer.IPlatformImporter;
@@ -64,6 +78,8 @@ import org.pentaho.platform.plugin.services.importer.RepositoryFileImportBundle;
 import org.pentaho.platform.plugin.services.importexport.legacy.MondrianCatalogRepositoryHelper;
 import org.pentaho.platform.plugin.services.metadata.IAclAwarePentahoMetadataDomainRepositoryImporter;
 import org.pentaho.platform.plugin.services.metadata.IPentahoMetadataDomainRepositoryExporter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 public class DataSourceWizardService extends DatasourceService {
 
@@ -78,9 +94,16 @@ public class DataSourceWizardService extends DatasourceService {
 
   private static final Log logger = LogFactory.getLog( DataSourceWizardService.class );
 
+  private static ThreadPoolExecutor importExecutor;
+
+  /**
+   * Schema imports running at a time, and waiting on top of them. Publishing imports the schema itself when both are
+   * taken.
+   */
+  private static final int IMPORT_THREADS = 4;
+  private static final int IMPORT_QUEUE = 16;
+
   private static final String MONDRIAN_CATALOG_REF = "MondrianCatalogRef"; //$NON-NLS-1$
-  private static final String METADATA_PUBLISHER = MetadataPublisher.class.getName();
-  private static final String MONDRIAN_PUBLISHER = MondrianCachePublisher.class.getName();
   private static final String ENCODING = "UTF-8";
   private static final String MONDRIAN_CONNECTION_PARAM = "parameters";
   private static final String MONDRIAN_SCHEMA_NAME = "schema.xml";
@@ -110,18 +133,36 @@ public class DataSourceWizardService extends DatasourceService {
     if ( !canManageACL() ) {
       throw new PentahoAccessControlException();
     }
+    return getDSWFiles( dswId );
+  }
+
+  /**
+   * Collects the files of several DSWs for one export, each in a folder named after its id.
+   *
+   * @param export the files to export, by their path in the export
+   * @return the failure of each id, null for the DSWs exported
+   */
+  public Map<String, Exception> getDSWFiles( List<String> dswIds, final Map<String, InputStream> export )
+    throws PentahoAccessControlException {
+    if ( !canManageACL() ) {
+      throw new PentahoAccessControlException();
+    }
+    final Set<String> domainIds = metadataDomainRepository.getDomainIds();
+    return BulkOperations.applyEach( dswIds, dswId -> {
+      if ( !domainIds.contains( dswId ) ) {
+        throw new FileNotFoundException( dswId + " doesn't exist" );
+      }
+      putExportFiles( dswId, getDSWFiles( dswId ), export );
+    } );
+  }
+
+  private Map<String, InputStream> getDSWFiles( String dswId ) {
     // First get the metadata files;
     Map<String, InputStream> fileData = getMetadataFiles( dswId );
 
 
     // Then get the corresponding mondrian files
-    Domain domain = metadataDomainRepository.getDomain( dswId );
-    ModelerWorkspace model = createModelerWorkspace();
-    model.setDomain( domain );
-    LogicalModel logicalModel = model.getLogicalModel( ModelerPerspective.ANALYSIS );
-    if ( logicalModel == null ) {
-      logicalModel = model.getLogicalModel( ModelerPerspective.REPORTING );
-    }
+    LogicalModel logicalModel = getLogicalModel( metadataDomainRepository.getDomain( dswId ) );
     if ( logicalModel.getProperty( MONDRIAN_CATALOG_REF ) != null ) {
       MondrianCatalogRepositoryHelper helper = createMondrianCatalogRepositoryHelper();
       String catalogRef = (String) logicalModel.getProperty( MONDRIAN_CATALOG_REF );
@@ -138,15 +179,54 @@ public class DataSourceWizardService extends DatasourceService {
     } catch ( ConnectionServiceException e ) {
       throw new PentahoAccessControlException();
     }
-    Domain domain = metadataDomainRepository.getDomain( dswId );
-    ModelerWorkspace model = createModelerWorkspace();
-    model.setDomain( domain );
-    LogicalModel logicalModel = model.getLogicalModel( ModelerPerspective.ANALYSIS );
-    if ( logicalModel == null ) {
-      logicalModel = model.getLogicalModel( ModelerPerspective.REPORTING );
+    doRemoveDSW( dswId, true );
+  }
+
+  /**
+   * Removes several DSWs, checking the access of the user once for all of them. The caches of their Mondrian catalogs
+   * are flushed together before any of them is removed, and the staging area is cleaned up once they are all removed.
+   *
+   * @return the failure of each id, null for the DSWs removed
+   */
+  public Map<String, Exception> removeDSW( List<String> dswIds ) throws PentahoAccessControlException {
+    try {
+      ensureDataAccessPermissionCheck();
+    } catch ( ConnectionServiceException e ) {
+      throw new PentahoAccessControlException();
     }
-    if ( logicalModel.getProperty( MONDRIAN_CATALOG_REF ) != null ) {
-      String catalogRef = (String) logicalModel.getProperty( MONDRIAN_CATALOG_REF );
+    final Set<String> domainIds = metadataDomainRepository.getDomainIds();
+    Set<String> catalogRefs = new LinkedHashSet<String>();
+    for ( String dswId : dswIds ) {
+      if ( dswId != null && domainIds.contains( dswId ) ) {
+        String catalogRef = getCatalogRef( getLogicalModel( metadataDomainRepository.getDomain( dswId ) ) );
+        if ( catalogRef != null ) {
+          catalogRefs.add( catalogRef );
+        }
+      }
+    }
+    flushCatalogs( catalogRefs );
+    Map<String, Exception> results = BulkOperations.applyEach( dswIds, dswId -> {
+      if ( !domainIds.contains( dswId ) ) {
+        throw new FileNotFoundException( dswId + " doesn't exist" );
+      }
+      doRemoveDSW( dswId, false );
+    } );
+    StagingCleanupQueue.drainSoon();
+    return results;
+  }
+
+  /**
+   * @param single false when the DSW is removed along with others, the caller then flushes the cache of its catalog
+   *               and has the staging area cleaned up
+   */
+  private void doRemoveDSW( String dswId, boolean single ) {
+    Domain domain = metadataDomainRepository.getDomain( dswId );
+    LogicalModel logicalModel = getLogicalModel( domain );
+    String catalogRef = getCatalogRef( logicalModel );
+    if ( catalogRef != null ) {
+      if ( single ) {
+        flushCatalog( catalogRef );
+      }
       try {
         mondrianCatalogService.removeCatalog( catalogRef, getSession() );
       } catch ( MondrianCatalogServiceException e ) {
@@ -154,13 +234,40 @@ public class DataSourceWizardService extends DatasourceService {
       }
     }
     try {
-      dswService.deleteLogicalModel( domain.getId(), logicalModel.getId() );
+      if ( !single && dswService instanceof DSWDatasourceServiceImpl ) {
+        ( (DSWDatasourceServiceImpl) dswService ).deleteLogicalModel( domain.getId(), logicalModel.getId(), false );
+      } else {
+        dswService.deleteLogicalModel( domain.getId(), logicalModel.getId() );
+      }
     } catch ( DatasourceServiceException ex ) {
       logger.warn( "Failed to remove logical model", ex );
     }
     metadataDomainRepository.removeDomain( dswId );
   }
 
+  private LogicalModel getLogicalModel( Domain domain ) {
+    ModelerWorkspace model = createModelerWorkspace();
+    model.setDomain( domain );
+    LogicalModel logicalModel = model.getLogicalModel( ModelerPerspective.ANALYSIS );
+    if ( logicalModel == null ) {
+      logicalModel = model.getLogicalModel( ModelerPerspective.REPORTING );
+    }
+    return logicalModel;
+  }
+
+  private String getCatalogRef( LogicalModel logicalModel ) {
+    return logicalModel == null ? null : (String) logicalModel.getProperty( MONDRIAN_CATALOG_REF );
+  }
+
+  /**
+   * Cancels the SQL queries the current session is running in the data source wizard.
+   *
+   * @return the number of queries cancelled
+   */
+  public int cancelQueries() {
+    return dswService.cancelQueries();
+  }
+
   public List<String> getDSWDatasourceIds() {
     if ( dataSourceAwareMetadataDomainRepository != null ) {
       return new ArrayList<>( dataSourceAwareMetadataDomainRepository.getDataSourceWizardDomainIds() );
@@ -177,9 +284,7 @@ public class DataSourceWizardService extends DatasourceService {
   public String publishDsw( String domainId, InputStream metadataFile, List<InputStream> localizeFiles, List<String> localizeFileNames,
       boolean overwrite, boolean checkConnection, RepositoryFileAclDto acl )
     throws PentahoAccessControlException, IllegalArgumentException, DswPublishValidationException, Exception {
-    if ( !hasManageAccessCheck() ) {
-      throw new PentahoAccessControlException();
-    }
+    checkPublishAccess();
     if ( !endsWith( domainId, METADATA_EXT ) ) {
       // if doesn't end in case-sensitive '.xmi' there will be trouble later on
       final String errorMsg = "domainId must end in " + METADATA_EXT;
@@ -230,20 +335,149 @@ public class DataSourceWizardService extends DatasourceService {
       }
     }
 
-    // do import
-    IPlatformImporter importer = getIPlatformImporter();
-    importer.importFile( metadataBundle );
-    logger.debug( "imported metadata xmi" );
-    importer.importFile( mondrianBundle );
-    logger.debug( "imported mondrian schema" );
-    // trigger refreshes
-    IPentahoSession session = getSession();
-    PentahoSystem.publish( session, METADATA_PUBLISHER );
-    PentahoSystem.publish( session, MONDRIAN_PUBLISHER );
+    // evict the cubes and segments of the schema being replaced, the other catalogs keep theirs
+    String catalogName = domainId.substring( 0, domainId.lastIndexOf( METADATA_EXT ) );
+    flushCatalog( catalogName );
+
+    // do import, storing the domain replaces it in the metadata repository cache
+    try {
+      importBundles( getIPlatformImporter(), metadataBundle, mondrianBundle );
+    } finally {
+      // a query that came in while importing may have cached the old schema again
+      flushCatalog( catalogName );
+    }
     logger.info( "publishDsw: Published DSW with domainId='" + domainId + "'." );
     return domainId;
   }
 
+  /**
+   * Imports the metadata bundle, with its localization bundles, while the Mondrian schema is imported on another
+   * thread. Neither import reads what the other one writes. Both imports are done when this returns, the first one
+   * that failed is rethrown. When the metadata import fails the catalog just imported is removed again, so that no
+   * schema is published without its data source.
+   * <p>
+   * A catalog that exists already is only replaced once the metadata is imported, one after the other, so that a
+   * failed import leaves the schema of the data source being replaced in place.
+   */
+  protected void importBundles( final IPlatformImporter importer, IPlatformImportBundle metadataBundle,
+                                final IPlatformImportBundle mondrianBundle ) throws Exception {
+    if ( isCatalogReplaced( mondrianBundle ) ) {
+      importer.importFile( metadataBundle );
+      logger.debug( "imported metadata xmi" );
+      importer.importFile( mondrianBundle );
+      logger.debug( "imported mondrian schema" );
+      return;
+    }
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    Future<Void> mondrianImport;
+    try {
+      mondrianImport = getImportExecutor().submit( new Callable<Void>() {
+        public Void call() throws Exception {
+          PentahoSessionHolder.setSession( session );
+          SecurityContextHolder.getContext().setAuthentication( authentication );
+          try {
+            importer.importFile( mondrianBundle );
+            logger.debug( "imported mondrian schema" );
+            return null;
+          } finally {
+            PentahoSessionHolder.removeSession();
+            SecurityContextHolder.clearContext();
+          }
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      mondrianImport = null;
+    }
+    Exception failure = null;
+    try {
+      importer.importFile( metadataBundle );
+      logger.debug( "imported metadata xmi" );
+    } catch ( Exception e ) {
+      failure = e;
+    }
+    if ( mondrianImport == null ) {
+      if ( failure == null ) {
+        importer.importFile( mondrianBundle );
+        logger.debug( "imported mondrian schema" );
+      }
+    } else {
+      boolean mondrianImported = false;
+      try {
+        mondrianImport.get();
+        mondrianImported = true;
+      } catch ( ExecutionException e ) {
+        if ( failure == null ) {
+          failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+      if ( failure != null && mondrianImported ) {
+        removeImportedCatalog( mondrianBundle );
+      }
+    }
+    if ( failure != null ) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @return whether importing the bundle replaces a catalog, true when that can't be told
+   */
+  private boolean isCatalogReplaced( IPlatformImportBundle mondrianBundle ) {
+    Object catalogName = mondrianBundle.getProperty( IMPORT_DOMAIN_ID );
+    if ( catalogName == null ) {
+      return true;
+    }
+    try {
+      return getHostedCatalogs().contains( String.valueOf( catalogName ) );
+    } catch ( Exception e ) {
+      logger.debug( "Could not read the mondrian catalogs, importing " + catalogName + " after its metadata", e );
+      return true;
+    }
+  }
+
+  private void removeImportedCatalog( IPlatformImportBundle mondrianBundle ) {
+    Object catalogName = mondrianBundle.getProperty( IMPORT_DOMAIN_ID );
+    if ( catalogName == null ) {
+      return;
+    }
+    try {
+      mondrianCatalogService.removeCatalog( String.valueOf( catalogName ), getSession() );
+    } catch ( MondrianCatalogServiceException e ) {
+      logger.warn( "Failed to remove mondrian catalog " + catalogName, e );
+    }
+  }
+
+  protected ExecutorService getImportExecutor() {
+    synchronized ( DataSourceWizardService.class ) {
+      if ( importExecutor == null ) {
+        final AtomicInteger count = new AtomicInteger();
+        importExecutor = new ThreadPoolExecutor( IMPORT_THREADS, IMPORT_THREADS, 1, TimeUnit.MINUTES,
+          new ArrayBlockingQueue<Runnable>( IMPORT_QUEUE ), new ThreadFactory() {
+            public Thread newThread( Runnable runnable ) {
+              Thread thread = new Thread( runnable, "data-access-import-" + count.incrementAndGet() ); //$NON-NLS-1$
+              thread.setDaemon( true );
+              return thread;
+            }
+          } );
+        importExecutor.allowCoreThreadTimeOut( true );
+      }
+      return importExecutor;
+    }
+  }
+
+  /**
+   * Stops the threads importing schemas, for when the plugin is unloaded.
+   */
+  public static void shutdown() {
+    synchronized ( DataSourceWizardService.class ) {
+      if ( importExecutor != null ) {
+        importExecutor.shutdownNow();
+        importExecutor = null;
+      }
+    }
+  }
+
   public String publishDswFromTemp( String domainId,
       MetadataTempFilesListDto fileList,
       boolean overwrite,
@@ -312,10 +546,101 @@ public class DataSourceWizardService extends DatasourceService {
     flushDataSources();
   }
 
-  private void checkDSWExists( String dswId ) throws PentahoAccessControlException, FileNotFoundException {
+  /**
+   * Sets the same ACL on the Mondrian catalog and metadata schema of several DSWs, flushing the catalogs and domains
+   * of the DSWs updated once when done.
+   *
+   * @return the failure of each id, null for the DSWs updated
+   */
+  public Map<String, Exception> setDSWAcl( List<String> dswIds, RepositoryFileAclDto aclDto )
+    throws PentahoAccessControlException {
+    if ( !canManageACL() ) {
+      throw new PentahoAccessControlException();
+    }
+    final Set<String> domainIds = metadataDomainRepository.getDomainIds();
+    final RepositoryFileAcl acl = aclDto == null ? null : repositoryFileAclAdapter.unmarshal( aclDto );
+    Map<String, Exception> results = BulkOperations.applyEach( dswIds, dswId -> {
+      if ( !domainIds.contains( dswId ) ) {
+        throw new FileNotFoundException( dswId + " doesn't exist" );
+      }
+      if ( !endsWith( dswId, METADATA_EXT ) ) {
+        throw new IllegalArgumentException( "domainId must end in " + METADATA_EXT );
+      }
+      if ( aclAwareMondrianCatalogService != null ) {
+        aclAwareMondrianCatalogService.setAclFor( dswId.substring( 0, dswId.lastIndexOf( METADATA_EXT ) ), acl );
+      }
+      if ( aclAwarePentahoMetadataDomainRepositoryImporter != null ) {
+        aclAwarePentahoMetadataDomainRepositoryImporter.setAclFor( dswId, acl );
+      }
+    } );
+    List<String> updated = BulkOperations.succeeded( results );
+    if ( aclAwareMondrianCatalogService != null ) {
+      Set<String> catalogNames = new LinkedHashSet<String>();
+      for ( String dswId : updated ) {
+        catalogNames.add( toAnalysisDomainId( dswId ) );
+      }
+      flushCatalogs( catalogNames );
+    }
+    if ( aclAwarePentahoMetadataDomainRepositoryImporter != null ) {
+      flushDomains( updated );
+    }
+    return results;
+  }
+
+  /**
+   * Materializes a SQL query DSW into the staging database, see {@link QueryMaterializer}.
+   *
+   * @param dswId          dsw id
+   * @param refreshMinutes minutes between two refreshes, 0 to only refresh on demand, null for the configured default
+   * @throws IllegalArgumentException if the DSW is not a SQL query data source
+   */
+  public void materializeDSW( String dswId, Integer refreshMinutes )
+    throws PentahoAccessControlException, FileNotFoundException, DatasourceServiceException {
+    checkMaterializationAccess( dswId );
+    createQueryMaterializer().materialize( dswId,
+      refreshMinutes == null ? AgileHelper.getMaterializedRefresh() : refreshMinutes );
+  }
+
+  /**
+   * Loads the rows of a materialized DSW again.
+   *
+   * @return false if the DSW is being loaded already
+   * @throws IllegalArgumentException if the DSW is not materialized
+   */
+  public boolean refreshDSW( String dswId )
+    throws PentahoAccessControlException, FileNotFoundException, DatasourceServiceException {
+    checkMaterializationAccess( dswId );
+    return createQueryMaterializer().refresh( dswId );
+  }
+
+  /**
+   * Points a materialized DSW back at its query.
+   *
+   * @return false if the DSW was not materialized
+   */
+  public boolean dematerializeDSW( String dswId )
+    throws PentahoAccessControlException, FileNotFoundException, DatasourceServiceException {
+    checkMaterializationAccess( dswId );
+    return createQueryMaterializer().dematerialize( dswId );
+  }
+
+  private void checkMaterializationAccess( String dswId )
+    throws PentahoAccessControlException, FileNotFoundException {
     try {
-      doGetDSWFilesAsDownload( dswId );
-    } catch ( NullPointerException e ) {
+      ensureDataAccessPermissionCheck();
+    } catch ( ConnectionServiceException e ) {
+      throw new PentahoAccessControlException();
+    }
+    if ( metadataDomainRepository.getDomain( dswId ) == null ) {
+      throw new FileNotFoundException( dswId + " doesn't exist" );
+    }
+  }
+
+  private void checkDSWExists( String dswId ) throws PentahoAccessControlException, FileNotFoundException {
+    if ( !canManageACL() ) {
+      throw new PentahoAccessControlException();
+    }
+    if ( !metadataDomainRepository.getDomainIds().contains( dswId ) ) {
       throw new FileNotFoundException( dswId + " doesn't exist" );
     }
   }
@@ -344,14 +669,33 @@ public class DataSourceWizardService extends DatasourceService {
       domainIds.add( "dsw/" + dswId );
     }
     final String catalogName = toAnalysisDomainId( dswId );
-    if ( mondrianCatalogService.getCatalog( catalogName, PentahoSessionHolder.getSession() ) != null ) {
+    if ( getHostedCatalogs().contains( catalogName ) ) {
       domainIds.add( "mondrian/" + catalogName );
     }
     return domainIds;
   }
 
+  /**
+   * Tells whether a DSW of that id, or the Mondrian catalog publishing it would replace, exists already. Only the ids
+   * of the domains and the names of the catalogs are read, none of their files.
+   */
+  public boolean dswExists( String dswId ) throws PentahoAccessControlException {
+    if ( !hasManageAccessCheck() ) {
+      throw new PentahoAccessControlException();
+    }
+    return !getOverwrittenDomains( dswId ).isEmpty();
+  }
+
+  /**
+   * @return the names of the Mondrian catalogs in the repository, read from the catalog folders alone
+   */
+  protected List<String> getHostedCatalogs() {
+    return createMondrianCatalogRepositoryHelper().getHostedCatalogs();
+  }
+
   private String toAnalysisDomainId( String dswId ) {
-    return dswId.substring( 0, dswId.lastIndexOf( '.' ) );
+    int extension = dswId.lastIndexOf( '.' );
+    return extension < 0 ? dswId : dswId.substring( 0, extension );
   }
 
   protected IPlatformImportBundle createMetadataDswBundle( Domain domain, InputStream metadataIn, boolean overwrite, RepositoryFileAclDto acl ) {
@@ -425,6 +769,15 @@ public class DataSourceWizardService extends DatasourceService {
     super.ensureDataAccessPermission();
   }
 
+  /**
+   * Checks that the current user may publish a DSW, for callers that check before they take an upload on.
+   */
+  public void checkPublishAccess() throws PentahoAccessControlException {
+    if ( !hasManageAccessCheck() ) {
+      throw new PentahoAccessControlException();
+    }
+  }
+
   protected boolean hasManageAccessCheck() {
     return DataAccessPermissionUtil.hasManageAccess();
   }
@@ -477,4 +830,8 @@ public class DataSourceWizardService extends DatasourceService {
     return new FileInputStream( fileName );
   }
 
+  protected QueryMaterializer createQueryMaterializer() {
+    return new QueryMaterializer();
+  }
+
 }
@@ -0,0 +1,362 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Runs publish and import requests in the background, for clients that would otherwise wait on the request for longer
+ * than a proxy in between lets them. A job runs on one of a few plugin threads, as the user who submitted it, and
+ * keeps the response the request would have had for a while once it is done.
+ * <p>
+ * A job may be submitted with a key of the client's choosing. Submitting again with the same key returns the job
+ * submitted first rather than running the request twice, so a client can retry a submission it got no answer for.
+ */
+public class DatasourceJobs {
+
+  public enum State {
+    QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+  }
+
+  /**
+   * The work of a job, the response it returns is what the job keeps as its result.
+   */
+  public interface Task {
+    Response run( Job job ) throws Exception;
+  }
+
+  private static final long MINUTE_MILLIS = 60L * 1000L;
+
+  private static final Log logger = LogFactory.getLog( DatasourceJobs.class );
+
+  private static DatasourceJobs instance;
+
+  private final ThreadPoolExecutor executor;
+
+  private final long retentionMillis;
+
+  private final Map<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+
+  /**
+   * Job ids by owner and request key.
+   */
+  private final Map<String, String> requestKeys = new ConcurrentHashMap<String, String>();
+
+  public DatasourceJobs( int threads, int queueSize, int retentionMinutes ) {
+    final AtomicInteger count = new AtomicInteger();
+    threads = Math.max( 1, threads );
+    executor = new ThreadPoolExecutor( threads, threads, 1, TimeUnit.MINUTES,
+      new ArrayBlockingQueue<Runnable>( Math.max( 1, queueSize ) ), new ThreadFactory() {
+        public Thread newThread( Runnable runnable ) {
+          Thread thread = new Thread( runnable, "data-access-job-" + count.incrementAndGet() ); //$NON-NLS-1$
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    executor.allowCoreThreadTimeOut( true );
+    retentionMillis = retentionMinutes * MINUTE_MILLIS;
+  }
+
+  /**
+   * @return the jobs of the plugin, sized by the configured settings
+   */
+  public static synchronized DatasourceJobs getInstance() {
+    if ( instance == null ) {
+      instance = new DatasourceJobs( AgileHelper.getJobThreads(), AgileHelper.getJobQueue(),
+        AgileHelper.getJobRetention() );
+    }
+    return instance;
+  }
+
+  public static synchronized void shutdown() {
+    if ( instance != null ) {
+      instance.executor.shutdownNow();
+      instance = null;
+    }
+  }
+
+  /**
+   * Queues a job run as the current user.
+   *
+   * @param type       what the job does, for the status of the job
+   * @param requestKey the key the client identifies the request with, null if it may run again when resubmitted
+   * @return the job, or the job submitted before with the same key
+   * @throws RejectedExecutionException if too many jobs are waiting already
+   */
+  public Job submit( String type, String requestKey, final Task task ) {
+    return submit( type, requestKey, task, null );
+  }
+
+  /**
+   * Queues a job like {@link #submit(String, String, Task)}, with what to release once it is over, such as the files
+   * the task reads. The cleanup runs once: after the task, when the job is cancelled before it ran, or right away
+   * when the job is refused or the job submitted before with the same key is returned.
+   */
+  public Job submit( String type, String requestKey, final Task task, Runnable cleanup ) {
+    purge();
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    String owner = session == null ? null : session.getName();
+    String key = requestKey == null ? null : owner + "\n" + requestKey; //$NON-NLS-1$
+    synchronized ( requestKeys ) {
+      String existingId = key == null ? null : requestKeys.get( key );
+      if ( existingId != null && jobs.containsKey( existingId ) ) {
+        if ( cleanup != null ) {
+          cleanup.run();
+        }
+        return jobs.get( existingId );
+      }
+      final Job job = new Job( UUID.randomUUID().toString(), type, owner, requestKey );
+      job.cleanup = cleanup;
+      try {
+        job.future = executor.submit( new Runnable() {
+          public void run() {
+            PentahoSessionHolder.setSession( session );
+            SecurityContextHolder.getContext().setAuthentication( authentication );
+            try {
+              execute( job, task );
+            } finally {
+              PentahoSessionHolder.removeSession();
+              SecurityContextHolder.clearContext();
+              job.cleanUp();
+            }
+          }
+        } );
+      } catch ( RejectedExecutionException e ) {
+        job.cleanUp();
+        throw e;
+      }
+      jobs.put( job.id, job );
+      if ( key != null ) {
+        requestKeys.put( key, job.id );
+      }
+      return job;
+    }
+  }
+
+  void execute( Job job, Task task ) {
+    synchronized ( job ) {
+      if ( job.state != State.QUEUED ) {
+        return;
+      }
+      job.state = State.RUNNING;
+      job.started = System.currentTimeMillis();
+    }
+    Response response;
+    try {
+      response = task.run( job );
+    } catch ( WebApplicationException e ) {
+      response = e.getResponse();
+    } catch ( Exception e ) {
+      logger.error( "Job " + job.id + " failed", e ); //$NON-NLS-1$ //$NON-NLS-2$
+      response = Response.serverError().entity( String.valueOf( e.getMessage() ) ).build();
+    }
+    synchronized ( job ) {
+      job.finished = System.currentTimeMillis();
+      if ( job.state == State.CANCELLED ) {
+        return;
+      }
+      job.status = response.getStatus();
+      job.result = response.getEntity() == null ? null : String.valueOf( response.getEntity() );
+      job.state = job.status < 400 ? State.SUCCEEDED : State.FAILED;
+    }
+  }
+
+  /**
+   * @return the job, null if there is none by that id or it belongs to another user
+   */
+  public Job getJob( String id ) {
+    purge();
+    Job job = id == null ? null : jobs.get( id );
+    if ( job == null || !isVisible( job ) ) {
+      return null;
+    }
+    return job;
+  }
+
+  /**
+   * Takes a job out of the queue, or interrupts it if it is running already. What a running job has done is not
+   * undone.
+   *
+   * @return false if the job was done already
+   */
+  public boolean cancel( Job job ) {
+    boolean queued;
+    synchronized ( job ) {
+      if ( job.isDone() ) {
+        return false;
+      }
+      queued = job.state == State.QUEUED;
+      job.state = State.CANCELLED;
+      job.finished = System.currentTimeMillis();
+    }
+    job.future.cancel( true );
+    executor.remove( (Runnable) job.future );
+    if ( queued ) {
+      // the task won't run, a running one cleans up once it has stopped
+      job.cleanUp();
+    }
+    return true;
+  }
+
+  protected boolean isVisible( Job job ) {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    return ( session != null && session.getName() != null && session.getName().equals( job.owner ) )
+      || DatasourceService.canAdminister();
+  }
+
+  /**
+   * Forgets the jobs done for longer than the retention time.
+   */
+  void purge() {
+    long now = System.currentTimeMillis();
+    for ( Iterator<Job> i = jobs.values().iterator(); i.hasNext(); ) {
+      Job job = i.next();
+      if ( job.isDone() && now - job.finished > retentionMillis ) {
+        i.remove();
+        if ( job.requestKey != null ) {
+          requestKeys.remove( job.owner + "\n" + job.requestKey ); //$NON-NLS-1$
+        }
+      }
+    }
+  }
+
+  public static class Job {
+    private final String id;
+    private final String type;
+    private final String owner;
+    private final String requestKey;
+    private final long submitted = System.currentTimeMillis();
+    private volatile long started;
+    private volatile long finished;
+    private volatile State state = State.QUEUED;
+    private volatile long progress = -1;
+    private volatile LongSupplier progressSource;
+    private volatile int status;
+    private volatile String result;
+    private Future<?> future;
+    private Runnable cleanup;
+    private final AtomicBoolean cleanedUp = new AtomicBoolean();
+
+    Job( String id, String type, String owner, String requestKey ) {
+      this.id = id;
+      this.type = type;
+      this.owner = owner;
+      this.requestKey = requestKey;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    void cleanUp() {
+      if ( cleanup != null && cleanedUp.compareAndSet( false, true ) ) {
+        try {
+          cleanup.run();
+        } catch ( RuntimeException e ) {
+          logger.warn( "Could not clean up after job " + id, e ); //$NON-NLS-1$
+        }
+      }
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getOwner() {
+      return owner;
+    }
+
+    public String getRequestKey() {
+      return requestKey;
+    }
+
+    public long getSubmitted() {
+      return submitted;
+    }
+
+    public long getStarted() {
+      return started;
+    }
+
+    public long getFinished() {
+      return finished;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    public boolean isDone() {
+      State current = state;
+      return current != State.QUEUED && current != State.RUNNING;
+    }
+
+    /**
+     * @return the rows or items processed so far, -1 if the job does not tell
+     */
+    public long getProgress() {
+      LongSupplier source = progressSource;
+      return source != null && !isDone() ? source.getAsLong() : progress;
+    }
+
+    public void setProgress( long progress ) {
+      this.progress = progress;
+    }
+
+    /**
+     * Reads the progress from <code>source</code> while the job runs, for work that counts its progress on its own.
+     */
+    public void setProgressSource( LongSupplier source ) {
+      this.progressSource = source;
+    }
+
+    /**
+     * @return the HTTP status the request would have had, 0 until the job is done
+     */
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * @return the body of the response the request would have had
+     */
+    public String getResult() {
+      return result;
+    }
+  }
+}
@@ -13,8 +13,10 @@
 
 package org.pentaho.platform.dataaccess.datasource.api;
 
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +41,7 @@ import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.dataaccess.datasource.utils.DataAccessPermissionUtil;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.ConnectionServiceImpl;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceCacheHelper;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.plugin.action.mondrian.catalog.IMondrianCatalogService;
@@ -50,6 +53,7 @@ import org.pentaho.platform.security.policy.rolebased.actions.RepositoryCreateAc
 import org.pentaho.platform.security.policy.rolebased.actions.RepositoryReadAction;
 
 public class DatasourceService {
+
   protected IMetadataDomainRepository metadataDomainRepository;
   protected IMondrianCatalogService mondrianCatalogService;
   protected RepositoryFileAclAdapter repositoryFileAclAdapter;
@@ -82,25 +86,29 @@ public class DatasourceService {
   }
 
   public static boolean canAdminister() {
-    IAuthorizationPolicy policy = PentahoSystem.get( IAuthorizationPolicy.class );
-    return policy.isAllowed( RepositoryReadAction.NAME ) && policy.isAllowed( RepositoryCreateAction.NAME )
-      && ( policy.isAllowed( AdministerSecurityAction.NAME ) );
+    return DataAccessPermissionUtil.decide( "administer", () -> { //$NON-NLS-1$
+      IAuthorizationPolicy policy = PentahoSystem.get( IAuthorizationPolicy.class );
+      return policy.isAllowed( RepositoryReadAction.NAME ) && policy.isAllowed( RepositoryCreateAction.NAME )
+        && ( policy.isAllowed( AdministerSecurityAction.NAME ) );
+    } );
   }
 
   public static void validateAccess() throws PentahoAccessControlException {
-    IAuthorizationPolicy policy = PentahoSystem.get( IAuthorizationPolicy.class );
-    boolean isAdmin =
-        policy.isAllowed( RepositoryReadAction.NAME ) && policy.isAllowed( RepositoryCreateAction.NAME )
+    boolean isAdmin = DataAccessPermissionUtil.decide( "publish", () -> { //$NON-NLS-1$
+      IAuthorizationPolicy policy = PentahoSystem.get( IAuthorizationPolicy.class );
+      return policy.isAllowed( RepositoryReadAction.NAME ) && policy.isAllowed( RepositoryCreateAction.NAME )
         && policy.isAllowed( PublishAction.NAME );
+    } );
     if ( !isAdmin ) {
       throw new PentahoAccessControlException( "Access Denied" );
     }
   }
 
   protected boolean canManageACL() {
-    IAuthorizationPolicy policy = PentahoSystem.get( IAuthorizationPolicy.class );
-    return policy.isAllowed( RepositoryReadAction.NAME ) && policy.isAllowed( RepositoryCreateAction.NAME )
-      && DataAccessPermissionUtil.hasManageAccess();
+    return DataAccessPermissionUtil.decide( "manage-acl", () -> { //$NON-NLS-1$
+      IAuthorizationPolicy policy = PentahoSystem.get( IAuthorizationPolicy.class );
+      return policy.isAllowed( RepositoryReadAction.NAME ) && policy.isAllowed( RepositoryCreateAction.NAME );
+    } ) && DataAccessPermissionUtil.hasManageAccess();
   }
 
   /**
@@ -165,11 +173,49 @@ public class DatasourceService {
     }
   }
 
+  /**
+   * Adds the files of one data source to the files of a bulk export, in a folder named after the data source.
+   */
+  protected static void putExportFiles( String id, Map<String, InputStream> files, Map<String, InputStream> export )
+    throws FileNotFoundException {
+    if ( files == null || files.isEmpty() ) {
+      throw new FileNotFoundException( id + " doesn't exist" ); //$NON-NLS-1$
+    }
+    for ( Map.Entry<String, InputStream> file : files.entrySet() ) {
+      export.put( id + "/" + file.getKey(), file.getValue() ); //$NON-NLS-1$
+    }
+  }
+
   protected void flushDataSources() {
     metadataDomainRepository.flushDomains();
     mondrianCatalogService.reInit( PentahoSessionHolder.getSession() );
   }
 
+  /**
+   * Evicts the cached schema and segments of one catalog only, where {@link #flushDataSources()} flushes the caches
+   * of every data source on the server.
+   */
+  protected void flushCatalog( String catalogName ) {
+    DatasourceCacheHelper.flushCatalog( catalogName, PentahoSessionHolder.getSession() );
+  }
+
+  /**
+   * Evicts the cached schemas and segments of the catalogs a bulk request replaces or removes, once for all of them.
+   */
+  protected void flushCatalogs( Collection<String> catalogNames ) {
+    DatasourceCacheHelper.flushCatalogs( catalogNames, PentahoSessionHolder.getSession() );
+  }
+
+  /**
+   * Flushes the metadata domains a bulk request changed, leaving the Mondrian catalogs alone. The metadata domain
+   * repository can't flush a single domain, so it is flushed once if any of them changed.
+   */
+  protected void flushDomains( Collection<String> domainIds ) {
+    if ( !domainIds.isEmpty() ) {
+      metadataDomainRepository.flushDomains();
+    }
+  }
+
   public void ensureDataAccessPermission() throws ConnectionServiceException {
     ConnectionServiceImpl connectionService = new ConnectionServiceImpl();
     connectionService.ensureDataAccessPermission();
@@ -24,6 +24,7 @@ import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -42,6 +43,7 @@ import org.pentaho.platform.api.repository2.unified.webservices.RepositoryFileAc
 import org.pentaho.platform.dataaccess.datasource.api.resources.MetadataTempFilesListBundleDto;
 import org.pentaho.platform.dataaccess.datasource.api.resources.MetadataTempFilesListDto;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.BulkOperations;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -333,6 +335,70 @@ public class MetadataService extends DatasourceService {
     }
   }
 
+  /**
+   * Removes several metadata data sources, checking the access of the user once for all of them.
+   *
+   * @return the failure of each id, null for the data sources removed
+   */
+  public Map<String, Exception> removeMetadata( List<String> metadataIds ) throws PentahoAccessControlException {
+    try {
+      ensureDataAccessPermissionCheck();
+    } catch ( ConnectionServiceException e ) {
+      throw new PentahoAccessControlException();
+    }
+    final Set<String> domainIds = metadataDomainRepository.getDomainIds();
+    return BulkOperations.applyEach( metadataIds, metadataId -> {
+      String domainId = forceXmiSuffix( metadataId );
+      if ( !domainIds.contains( domainId ) ) {
+        throw new FileNotFoundException( metadataId + " doesn't exist" );
+      }
+      metadataDomainRepository.removeDomain( domainId );
+    } );
+  }
+
+  /**
+   * Sets the same ACL on several metadata data sources, flushing the domains updated once when done.
+   *
+   * @return the failure of each id, null for the data sources updated
+   */
+  public Map<String, Exception> setMetadataAcl( List<String> domainIds, RepositoryFileAclDto aclDto )
+    throws PentahoAccessControlException {
+    if ( !canManageACL() ) {
+      throw new PentahoAccessControlException();
+    }
+    final Set<String> existing = metadataDomainRepository.getDomainIds();
+    final RepositoryFileAcl acl = aclDto == null ? null : repositoryFileAclAdapter.unmarshal( aclDto );
+    Map<String, Exception> results = BulkOperations.applyEach( domainIds, domainId -> {
+      if ( !existing.contains( domainId ) ) {
+        throw new FileNotFoundException( domainId + " doesn't exist" );
+      }
+      if ( aclAwarePentahoMetadataDomainRepositoryImporter != null ) {
+        aclAwarePentahoMetadataDomainRepositoryImporter.setAclFor( domainId, acl );
+      }
+    } );
+    if ( aclAwarePentahoMetadataDomainRepositoryImporter != null ) {
+      flushDomains( BulkOperations.succeeded( results ) );
+    }
+    return results;
+  }
+
+  /**
+   * Collects the files of several metadata data sources for one export, each in a folder named after its id.
+   *
+   * @param export the files to export, by their path in the export
+   * @return the failure of each id, null for the data sources exported
+   */
+  public Map<String, Exception> getMetadataFiles( List<String> domainIds, final Map<String, InputStream> export )
+    throws PentahoAccessControlException {
+    if ( !canAdministerCheck() ) {
+      throw new PentahoAccessControlException();
+    }
+    final IPentahoMetadataDomainRepositoryExporter exporter =
+        (IPentahoMetadataDomainRepositoryExporter) metadataDomainRepository;
+    return BulkOperations.applyEach( domainIds,
+      domainId -> putExportFiles( domainId, exporter.getDomainFilesData( forceXmiSuffix( domainId ) ), export ) );
+  }
+
   private void checkMetadataExists( String domainId ) throws PentahoAccessControlException, FileNotFoundException {
     if ( !canManageACL() ) {
       throw new PentahoAccessControlException();
@@ -377,6 +443,13 @@ public class MetadataService extends DatasourceService {
     super.validateAccess();
   }
 
+  /**
+   * Checks that the current user may import, for callers that check before they take an upload on.
+   */
+  public void checkImportAccess() throws PentahoAccessControlException {
+    accessValidation();
+  }
+
   protected boolean canAdministerCheck() {
     return super.canAdminister();
   }
@@ -30,18 +30,24 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -287,6 +293,8 @@ public class AnalysisResource {
    * @param xmlaEnabledFlag Is XMLA enabled or not.
    * @param parameters      Import parameters.
    * @param acl             acl information for the data source. This parameter is optional.
+   * @param async           Return 202 with the id of a job importing the schema right away, rather than wait for it.
+   * @param requestKey      A key of the client's choosing, resubmitting with the same key returns the same job.
    *
    * @return Response containing the success of the method.
    *
@@ -306,16 +314,54 @@ public class AnalysisResource {
       @ResponseCode( code = 412,
           condition = "Analysis datasource import failed.  Error code or message included in response entity" ),
       @ResponseCode( code = 403, condition = "Access Control Forbidden" ),
-      @ResponseCode( code = 201, condition = "Indicates successful import" ) } )
+      @ResponseCode( code = 201, condition = "Indicates successful import" ),
+      @ResponseCode( code = 202, condition = "Import submitted as a job, the response entity is the id of the job" ),
+      @ResponseCode( code = 503, condition = "Too many jobs are waiting already" ) } )
   public Response putSchema(
-      @PathParam( CATALOG_ID ) String catalog, // Optional
+      @PathParam( CATALOG_ID ) final String catalog, // Optional
       @FormDataParam( UPLOAD_ANALYSIS ) InputStream uploadAnalysis,
-      @FormDataParam( UPLOAD_ANALYSIS ) FormDataContentDisposition schemaFileInfo,
-      @FormDataParam( ORIG_CATALOG_NAME ) String origCatalogName, // Optional
-      @FormDataParam( DATASOURCE_NAME ) String datasourceName, // Optional
-      @FormDataParam( OVERWRITE_IN_REPOS ) Boolean overwrite,
-      @FormDataParam( XMLA_ENABLED_FLAG ) Boolean xmlaEnabledFlag, @FormDataParam( PARAMETERS ) String parameters,
-      @FormDataParam( DATASOURCE_ACL ) RepositoryFileAclDto acl )
+      @FormDataParam( UPLOAD_ANALYSIS ) final FormDataContentDisposition schemaFileInfo,
+      @FormDataParam( ORIG_CATALOG_NAME ) final String origCatalogName, // Optional
+      @FormDataParam( DATASOURCE_NAME ) final String datasourceName, // Optional
+      @FormDataParam( OVERWRITE_IN_REPOS ) final Boolean overwrite,
+      @FormDataParam( XMLA_ENABLED_FLAG ) final Boolean xmlaEnabledFlag,
+      @FormDataParam( PARAMETERS ) final String parameters,
+      @FormDataParam( DATASOURCE_ACL ) final RepositoryFileAclDto acl,
+      @QueryParam( "async" ) @DefaultValue( "false" ) boolean async,
+      @QueryParam( "requestKey" ) String requestKey )
+      throws PentahoAccessControlException {
+    if ( !async ) {
+      return putSchema( catalog, uploadAnalysis, schemaFileInfo, origCatalogName, datasourceName, overwrite,
+          xmlaEnabledFlag, parameters, acl );
+    }
+    try {
+      service.checkImportAccess();
+    } catch ( PentahoAccessControlException e ) {
+      throw new ResourceUtil.AccessControlException( e.getMessage() );
+    }
+    final File schema;
+    try {
+      schema = DatasourceJobResource.spool( uploadAnalysis );
+    } catch ( IOException e ) {
+      throw new ResourceUtil.UnspecifiedErrorException( e.getMessage() );
+    }
+    return DatasourceJobResource.submit( "analysis/catalog", requestKey, job -> {
+      InputStream in = new FileInputStream( schema );
+      try {
+        return putSchema( catalog, in, schemaFileInfo, origCatalogName, datasourceName, overwrite, xmlaEnabledFlag,
+            parameters, acl );
+      } finally {
+        in.close();
+      }
+    }, schema );
+  }
+
+  /**
+   * Import a Mondrian schema on the current thread.
+   */
+  public Response putSchema( String catalog, InputStream uploadAnalysis, FormDataContentDisposition schemaFileInfo,
+                             String origCatalogName, String datasourceName, Boolean overwrite,
+                             Boolean xmlaEnabledFlag, String parameters, RepositoryFileAclDto acl )
       throws PentahoAccessControlException {
     try {
       service.putMondrianSchema( uploadAnalysis, schemaFileInfo, catalog, origCatalogName, datasourceName, overwrite,
@@ -545,4 +591,90 @@ public class AnalysisResource {
       return buildServerErrorResponse();
     }
   }
+
+  /**
+   * Remove several analysis datasources in one request, with one authorization check for all of them.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/analysis/bulk/remove<br />
+   *    {"ids":["SampleData","SteelWheels"]}
+   * </p>
+   *
+   * @param request the ids of the analysis datasources to remove
+   *
+   * @return BulkResultDto with the status a removal of each datasource on its own would have had
+   */
+  @POST
+  @Path( "/bulk/remove" )
+  @Consumes( { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON } )
+  @Produces( { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The request was applied, see the status of each datasource." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to delete analysis datasources." )
+    } )
+  public BulkResultDto bulkRemoveAnalysis( BulkRequestDto request ) {
+    try {
+      return new BulkResultDto( service.removeAnalysis( BulkRequestDto.idsOf( request ) ) );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( Response.Status.UNAUTHORIZED );
+    }
+  }
+
+  /**
+   * Set the same ACL on several analysis datasources in one request, flushing the datasources once when done.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/analysis/bulk/acl
+   * </p>
+   *
+   * @param request the ids of the analysis datasources and the ACL to set on them
+   *
+   * @return BulkResultDto with the status setting the ACL of each datasource on its own would have had
+   */
+  @POST
+  @Path( "/bulk/acl" )
+  @Consumes( { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON } )
+  @Produces( { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The request was applied, see the status of each datasource." ),
+      @ResponseCode( code = 401, condition = "Unauthorized" )
+    } )
+  public BulkResultDto bulkSetAnalysisDatasourceAcl( BulkRequestDto request ) {
+    try {
+      return new BulkResultDto( service.setAnalysisDatasourceAcl( BulkRequestDto.idsOf( request ),
+        request == null ? null : request.getAcl() ) );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( Response.Status.UNAUTHORIZED );
+    }
+  }
+
+  /**
+   * Export several analysis datasources in one zip, the files of each datasource in a folder named after it.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/analysis/bulk/download
+   * </p>
+   *
+   * @param request the ids of the analysis datasources to export
+   *
+   * @return A zip with the files of the datasources and an export-report.txt giving the status of each of them
+   */
+  @POST
+  @Path( "/bulk/download" )
+  @Consumes( { MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON } )
+  @Produces( MediaType.WILDCARD )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The datasources that could be exported are in the zip." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to export analysis datasources." ),
+      @ResponseCode( code = 500, condition = "Failure to export the datasources." )
+    } )
+  public Response bulkDownloadAnalysis( BulkRequestDto request ) {
+    Map<String, InputStream> fileData = new LinkedHashMap<String, InputStream>();
+    try {
+      Map<String, Exception> results = service.getAnalysisFiles( BulkRequestDto.idsOf( request ), fileData );
+      return resourceUtil.createBulkAttachment( fileData, results );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( Response.Status.UNAUTHORIZED );
+    }
+  }
 }
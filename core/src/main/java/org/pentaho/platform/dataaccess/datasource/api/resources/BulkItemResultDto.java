@@ -0,0 +1,65 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * What a bulk request did to one of its data sources, with the status a request for that data source alone would
+ * have had.
+ */
+@XmlRootElement
+public class BulkItemResultDto implements Serializable {
+  private static final long serialVersionUID = -3349126700258513470L;
+
+  private String id;
+  private int status;
+  private String message;
+
+  public BulkItemResultDto() {
+    super();
+  }
+
+  public BulkItemResultDto( String id, int status, String message ) {
+    this();
+    this.id = id;
+    this.status = status;
+    this.message = message;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId( String id ) {
+    this.id = id;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public void setStatus( int status ) {
+    this.status = status;
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public void setMessage( String message ) {
+    this.message = message;
+  }
+}
@@ -0,0 +1,65 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.pentaho.platform.api.repository2.unified.webservices.RepositoryFileAclDto;
+
+/**
+ * The data sources a bulk request applies to, and the ACL to set on them for a bulk ACL request.
+ */
+@XmlRootElement
+public class BulkRequestDto implements Serializable {
+  private static final long serialVersionUID = 4821730981365502341L;
+
+  private List<String> ids = new ArrayList<String>();
+  private RepositoryFileAclDto acl;
+
+  public BulkRequestDto() {
+    super();
+  }
+
+  public BulkRequestDto( List<String> ids ) {
+    this();
+    this.ids = ids;
+  }
+
+  public List<String> getIds() {
+    return ids;
+  }
+
+  public void setIds( List<String> ids ) {
+    this.ids = ids;
+  }
+
+  /**
+   * @return the ids of a request, none for a request without a body
+   */
+  static List<String> idsOf( BulkRequestDto request ) {
+    return request == null || request.getIds() == null ? Collections.<String>emptyList() : request.getIds();
+  }
+
+  public RepositoryFileAclDto getAcl() {
+    return acl;
+  }
+
+  public void setAcl( RepositoryFileAclDto acl ) {
+    this.acl = acl;
+  }
+}
@@ -0,0 +1,73 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.FileNotFoundException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.pentaho.platform.api.engine.PentahoAccessControlException;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
+
+/**
+ * The result of a bulk request, one item for each of its data sources in the order of the request.
+ */
+@XmlRootElement
+public class BulkResultDto implements Serializable {
+  private static final long serialVersionUID = 7154291203845567291L;
+
+  private List<BulkItemResultDto> items = new ArrayList<BulkItemResultDto>();
+
+  public BulkResultDto() {
+    super();
+  }
+
+  /**
+   * @param results the failure of each id, null for those the request succeeded for
+   */
+  public BulkResultDto( Map<String, Exception> results ) {
+    this();
+    for ( Map.Entry<String, Exception> result : results.entrySet() ) {
+      Exception e = result.getValue();
+      items.add( new BulkItemResultDto( result.getKey(), getStatus( e ), e == null ? null : e.getMessage() ) );
+    }
+  }
+
+  static int getStatus( Exception e ) {
+    if ( e == null ) {
+      return Status.OK.getStatusCode();
+    } else if ( e instanceof PentahoAccessControlException ) {
+      return Status.UNAUTHORIZED.getStatusCode();
+    } else if ( e instanceof FileNotFoundException ) {
+      return Status.NOT_FOUND.getStatusCode();
+    } else if ( e instanceof IllegalArgumentException ) {
+      return Status.BAD_REQUEST.getStatusCode();
+    } else if ( e instanceof ConnectionServiceException ) {
+      return ( (ConnectionServiceException) e ).getStatusCode();
+    }
+    return Status.INTERNAL_SERVER_ERROR.getStatusCode();
+  }
+
+  public List<BulkItemResultDto> getItems() {
+    return items;
+  }
+
+  public void setItems( List<BulkItemResultDto> items ) {
+    this.items = items;
+  }
+}
@@ -0,0 +1,356 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.APPLICATION_XML;
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+import static javax.ws.rs.core.Response.Status.UNAUTHORIZED;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.codehaus.enunciate.Facet;
+import org.codehaus.enunciate.jaxrs.ResponseCode;
+import org.codehaus.enunciate.jaxrs.StatusCodes;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.api.DatasourceJobs;
+import org.pentaho.platform.dataaccess.datasource.api.DatasourceService;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.DatasourceDTO;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingCleanupQueue;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingSweeper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.CsvDatasourceServiceImpl;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.DSWDatasourceServiceImpl;
+import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+
+/**
+ * This service gives access to the files staged by the CSV data source wizard.
+ */
+@Path( "/data-access/api/datasource/csv" )
+public class CsvDatasourceResource {
+
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  protected CsvDatasourceServiceImpl service;
+
+  public CsvDatasourceResource() {
+    service = createCsvDatasourceService();
+  }
+
+  protected CsvDatasourceServiceImpl createCsvDatasourceService() {
+    return new CsvDatasourceServiceImpl();
+  }
+
+  /**
+   * Get a page of the records of a staged file, so the wizard preview grid does not need them all at once.
+   *
+   * <p><b>Example Request:</b><br />
+   *    GET pentaho/plugin/data-access/api/datasource/csv/sales.csv/rows?offset=200&count=100&columns=0,3,4
+   * </p>
+   *
+   * @param fileName         The name of the staged file
+   * @param offset           The number of records to skip after the header row
+   * @param count            The maximum number of records to return, at most 1000
+   * @param columns          A comma separated list of the indices of the fields to return, all fields if empty
+   * @param delimiter        The field delimiter
+   * @param enclosure        The field enclosure
+   * @param isFirstRowHeader Whether the first row of the file is a header row
+   * @param encoding         The encoding of the file
+   *
+   * @return SampleRowsDto with the values of the requested fields
+   */
+  @GET
+  @Path( "/{fileName : .+}/rows" )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully got the rows." ),
+      @ResponseCode( code = 400, condition = "Invalid offset, count or columns." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to manage data sources." ),
+      @ResponseCode( code = 500, condition = "The rows could not be read." )
+    } )
+  @Facet( name = "Unsupported" )
+  public SampleRowsDto getSampleRows( @PathParam( "fileName" ) String fileName,
+                                      @QueryParam( "offset" ) @DefaultValue( "0" ) int offset,
+                                      @QueryParam( "count" ) @DefaultValue( "100" ) int count,
+                                      @QueryParam( "columns" ) String columns,
+                                      @QueryParam( "delimiter" ) @DefaultValue( "," ) String delimiter,
+                                      @QueryParam( "enclosure" ) @DefaultValue( "\"" ) String enclosure,
+                                      @QueryParam( "isFirstRowHeader" ) @DefaultValue( "true" )
+                                        boolean isFirstRowHeader,
+                                      @QueryParam( "encoding" ) @DefaultValue( "UTF-8" ) String encoding ) {
+    if ( offset < 0 || count < 0 || count > MAX_PAGE_SIZE ) {
+      throw new WebApplicationException( BAD_REQUEST );
+    }
+    int[] columnIndices = parseColumns( columns );
+    try {
+      return new SampleRowsDto( offset, columnIndices,
+        service.getSampleRows( fileName, delimiter, enclosure, isFirstRowHeader, encoding, offset, count,
+          columnIndices ) );
+    } catch ( SecurityException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    } catch ( Exception e ) {
+      throw new WebApplicationException( e, INTERNAL_SERVER_ERROR );
+    }
+  }
+
+  private static int[] parseColumns( String columns ) {
+    if ( columns == null || columns.trim().length() == 0 ) {
+      return null;
+    }
+    String[] tokens = columns.split( "," ); //$NON-NLS-1$
+    int[] result = new int[ tokens.length ];
+    try {
+      for ( int i = 0; i < tokens.length; i++ ) {
+        result[ i ] = Integer.parseInt( tokens[ i ].trim() );
+        if ( result[ i ] < 0 ) {
+          throw new WebApplicationException( BAD_REQUEST );
+        }
+      }
+    } catch ( NumberFormatException e ) {
+      throw new WebApplicationException( BAD_REQUEST );
+    }
+    return result;
+  }
+
+  /**
+   * Get a page of the rows rejected the last time a file was staged.
+   *
+   * <p><b>Example Request:</b><br />
+   *    GET pentaho/plugin/data-access/api/datasource/csv/sales.csv/rejects?offset=100&count=50
+   * </p>
+   *
+   * @param fileName The name of the staged file
+   * @param offset   The number of rejected rows to skip
+   * @param count    The maximum number of rejected rows to return, at most 1000
+   *
+   * @return RejectedRowsDto with the rejected rows, their error codes and descriptions
+   */
+  @GET
+  @Path( "/{fileName : .+}/rejects" )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully got the rejected rows." ),
+      @ResponseCode( code = 400, condition = "Invalid offset or count." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to manage data sources." ),
+      @ResponseCode( code = 500, condition = "The rejected rows could not be read." )
+    } )
+  @Facet( name = "Unsupported" )
+  public RejectedRowsDto getRejectedRows( @PathParam( "fileName" ) String fileName,
+                                          @QueryParam( "offset" ) @DefaultValue( "0" ) long offset,
+                                          @QueryParam( "count" ) @DefaultValue( "100" ) int count ) {
+    if ( offset < 0 || count < 0 || count > MAX_PAGE_SIZE ) {
+      throw new WebApplicationException( BAD_REQUEST );
+    }
+    try {
+      return new RejectedRowsDto( offset, service.getRejectedRows( fileName, offset, count ) );
+    } catch ( SecurityException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    } catch ( Exception e ) {
+      throw new WebApplicationException( e, INTERNAL_SERVER_ERROR );
+    }
+  }
+
+  /**
+   * Stage a CSV file into a table and generate the domain of it, as the wizard does when it finishes. The request may
+   * take as long as loading the file does, so it is better submitted as a job with <code>async=true</code>, the
+   * progress of the job being the number of rows loaded so far.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/csv/domain?async=true&requestKey=sales-2024
+   * <br /><b>POST data:</b> the model of the wizard, as kept in the <code>datasourceModel</code> property of the
+   * domains it generates.
+   * </p>
+   *
+   * @param datasourceModel The serialized model of the CSV data source
+   * @param async           Return 202 with the id of a job staging the file right away, rather than wait for it
+   * @param requestKey      A key of the client's choosing, resubmitting with the same key returns the same job
+   *
+   * @return Response with the number of rows loaded, the rejected rows may be paged through with
+   *         <code>/{fileName}/rejects</code>
+   */
+  @POST
+  @Path( "/domain" )
+  @Consumes( { APPLICATION_XML, TEXT_PLAIN } )
+  @Produces( TEXT_PLAIN )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully staged the file, the response entity is the row count." ),
+      @ResponseCode( code = 202, condition = "Submitted as a job, the response entity is the id of the job." ),
+      @ResponseCode( code = 400, condition = "The model could not be read." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to manage data sources." ),
+      @ResponseCode( code = 500, condition = "The file could not be staged." ),
+      @ResponseCode( code = 503, condition = "Too many jobs are waiting already." )
+    } )
+  @Facet( name = "Unsupported" )
+  public Response generateDomain( String datasourceModel,
+                                  @QueryParam( "async" ) @DefaultValue( "false" ) boolean async,
+                                  @QueryParam( "requestKey" ) String requestKey ) {
+    final DatasourceDTO datasource;
+    try {
+      datasource = deSerializeModelState( datasourceModel );
+    } catch ( Exception e ) {
+      throw new WebApplicationException( BAD_REQUEST );
+    }
+    if ( datasource == null || datasource.getCsvModelInfo() == null ) {
+      throw new WebApplicationException( BAD_REQUEST );
+    }
+    if ( !async ) {
+      return generateDomain( datasource, null );
+    }
+    try {
+      // a caller that may not load the file doesn't get to take a place in the job queue
+      service.checkPermissions();
+    } catch ( SecurityException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+    return DatasourceJobResource.submit( "csv/domain", requestKey, job -> generateDomain( datasource, job ) );
+  }
+
+  private Response generateDomain( DatasourceDTO datasource, DatasourceJobs.Job job ) {
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final String statsKey = FileTransformStats.class.getSimpleName() + "_" //$NON-NLS-1$
+      + datasource.getCsvModelInfo().getFileInfo().getTmpFilename();
+    if ( job != null && session != null ) {
+      // the stats of the load are only at hand in the session while it runs
+      session.removeAttribute( statsKey );
+      job.setProgressSource( () -> {
+        Object stats = session.getAttribute( statsKey );
+        return stats instanceof FileTransformStats ? ( (FileTransformStats) stats ).getTotalRecords() : -1;
+      } );
+    }
+    try {
+      FileTransformStats stats = service.generateDomain( datasource );
+      if ( job != null ) {
+        job.setProgress( stats.getTotalRecords() );
+      }
+      return Response.ok( String.valueOf( stats.getTotalRecords() ) ).build();
+    } catch ( SecurityException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    } catch ( Exception e ) {
+      throw new WebApplicationException( e, INTERNAL_SERVER_ERROR );
+    }
+  }
+
+  protected DatasourceDTO deSerializeModelState( String datasourceModel ) throws Exception {
+    return new DSWDatasourceServiceImpl().deSerializeModelState( datasourceModel );
+  }
+
+  /**
+   * Sweep the staging area now: delete the uploaded files never saved as a data source, drop the stage tables no data
+   * source reads from and delete the uploaded files no data source refers to, once their time to live is over. By
+   * default nothing is reclaimed, the response lists what would be.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/csv/sweep?dryRun=false
+   * </p>
+   *
+   * @param dryRun Whether to only report what would be reclaimed, true by default
+   *
+   * @return StagingSweepDto with the files and tables reclaimed
+   */
+  @POST
+  @Path( "/sweep" )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully swept the staging area." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to administer data sources." ),
+      @ResponseCode( code = 500, condition = "The staging area could not be swept." )
+    } )
+  @Facet( name = "Unsupported" )
+  public StagingSweepDto sweep( @QueryParam( "dryRun" ) @DefaultValue( "true" ) boolean dryRun ) {
+    if ( !canAdminister() ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+    try {
+      return new StagingSweepDto( sweepStagingArea( dryRun ) );
+    } catch ( Exception e ) {
+      throw new WebApplicationException( e, INTERNAL_SERVER_ERROR );
+    }
+  }
+
+  protected StagingSweeper.Report sweepStagingArea( boolean dryRun ) throws Exception {
+    return StagingSweeper.sweepAsSystem( dryRun );
+  }
+
+  /**
+   * List the stage tables and uploaded files of deleted data sources that are still to be dropped or deleted, and those
+   * given up on after failing too often.
+   *
+   * <p><b>Example Request:</b><br />
+   *    GET pentaho/plugin/data-access/api/datasource/csv/cleanup
+   * </p>
+   *
+   * @return StagingCleanupDto with the pending and the orphaned items
+   */
+  @GET
+  @Path( "/cleanup" )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully listed the items to clean up." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to administer data sources." )
+    } )
+  @Facet( name = "Unsupported" )
+  public StagingCleanupDto getCleanup() {
+    if ( !canAdminister() ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+    return new StagingCleanupDto( getCleanupQueue().getItems() );
+  }
+
+  /**
+   * Retry the orphaned stage tables and uploaded files of deleted data sources, with their attempts started over.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/csv/cleanup/retry
+   * </p>
+   *
+   * @return the number of items queued again
+   */
+  @POST
+  @Path( "/cleanup/retry" )
+  @Produces( TEXT_PLAIN )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully queued the orphaned items again." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to administer data sources." ),
+      @ResponseCode( code = 500, condition = "The orphaned items could not be queued again." )
+    } )
+  @Facet( name = "Unsupported" )
+  public Response retryCleanup() {
+    if ( !canAdminister() ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+    try {
+      return Response.ok( String.valueOf( getCleanupQueue().retryOrphans() ) ).build();
+    } catch ( Exception e ) {
+      throw new WebApplicationException( e, INTERNAL_SERVER_ERROR );
+    }
+  }
+
+  protected StagingCleanupQueue getCleanupQueue() {
+    return StagingCleanupQueue.fromSettings();
+  }
+
+  protected boolean canAdminister() {
+    return DatasourceService.canAdminister();
+  }
+}
@@ -15,13 +15,18 @@ package org.pentaho.platform.dataaccess.datasource.api.resources;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static javax.ws.rs.core.MediaType.APPLICATION_XML;
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 import static javax.ws.rs.core.MediaType.WILDCARD;
 import static javax.ws.rs.core.Response.Status.CONFLICT;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 import static javax.ws.rs.core.Response.Status.UNAUTHORIZED;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -30,11 +35,13 @@ import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -102,6 +109,34 @@ public class DataSourceWizardResource {
     }
   }
 
+  /**
+   * Check whether a DSW data source, or the Mondrian catalog publishing it would replace, exists for the given DSW ID.
+   * Only the ids of the data sources are looked at, none of their files are read, so the wizard can check a name as it
+   * is typed.
+   *
+   * <p><b>Example Request:</b><br />
+   *    HEAD pentaho/plugin/data-access/api/datasource/dsw/domain/jmeter-dsw-pentaho-test.xmi
+   * </p>
+   *
+   * @param dswId The id of the DSW datasource to look for
+   *
+   * @return A 200 response code if the DSW datasource exists, 404 if it does not.
+   */
+  @HEAD
+  @Path( "/domain/{dswId : .+}" )
+  @StatusCodes( {
+    @ResponseCode( code = 200, condition = "DSW datasource exists." ),
+    @ResponseCode( code = 401, condition = "User is not authorized to publish DSW datasources." ),
+    @ResponseCode( code = 404, condition = "DSW datasource does not exist." )
+    } )
+  public Response exists( @PathParam( "dswId" ) String dswId ) {
+    try {
+      return service.dswExists( dswId ) ? buildOkResponse() : Response.status( NOT_FOUND ).build();
+    } catch ( PentahoAccessControlException e ) {
+      return buildUnauthorizedResponse();
+    }
+  }
+
   /**
    * Remove the DSW data source for a given DSW ID.
    *
@@ -209,6 +244,8 @@ public class DataSourceWizardResource {
    * @param overwrite Flag for overwriting existing version of the file
    * @param checkConnection Only publish if the required connection exists
    * @param acl acl information for the data source. This parameter is optional.
+   * @param async Return 202 with the id of a job publishing the file right away, rather than wait for it
+   * @param requestKey A key of the client's choosing, resubmitting with the same key returns the same job
    *
    * @return A jax-rs Response object with the appropriate status code, header, and body.
    *
@@ -226,9 +263,40 @@ public class DataSourceWizardResource {
   public Response publishDsw(
       @FormDataParam( "domainId" ) final String domainId,
       @FormDataParam( "metadataFile" ) InputStream metadataFile,
-      @FormDataParam( "overwrite" ) @DefaultValue( "false" ) boolean overwrite,
-      @FormDataParam( "checkConnection" ) @DefaultValue( "false" ) boolean checkConnection,
-      @FormDataParam( DATASOURCE_ACL ) RepositoryFileAclDto acl ) {
+      @FormDataParam( "overwrite" ) @DefaultValue( "false" ) final boolean overwrite,
+      @FormDataParam( "checkConnection" ) @DefaultValue( "false" ) final boolean checkConnection,
+      @FormDataParam( DATASOURCE_ACL ) final RepositoryFileAclDto acl,
+      @QueryParam( "async" ) @DefaultValue( "false" ) boolean async,
+      @QueryParam( "requestKey" ) String requestKey ) {
+    if ( async ) {
+      try {
+        service.checkPublishAccess();
+      } catch ( PentahoAccessControlException e ) {
+        return buildUnauthorizedResponse();
+      }
+      final File metadata;
+      try {
+        metadata = DatasourceJobResource.spool( metadataFile );
+      } catch ( IOException e ) {
+        return buildServerErrorResponse();
+      }
+      return DatasourceJobResource.submit( "dsw/import", requestKey, job -> {
+        InputStream in = new FileInputStream( metadata );
+        try {
+          return publishDsw( domainId, in, overwrite, checkConnection, acl );
+        } finally {
+          in.close();
+        }
+      }, metadata );
+    }
+    return publishDsw( domainId, metadataFile, overwrite, checkConnection, acl );
+  }
+
+  /**
+   * Publish a DSW from a Metadata XMI file on the current thread.
+   */
+  public Response publishDsw( String domainId, InputStream metadataFile, boolean overwrite, boolean checkConnection,
+                              RepositoryFileAclDto acl ) {
     try {
       final String dswId = service.publishDsw( domainId, metadataFile, overwrite, checkConnection, acl );
       return buildOkResponse( dswId );
@@ -415,4 +483,227 @@ public class DataSourceWizardResource {
       return buildServerErrorResponse();
     }
   }
+
+  /**
+   * Materialize a SQL query DSW: copy the rows of its query into the staging database and point the DSW at the copy.
+   * The copy is refreshed on a schedule, or only on demand with an interval of 0. A materialized DSW is loaded again
+   * with the new interval.
+   *
+   * <p><b>Example Request:</b><br />
+   *    PUT pentaho/plugin/data-access/api/datasource/dsw/sales.xmi/materialization?refreshMinutes=60
+   * </p>
+   *
+   * @param dswId          DSW name
+   * @param refreshMinutes minutes between two refreshes, the configured default if left out
+   * @return response
+   */
+  @PUT
+  @Path( "/{dswId : .+}/materialization" )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The DSW was materialized." ),
+      @ResponseCode( code = 400, condition = "The DSW is not a SQL query data source." ),
+      @ResponseCode( code = 401, condition = "Unauthorized" ),
+      @ResponseCode( code = 409, condition = "DSW doesn't exist" ),
+      @ResponseCode( code = 500, condition = "The query could not be materialized." )
+    } )
+  @Facet( name = "Unsupported" )
+  public Response doMaterializeDSW( @PathParam( "dswId" ) String dswId,
+                                    @QueryParam( "refreshMinutes" ) Integer refreshMinutes ) {
+    try {
+      service.materializeDSW( dswId, refreshMinutes );
+      return buildOkResponse();
+    } catch ( PentahoAccessControlException e ) {
+      return buildUnauthorizedResponse();
+    } catch ( FileNotFoundException e ) {
+      return Response.status( CONFLICT ).build();
+    } catch ( IllegalArgumentException e ) {
+      return buildBadRequestResponse( e.getMessage() );
+    } catch ( Exception e ) {
+      return buildServerErrorResponse();
+    }
+  }
+
+  /**
+   * Refresh a materialized DSW now, regardless of its schedule.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/dsw/sales.xmi/materialization/refresh
+   * </p>
+   *
+   * @param dswId DSW name
+   * @return response
+   */
+  @POST
+  @Path( "/{dswId : .+}/materialization/refresh" )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The DSW was refreshed." ),
+      @ResponseCode( code = 400, condition = "The DSW is not materialized." ),
+      @ResponseCode( code = 401, condition = "Unauthorized" ),
+      @ResponseCode( code = 409, condition = "DSW doesn't exist or is being refreshed already" ),
+      @ResponseCode( code = 500, condition = "The query could not be materialized." )
+    } )
+  @Facet( name = "Unsupported" )
+  public Response doRefreshDSW( @PathParam( "dswId" ) String dswId ) {
+    try {
+      if ( !service.refreshDSW( dswId ) ) {
+        return buildConfilictResponse( dswId + " is being refreshed already" );
+      }
+      return buildOkResponse();
+    } catch ( PentahoAccessControlException e ) {
+      return buildUnauthorizedResponse();
+    } catch ( FileNotFoundException e ) {
+      return Response.status( CONFLICT ).build();
+    } catch ( IllegalArgumentException e ) {
+      return buildBadRequestResponse( e.getMessage() );
+    } catch ( Exception e ) {
+      return buildServerErrorResponse();
+    }
+  }
+
+  /**
+   * Point a materialized DSW back at its query and drop the copy of its rows.
+   *
+   * <p><b>Example Request:</b><br />
+   *    DELETE pentaho/plugin/data-access/api/datasource/dsw/sales.xmi/materialization
+   * </p>
+   *
+   * @param dswId DSW name
+   * @return response
+   */
+  @DELETE
+  @Path( "/{dswId : .+}/materialization" )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The DSW reads from its query again." ),
+      @ResponseCode( code = 401, condition = "Unauthorized" ),
+      @ResponseCode( code = 404, condition = "The DSW is not materialized." ),
+      @ResponseCode( code = 409, condition = "DSW doesn't exist" ),
+      @ResponseCode( code = 500, condition = "The DSW could not be published again." )
+    } )
+  @Facet( name = "Unsupported" )
+  public Response doDematerializeDSW( @PathParam( "dswId" ) String dswId ) {
+    try {
+      if ( !service.dematerializeDSW( dswId ) ) {
+        return Response.status( NOT_FOUND ).build();
+      }
+      return buildOkResponse();
+    } catch ( PentahoAccessControlException e ) {
+      return buildUnauthorizedResponse();
+    } catch ( FileNotFoundException e ) {
+      return Response.status( CONFLICT ).build();
+    } catch ( Exception e ) {
+      return buildServerErrorResponse();
+    }
+  }
+
+  /**
+   * Cancel the SQL queries the current session is running to preview a query or to build a model from it. The queries
+   * are stopped on the database and fail with an error, their connections are released right away.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/dsw/queries/cancel
+   * </p>
+   *
+   * @return A Response with the number of queries cancelled
+   */
+  @POST
+  @Path( "/queries/cancel" )
+  @Produces( TEXT_PLAIN )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The running queries were cancelled." ),
+      @ResponseCode( code = 404, condition = "The session is not running any query." )
+    } )
+  @Facet( name = "Unsupported" )
+  public Response cancelQueries() {
+    int cancelled = service.cancelQueries();
+    if ( cancelled == 0 ) {
+      return Response.status( NOT_FOUND ).build();
+    }
+    return Response.ok( String.valueOf( cancelled ) ).build();
+  }
+
+  /**
+   * Remove several DSW datasources in one request, with one authorization check for all of them.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/dsw/bulk/remove<br />
+   *    {"ids":["sales.xmi","orders.xmi"]}
+   * </p>
+   *
+   * @param request the ids of the DSW datasources to remove
+   *
+   * @return BulkResultDto with the status a removal of each datasource on its own would have had
+   */
+  @POST
+  @Path( "/bulk/remove" )
+  @Consumes( { APPLICATION_XML, APPLICATION_JSON } )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The request was applied, see the status of each datasource." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to delete DSW datasources." )
+    } )
+  public BulkResultDto bulkRemove( BulkRequestDto request ) {
+    try {
+      return new BulkResultDto( service.removeDSW( BulkRequestDto.idsOf( request ) ) );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+  }
+
+  /**
+   * Set the same ACL on several DSW datasources in one request, flushing the datasources once when done.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/dsw/bulk/acl
+   * </p>
+   *
+   * @param request the ids of the DSW datasources and the ACL to set on them
+   *
+   * @return BulkResultDto with the status setting the ACL of each datasource on its own would have had
+   */
+  @POST
+  @Path( "/bulk/acl" )
+  @Consumes( { APPLICATION_XML, APPLICATION_JSON } )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The request was applied, see the status of each datasource." ),
+      @ResponseCode( code = 401, condition = "Unauthorized" )
+    } )
+  public BulkResultDto bulkSetDSWAcl( BulkRequestDto request ) {
+    try {
+      return new BulkResultDto( service.setDSWAcl( BulkRequestDto.idsOf( request ),
+        request == null ? null : request.getAcl() ) );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+  }
+
+  /**
+   * Export several DSW datasources in one zip, the files of each datasource in a folder named after it.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/dsw/bulk/download
+   * </p>
+   *
+   * @param request the ids of the DSW datasources to export
+   *
+   * @return A zip with the files of the datasources and an export-report.txt giving the status of each of them
+   */
+  @POST
+  @Path( "/bulk/download" )
+  @Consumes( { APPLICATION_XML, APPLICATION_JSON } )
+  @Produces( WILDCARD )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The datasources that could be exported are in the zip." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to export DSW datasources." ),
+      @ResponseCode( code = 500, condition = "Failure to export the datasources." )
+    } )
+  public Response bulkDownload( BulkRequestDto request ) {
+    Map<String, InputStream> fileData = new LinkedHashMap<String, InputStream>();
+    try {
+      Map<String, Exception> results = service.getDSWFiles( BulkRequestDto.idsOf( request ), fileData );
+      return resourceUtil.createBulkAttachment( fileData, results );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+  }
 }
@@ -0,0 +1,156 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static javax.ws.rs.core.MediaType.APPLICATION_XML;
+import static javax.ws.rs.core.Response.Status.CONFLICT;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.enunciate.Facet;
+import org.codehaus.enunciate.jaxrs.ResponseCode;
+import org.codehaus.enunciate.jaxrs.StatusCodes;
+import org.pentaho.platform.dataaccess.datasource.api.DatasourceJobs;
+
+/**
+ * This service gives the state of the publish and import requests submitted with <code>async=true</code>.
+ */
+@Path( "/data-access/api/datasource/jobs" )
+public class DatasourceJobResource {
+
+  static final String JOBS_PATH = "plugin/data-access/api/datasource/jobs/"; //$NON-NLS-1$
+
+  /**
+   * Get the state of a job, and the response of its request once it is done.
+   *
+   * <p><b>Example Request:</b><br />
+   *    GET pentaho/plugin/data-access/api/datasource/jobs/6c1e9d8a-4f0b-4a55-9a51-0c0f8e1b2d3a
+   * </p>
+   *
+   * @param jobId The id returned when the job was submitted
+   *
+   * @return JobDto with the state of the job
+   */
+  @GET
+  @Path( "/{jobId}" )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully got the job." ),
+      @ResponseCode( code = 404, condition = "No job of the user by that id, or it has expired." )
+    } )
+  @Facet( name = "Unsupported" )
+  public JobDto getJob( @PathParam( "jobId" ) String jobId ) {
+    return new JobDto( findJob( jobId ) );
+  }
+
+  /**
+   * Cancel a job. A job still waiting does not run, a running job is interrupted, but what it has done so far is not
+   * undone.
+   *
+   * <p><b>Example Request:</b><br />
+   *    DELETE pentaho/plugin/data-access/api/datasource/jobs/6c1e9d8a-4f0b-4a55-9a51-0c0f8e1b2d3a
+   * </p>
+   *
+   * @param jobId The id returned when the job was submitted
+   *
+   * @return Response containing the result of the operation
+   */
+  @DELETE
+  @Path( "/{jobId}" )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "Successfully cancelled the job." ),
+      @ResponseCode( code = 404, condition = "No job of the user by that id, or it has expired." ),
+      @ResponseCode( code = 409, condition = "The job is done already." )
+    } )
+  @Facet( name = "Unsupported" )
+  public Response cancelJob( @PathParam( "jobId" ) String jobId ) {
+    if ( !getJobs().cancel( findJob( jobId ) ) ) {
+      return Response.status( CONFLICT ).build();
+    }
+    return Response.ok().build();
+  }
+
+  private DatasourceJobs.Job findJob( String jobId ) {
+    DatasourceJobs.Job job = getJobs().getJob( jobId );
+    if ( job == null ) {
+      throw new WebApplicationException( NOT_FOUND );
+    }
+    return job;
+  }
+
+  protected DatasourceJobs getJobs() {
+    return DatasourceJobs.getInstance();
+  }
+
+  /**
+   * Submits a request of another resource as a job.
+   *
+   * @param uploads the files the job reads its uploads from, deleted once the job is over
+   * @return 202 with the id of the job, and where to get its state, or 503 if too many jobs are waiting already
+   */
+  static Response submit( String type, String requestKey, DatasourceJobs.Task task, final File... uploads ) {
+    DatasourceJobs.Job job;
+    try {
+      job = DatasourceJobs.getInstance().submit( type, requestKey, task, () -> {
+        for ( File upload : uploads ) {
+          FileUtils.deleteQuietly( upload );
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      return Response.status( Response.Status.SERVICE_UNAVAILABLE ).build();
+    }
+    return Response.accepted( job.getId() ).location( URI.create( JOBS_PATH + job.getId() ) ).build();
+  }
+
+  /**
+   * Copies an upload to a temporary file for a job to read. The parts of a request are gone once it is answered, and a
+   * file keeps large uploads out of the heap while the job waits for a thread.
+   */
+  static File spool( InputStream upload ) throws IOException {
+    File file = File.createTempFile( "data-access-job", ".upload" ); //$NON-NLS-1$ //$NON-NLS-2$
+    boolean copied = false;
+    try {
+      OutputStream out = new FileOutputStream( file );
+      try {
+        IOUtils.copy( upload, out );
+      } finally {
+        out.close();
+      }
+      copied = true;
+    } finally {
+      IOUtils.closeQuietly( upload );
+      if ( !copied ) {
+        FileUtils.deleteQuietly( file );
+      }
+    }
+    return file;
+  }
+}
@@ -33,6 +33,7 @@ import org.pentaho.platform.web.http.api.resources.JaxbList;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -95,6 +96,34 @@ public class JDBCDatasourceResource {
     }
   }
 
+  /**
+   * Remove several JDBC data sources in one request, with one authorization check for all of them.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/jdbc/connection/bulk/remove<br />
+   *    {"ids":["SampleData","Audit"]}
+   * </p>
+   *
+   * @param request the names of the JDBC datasources to remove
+   *
+   * @return BulkResultDto with the status a removal of each datasource on its own would have had
+   */
+  @POST
+  @Path( "/bulk/remove" )
+  @Consumes( { APPLICATION_XML, APPLICATION_JSON } )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+    @ResponseCode( code = 200, condition = "The request was applied, see the status of each datasource." ),
+    @ResponseCode( code = 403, condition = "User is not authorized to remove JDBC datasources." )
+  } )
+  public BulkResultDto bulkDeleteConnections( BulkRequestDto request ) {
+    try {
+      return new BulkResultDto( service.deleteConnections( BulkRequestDto.idsOf( request ) ) );
+    } catch ( ConnectionServiceException e ) {
+      throw new WebApplicationException( e.getStatusCode() );
+    }
+  }
+
   /**
    * Get a list of JDBC datasource IDs.
    *
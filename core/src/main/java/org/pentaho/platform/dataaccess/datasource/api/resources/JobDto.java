@@ -0,0 +1,136 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.pentaho.platform.dataaccess.datasource.api.DatasourceJobs;
+
+/**
+ * The state of a publish or import job, with the response of its request once it is done.
+ */
+@XmlRootElement
+public class JobDto implements Serializable {
+  private static final long serialVersionUID = 2380611598174429337L;
+
+  private String id;
+  private String type;
+  private String requestKey;
+  private String state;
+  private long submitted;
+  private long started;
+  private long finished;
+  private long progress;
+  private int status;
+  private String result;
+
+  public JobDto() {
+    super();
+  }
+
+  public JobDto( DatasourceJobs.Job job ) {
+    this();
+    this.id = job.getId();
+    this.type = job.getType();
+    this.requestKey = job.getRequestKey();
+    this.state = job.getState().name();
+    this.submitted = job.getSubmitted();
+    this.started = job.getStarted();
+    this.finished = job.getFinished();
+    this.progress = job.getProgress();
+    this.status = job.getStatus();
+    this.result = job.getResult();
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId( String id ) {
+    this.id = id;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public void setType( String type ) {
+    this.type = type;
+  }
+
+  public String getRequestKey() {
+    return requestKey;
+  }
+
+  public void setRequestKey( String requestKey ) {
+    this.requestKey = requestKey;
+  }
+
+  public String getState() {
+    return state;
+  }
+
+  public void setState( String state ) {
+    this.state = state;
+  }
+
+  public long getSubmitted() {
+    return submitted;
+  }
+
+  public void setSubmitted( long submitted ) {
+    this.submitted = submitted;
+  }
+
+  public long getStarted() {
+    return started;
+  }
+
+  public void setStarted( long started ) {
+    this.started = started;
+  }
+
+  public long getFinished() {
+    return finished;
+  }
+
+  public void setFinished( long finished ) {
+    this.finished = finished;
+  }
+
+  public long getProgress() {
+    return progress;
+  }
+
+  public void setProgress( long progress ) {
+    this.progress = progress;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public void setStatus( int status ) {
+    this.status = status;
+  }
+
+  public String getResult() {
+    return result;
+  }
+
+  public void setResult( String result ) {
+    this.result = result;
+  }
+}
@@ -22,13 +22,19 @@ import static javax.ws.rs.core.Response.Status.CREATED;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 import static javax.ws.rs.core.Response.Status.UNAUTHORIZED;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -41,6 +47,8 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.codehaus.enunciate.Facet;
@@ -72,6 +80,7 @@ public class MetadataResource {
   private static final Log logger = LogFactory.getLog( MetadataResource.class );
   protected static final String OVERWRITE_IN_REPOS = "overwrite";
   private static final String SUCCESS = "3";
+  private static final int CONTENT_EXISTS = 9;
   private static final String DATASOURCE_ACL = "acl";
   private static final String XMI_EXTENSION = ".xmi";
 
@@ -544,18 +553,96 @@ public class MetadataResource {
           + "   *  9: Content already exists (use overwrite flag to force)\n"
           + "   * 10: Import failed because publish is prohibited" ),
       @ResponseCode( code = 500,
-          condition = "Metadata datasource import failed.  Error code or message included in response entity" )
+          condition = "Metadata datasource import failed.  Error code or message included in response entity" ),
+      @ResponseCode( code = 202, condition = "Import submitted as a job, the response entity is the id of the job" ),
+      @ResponseCode( code = 503, condition = "Too many jobs are waiting already" )
     } )
-  public Response doImportMetadataDatasource( @FormDataParam( "domainId" ) String domainId,
+  public Response doImportMetadataDatasource( @FormDataParam( "domainId" ) final String domainId,
                                             @FormDataParam( "metadataFile" ) InputStream metadataFile,
                                             @FormDataParam( "metadataFile" ) FormDataContentDisposition metadataFileInfo,
-                                            @FormDataParam( OVERWRITE_IN_REPOS ) String overwrite,
+                                            @FormDataParam( OVERWRITE_IN_REPOS ) final String overwrite,
                                             @FormDataParam( "localeFiles" ) List<FormDataBodyPart> localeFiles,
                                             @FormDataParam( "localeFiles" )
                                             List<FormDataContentDisposition> localeFilesInfo,
                                             @FormDataParam( DATASOURCE_ACL )
-                                            RepositoryFileAclDto acl ) {
-    return importMetadataDatasource( domainId, metadataFile, metadataFileInfo, overwrite, localeFiles, localeFilesInfo, acl );
+                                            final RepositoryFileAclDto acl,
+                                            @QueryParam( "async" ) @DefaultValue( "false" ) boolean async,
+                                            @QueryParam( "requestKey" ) String requestKey ) {
+    if ( !async ) {
+      return importMetadataDatasource( domainId, metadataFile, metadataFileInfo, overwrite, localeFiles,
+          localeFilesInfo, acl );
+    }
+    try {
+      service.checkImportAccess();
+    } catch ( PentahoAccessControlException e ) {
+      return buildServerErrorResponse( e );
+    }
+    // the parts are gone once the request is answered, so the job gets copies of them
+    final List<File> uploads = new ArrayList<File>();
+    final List<String> localeNames = new ArrayList<String>();
+    try {
+      uploads.add( DatasourceJobResource.spool( metadataFile ) );
+      if ( localeFiles != null ) {
+        for ( int i = 0; i < localeFiles.size(); i++ ) {
+          uploads.add( DatasourceJobResource.spool( localeFiles.get( i ).getValueAs( InputStream.class ) ) );
+          localeNames.add( localeFilesInfo.get( i ).getFileName() );
+        }
+      }
+    } catch ( IOException e ) {
+      logger.error( e );
+      for ( File upload : uploads ) {
+        FileUtils.deleteQuietly( upload );
+      }
+      return buildServerError001Response();
+    }
+    return DatasourceJobResource.submit( "metadata/import", requestKey, job -> {
+      List<InputStream> streams = new ArrayList<InputStream>();
+      try {
+        for ( File upload : uploads ) {
+          streams.add( new FileInputStream( upload ) );
+        }
+        return toJobResponse( importMetadataDatasource( domainId, streams.get( 0 ), overwrite,
+            streams.subList( 1, streams.size() ), localeNames, acl ) );
+      } finally {
+        for ( InputStream stream : streams ) {
+          IOUtils.closeQuietly( stream );
+        }
+      }
+    }, uploads.toArray( new File[ uploads.size() ] ) );
+  }
+
+  /**
+   * Imports a metadata data source from streams rather than request parts, for imports run as a job.
+   */
+  protected Response importMetadataDatasource( String domainId, InputStream metadataFile, String overwrite,
+                                               List<InputStream> localeFileStreams, List<String> localeFileNames,
+                                               RepositoryFileAclDto acl ) {
+    try {
+      service.importMetadataDatasource( domainId, metadataFile, "True".equalsIgnoreCase( overwrite ),
+          localeFileStreams, localeFileNames, acl );
+      return Response.ok().status( new Integer( SUCCESS ) ).type( MediaType.TEXT_PLAIN ).build();
+    } catch ( PentahoAccessControlException e ) {
+      return buildServerErrorResponse( e );
+    } catch ( PlatformImportException e ) {
+      return catchPlatformImportException( domainId, e );
+    } catch ( Exception e ) {
+      logger.error( e );
+      return buildServerError001Response();
+    }
+  }
+
+  /**
+   * The import answers with one of its own codes in place of the HTTP status, a job keeps that code as its result and
+   * the HTTP status it stands for.
+   */
+  private static Response toJobResponse( Response response ) {
+    int code = response.getStatus();
+    if ( code >= 100 ) {
+      return response;
+    }
+    Response.Status status = String.valueOf( code ).equals( SUCCESS ) ? Response.Status.OK
+        : code == CONTENT_EXISTS ? CONFLICT : Response.Status.INTERNAL_SERVER_ERROR;
+    return Response.status( status ).entity( String.valueOf( code ) ).build();
   }
 
   /**
@@ -620,4 +707,93 @@ public class MetadataResource {
       return buildServerErrorResponse();
     }
   }
+
+  /**
+   * Remove several Metadata datasources in one request, with one authorization check for all of them.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/metadata/bulk/remove<br />
+   *    {"ids":["SampleData2","steel-wheels"]}
+   * </p>
+   *
+   * @param request the ids of the Metadata datasources to remove
+   *
+   * @return BulkResultDto with the status a removal of each datasource on its own would have had
+   */
+  @POST
+  @Path( "/bulk/remove" )
+  @Consumes( { APPLICATION_XML, APPLICATION_JSON } )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The request was applied, see the status of each datasource." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to delete Metadata datasources." )
+    } )
+  public BulkResultDto bulkRemoveMetadata( BulkRequestDto request ) {
+    try {
+      return new BulkResultDto( service.removeMetadata( BulkRequestDto.idsOf( request ) ) );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+  }
+
+  /**
+   * Set the same ACL on several Metadata datasources in one request, flushing the datasources once when done.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/metadata/bulk/acl
+   * </p>
+   *
+   * @param request the ids of the Metadata datasources and the ACL to set on them
+   *
+   * @return BulkResultDto with the status setting the ACL of each datasource on its own would have had
+   */
+  @POST
+  @Path( "/bulk/acl" )
+  @Consumes( { APPLICATION_XML, APPLICATION_JSON } )
+  @Produces( { APPLICATION_XML, APPLICATION_JSON } )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The request was applied, see the status of each datasource." ),
+      @ResponseCode( code = 401, condition = "Unauthorized" )
+    } )
+  public BulkResultDto bulkSetMetadataAcl( BulkRequestDto request ) {
+    try {
+      return new BulkResultDto( service.setMetadataAcl( BulkRequestDto.idsOf( request ),
+        request == null ? null : request.getAcl() ) );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+  }
+
+  /**
+   * Export several Metadata datasources in one zip, the files of each datasource in a folder named after it.
+   *
+   * <p><b>Example Request:</b><br />
+   *    POST pentaho/plugin/data-access/api/datasource/metadata/bulk/download
+   * </p>
+   *
+   * @param request the ids of the Metadata datasources to export
+   *
+   * @return A zip with the files of the datasources and an export-report.txt giving the status of each of them
+   */
+  @POST
+  @Path( "/bulk/download" )
+  @Consumes( { APPLICATION_XML, APPLICATION_JSON } )
+  @Produces( WILDCARD )
+  @StatusCodes( {
+      @ResponseCode( code = 200, condition = "The datasources that could be exported are in the zip." ),
+      @ResponseCode( code = 401, condition = "User is not authorized to export Metadata datasources." ),
+      @ResponseCode( code = 500, condition = "Failure to export the datasources." )
+    } )
+  public Response bulkDownloadMetadata( BulkRequestDto request ) {
+    if ( !isInstanceOfIPentahoMetadataDomainRepositoryExporter( metadataDomainRepository ) ) {
+      throw new WebApplicationException( Response.Status.INTERNAL_SERVER_ERROR );
+    }
+    Map<String, InputStream> fileData = new LinkedHashMap<String, InputStream>();
+    try {
+      Map<String, Exception> results = service.getMetadataFiles( BulkRequestDto.idsOf( request ), fileData );
+      return resourceUtil.createBulkAttachment( fileData, results );
+    } catch ( PentahoAccessControlException e ) {
+      throw new WebApplicationException( UNAUTHORIZED );
+    }
+  }
 }
@@ -0,0 +1,116 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.RejectedRowsFile;
+
+/**
+ * A page of the rows rejected while staging a CSV file.
+ */
+@XmlRootElement
+public class RejectedRowsDto implements Serializable {
+  private static final long serialVersionUID = -3720617842260364251L;
+
+  private long offset;
+  private List<Row> rows = new ArrayList<Row>();
+
+  public RejectedRowsDto() {
+    super();
+  }
+
+  public RejectedRowsDto( long offset, List<RejectedRowsFile.RejectedRow> rejectedRows ) {
+    this();
+    this.offset = offset;
+    for ( RejectedRowsFile.RejectedRow rejectedRow : rejectedRows ) {
+      Row row = new Row();
+      row.setStepName( rejectedRow.getStepName() );
+      row.setErrorCodes( rejectedRow.getErrorCodes() );
+      row.setFieldNames( rejectedRow.getFieldNames() );
+      row.setErrorDescriptions( rejectedRow.getErrorDescriptions() );
+      row.setValues( rejectedRow.getValues() );
+      rows.add( row );
+    }
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public void setOffset( long offset ) {
+    this.offset = offset;
+  }
+
+  public List<Row> getRows() {
+    return rows;
+  }
+
+  public void setRows( List<Row> rows ) {
+    this.rows = rows;
+  }
+
+  public static class Row implements Serializable {
+    private static final long serialVersionUID = 4417365311620385871L;
+
+    private String stepName;
+    private String errorCodes;
+    private String fieldNames;
+    private String errorDescriptions;
+    private List<String> values = new ArrayList<String>();
+
+    public String getStepName() {
+      return stepName;
+    }
+
+    public void setStepName( String stepName ) {
+      this.stepName = stepName;
+    }
+
+    public String getErrorCodes() {
+      return errorCodes;
+    }
+
+    public void setErrorCodes( String errorCodes ) {
+      this.errorCodes = errorCodes;
+    }
+
+    public String getFieldNames() {
+      return fieldNames;
+    }
+
+    public void setFieldNames( String fieldNames ) {
+      this.fieldNames = fieldNames;
+    }
+
+    public String getErrorDescriptions() {
+      return errorDescriptions;
+    }
+
+    public void setErrorDescriptions( String errorDescriptions ) {
+      this.errorDescriptions = errorDescriptions;
+    }
+
+    public List<String> getValues() {
+      return values;
+    }
+
+    public void setValues( List<String> values ) {
+      this.values = values;
+    }
+  }
+}
@@ -19,6 +19,7 @@ import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
 import static javax.ws.rs.core.Response.Status.PRECONDITION_FAILED;
 import static javax.ws.rs.core.Response.Status.UNAUTHORIZED;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,6 +27,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -42,33 +45,17 @@ public class ResourceUtil {
 
   public static final String APPLICATION_ZIP = "application/zip"; //$NON-NLS-1$
 
+  /**
+   * The entry of a bulk export telling what was exported for each data source.
+   */
+  public static final String BULK_REPORT = "export-report.txt"; //$NON-NLS-1$
+
   public Response createAttachment( Map<String, InputStream> fileData, String domainId ) {
     String quotedFileName = null;
     final InputStream is;
     if ( fileData.size() > 1 ) { // we've got more than one file so we want to zip them up and send them
-      File zipFile = null;
       try {
-        zipFile = createTempFile( "datasourceExport", ".zip" );
-        zipFile.deleteOnExit();
-        ZipOutputStream zos = createZipOutputStream( zipFile );
-        for ( String fileName : fileData.keySet() ) {
-          InputStream zipEntryIs = null;
-          try {
-            ZipEntry entry = createZipEntry( fileName );
-            zos.putNextEntry( entry );
-            zipEntryIs = fileData.get( fileName );
-            copy( zipEntryIs, zos );
-          } catch ( Exception e ) {
-            continue;
-          } finally {
-            zos.closeEntry();
-            if ( zipEntryIs != null ) {
-              zipEntryIs.close();
-            }
-          }
-        }
-        zos.close();
-        is = createFileInputStream( zipFile );
+        is = createFileInputStream( createZipFile( fileData ) );
       } catch ( IOException ioe ) {
         return buildServerErrorResponse( ioe );
       }
@@ -88,6 +75,57 @@ public class ResourceUtil {
     return buildServerErrorResponse();
   }
 
+  /**
+   * Exports the files of the data sources of a bulk request as one zip, with a report of what was exported for each
+   * data source.
+   *
+   * @param fileData the files to export, by their path in the zip
+   * @param results  the failure of each id, null for the data sources exported
+   */
+  public Response createBulkAttachment( Map<String, InputStream> fileData, Map<String, Exception> results ) {
+    StringBuilder report = new StringBuilder();
+    for ( Map.Entry<String, Exception> result : results.entrySet() ) {
+      report.append( BulkResultDto.getStatus( result.getValue() ) ).append( ' ' ).append( result.getKey() );
+      if ( result.getValue() != null ) {
+        report.append( ": " ).append( result.getValue().getMessage() ); //$NON-NLS-1$
+      }
+      report.append( '\n' );
+    }
+    Map<String, InputStream> entries = new LinkedHashMap<String, InputStream>( fileData );
+    entries.put( BULK_REPORT, new ByteArrayInputStream( report.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+    final InputStream is;
+    try {
+      is = createFileInputStream( createZipFile( entries ) );
+    } catch ( IOException ioe ) {
+      return buildServerErrorResponse( ioe );
+    }
+    return buildOkResponse( createStreamingOutput( is ), APPLICATION_ZIP, "\"datasources.zip\"" ); //$NON-NLS-1$
+  }
+
+  private File createZipFile( Map<String, InputStream> fileData ) throws IOException {
+    File zipFile = createTempFile( "datasourceExport", ".zip" );
+    zipFile.deleteOnExit();
+    ZipOutputStream zos = createZipOutputStream( zipFile );
+    for ( String fileName : fileData.keySet() ) {
+      InputStream zipEntryIs = null;
+      try {
+        ZipEntry entry = createZipEntry( fileName );
+        zos.putNextEntry( entry );
+        zipEntryIs = fileData.get( fileName );
+        copy( zipEntryIs, zos );
+      } catch ( Exception e ) {
+        continue;
+      } finally {
+        zos.closeEntry();
+        if ( zipEntryIs != null ) {
+          zipEntryIs.close();
+        }
+      }
+    }
+    zos.close();
+    return zipFile;
+  }
+
   protected StreamingOutput createStreamingOutput( final InputStream is ) {
     return new StreamingOutput() {
       public void write( OutputStream output ) throws IOException {
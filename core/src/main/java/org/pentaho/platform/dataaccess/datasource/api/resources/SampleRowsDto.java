@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A page of the records of a CSV file staged by the wizard.
+ */
+@XmlRootElement
+public class SampleRowsDto implements Serializable {
+  private static final long serialVersionUID = 6281497300671752195L;
+
+  private long offset;
+  private List<Integer> columns;
+  private List<Row> rows = new ArrayList<Row>();
+
+  public SampleRowsDto() {
+    super();
+  }
+
+  public SampleRowsDto( long offset, int[] columns, List<List<String>> sampleRows ) {
+    this();
+    this.offset = offset;
+    if ( columns != null ) {
+      this.columns = new ArrayList<Integer>( columns.length );
+      for ( int column : columns ) {
+        this.columns.add( column );
+      }
+    }
+    for ( List<String> sampleRow : sampleRows ) {
+      Row row = new Row();
+      row.setValues( sampleRow );
+      rows.add( row );
+    }
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public void setOffset( long offset ) {
+    this.offset = offset;
+  }
+
+  public List<Integer> getColumns() {
+    return columns;
+  }
+
+  public void setColumns( List<Integer> columns ) {
+    this.columns = columns;
+  }
+
+  public List<Row> getRows() {
+    return rows;
+  }
+
+  public void setRows( List<Row> rows ) {
+    this.rows = rows;
+  }
+
+  public static class Row implements Serializable {
+    private static final long serialVersionUID = -1528871944300729416L;
+
+    private List<String> values = new ArrayList<String>();
+
+    public List<String> getValues() {
+      return values;
+    }
+
+    public void setValues( List<String> values ) {
+      this.values = values;
+    }
+  }
+}
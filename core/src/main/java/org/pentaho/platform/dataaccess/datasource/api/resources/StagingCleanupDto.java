@@ -0,0 +1,59 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingCleanupQueue;
+
+/**
+ * The stage tables and uploaded files of deleted data sources waiting to be cleaned up, and those given up on.
+ */
+@XmlRootElement
+public class StagingCleanupDto implements Serializable {
+  private static final long serialVersionUID = -6130858318232414079L;
+
+  private List<StagingCleanupItemDto> pending = new ArrayList<StagingCleanupItemDto>();
+  private List<StagingCleanupItemDto> orphaned = new ArrayList<StagingCleanupItemDto>();
+
+  public StagingCleanupDto() {
+    super();
+  }
+
+  public StagingCleanupDto( List<StagingCleanupQueue.Item> items ) {
+    this();
+    for ( StagingCleanupQueue.Item item : items ) {
+      ( item.isOrphaned() ? orphaned : pending ).add( new StagingCleanupItemDto( item ) );
+    }
+  }
+
+  public List<StagingCleanupItemDto> getPending() {
+    return pending;
+  }
+
+  public void setPending( List<StagingCleanupItemDto> pending ) {
+    this.pending = pending;
+  }
+
+  public List<StagingCleanupItemDto> getOrphaned() {
+    return orphaned;
+  }
+
+  public void setOrphaned( List<StagingCleanupItemDto> orphaned ) {
+    this.orphaned = orphaned;
+  }
+}
@@ -0,0 +1,86 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingCleanupQueue;
+
+/**
+ * A stage table or uploaded file of a deleted data source that is still to be cleaned up.
+ */
+@XmlRootElement
+public class StagingCleanupItemDto implements Serializable {
+  private static final long serialVersionUID = 2210349311569508424L;
+
+  private String kind;
+  private String name;
+  private long queued;
+  private int attempts;
+  private String error;
+
+  public StagingCleanupItemDto() {
+    super();
+  }
+
+  public StagingCleanupItemDto( StagingCleanupQueue.Item item ) {
+    this();
+    this.kind = item.getKind().name();
+    this.name = item.getName();
+    this.queued = item.getQueued();
+    this.attempts = item.getAttempts();
+    this.error = item.getError();
+  }
+
+  public String getKind() {
+    return kind;
+  }
+
+  public void setKind( String kind ) {
+    this.kind = kind;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  public long getQueued() {
+    return queued;
+  }
+
+  public void setQueued( long queued ) {
+    this.queued = queued;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts( int attempts ) {
+    this.attempts = attempts;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public void setError( String error ) {
+    this.error = error;
+  }
+}
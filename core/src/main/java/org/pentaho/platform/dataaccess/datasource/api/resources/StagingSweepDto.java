@@ -0,0 +1,88 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.api.resources;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingSweeper;
+
+/**
+ * What a sweep of the CSV staging area reclaimed, or would reclaim in dry run mode.
+ */
+@XmlRootElement
+public class StagingSweepDto implements Serializable {
+  private static final long serialVersionUID = -4470245823390163211L;
+
+  private boolean dryRun;
+  private List<String> tmpFiles = new ArrayList<String>();
+  private List<String> tables = new ArrayList<String>();
+  private List<String> files = new ArrayList<String>();
+  private long bytes;
+
+  public StagingSweepDto() {
+    super();
+  }
+
+  public StagingSweepDto( StagingSweeper.Report report ) {
+    this();
+    this.dryRun = report.isDryRun();
+    this.tmpFiles.addAll( report.getTmpFiles() );
+    this.tables.addAll( report.getTables() );
+    this.files.addAll( report.getFiles() );
+    this.bytes = report.getBytes();
+  }
+
+  public boolean isDryRun() {
+    return dryRun;
+  }
+
+  public void setDryRun( boolean dryRun ) {
+    this.dryRun = dryRun;
+  }
+
+  public List<String> getTmpFiles() {
+    return tmpFiles;
+  }
+
+  public void setTmpFiles( List<String> tmpFiles ) {
+    this.tmpFiles = tmpFiles;
+  }
+
+  public List<String> getTables() {
+    return tables;
+  }
+
+  public void setTables( List<String> tables ) {
+    this.tables = tables;
+  }
+
+  public List<String> getFiles() {
+    return files;
+  }
+
+  public void setFiles( List<String> files ) {
+    this.files = files;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public void setBytes( long bytes ) {
+    this.bytes = bytes;
+  }
+}
@@ -0,0 +1,63 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.beans;
+
+import java.util.List;
+
+/**
+ * One page of the rows of a query preview that is read through a cursor kept open on the server. The cursor id is
+ * passed back to fetch the next page, it is null once the last page was read and the cursor closed.
+ */
+public class SerializedResultSetPage extends SerializedResultSet {
+  private static final long serialVersionUID = -4618305529936811847L;
+  private String cursorId;
+  private long offset; // the number of rows before this page
+  private boolean last;
+
+  public SerializedResultSetPage( int[] columnTypes, String[] columns, List<List<String>> data, String cursorId,
+                                  long offset, boolean last ) {
+    super( columnTypes, columns, data );
+    this.cursorId = cursorId;
+    this.offset = offset;
+    this.last = last;
+  }
+
+  public SerializedResultSetPage() {
+
+  }
+
+  public String getCursorId() {
+    return cursorId;
+  }
+
+  public void setCursorId( String cursorId ) {
+    this.cursorId = cursorId;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public void setOffset( long offset ) {
+    this.offset = offset;
+  }
+
+  public boolean isLast() {
+    return last;
+  }
+
+  public void setLast( boolean last ) {
+    this.last = last;
+  }
+}
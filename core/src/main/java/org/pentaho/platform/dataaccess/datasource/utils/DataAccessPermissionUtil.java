@@ -11,16 +11,50 @@
  ******************************************************************************/
 package org.pentaho.platform.dataaccess.datasource.utils;
 
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IPentahoRequestContext;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.IDataAccessPermissionHandler;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.IDataAccessViewPermissionHandler;
+import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 public class DataAccessPermissionUtil {
 
+  private static final Log logger = LogFactory.getLog( DataAccessPermissionUtil.class );
+
+  private static final String DECISIONS_ATTRIBUTE =
+    DataAccessPermissionUtil.class.getName() + ".decisions"; //$NON-NLS-1$
+
+  private static final long DEFAULT_TTL_MILLIS = 0;
+
+  /**
+   * Bumped when permissions may have changed, decisions taken before are not used again.
+   */
+  private static final AtomicLong generation = new AtomicLong();
+
+  private static volatile long ttlMillis = -1;
+
+  /**
+   * The decisions taken during the request the thread is serving, started over with the next request.
+   */
+  private static final ThreadLocal<RequestMemo> requestMemo = new ThreadLocal<RequestMemo>();
+
   public static IDataAccessPermissionHandler getDataAccessPermissionHandler() {
     return PentahoSystem.get( IDataAccessPermissionHandler.class, /* session */null, Collections.singletonMap( "id",
       "dataAccessPermissionHandler" ) );
@@ -32,11 +66,13 @@ public class DataAccessPermissionUtil {
   }
 
   public static boolean hasViewAccess() {
-    return getDataAccessViewPermissionHandler().hasDataAccessViewPermission( PentahoSessionHolder.getSession() );
+    return decide( "view", () -> //$NON-NLS-1$
+      getDataAccessViewPermissionHandler().hasDataAccessViewPermission( PentahoSessionHolder.getSession() ) );
   }
 
   public static boolean hasManageAccess() {
-    return getDataAccessPermissionHandler().hasDataAccessPermission( PentahoSessionHolder.getSession() );
+    return decide( "manage", () -> //$NON-NLS-1$
+      getDataAccessPermissionHandler().hasDataAccessPermission( PentahoSessionHolder.getSession() ) );
   }
 
   public static List<String> getPermittedViewUserList() {
@@ -46,4 +82,158 @@ public class DataAccessPermissionUtil {
   public static List<String> getPermittedViewRoleList() {
     return getDataAccessViewPermissionHandler().getPermittedRoleList( PentahoSessionHolder.getSession() );
   }
+
+  /**
+   * Checks a permission of the current user, or answers as the same check did earlier in the same request. Listings
+   * check the permissions of the user for every item, this spares them evaluating the policy each time. When the
+   * permission cache setting is above 0 a decision is also remembered for the session, and taken again once it is
+   * older than the configured time. Either way a decision is taken again once the user has other roles, or once
+   * {@link #invalidate()} was called.
+   *
+   * @param permission the name the decision is remembered by
+   * @param check      evaluates the permission
+   */
+  public static boolean decide( String permission, BooleanSupplier check ) {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    if ( session == null ) {
+      return check.getAsBoolean();
+    }
+    String authorities = getAuthorities();
+    long current = generation.get();
+    Map<String, Boolean> memo = getRequestMemo( session, authorities, current );
+    Boolean memoized = memo == null ? null : memo.get( permission );
+    if ( memoized != null ) {
+      return memoized;
+    }
+    boolean allowed = decideForSession( session, permission, check, authorities, current );
+    if ( memo != null ) {
+      memo.put( permission, allowed );
+    }
+    return allowed;
+  }
+
+  private static boolean decideForSession( IPentahoSession session, String permission, BooleanSupplier check,
+                                           String authorities, long current ) {
+    long ttl = getTtlMillis();
+    if ( ttl <= 0 ) {
+      return check.getAsBoolean();
+    }
+    Map<String, Decision> decisions = getDecisions( session );
+    long now = System.currentTimeMillis();
+    Decision decision = decisions == null ? null : decisions.get( permission );
+    if ( decision != null && decision.isValid( now, authorities ) ) {
+      return decision.allowed;
+    }
+    boolean allowed = check.getAsBoolean();
+    if ( decisions != null ) {
+      decisions.put( permission, new Decision( allowed, now + ttl, authorities, current ) );
+    }
+    return allowed;
+  }
+
+  /**
+   * Forgets the decisions taken so far in all sessions, for when roles, permissions or their settings change.
+   */
+  public static void invalidate() {
+    generation.incrementAndGet();
+    ttlMillis = -1;
+  }
+
+  /**
+   * @return the decisions of the request the thread is serving, null outside of a request
+   */
+  private static Map<String, Boolean> getRequestMemo( IPentahoSession session, String authorities, long current ) {
+    IPentahoRequestContext request = PentahoRequestContextHolder.getRequestContext();
+    if ( request == null ) {
+      requestMemo.remove();
+      return null;
+    }
+    RequestMemo memo = requestMemo.get();
+    if ( memo == null || !memo.isFor( request, session, authorities, current ) ) {
+      memo = new RequestMemo( request, session, authorities, current );
+      requestMemo.set( memo );
+    }
+    return memo.decisions;
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static Map<String, Decision> getDecisions( IPentahoSession session ) {
+    Object decisions = session.getAttribute( DECISIONS_ATTRIBUTE );
+    if ( decisions instanceof Map ) {
+      return (Map<String, Decision>) decisions;
+    }
+    Map<String, Decision> created = new ConcurrentHashMap<String, Decision>();
+    session.setAttribute( DECISIONS_ATTRIBUTE, created );
+    // a session that does not keep attributes does not keep decisions either
+    return session.getAttribute( DECISIONS_ATTRIBUTE ) == created ? created : null;
+  }
+
+  private static String getAuthorities() {
+    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    return authentication == null ? null : String.valueOf( authentication.getAuthorities() );
+  }
+
+  private static long getTtlMillis() {
+    long ttl = ttlMillis;
+    if ( ttl < 0 ) {
+      try {
+        ttl = AgileHelper.getPermissionCacheTtl() * 1000L;
+      } catch ( Exception e ) {
+        logger.debug( "Could not read the permission cache setting", e ); //$NON-NLS-1$
+        ttl = DEFAULT_TTL_MILLIS;
+      }
+      ttlMillis = ttl;
+    }
+    return ttl;
+  }
+
+  /**
+   * The request context is created again for each request, a memo left over from an earlier request of the thread
+   * is not used. Only the context is referenced weakly, the memo does not keep it after the request.
+   */
+  private static class RequestMemo {
+    private final WeakReference<IPentahoRequestContext> request;
+    private final IPentahoSession session;
+    private final String authorities;
+    private final long generation;
+    private final Map<String, Boolean> decisions = new HashMap<String, Boolean>();
+
+    RequestMemo( IPentahoRequestContext request, IPentahoSession session, String authorities, long generation ) {
+      this.request = new WeakReference<IPentahoRequestContext>( request );
+      this.session = session;
+      this.authorities = authorities;
+      this.generation = generation;
+    }
+
+    boolean isFor( IPentahoRequestContext currentRequest, IPentahoSession currentSession, String currentAuthorities,
+                   long currentGeneration ) {
+      return request.get() == currentRequest && session == currentSession && generation == currentGeneration
+        && ( authorities == null ? currentAuthorities == null : authorities.equals( currentAuthorities ) );
+    }
+  }
+
+  /**
+   * Kept as a session attribute, so it has to survive sessions being persisted or replicated. A decision read back
+   * in another server is still bounded by its expiry time.
+   */
+  private static class Decision implements Serializable {
+    private static final long serialVersionUID = -2871530428496216614L;
+
+    private final boolean allowed;
+    private final long expires;
+    private final String authorities;
+    private final long generation;
+
+    Decision( boolean allowed, long expires, String authorities, long generation ) {
+      this.allowed = allowed;
+      this.expires = expires;
+      this.authorities = authorities;
+      this.generation = generation;
+    }
+
+    boolean isValid( long now, String currentAuthorities ) {
+      return now < expires && generation == DataAccessPermissionUtil.generation.get()
+        && ( authorities == null ? currentAuthorities == null : authorities.equals( currentAuthorities ) );
+    }
+  }
 }
@@ -0,0 +1,212 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A look at the characters of the sample values of a column before they go through a <code>StringEvaluator</code>,
+ * which tries every number and date format on every value and uses exceptions to find out it does not fit.
+ * <p>
+ * Only conclusions that hold whatever the evaluator does are drawn, so the advised type stays the same:
+ * <ul>
+ * <li>a date format needing a digit can't parse a value without digits, and a date format with a separator such as
+ * <code>-</code> or <code>:</code> can't parse a value without that separator. Such formats are not offered to the
+ * evaluator at all;</li>
+ * <li>a value without digits that is not a boolean literal rules out every type but text. It is evaluated first, after
+ * it the evaluator has no format left to try on the other values.</li>
+ * </ul>
+ */
+class ColumnPrescan {
+
+  /**
+   * Everything that might be read as a boolean, more than the evaluator accepts so that a value outside it is certain
+   * to rule booleans out.
+   */
+  private static final Set<String> BOOLEAN_LITERALS = new HashSet<String>( Arrays.asList(
+    "Y", "N", "YES", "NO", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    "T", "F", "TRUE", "FALSE" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+  private final List<String> samples;
+
+  private boolean allHaveDigits = true;
+
+  /**
+   * The separators that some non blank value lacks.
+   */
+  private final Set<Character> missingSeparators = new HashSet<Character>();
+
+  private int textValueIndex = -1;
+
+  private ColumnPrescan( List<String> samples ) {
+    this.samples = samples;
+  }
+
+  /**
+   * Scans the sample values once for digits and for the separators used by the given date formats.
+   */
+  static ColumnPrescan scan( List<String> samples, List<String> dateFormats ) {
+    ColumnPrescan result = new ColumnPrescan( samples );
+    Set<Character> separators = new LinkedHashSet<Character>();
+    boolean textRulesOutDates = true;
+    for ( String dateFormat : dateFormats ) {
+      separators.addAll( getSeparators( dateFormat ) );
+      textRulesOutDates &= needsDigit( dateFormat );
+    }
+    DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+    int index = 0;
+    for ( String sample : samples ) {
+      if ( sample != null && sample.trim().length() > 0 ) {
+        boolean hasDigit = hasDigit( sample );
+        if ( !hasDigit ) {
+          result.allHaveDigits = false;
+          if ( textRulesOutDates && result.textValueIndex < 0 && isText( sample, symbols ) ) {
+            result.textValueIndex = index;
+          }
+        }
+        for ( Character separator : separators ) {
+          if ( sample.indexOf( separator ) < 0 ) {
+            result.missingSeparators.add( separator );
+          }
+        }
+      }
+      index++;
+    }
+    return result;
+  }
+
+  /**
+   * @return the date formats that may still parse every sample value, in their original order. The list is never empty,
+   * if no format can parse the values the first one is kept, the evaluator rules it out as it would have anyway.
+   */
+  List<String> getPossibleDateFormats( List<String> dateFormats ) {
+    List<String> possible = new ArrayList<String>( dateFormats.size() );
+    for ( String dateFormat : dateFormats ) {
+      if ( !allHaveDigits && needsDigit( dateFormat ) ) {
+        continue;
+      }
+      boolean separatorsPresent = true;
+      for ( Character separator : getSeparators( dateFormat ) ) {
+        if ( missingSeparators.contains( separator ) ) {
+          separatorsPresent = false;
+          break;
+        }
+      }
+      if ( separatorsPresent ) {
+        possible.add( dateFormat );
+      }
+    }
+    if ( possible.isEmpty() && !dateFormats.isEmpty() ) {
+      possible.add( dateFormats.get( 0 ) );
+    }
+    return possible;
+  }
+
+  /**
+   * @return whether a value was found that rules out every type but text
+   */
+  boolean isText() {
+    return textValueIndex >= 0;
+  }
+
+  /**
+   * @return the sample values in the order they are best evaluated in, the value that rules out every type but text
+   * first if there is one
+   */
+  List<String> getSamplesInEvaluationOrder() {
+    if ( textValueIndex <= 0 ) {
+      return samples;
+    }
+    List<String> ordered = new ArrayList<String>( samples.size() );
+    ordered.add( samples.get( textValueIndex ) );
+    ordered.addAll( samples.subList( 0, textValueIndex ) );
+    ordered.addAll( samples.subList( textValueIndex + 1, samples.size() ) );
+    return ordered;
+  }
+
+  private static boolean hasDigit( String value ) {
+    for ( int i = 0; i < value.length(); i++ ) {
+      if ( Character.isDigit( value.charAt( i ) ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A value without digits is only text if it is not a boolean literal nor one of the special numbers a decimal format
+   * parses without digits.
+   */
+  private static boolean isText( String value, DecimalFormatSymbols symbols ) {
+    String trimmed = value.trim();
+    if ( BOOLEAN_LITERALS.contains( trimmed.toUpperCase() ) ) {
+      return false;
+    }
+    return !trimmed.contains( symbols.getNaN() ) && !trimmed.contains( symbols.getInfinity() )
+      && !trimmed.contains( "NaN" ) //$NON-NLS-1$
+      && trimmed.indexOf( '\u221E' ) < 0 && trimmed.indexOf( '\uFFFD' ) < 0;
+  }
+
+  /**
+   * @return the literal characters of a date pattern that have to appear in any value it parses. Letters, white space
+   * and quoted text are left out, parsing is not strict enough about them.
+   */
+  static Set<Character> getSeparators( String dateFormat ) {
+    Set<Character> separators = new LinkedHashSet<Character>();
+    boolean quoted = false;
+    for ( int i = 0; i < dateFormat.length(); i++ ) {
+      char c = dateFormat.charAt( i );
+      if ( c == '\'' ) {
+        quoted = !quoted;
+      } else if ( !quoted && !Character.isLetter( c ) && !Character.isWhitespace( c ) ) {
+        separators.add( c );
+      }
+    }
+    return separators;
+  }
+
+  /**
+   * @return whether the pattern has a field only ever written with digits, a numeric month or any year, day or time
+   */
+  static boolean needsDigit( String dateFormat ) {
+    boolean quoted = false;
+    for ( int i = 0; i < dateFormat.length(); i++ ) {
+      char c = dateFormat.charAt( i );
+      if ( c == '\'' ) {
+        quoted = !quoted;
+      } else if ( !quoted ) {
+        if ( "ydHhkKmsSDFwWu".indexOf( c ) >= 0 ) { //$NON-NLS-1$
+          return true;
+        }
+        if ( c == 'M' || c == 'L' ) {
+          int run = 1;
+          while ( i + run < dateFormat.length() && dateFormat.charAt( i + run ) == c ) {
+            run++;
+          }
+          if ( run <= 2 ) {
+            return true;
+          }
+          i += run - 1;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,307 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sparse index of the byte offsets at which the records of a staged file start, one entry every
+ * {@link #DEFAULT_INTERVAL} records. Paging deep into a file seeks to the closest indexed record and reads at most an
+ * interval's worth of records from there, instead of reading the file from its first byte.
+ * <p>
+ * Records are counted from the first line of the file, header rows included. A record ends with a LF, a CRLF or a lone
+ * CR outside of the enclosure, so enclosed values spanning lines stay in one record. An enclosure character inside an
+ * enclosed value is written twice and so leaves the record enclosed.
+ * <p>
+ * The index is kept in a side file next to the staged file and is only used while the staged file keeps the length and
+ * modification time it was built for. Encodings in which line breaks and the enclosure are not plain ASCII bytes, such
+ * as UTF-16, can't be scanned byte by byte and are not indexed.
+ */
+public class CsvRecordIndex {
+
+  public static final String FILE_SUFFIX = ".index"; //$NON-NLS-1$
+
+  public static final int DEFAULT_INTERVAL = 1000;
+
+  private static final int VERSION = 1;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final Log logger = LogFactory.getLog( CsvRecordIndex.class );
+
+  private final long fileLength;
+
+  private final long lastModified;
+
+  private final String encoding;
+
+  private final String enclosure;
+
+  private final int interval;
+
+  private final long recordCount;
+
+  /**
+   * <code>offsets[ i ]</code> is where record <code>i * interval</code> starts.
+   */
+  private final long[] offsets;
+
+  CsvRecordIndex( long fileLength, long lastModified, String encoding, String enclosure, int interval,
+                  long recordCount, long[] offsets ) {
+    this.fileLength = fileLength;
+    this.lastModified = lastModified;
+    this.encoding = encoding;
+    this.enclosure = enclosure;
+    this.interval = interval;
+    this.recordCount = recordCount;
+    this.offsets = offsets;
+  }
+
+  /**
+   * @return the side file holding the record index of <code>stagedFile</code>
+   */
+  public static File forStagedFile( File stagedFile ) {
+    return new File( stagedFile.getPath() + FILE_SUFFIX );
+  }
+
+  /**
+   * Returns the index of a staged file, from its side file while that is current and otherwise by scanning the file
+   * once and saving the result for the next request.
+   *
+   * @return the index, or null if the file can't be indexed in the given encoding
+   */
+  public static CsvRecordIndex getIndex( File stagedFile, String encoding, String enclosure ) throws IOException {
+    if ( !isIndexable( encoding, enclosure ) ) {
+      return null;
+    }
+    File indexFile = forStagedFile( stagedFile );
+    CsvRecordIndex index = load( indexFile );
+    if ( index != null && index.isCurrent( stagedFile, encoding, enclosure ) ) {
+      return index;
+    }
+    index = build( stagedFile, encoding, enclosure, DEFAULT_INTERVAL );
+    try {
+      index.save( indexFile );
+    } catch ( IOException e ) {
+      // still good for this request, the next one scans again
+      logger.warn( "Could not save the record index of " + stagedFile.getName(), e ); //$NON-NLS-1$
+    }
+    return index;
+  }
+
+  /**
+   * @return whether records can be found on the raw bytes of a file in this encoding, that is whether line breaks and
+   * the enclosure are written as their ASCII bytes
+   */
+  static boolean isIndexable( String encoding, String enclosure ) {
+    if ( enclosure != null && enclosure.length() > 1 ) {
+      return false;
+    }
+    String probe = "\r\n" + ( enclosure == null ? "" : enclosure ); //$NON-NLS-1$ //$NON-NLS-2$
+    try {
+      return Arrays.equals( probe.getBytes( Charset.forName( "US-ASCII" ) ), //$NON-NLS-1$
+        probe.getBytes( Charset.forName( encoding ) ) );
+    } catch ( IllegalArgumentException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Scans the file once and records where every <code>interval</code>th record starts.
+   */
+  static CsvRecordIndex build( File file, String encoding, String enclosure, int interval ) throws IOException {
+    long fileLength = file.length();
+    long lastModified = file.lastModified();
+    int enclosureByte = enclosure == null || enclosure.length() == 0 ? -1 : enclosure.charAt( 0 );
+    long[] offsets = new long[ 16 ];
+    int offsetCount = 1;
+    long records = 0;
+    long recordStart = 0;
+    boolean enclosed = false;
+    boolean afterCr = false;
+    long position = 0;
+    InputStream in = new FileInputStream( file );
+    try {
+      byte[] buffer = new byte[ BUFFER_SIZE ];
+      int read;
+      while ( ( read = in.read( buffer ) ) > 0 ) {
+        for ( int i = 0; i < read; i++, position++ ) {
+          int b = buffer[ i ];
+          if ( afterCr ) {
+            afterCr = false;
+            // a CRLF ends the record after the LF, a lone CR right here
+            recordStart = b == '\n' ? position + 1 : position;
+            if ( ++records % interval == 0 ) {
+              if ( offsetCount == offsets.length ) {
+                offsets = Arrays.copyOf( offsets, offsetCount * 2 );
+              }
+              offsets[ offsetCount++ ] = recordStart;
+            }
+            if ( b == '\n' ) {
+              continue;
+            }
+          }
+          if ( b == enclosureByte ) {
+            enclosed = !enclosed;
+          } else if ( !enclosed ) {
+            if ( b == '\r' ) {
+              afterCr = true;
+            } else if ( b == '\n' ) {
+              recordStart = position + 1;
+              if ( ++records % interval == 0 ) {
+                if ( offsetCount == offsets.length ) {
+                  offsets = Arrays.copyOf( offsets, offsetCount * 2 );
+                }
+                offsets[ offsetCount++ ] = recordStart;
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      in.close();
+    }
+    if ( afterCr ) {
+      records++;
+      recordStart = position;
+    }
+    if ( recordStart < position ) {
+      // the last record has no line break
+      records++;
+    }
+    // an index entry at the very end of the file starts no record
+    while ( offsetCount > 1 && offsets[ offsetCount - 1 ] >= position ) {
+      offsetCount--;
+    }
+    return new CsvRecordIndex( fileLength, lastModified, encoding, enclosure, interval, records,
+      Arrays.copyOf( offsets, offsetCount ) );
+  }
+
+  /**
+   * @return the index saved in the side file, or null if it does not exist or can't be read
+   */
+  static CsvRecordIndex load( File indexFile ) {
+    if ( !indexFile.exists() ) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) );
+      try {
+        if ( in.readInt() != VERSION ) {
+          return null;
+        }
+        long fileLength = in.readLong();
+        long lastModified = in.readLong();
+        String encoding = in.readUTF();
+        String enclosure = in.readUTF();
+        int interval = in.readInt();
+        long recordCount = in.readLong();
+        long[] offsets = new long[ in.readInt() ];
+        for ( int i = 0; i < offsets.length; i++ ) {
+          offsets[ i ] = in.readLong();
+        }
+        return new CsvRecordIndex( fileLength, lastModified, encoding, enclosure, interval, recordCount, offsets );
+      } finally {
+        in.close();
+      }
+    } catch ( IOException e ) {
+      logger.debug( "Ignoring unreadable record index " + indexFile.getName(), e ); //$NON-NLS-1$
+      return null;
+    }
+  }
+
+  /**
+   * Writes the index to a temporary file first and then moves it in place, so that a request reading the side file
+   * never sees half of it.
+   */
+  void save( File indexFile ) throws IOException {
+    File tmpFile = new File( indexFile.getPath() + ".tmp" ); //$NON-NLS-1$
+    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+    try {
+      out.writeInt( VERSION );
+      out.writeLong( fileLength );
+      out.writeLong( lastModified );
+      out.writeUTF( encoding );
+      out.writeUTF( enclosure == null ? "" : enclosure ); //$NON-NLS-1$
+      out.writeInt( interval );
+      out.writeLong( recordCount );
+      out.writeInt( offsets.length );
+      for ( long offset : offsets ) {
+        out.writeLong( offset );
+      }
+    } finally {
+      out.close();
+    }
+    indexFile.delete();
+    if ( !tmpFile.renameTo( indexFile ) ) {
+      tmpFile.delete();
+      throw new IOException( "Could not move " + tmpFile.getName() + " to " + indexFile.getName() ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Deletes the side file of a staged file, if there is one.
+   */
+  public static boolean delete( File stagedFile ) {
+    return forStagedFile( stagedFile ).delete();
+  }
+
+  /**
+   * @return whether the index was built for the file as it is now and for the same way of reading it
+   */
+  boolean isCurrent( File file, String encoding, String enclosure ) {
+    return file.length() == fileLength && file.lastModified() == lastModified
+      && this.encoding.equalsIgnoreCase( encoding )
+      && this.enclosure.equals( enclosure == null ? "" : enclosure ); //$NON-NLS-1$
+  }
+
+  /**
+   * @return the number of records in the file, header rows included
+   */
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * @return the closest record at or before <code>record</code> whose offset is known
+   */
+  public long getIndexedRecord( long record ) {
+    return Math.min( record / interval, offsets.length - 1 ) * interval;
+  }
+
+  /**
+   * @param indexedRecord a record returned by {@link #getIndexedRecord(long)}
+   * @return the byte offset at which the record starts
+   */
+  public long getOffset( long indexedRecord ) {
+    return offsets[ (int) ( indexedRecord / interval ) ];
+  }
+}
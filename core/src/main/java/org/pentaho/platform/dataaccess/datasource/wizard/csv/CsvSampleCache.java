@@ -0,0 +1,297 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pentaho.platform.api.engine.IPentahoSession;
+
+/**
+ * Keeps the first lines of the files a user is working on in the CSV wizard, as raw bytes, together with the encoding
+ * detected for them. Changing the delimiter, enclosure, header or encoding in the wizard re-reads the same sample, with
+ * this cache that happens in memory instead of going back to the file every time.
+ * <p>
+ * One cache lives in each user session, so it goes away with the session. A cached sample is dropped as soon as the
+ * file's length or modification time no longer match, that is when the file was replaced by a new upload. The samples
+ * of a session hold {@link #MAX_BYTES} at most together, a single sample is cut there even when it holds fewer lines
+ * than asked for and the least recently used ones are dropped to make room for a new one.
+ * <p>
+ * Lines are counted on the raw bytes, which only works for encodings that write line breaks as the single ASCII
+ * bytes, see {@link #supports(String)}. Files in other encodings, such as UTF-16, are read without the cache.
+ */
+public class CsvSampleCache implements Serializable {
+
+  private static final long serialVersionUID = -6104380245816272393L;
+
+  public static final String SESSION_ATTRIBUTE = CsvSampleCache.class.getName();
+
+  /**
+   * The number of files kept per session, the wizard only ever works on one at a time.
+   */
+  private static final int MAX_FILES = 4;
+
+  /**
+   * The encoding detection looks at this many bytes, a sample is never shorter unless the file is.
+   */
+  static final int MIN_SAMPLE_BYTES = 1024;
+
+  /**
+   * The number of bytes kept per session over all samples.
+   */
+  static final int MAX_BYTES = 2 * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+  private final int minLines;
+
+  private final int maxBytes;
+
+  private long totalBytes;
+
+  private final Map<String, Sample> samples = new LinkedHashMap<String, Sample>( MAX_FILES + 1, 0.75f, true ) {
+    private static final long serialVersionUID = 2175634401458817013L;
+
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, Sample> eldest ) {
+      if ( size() > MAX_FILES ) {
+        totalBytes -= eldest.getValue().getLength();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  /**
+   * @param minLines the number of lines read into a sample at the least, normally the wizard's sample size so that one
+   *                 read serves every request for the file
+   */
+  public CsvSampleCache( int minLines ) {
+    this( minLines, MAX_BYTES );
+  }
+
+  CsvSampleCache( int minLines, int maxBytes ) {
+    this.minLines = minLines;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return whether the lines of a file in the given encoding can be counted on its bytes, that is whether the
+   *         encoding writes a line break as the bytes CR and LF and never uses those bytes within another character
+   */
+  public static boolean supports( String encoding ) {
+    if ( encoding == null ) {
+      return false;
+    }
+    try {
+      Charset charset = Charset.forName( encoding );
+      // UTF-8 never uses ASCII bytes within a multi byte character
+      return "UTF-8".equals( charset.name() ) //$NON-NLS-1$
+        || charset.newEncoder().maxBytesPerChar() <= 1
+        && Arrays.equals( CRLF, "\r\n".getBytes( charset ) ); //$NON-NLS-1$
+    } catch ( IllegalArgumentException | UnsupportedOperationException e ) {
+      // unknown charset, or one we cannot encode with
+      return false;
+    }
+  }
+
+
+  /**
+   * @return the cache of the given session, created on first use
+   */
+  public static CsvSampleCache forSession( IPentahoSession session, int minLines ) {
+    synchronized ( session ) {
+      Object cache = session.getAttribute( SESSION_ATTRIBUTE );
+      if ( !( cache instanceof CsvSampleCache ) ) {
+        cache = new CsvSampleCache( minLines );
+        session.setAttribute( SESSION_ATTRIBUTE, cache );
+      }
+      return (CsvSampleCache) cache;
+    }
+  }
+
+  /**
+   * Returns a sample of the file holding at least <code>lines</code> lines, or the whole file if it is shorter. The
+   * cached sample is used when it is still current and long enough, otherwise the file is read again. A sample that
+   * was cut at the byte limit may hold fewer lines, see {@link Sample#covers(int)}.
+   */
+  public synchronized Sample getSample( File file, int lines ) throws IOException {
+    String key = file.getCanonicalPath();
+    Sample sample = samples.get( key );
+    if ( sample != null && sample.isCurrent( file ) && ( sample.covers( lines ) || sample.isCapped() ) ) {
+      return sample;
+    }
+    remove( key );
+    sample = Sample.read( file, Math.max( lines, minLines ), maxBytes );
+    for ( Iterator<Sample> eldest = samples.values().iterator();
+          eldest.hasNext() && totalBytes + sample.getLength() > maxBytes; ) {
+      totalBytes -= eldest.next().getLength();
+      eldest.remove();
+    }
+    samples.put( key, sample );
+    totalBytes += sample.getLength();
+    return sample;
+  }
+
+  public int getMinLines() {
+    return minLines;
+  }
+
+  public synchronized void evict( File file ) throws IOException {
+    remove( file.getCanonicalPath() );
+  }
+
+  public synchronized void clear() {
+    samples.clear();
+    totalBytes = 0;
+  }
+
+  private void remove( String key ) {
+    Sample sample = samples.remove( key );
+    if ( sample != null ) {
+      totalBytes -= sample.getLength();
+    }
+  }
+
+  /**
+   * The first lines of a file as they are on disk. Lines are counted on the raw bytes, a line ends with a LF, a CRLF or
+   * a lone CR.
+   */
+  public static class Sample implements Serializable {
+
+    private static final long serialVersionUID = 8416553807146026135L;
+
+    private final long fileLength;
+
+    private final long lastModified;
+
+    private final byte[] bytes;
+
+    private final int lineCount;
+
+    private final boolean complete;
+
+    private final boolean capped;
+
+    private String detectedEncoding;
+
+    Sample( long fileLength, long lastModified, byte[] bytes, int lineCount, boolean complete, boolean capped ) {
+      this.fileLength = fileLength;
+      this.lastModified = lastModified;
+      this.bytes = bytes;
+      this.lineCount = lineCount;
+      this.complete = complete;
+      this.capped = capped;
+    }
+
+    static Sample read( File file, int lines, int maxBytes ) throws IOException {
+      long fileLength = file.length();
+      long lastModified = file.lastModified();
+      ByteArrayOutputStream out = new ByteArrayOutputStream( (int) Math.min( fileLength, BUFFER_SIZE * 8 ) );
+      int count = 0;
+      boolean complete = true;
+      boolean capped = false;
+      InputStream in = new FileInputStream( file );
+      try {
+        byte[] buffer = new byte[ BUFFER_SIZE ];
+        boolean afterCr = false;
+        int read;
+        reading:
+        while ( ( read = in.read( buffer ) ) != -1 ) {
+          for ( int i = 0; i < read; i++ ) {
+            byte b = buffer[ i ];
+            if ( b == '\n' || afterCr ) {
+              count++;
+            }
+            afterCr = b == '\r';
+            // two lines more than asked for, readers that look past the end of the last line asked for still see
+            // the same bytes as in the file
+            if ( count > lines + 1 && out.size() + i >= MIN_SAMPLE_BYTES ) {
+              out.write( buffer, 0, i );
+              complete = false;
+              break reading;
+            }
+            if ( out.size() + i >= maxBytes ) {
+              out.write( buffer, 0, i );
+              complete = false;
+              capped = true;
+              break reading;
+            }
+          }
+          out.write( buffer, 0, read );
+        }
+      } finally {
+        in.close();
+      }
+      return new Sample( fileLength, lastModified, out.toByteArray(), count, complete, capped );
+    }
+
+    boolean isCurrent( File file ) {
+      return file.exists() && file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    /**
+     * @return whether the sample holds the first <code>lines</code> lines, readers that need more go to the file
+     */
+    boolean covers( int lines ) {
+      return complete || lineCount > lines + 1;
+    }
+
+    public InputStream openStream() {
+      return new ByteArrayInputStream( bytes );
+    }
+
+    /**
+     * @return the first <code>length</code> bytes of the sample, fewer if the sample is shorter
+     */
+    public byte[] getBytes( int length ) {
+      return Arrays.copyOf( bytes, Math.min( length, bytes.length ) );
+    }
+
+    public int getLength() {
+      return bytes.length;
+    }
+
+    public boolean isComplete() {
+      return complete;
+    }
+
+    /**
+     * @return whether the sample was cut at the byte limit of the cache rather than after the lines asked for
+     */
+    public boolean isCapped() {
+      return capped;
+    }
+
+    public synchronized String getDetectedEncoding() {
+      return detectedEncoding;
+    }
+
+    public synchronized void setDetectedEncoding( String detectedEncoding ) {
+      this.detectedEncoding = detectedEncoding;
+    }
+  }
+}
@@ -67,6 +67,18 @@ public class CsvUtils extends PentahoBase {
     File.separatorChar + "system" + File.separatorChar + File.separatorChar + "tmp" + File.separatorChar;
     //$NON-NLS-1$ //$NON-NLS-2$
 
+  /**
+   * Samples of the files read before, null to always read the file.
+   */
+  private final CsvSampleCache sampleCache;
+
+  public CsvUtils() {
+    this( null );
+  }
+
+  public CsvUtils( CsvSampleCache sampleCache ) {
+    this.sampleCache = sampleCache;
+  }
 
   public ModelInfo getFileContents( String project, String name, String delimiter, String enclosure, int rows,
                                     boolean isFirstRowHeader, String encoding ) throws Exception {
@@ -100,6 +112,152 @@ public class CsvUtils extends PentahoBase {
     return result;
   }
 
+  /**
+   * Reads a page of the records of a staged file, split into fields the same way the profile splits them. The header
+   * rows are never part of a page.
+   *
+   * @param offset  the number of records to skip after the header rows
+   * @param count   the maximum number of records to return
+   * @param columns the indices of the fields to return, in that order, or null for all of them. A record that is
+   *                shorter than an index has a null value there
+   */
+  public List<List<String>> getRows( String name, String delimiter, String enclosure, int headerRows, String encoding,
+                                     long offset, int count, int[] columns ) throws Exception {
+    return readRows( resolveStagedFile( name ).getCanonicalPath(), delimiter, enclosure, headerRows, encoding, offset,
+      count, columns );
+  }
+
+  /* package-local visibility for testing purposes */
+  List<List<String>> readRows( String fileLocation, String delimiter, String enclosure, int headerRows,
+                               String encoding, long offset, int count, int[] columns ) throws Exception {
+    int fileType = new CsvInspector().determineFileFormat( getLines( fileLocation, 1, encoding ) );
+    long skip = headerRows + offset;
+    long lines = skip + count;
+    File file = new File( fileLocation );
+    // pages within the sample come from memory, deeper ones would pull the whole start of the file into the cache
+    if ( sampleCache != null && CsvSampleCache.supports( encoding ) && lines <= sampleCache.getMinLines() ) {
+      CsvSampleCache.Sample sample = sampleCache.getSample( file, (int) lines );
+      List<List<String>> rows = readRows( sample.openStream(), 0, skip, count, fileType, delimiter, enclosure,
+        encoding, columns );
+      // records with enclosed line breaks span several lines, the sample may end before the page does
+      if ( rows.size() == count || sample.isComplete() ) {
+        return rows;
+      }
+    }
+    CsvRecordIndex index =
+      skip >= CsvRecordIndex.DEFAULT_INTERVAL ? CsvRecordIndex.getIndex( file, encoding, enclosure ) : null;
+    FileInputStream inputStream = new FileInputStream( file );
+    long record = 0;
+    if ( index != null ) {
+      record = index.getIndexedRecord( skip );
+      inputStream.getChannel().position( index.getOffset( record ) );
+    }
+    return readRows( inputStream, record, skip, count, fileType, delimiter, enclosure, encoding, columns );
+  }
+
+  /**
+   * Reads the records <code>skip</code> to <code>skip + count</code> from a stream positioned at the start of record
+   * <code>record</code>, and closes it.
+   */
+  private static List<List<String>> readRows( InputStream inputStream, long record, long skip, int count,
+                                              int fileType, String delimiter, String enclosure, String encoding,
+                                              int[] columns ) throws Exception {
+    List<List<String>> rows = new ArrayList<List<String>>();
+    InputStreamReader reader = null;
+    try {
+      if ( record == 0 ) {
+        UnicodeBOMInputStream bomIs = new UnicodeBOMInputStream( inputStream );
+        reader = new InputStreamReader( bomIs, encoding );
+        bomIs.skipBOM();
+      } else {
+        reader = new InputStreamReader( inputStream, encoding );
+      }
+      StringBuilder stringBuilder = new StringBuilder( 1000 );
+      String line = readRecord( reader, fileType, stringBuilder, enclosure );
+      while ( line != null && rows.size() < count ) {
+        if ( record >= skip ) {
+          List<String> values = new ArrayList<String>();
+          CSVTokenizer csvt = new CSVTokenizer( line, delimiter, enclosure );
+          while ( csvt.hasMoreTokens() ) {
+            String token = csvt.nextToken();
+            values.add( token != null ? token.trim() : null );
+          }
+          if ( columns == null ) {
+            rows.add( values );
+          } else {
+            List<String> selected = new ArrayList<String>( columns.length );
+            for ( int column : columns ) {
+              selected.add( column >= 0 && column < values.size() ? values.get( column ) : null );
+            }
+            rows.add( selected );
+          }
+        }
+        line = readRecord( reader, fileType, stringBuilder, enclosure );
+        record++;
+      }
+    } finally {
+      if ( reader != null ) {
+        reader.close();
+      } else {
+        inputStream.close();
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Reads one record, joining lines while an enclosed value is left open. Records end where {@link CsvRecordIndex}
+   * ends them, so that the record numbers of a page and of the index agree.
+   */
+  private static String readRecord( InputStreamReader reader, int fileType, StringBuilder stringBuilder,
+                                    String enclosure ) throws Exception {
+    String line = TextFileInput.getLine( null, reader, fileType, stringBuilder );
+    if ( line == null || enclosure == null || enclosure.length() != 1 ) {
+      return line;
+    }
+    char enclosureChar = enclosure.charAt( 0 );
+    boolean enclosed = isLeftEnclosed( line, enclosureChar, false );
+    while ( enclosed ) {
+      String next = TextFileInput.getLine( null, reader, fileType, stringBuilder );
+      if ( next == null ) {
+        break;
+      }
+      line = line + "\n" + next; //$NON-NLS-1$
+      enclosed = isLeftEnclosed( next, enclosureChar, true );
+    }
+    return line;
+  }
+
+  private static boolean isLeftEnclosed( String line, char enclosure, boolean enclosed ) {
+    for ( int i = 0; i < line.length(); i++ ) {
+      if ( line.charAt( i ) == enclosure ) {
+        enclosed = !enclosed;
+      }
+    }
+    return enclosed;
+  }
+
+  /**
+   * Resolves the name of an uploaded file, refusing names that point outside of the upload folders.
+   */
+  private File resolveStagedFile( String name ) throws IOException {
+    String path;
+    if ( name.endsWith( ".tmp" ) ) { //$NON-NLS-1$
+      path = PentahoSystem.getApplicationContext().getSolutionPath( TMP_FILE_PATH );
+    } else {
+      String relativePath = PentahoSystem.getSystemSetting( "file-upload-defaults/relative-path",
+              String.valueOf( DEFAULT_RELATIVE_UPLOAD_FILE_PATH ) );  //$NON-NLS-1$
+      path = PentahoSystem.getApplicationContext().getSolutionPath( relativePath );
+    }
+    File filePath = new File( path );
+    File fileLocation = new File( path, name );
+    if ( !fileLocation.getCanonicalPath().startsWith( filePath.getCanonicalPath() ) ) {
+      throw new SecurityException(
+        Messages.getErrorString( "CsvDatasourceServiceImpl.ERROR_0010_DIRECTORY_TRANSVERSAL_ATTACK" ) );
+    }
+    return fileLocation;
+  }
+
   public ModelInfo generateFields( String project, String filename, int rowLimit, String delimiter, String enclosure,
                                    int headerRows, boolean doData, boolean doColumns, String encoding )
           throws Exception {
@@ -166,12 +324,11 @@ public class CsvUtils extends PentahoBase {
 
   protected List<String> getLinesList( String fileLocation, int rows, String encoding ) throws IOException {
     List<String> lines = new ArrayList<String>();
-    FileInputStream fis = null;
+    InputStream fis = null;
     InputStreamReader isr = null;
     LineNumberReader reader = null;
     try {
-      File file = new File( fileLocation );
-      fis = new FileInputStream( file );
+      fis = openSample( fileLocation, rows, encoding );
       isr = new InputStreamReader( fis, encoding );
       reader = new LineNumberReader( isr );
       String line;
@@ -209,15 +366,13 @@ public class CsvUtils extends PentahoBase {
   }
 
   protected String getLines( String fileLocation, int rows, String encoding ) {
-    File file = new File( fileLocation );
-
     // read one line, including all EOL characters
     InputStream in;
     InputStreamReader inr = null;
     StringBuilder line = new StringBuilder();
     int count = 0;
     try {
-      in = new FileInputStream( file );
+      in = openSample( fileLocation, rows, encoding );
       inr = new InputStreamReader( in, encoding );
 
 
@@ -266,7 +421,7 @@ public class CsvUtils extends PentahoBase {
     InputStreamReader reader = null;
 
     try {
-      InputStream inputStream = new FileInputStream( fileLocation );
+      InputStream inputStream = openSample( fileLocation, rowLimit, encoding );
       UnicodeBOMInputStream bomIs = new UnicodeBOMInputStream( inputStream );
       reader = new InputStreamReader( bomIs, encoding );
       bomIs.skipBOM();
@@ -383,9 +538,27 @@ public class CsvUtils extends PentahoBase {
     return result;
   }
 
+  /**
+   * Opens the file, or its cached sample when there is a cache and the sample holds the first <code>lines</code>
+   * lines. Readers must not go further than that.
+   */
+  protected InputStream openSample( String fileLocation, int lines, String encoding ) throws IOException {
+    if ( sampleCache != null && CsvSampleCache.supports( encoding ) ) {
+      CsvSampleCache.Sample sample = sampleCache.getSample( new File( fileLocation ), lines );
+      if ( sample.covers( lines ) ) {
+        return sample.openStream();
+      }
+    }
+    return new FileInputStream( fileLocation );
+  }
+
   protected void assumeColumnDetails( ColumnInfo profile, List<String> samples ) {
-    StringEvaluator eval = new StringEvaluator( false, NUMBER_FORMATS, ColumnInfo.DATE_FORMATS );
-    assumeColumnDetails( profile, samples, eval );
+    // rule out what the characters of the values already rule out, the evaluator tries every format it is given on
+    // every value
+    ColumnPrescan prescan = ColumnPrescan.scan( samples, ColumnInfo.DATE_FORMATS );
+    StringEvaluator eval =
+      new StringEvaluator( false, NUMBER_FORMATS, prescan.getPossibleDateFormats( ColumnInfo.DATE_FORMATS ) );
+    assumeColumnDetails( profile, prescan.getSamplesInEvaluationOrder(), eval );
   }
 
   protected void assumeColumnDetails( ColumnInfo profile, List<String> samples, StringEvaluator stringEvaluator ) {
@@ -425,14 +598,23 @@ public class CsvUtils extends PentahoBase {
 
     String encoding;
     try {
-      byte[] bytes = new byte[ 1024 ];
-      InputStream inputStream = new FileInputStream( new File( fileLocation ) );
-      inputStream.read( bytes );
-      CharsetDetector charsetDetector = new CharsetDetector();
-      charsetDetector.setText( bytes );
-      CharsetMatch charsetMatch = charsetDetector.detect();
-      encoding = charsetMatch.getName();
-      inputStream.close();
+      byte[] bytes = new byte[ CsvSampleCache.MIN_SAMPLE_BYTES ];
+      if ( sampleCache != null ) {
+        CsvSampleCache.Sample sample = sampleCache.getSample( new File( fileLocation ), 1 );
+        encoding = sample.getDetectedEncoding();
+        if ( encoding != null ) {
+          return encoding;
+        }
+        byte[] head = sample.getBytes( bytes.length );
+        System.arraycopy( head, 0, bytes, 0, head.length );
+        encoding = detectEncoding( bytes );
+        sample.setDetectedEncoding( encoding );
+      } else {
+        InputStream inputStream = new FileInputStream( new File( fileLocation ) );
+        inputStream.read( bytes );
+        inputStream.close();
+        encoding = detectEncoding( bytes );
+      }
     } catch ( Exception e ) {
       log.error( e );
       throw e;
@@ -440,6 +622,13 @@ public class CsvUtils extends PentahoBase {
     return encoding;
   }
 
+  private static String detectEncoding( byte[] bytes ) {
+    CharsetDetector charsetDetector = new CharsetDetector();
+    charsetDetector.setText( bytes );
+    CharsetMatch charsetMatch = charsetDetector.detect();
+    return charsetMatch.getName();
+  }
+
   public ModelInfo getModelInfo( String project, String filename ) throws FileNotFoundException {
     XStream xstream =
       SerializationService.createXStreamWithAllowedTypes( new DomDriver( "UTF-8" ), ModelInfo.class, ColumnInfo.class,
@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.pentaho.platform.dataaccess.datasource.wizard.models.FileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.RejectedRowsFile;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PentahoSystemHelper;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.messages.LocaleHelper;
@@ -42,7 +43,9 @@ public class FileUtils {
       File[] files = folder.listFiles();
       for ( File file : files ) {
         String name = file.getName();
-        if ( file.isFile() ) {
+        // the rejected rows and the record index of a staged file are not staged files of their own
+        if ( file.isFile() && !name.endsWith( RejectedRowsFile.FILE_SUFFIX )
+          && !name.endsWith( RejectedRowsFile.INDEX_SUFFIX ) && !name.endsWith( CsvRecordIndex.FILE_SUFFIX ) ) {
           long lastModified = file.lastModified();
           DateFormat fmt = LocaleHelper.getShortDateFormat( true, true );
           Date modified = new Date();
@@ -80,6 +83,8 @@ public class FileUtils {
     if ( file.exists() ) {
       result = file.delete();
     }
+    new RejectedRowsFile( RejectedRowsFile.forStagedFile( file ) ).delete();
+    CsvRecordIndex.delete( file );
     return result;
   }
 
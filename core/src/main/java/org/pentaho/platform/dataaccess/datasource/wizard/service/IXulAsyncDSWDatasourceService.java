@@ -21,6 +21,7 @@ import org.pentaho.metadata.model.Domain;
 import org.pentaho.platform.dataaccess.datasource.beans.BusinessData;
 import org.pentaho.platform.dataaccess.datasource.beans.LogicalModelSummary;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
 import org.pentaho.platform.dataaccess.datasource.wizard.IDatasourceSummary;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.DatasourceDTO;
 import org.pentaho.ui.xul.XulServiceCallback;
@@ -33,6 +34,15 @@ public interface IXulAsyncDSWDatasourceService {
   void doPreview( String connectionName, String query, String previewLimit,
                   XulServiceCallback<SerializedResultSet> callback );
 
+  void openPreview( String connectionName, String query, int pageSize,
+                    XulServiceCallback<SerializedResultSetPage> callback );
+
+  void fetchPreviewPage( String cursorId, int pageSize, XulServiceCallback<SerializedResultSetPage> callback );
+
+  void closePreview( String cursorId, XulServiceCallback<Boolean> callback );
+
+  void cancelQueries( XulServiceCallback<Integer> callback );
+
   void generateLogicalModel( String modelName, String connectionName, String dbType, String query, String previewLimit,
                              XulServiceCallback<BusinessData> callback );
 
@@ -34,6 +34,30 @@ public class AgileHelper {
   private static final String SETTINGS_FILE = PLUGIN_NAME + "/settings.xml"; //$NON-NLS-1$  
   private static final String DATASOURCE_SOLUTION_STORAGE = "data-access-datasource-solution-storage"; //$NON-NLS-1$
   private static final String CSV_SAMPLE_SIZE = "data-access-csv-sample-rows";
+  private static final String STAGING_SAMPLE_SIZE = "data-access-staging-sample-rows";
+  private static final String STAGING_INDEX_THREADS = "data-access-staging-index-threads";
+  private static final String STAGING_INCREMENTAL = "data-access-staging-incremental";
+  private static final String STAGING_COLUMN_STATISTICS = "data-access-staging-column-statistics";
+  private static final String STAGING_AUTO_INDEX = "data-access-staging-auto-index";
+  private static final String STAGING_INDEX_MAX_SELECTIVITY = "data-access-staging-index-max-selectivity";
+  private static final String STAGING_AGGREGATES = "data-access-staging-aggregates";
+  private static final String STAGING_AGGREGATE_LEVELS = "data-access-staging-aggregate-levels";
+  private static final String STAGING_AGGREGATE_COUNT = "data-access-staging-aggregate-count";
+  private static final String PREVIEW_CURSOR_TIMEOUT = "data-access-preview-cursor-timeout";
+  private static final String QUERY_TIMEOUT = "data-access-query-timeout";
+  private static final String PREVIEW_SAMPLE_PERCENT = "data-access-preview-sample-percent";
+  private static final String SWEEP_INTERVAL = "data-access-sweep-interval";
+  private static final String SWEEP_DRY_RUN = "data-access-sweep-dry-run";
+  private static final String SWEEP_TMP_TTL = "data-access-sweep-tmp-ttl";
+  private static final String SWEEP_TABLE_TTL = "data-access-sweep-table-ttl";
+  private static final String SWEEP_FILE_TTL = "data-access-sweep-file-ttl";
+  private static final String MATERIALIZED_REFRESH = "data-access-materialized-refresh";
+  private static final String JOB_THREADS = "data-access-job-threads";
+  private static final String JOB_QUEUE = "data-access-job-queue";
+  private static final String JOB_RETENTION = "data-access-job-retention";
+  private static final String PERMISSION_CACHE_TTL = "data-access-permission-cache-ttl";
+  private static final String CLEANUP_INTERVAL = "data-access-cleanup-interval";
+  private static final String CLEANUP_ATTEMPTS = "data-access-cleanup-attempts";
   private static final Log logger = LogFactory.getLog( AgileHelper.class );
 
   public static String getSchemaName() {
@@ -87,6 +111,264 @@ public class AgileHelper {
     }
   }
 
+  /**
+   * The maximum number of read, written and error rows a {@link PdiRowListener} keeps in memory while staging.
+   * Rows past this limit are only counted.
+   */
+  public static int getStagingSampleRowSize() {
+    String sampleSize = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_SAMPLE_SIZE, null );
+    if ( sampleSize != null ) {
+      return Integer.valueOf( sampleSize );
+    } else {
+      return 1000;
+    }
+  }
+
+  /**
+   * The number of indices built at the same time on a staged table. Only honoured for staging databases that cope
+   * with concurrent index builds, see {@link StagingTransformGenerator#createIndices}.
+   */
+  public static int getStagingIndexThreads() {
+    String threads = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_INDEX_THREADS, null );
+    if ( threads != null ) {
+      return Integer.valueOf( threads );
+    } else {
+      return 1;
+    }
+  }
+
+  /**
+   * Whether re-staging a CSV file may skip an unchanged file or only load the rows appended since the last upload,
+   * see {@link StagedFileDigest}.
+   */
+  public static boolean isIncrementalStaging() {
+    String incremental = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_INCREMENTAL, null );
+    if ( incremental != null ) {
+      return Boolean.valueOf( incremental );
+    } else {
+      return true;
+    }
+  }
+
+  /**
+   * Whether loading a stage table also gathers the {@link ColumnStatistics} of its columns.
+   */
+  public static boolean isStagingColumnStatistics() {
+    String statistics = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_COLUMN_STATISTICS, null );
+    if ( statistics != null ) {
+      return Boolean.valueOf( statistics );
+    } else {
+      return true;
+    }
+  }
+
+  /**
+   * Whether the indices recommended by the {@link ColumnStatistics} of a stage table are created along with the ones
+   * the user asked for, rather than only recorded.
+   */
+  public static boolean isStagingAutoIndex() {
+    String autoIndex = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_AUTO_INDEX, null );
+    if ( autoIndex != null ) {
+      return Boolean.valueOf( autoIndex );
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * The highest ratio of distinct values to rows for which an index on a dimension column of a stage table is
+   * recommended.
+   */
+  public static double getStagingIndexMaxSelectivity() {
+    String selectivity = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_INDEX_MAX_SELECTIVITY, null );
+    if ( selectivity != null ) {
+      return Double.valueOf( selectivity );
+    } else {
+      return 0.1;
+    }
+  }
+
+  /**
+   * Whether staging a CSV file also builds {@link StagingAggregates} of the table for the Mondrian schema.
+   */
+  public static boolean isStagingAggregates() {
+    String aggregates = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_AGGREGATES, null );
+    if ( aggregates != null ) {
+      return Boolean.valueOf( aggregates );
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * The level columns the aggregates of a stage table group by, see {@link StagingAggregates#plan}. Blank to pick
+   * them from the column statistics.
+   */
+  public static String getStagingAggregateLevels() {
+    return PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_AGGREGATE_LEVELS, null );
+  }
+
+  /**
+   * The maximum number of aggregates built for a stage table.
+   */
+  public static int getStagingAggregateCount() {
+    String count = PentahoSystem.getSystemSetting( SETTINGS_FILE, STAGING_AGGREGATE_COUNT, null );
+    if ( count != null ) {
+      return Integer.valueOf( count );
+    } else {
+      return 3;
+    }
+  }
+
+  /**
+   * The seconds after which a paged query preview that is not read from is closed, see {@link
+   * org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PreviewCursors}.
+   */
+  public static int getPreviewCursorTimeout() {
+    String timeout = PentahoSystem.getSystemSetting( SETTINGS_FILE, PREVIEW_CURSOR_TIMEOUT, null );
+    if ( timeout != null ) {
+      return Integer.valueOf( timeout );
+    } else {
+      return 60;
+    }
+  }
+
+  /**
+   * The percentage of the rows SQL previews and models are sampled from, 0 to read the first rows instead. See {@link
+   * org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PreviewSampler}.
+   */
+  public static double getPreviewSamplePercent() {
+    String percent = PentahoSystem.getSystemSetting( SETTINGS_FILE, PREVIEW_SAMPLE_PERCENT, null );
+    if ( percent != null ) {
+      return Double.valueOf( percent );
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * The seconds a SQL or MQL query run for a preview or a model may take before the database stops it, 0 for no
+   * limit.
+   */
+  public static int getQueryTimeout() {
+    String timeout = PentahoSystem.getSystemSetting( SETTINGS_FILE, QUERY_TIMEOUT, null );
+    if ( timeout != null ) {
+      return Integer.valueOf( timeout );
+    } else {
+      return 300;
+    }
+  }
+
+  /**
+   * The minutes between two runs of the {@link StagingSweeper}, 0 to not run it.
+   */
+  public static int getSweepInterval() {
+    String interval = PentahoSystem.getSystemSetting( SETTINGS_FILE, SWEEP_INTERVAL, null );
+    if ( interval != null ) {
+      return Integer.valueOf( interval );
+    } else {
+      return 60;
+    }
+  }
+
+  /**
+   * Whether the {@link StagingSweeper} only reports what it would reclaim.
+   */
+  public static boolean isSweepDryRun() {
+    String dryRun = PentahoSystem.getSystemSetting( SETTINGS_FILE, SWEEP_DRY_RUN, null );
+    if ( dryRun != null ) {
+      return Boolean.valueOf( dryRun );
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * The hours after which a file uploaded to the wizard but never saved as a data source is deleted, 0 to keep it.
+   */
+  public static int getSweepTmpTtl() {
+    return getInt( SWEEP_TMP_TTL, 24 );
+  }
+
+  /**
+   * The hours after which a staged table that no data source reads from is dropped, 0 to keep it.
+   */
+  public static int getSweepTableTtl() {
+    return getInt( SWEEP_TABLE_TTL, 168 );
+  }
+
+  /**
+   * The hours after which an uploaded file that no data source refers to any more is deleted, 0 to keep it.
+   */
+  public static int getSweepFileTtl() {
+    return getInt( SWEEP_FILE_TTL, 0 );
+  }
+
+  /**
+   * The minutes between two refreshes of a materialized query data source that was not given an interval of its own,
+   * 0 to only refresh it on demand.
+   */
+  public static int getMaterializedRefresh() {
+    String refresh = PentahoSystem.getSystemSetting( SETTINGS_FILE, MATERIALIZED_REFRESH, null );
+    if ( refresh != null ) {
+      return Integer.valueOf( refresh );
+    } else {
+      return 60;
+    }
+  }
+
+  /**
+   * The number of asynchronous jobs run at the same time, see
+   * {@link org.pentaho.platform.dataaccess.datasource.api.DatasourceJobs}.
+   */
+  public static int getJobThreads() {
+    return getInt( JOB_THREADS, 2 );
+  }
+
+  /**
+   * The number of asynchronous jobs that may wait for a thread, further jobs are refused until some are done.
+   */
+  public static int getJobQueue() {
+    return getInt( JOB_QUEUE, 20 );
+  }
+
+  /**
+   * The minutes the result of an asynchronous job is kept once it is done.
+   */
+  public static int getJobRetention() {
+    return getInt( JOB_RETENTION, 60 );
+  }
+
+  /**
+   * The seconds a permission check of a user is remembered for the session, 0 to check once per request.
+   */
+  public static int getPermissionCacheTtl() {
+    return getInt( PERMISSION_CACHE_TTL, 0 );
+  }
+
+  /**
+   * The minutes between two retries of the {@link StagingCleanupQueue}, new items are cleaned up as they are queued.
+   */
+  public static int getCleanupInterval() {
+    return getInt( CLEANUP_INTERVAL, 5 );
+  }
+
+  /**
+   * The times the {@link StagingCleanupQueue} tries to clean up an item before it reports it as orphaned.
+   */
+  public static int getCleanupAttempts() {
+    return getInt( CLEANUP_ATTEMPTS, 10 );
+  }
+
+  private static int getInt( String setting, int defaultValue ) {
+    String value = PentahoSystem.getSystemSetting( SETTINGS_FILE, setting, null );
+    if ( value != null ) {
+      return Integer.valueOf( value );
+    } else {
+      return defaultValue;
+    }
+  }
+
   public static DatabaseMeta getDatabaseMeta() {
     // get the database settings from configuration
     String jndi = getJndiName();
@@ -0,0 +1,383 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The row count of a stage table and, for each of its columns, the estimated number of distinct values, the number of
+ * nulls and the lowest and highest value. They are gathered from the rows written while the table is loaded, see
+ * {@link ColumnStatisticsListener}, and kept next to the {@link StagedFileDigest} of the table.
+ * <p>
+ * A dimension column with few distinct values compared to the rows is what analyzer queries filter and group on, the
+ * statistics recommend an index for those.
+ */
+public class ColumnStatistics {
+
+  /**
+   * Below this many rows a scan of the table is cheap enough that no index is recommended.
+   */
+  static final long MIN_ROWS = 1000;
+
+  private static final String ROWS = "rows"; //$NON-NLS-1$
+  private static final String COLUMNS = "columns"; //$NON-NLS-1$
+  private static final String COLUMN = "column."; //$NON-NLS-1$
+  private static final String NAME = ".name"; //$NON-NLS-1$
+  private static final String NULLS = ".nulls"; //$NON-NLS-1$
+  private static final String TYPE = ".type"; //$NON-NLS-1$
+  private static final String MIN = ".min"; //$NON-NLS-1$
+  private static final String MAX = ".max"; //$NON-NLS-1$
+  private static final String SKETCH = ".sketch"; //$NON-NLS-1$
+  private static final String RECOMMENDED = ".recommended"; //$NON-NLS-1$
+
+  private long rowCount;
+
+  private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+
+  public static class Column {
+
+    private final String name;
+
+    private long nullCount;
+
+    private Comparable<Object> min;
+
+    private Comparable<Object> max;
+
+    /**
+     * Set once values of different types were seen, the range is then unknown.
+     */
+    private boolean mixed;
+
+    private HyperLogLog distinct = new HyperLogLog();
+
+    private boolean indexRecommended;
+
+    Column( String name ) {
+      this.name = name;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    void offer( Object value ) {
+      if ( value == null ) {
+        nullCount++;
+        return;
+      }
+      distinct.offer( value );
+      if ( mixed || !( value instanceof Comparable ) ) {
+        return;
+      }
+      Comparable<Object> comparable = (Comparable<Object>) value;
+      if ( min == null ) {
+        min = comparable;
+        max = comparable;
+      } else if ( !isSameType( min, value ) ) {
+        mixed = true;
+        min = null;
+        max = null;
+      } else if ( comparable.compareTo( min ) < 0 ) {
+        min = comparable;
+      } else if ( comparable.compareTo( max ) > 0 ) {
+        max = comparable;
+      }
+    }
+
+    void merge( Column other ) {
+      nullCount += other.nullCount;
+      distinct.merge( other.distinct );
+      if ( mixed || other.mixed || ( min != null && other.min != null && !isSameType( min, other.min ) ) ) {
+        mixed = true;
+        min = null;
+        max = null;
+      } else if ( min == null ) {
+        min = other.min;
+        max = other.max;
+      } else if ( other.min != null ) {
+        if ( other.min.compareTo( min ) < 0 ) {
+          min = other.min;
+        }
+        if ( other.max.compareTo( max ) > 0 ) {
+          max = other.max;
+        }
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getNullCount() {
+      return nullCount;
+    }
+
+    public long getDistinctCount() {
+      return distinct.cardinality();
+    }
+
+    /**
+     * @return the lowest value, or null if the column only has nulls or values that can't be compared
+     */
+    public Object getMin() {
+      return min;
+    }
+
+    public Object getMax() {
+      return max;
+    }
+
+    public boolean isIndexRecommended() {
+      return indexRecommended;
+    }
+  }
+
+  /**
+   * @return where the statistics of the stage table are kept, next to its {@link StagedFileDigest}
+   */
+  public static File getStatisticsFile( File uploadFolder, String tableName ) {
+    return new File( new File( uploadFolder, ".staging" ), tableName + ".stats" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * Counts one row written to the table.
+   *
+   * @param names  the names of the columns of the row
+   * @param values the values of the row, in the same order
+   */
+  public void offer( String[] names, Object[] values ) {
+    rowCount++;
+    for ( int i = 0; i < names.length; i++ ) {
+      getOrAddColumn( names[ i ] ).offer( i < values.length ? values[ i ] : null );
+    }
+  }
+
+  /**
+   * Adds the rows counted by <code>other</code>, typically the rows appended to the table since these statistics were
+   * gathered.
+   */
+  public void merge( ColumnStatistics other ) {
+    rowCount += other.rowCount;
+    for ( Column column : other.columns.values() ) {
+      getOrAddColumn( column.name ).merge( column );
+    }
+  }
+
+  /**
+   * Picks the columns worth an index and marks them as such: columns with at least two distinct values, no more than
+   * <code>maxSelectivity</code> of the rows distinct values and a majority of values that are not null.
+   *
+   * @param candidates the columns that may be indexed, matched regardless of case
+   * @return the recommended columns, named as in <code>candidates</code>
+   */
+  public List<String> recommendIndices( Collection<String> candidates, double maxSelectivity ) {
+    List<String> recommended = new ArrayList<String>();
+    for ( Column column : columns.values() ) {
+      column.indexRecommended = false;
+    }
+    if ( rowCount < MIN_ROWS ) {
+      return recommended;
+    }
+    for ( String candidate : candidates ) {
+      Column column = getColumn( candidate );
+      if ( column == null || column.indexRecommended ) {
+        continue;
+      }
+      long distinct = column.getDistinctCount();
+      if ( distinct >= 2 && distinct <= rowCount * maxSelectivity && column.nullCount * 2 < rowCount ) {
+        column.indexRecommended = true;
+        recommended.add( candidate );
+      }
+    }
+    return recommended;
+  }
+
+  /**
+   * @return the columns an index was recommended for by the last {@link #recommendIndices}
+   */
+  public List<String> getRecommendedIndices() {
+    List<String> recommended = new ArrayList<String>();
+    for ( Column column : columns.values() ) {
+      if ( column.indexRecommended ) {
+        recommended.add( column.name );
+      }
+    }
+    return recommended;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public Collection<Column> getColumns() {
+    return columns.values();
+  }
+
+  /**
+   * @return the statistics of the column, matched regardless of case, or null if there are none
+   */
+  public Column getColumn( String name ) {
+    return columns.get( name.toUpperCase( Locale.ENGLISH ) );
+  }
+
+  private Column getOrAddColumn( String name ) {
+    String key = name.toUpperCase( Locale.ENGLISH );
+    Column column = columns.get( key );
+    if ( column == null ) {
+      column = new Column( name );
+      columns.put( key, column );
+    }
+    return column;
+  }
+
+  /**
+   * @return the statistics saved in <code>file</code>, or null if there are none or they can't be read
+   */
+  @SuppressWarnings( "unchecked" )
+  public static ColumnStatistics load( File file ) {
+    if ( !file.exists() ) {
+      return null;
+    }
+    Properties props = new Properties();
+    try {
+      InputStream in = new FileInputStream( file );
+      try {
+        props.load( in );
+      } finally {
+        in.close();
+      }
+      ColumnStatistics result = new ColumnStatistics();
+      result.rowCount = Long.parseLong( props.getProperty( ROWS ) );
+      int count = Integer.parseInt( props.getProperty( COLUMNS ) );
+      for ( int i = 0; i < count; i++ ) {
+        String prefix = COLUMN + i;
+        Column column = result.getOrAddColumn( props.getProperty( prefix + NAME ) );
+        column.nullCount = Long.parseLong( props.getProperty( prefix + NULLS ) );
+        column.distinct = HyperLogLog.fromBytes( Base64.getDecoder().decode( props.getProperty( prefix + SKETCH ) ) );
+        column.indexRecommended = Boolean.parseBoolean( props.getProperty( prefix + RECOMMENDED ) );
+        String type = props.getProperty( prefix + TYPE );
+        if ( type == null ) {
+          column.mixed = props.getProperty( prefix + MIN ) != null;
+        } else {
+          column.min = (Comparable<Object>) parse( type, props.getProperty( prefix + MIN ) );
+          column.max = (Comparable<Object>) parse( type, props.getProperty( prefix + MAX ) );
+          column.mixed = column.min == null;
+        }
+      }
+      return result;
+    } catch ( IOException | RuntimeException e ) {
+      // missing keys, numbers or sketches that don't parse
+      return null;
+    }
+  }
+
+  public void save( File file ) throws IOException {
+    file.getParentFile().mkdirs();
+    Properties props = new Properties();
+    props.setProperty( ROWS, String.valueOf( rowCount ) );
+    props.setProperty( COLUMNS, String.valueOf( columns.size() ) );
+    int i = 0;
+    for ( Column column : columns.values() ) {
+      String prefix = COLUMN + i++;
+      props.setProperty( prefix + NAME, column.name );
+      props.setProperty( prefix + NULLS, String.valueOf( column.nullCount ) );
+      props.setProperty( prefix + SKETCH, Base64.getEncoder().encodeToString( column.distinct.toBytes() ) );
+      props.setProperty( prefix + RECOMMENDED, String.valueOf( column.indexRecommended ) );
+      String type = column.min == null ? null : getType( column.min );
+      if ( type != null ) {
+        props.setProperty( prefix + TYPE, type );
+        props.setProperty( prefix + MIN, format( column.min ) );
+        props.setProperty( prefix + MAX, format( column.max ) );
+      } else if ( column.mixed || column.min != null ) {
+        // the range is unknown, as opposed to a column of nulls that has none
+        props.setProperty( prefix + MIN, "" ); //$NON-NLS-1$
+      }
+    }
+    OutputStream out = new FileOutputStream( file );
+    try {
+      props.store( out, null );
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return whether the two values compare with each other, a date read back from the file with a timestamp too
+   */
+  private static boolean isSameType( Object value, Object other ) {
+    String type = getType( value );
+    return type != null ? type.equals( getType( other ) ) : value.getClass() == other.getClass();
+  }
+
+  /**
+   * @return the name the type of the value is saved under, or null for a type whose values are not saved
+   */
+  private static String getType( Object value ) {
+    if ( value instanceof String ) {
+      return "String"; //$NON-NLS-1$
+    } else if ( value instanceof Long ) {
+      return "Integer"; //$NON-NLS-1$
+    } else if ( value instanceof Double ) {
+      return "Number"; //$NON-NLS-1$
+    } else if ( value instanceof BigDecimal ) {
+      return "BigNumber"; //$NON-NLS-1$
+    } else if ( value instanceof Date ) {
+      return "Date"; //$NON-NLS-1$
+    } else if ( value instanceof Boolean ) {
+      return "Boolean"; //$NON-NLS-1$
+    }
+    return null;
+  }
+
+  private static String format( Object value ) {
+    if ( value instanceof Date ) {
+      return String.valueOf( ( (Date) value ).getTime() );
+    } else if ( value instanceof BigDecimal ) {
+      return ( (BigDecimal) value ).toPlainString();
+    }
+    return value.toString();
+  }
+
+  private static Object parse( String type, String value ) {
+    if ( value == null ) {
+      return null;
+    } else if ( "String".equals( type ) ) { //$NON-NLS-1$
+      return value;
+    } else if ( "Integer".equals( type ) ) { //$NON-NLS-1$
+      return Long.valueOf( value );
+    } else if ( "Number".equals( type ) ) { //$NON-NLS-1$
+      return Double.valueOf( value );
+    } else if ( "BigNumber".equals( type ) ) { //$NON-NLS-1$
+      return new BigDecimal( value );
+    } else if ( "Date".equals( type ) ) { //$NON-NLS-1$
+      return new Date( Long.parseLong( value ) );
+    } else if ( "Boolean".equals( type ) ) { //$NON-NLS-1$
+      return Boolean.valueOf( value );
+    }
+    return null;
+  }
+}
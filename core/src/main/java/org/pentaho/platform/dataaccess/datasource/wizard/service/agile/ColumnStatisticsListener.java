@@ -0,0 +1,68 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.step.RowListener;
+
+/**
+ * Gathers the {@link ColumnStatistics} of the rows the table output step writes, so that loading a stage table does
+ * not need another pass over it to learn what its columns hold.
+ */
+public class ColumnStatisticsListener implements RowListener {
+
+  private final ColumnStatistics statistics;
+
+  private String[] names;
+
+  private Object[] values;
+
+  public ColumnStatisticsListener( ColumnStatistics statistics ) {
+    this.statistics = statistics;
+  }
+
+  public void rowReadEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+  }
+
+  public void errorRowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+  }
+
+  public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    if ( names == null ) {
+      // the rows of a step all share the same layout
+      names = rowMeta.getFieldNames();
+      values = new Object[ names.length ];
+    }
+    for ( int i = 0; i < names.length; i++ ) {
+      Object value = i < row.length ? row[ i ] : null;
+      if ( value instanceof byte[] && rowMeta.getValueMeta( i ).isStorageBinaryString() ) {
+        try {
+          value = rowMeta.getValueMeta( i ).convertBinaryStringToNativeType( (byte[]) value );
+        } catch ( KettleValueException e ) {
+          // counted as the bytes it is stored as
+        }
+      }
+      values[ i ] = value;
+    }
+    synchronized ( statistics ) {
+      statistics.offer( names, values );
+    }
+  }
+
+  public ColumnStatistics getStatistics() {
+    return statistics;
+  }
+}
@@ -49,6 +49,11 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
 
   private static final Log log = LogFactory.getLog( CsvTransformGenerator.class );
 
+  /**
+   * When set, the rows are read from this file instead of the staged file, see {@link #setAppendedRowsFile(File)}.
+   */
+  private File appendedRowsFile;
+
   /**
    * Default constructor that uses the JNDI datasource configured in the plugin.xml file.
    */
@@ -68,6 +73,43 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     setTableName( getModelInfo().getStageTableName() );
   }
 
+  /**
+   * Resolves the name of an uploaded file to its location on disk. Files still being worked on in the wizard end in
+   * <code>.tmp</code> and live in the system tmp folder, the others in the configured upload folder.
+   */
+  public static File getStagedFile( String fileName ) {
+    if ( fileName.endsWith( ".tmp" ) ) { //$NON-NLS-1$
+      return new File( PentahoSystem.getApplicationContext().getSolutionPath( TMP_FILE_PATH ) + fileName );
+    }
+    return new File( getUploadFolder(), fileName );
+  }
+
+  /**
+   * @return the configured folder uploaded files are kept in once their data source is saved
+   */
+  public static File getUploadFolder() {
+    String relativePath = PentahoSystem.getSystemSetting( "file-upload-defaults/relative-path",
+      String.valueOf( DEFAULT_RELATIVE_UPLOAD_FILE_PATH ) );  //$NON-NLS-1$
+    return new File( PentahoSystem.getApplicationContext().getSolutionPath( relativePath ) );
+  }
+
+  /**
+   * Makes the next load read only the rows appended to the staged file, copied on their own to <code>file</code>.
+   * That file has no header row. Pass null to read the staged file again.
+   */
+  public void setAppendedRowsFile( File file ) {
+    this.appendedRowsFile = file;
+  }
+
+  @Override
+  protected RejectedRowsFile createRejectedRowsFile() {
+    String fileName = getModelInfo().getFileInfo().getTmpFilename();
+    if ( fileName == null ) {
+      return null;
+    }
+    return new RejectedRowsFile( RejectedRowsFile.forStagedFile( getStagedFile( fileName ) ) );
+  }
+
   @Override
   protected String[] getIndexedColumnNames() {
 
@@ -110,17 +152,7 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     CsvInputMeta csvInputMeta = new CsvInputMeta();
     CsvFileInfo fileInfo = getModelInfo().getFileInfo();
 
-    String fileName = fileInfo.getTmpFilename();
-    String path;
-    if ( fileName.endsWith( ".tmp" ) ) { //$NON-NLS-1$
-      path = PentahoSystem.getApplicationContext().getSolutionPath( TMP_FILE_PATH );
-    } else {
-      String relativePath = PentahoSystem.getSystemSetting( "file-upload-defaults/relative-path",
-        String.valueOf( DEFAULT_RELATIVE_UPLOAD_FILE_PATH ) );  //$NON-NLS-1$
-      path = PentahoSystem.getApplicationContext().getSolutionPath( relativePath );
-    }
-
-    File file = new File( path + fileInfo.getTmpFilename() );
+    File file = appendedRowsFile != null ? appendedRowsFile : getStagedFile( fileInfo.getTmpFilename() );
     String filename = file.getAbsolutePath();
 
     ColumnInfo[] columns = getModelInfo().getColumns();
@@ -156,7 +188,7 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     csvInputMeta.setFilename( filename );
     csvInputMeta.setFilenameField( null );
     // TODO strip off more than one row if present...
-    csvInputMeta.setHeaderPresent( fileInfo.getHeaderRows() > 0 );
+    csvInputMeta.setHeaderPresent( appendedRowsFile == null && fileInfo.getHeaderRows() > 0 );
     // inputMeta.get.setID(1);
     csvInputMeta.setIncludingFilename( false );
     csvInputMeta.setInputFields( inputFields );
@@ -174,16 +206,7 @@ public class CsvTransformGenerator extends StagingTransformGenerator {
     StepErrorMeta csvInputErrorMeta = new StepErrorMeta( transMeta, csvInputStepMeta ) {
       public void addErrorRowData( Object[] row, int startIndex, long nrErrors, String errorDescriptions,
                                    String fieldNames, String errorCodes ) {
-        if ( csvErrorRowCount < maxErrorRows ) {
-          StringBuffer sb = new StringBuffer();
-          sb.append( "Rejected Row: " );
-          for ( Object rowData : row ) {
-            sb.append( rowData );
-            sb.append( ", " );
-          }
-          sb.append( "\r\n" );
-          stats.getErrors().add( sb.toString() + errorDescriptions );
-        }
+        recordRejectedRow( CSV_INPUT, csvErrorRowCount, row, errorDescriptions, fieldNames, errorCodes );
         csvErrorRowCount++;
         stats.setErrorCount( csvErrorRowCount );
         super.addErrorRowData( row, startIndex, nrErrors, errorDescriptions, fieldNames, errorCodes );
@@ -0,0 +1,123 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Estimates the number of distinct values of a column in a fixed 2 KB, however many rows go through it. The estimate
+ * is typically within a few percent of the real count. Two sketches of the same column merge into the sketch of both
+ * loads, which is what lets an appended stage table keep its statistics.
+ */
+public class HyperLogLog {
+
+  private static final int PRECISION = 11;
+
+  private static final int REGISTERS = 1 << PRECISION;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this( new byte[ REGISTERS ] );
+  }
+
+  private HyperLogLog( byte[] registers ) {
+    this.registers = registers;
+  }
+
+  /**
+   * @return the sketch written by {@link #toBytes()}
+   * @throws IllegalArgumentException if the bytes are not a sketch of this size
+   */
+  public static HyperLogLog fromBytes( byte[] bytes ) {
+    if ( bytes == null || bytes.length != REGISTERS ) {
+      throw new IllegalArgumentException( "Not a sketch of " + REGISTERS + " registers" ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return new HyperLogLog( bytes.clone() );
+  }
+
+  public void offer( Object value ) {
+    if ( value instanceof byte[] ) {
+      offerHash( hash( new String( (byte[]) value, StandardCharsets.ISO_8859_1 ) ) );
+    } else if ( value != null ) {
+      offerHash( hash( value.toString() ) );
+    }
+  }
+
+  void offerHash( long hash ) {
+    int index = (int) ( hash >>> ( 64 - PRECISION ) );
+    // the guard bit caps the rank once all the bits left of it are zero
+    int rank = Long.numberOfLeadingZeros( ( hash << PRECISION ) | ( 1L << ( PRECISION - 1 ) ) ) + 1;
+    if ( rank > registers[ index ] ) {
+      registers[ index ] = (byte) rank;
+    }
+  }
+
+  public long cardinality() {
+    double sum = 0;
+    int zeros = 0;
+    for ( byte register : registers ) {
+      sum += 1.0 / ( 1L << register );
+      if ( register == 0 ) {
+        zeros++;
+      }
+    }
+    double alpha = 0.7213 / ( 1 + 1.079 / REGISTERS );
+    double estimate = alpha * REGISTERS * REGISTERS / sum;
+    if ( estimate <= 2.5 * REGISTERS && zeros > 0 ) {
+      // few values, counting the registers still empty is more accurate
+      estimate = REGISTERS * Math.log( (double) REGISTERS / zeros );
+    }
+    return Math.round( estimate );
+  }
+
+  /**
+   * Adds the values seen by <code>other</code> to this sketch.
+   */
+  public void merge( HyperLogLog other ) {
+    for ( int i = 0; i < REGISTERS; i++ ) {
+      if ( other.registers[ i ] > registers[ i ] ) {
+        registers[ i ] = other.registers[ i ];
+      }
+    }
+  }
+
+  public byte[] toBytes() {
+    return registers.clone();
+  }
+
+  /**
+   * 64 bit FNV-1a over the characters, with the finalizer of MurmurHash3 to spread it over all the bits.
+   */
+  static long hash( String value ) {
+    long hash = FNV_OFFSET;
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      hash ^= c & 0xff;
+      hash *= FNV_PRIME;
+      hash ^= c >>> 8;
+      hash *= FNV_PRIME;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -22,23 +22,54 @@ import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.RowListener;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.DataRow;
 
+/**
+ * Collects the rows flowing through a staging step. Only the first <code>sampleSize</code> rows of each kind are kept,
+ * anything past that is counted but not retained, so the memory used stays flat regardless of the size of the file
+ * being staged.
+ */
 public class PdiRowListener implements RowListener {
 
+  private final int sampleSize;
+
   private List<Object[]> read = new ArrayList<Object[]>();
 
   private List<Object[]> written = new ArrayList<Object[]>();
 
   private List<Object[]> error = new ArrayList<Object[]>();
 
+  private long readCount = 0;
+
+  private long writtenCount = 0;
+
+  private long errorCount = 0;
+
+  /**
+   * Uses the sample size configured in the plugin's settings.xml.
+   */
+  public PdiRowListener() {
+    this( AgileHelper.getStagingSampleRowSize() );
+  }
+
+  public PdiRowListener( int sampleSize ) {
+    this.sampleSize = Math.max( sampleSize, 0 );
+  }
+
   public void errorRowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
-    error.add( row );
+    errorCount++;
+    sample( error, row );
   }
 
   public void rowReadEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
-    read.add( row );
+    readCount++;
+    sample( read, row );
   }
 
   public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+    writtenCount++;
+    if ( written.size() >= sampleSize ) {
+      // no need to convert a row we are not going to keep
+      return;
+    }
     for ( int i = 0; i < row.length; i++ ) {
       if ( row[ i ] instanceof byte[] ) {
         try {
@@ -53,6 +84,12 @@ public class PdiRowListener implements RowListener {
     written.add( row );
   }
 
+  private void sample( List<Object[]> list, Object[] row ) {
+    if ( list.size() < sampleSize ) {
+      list.add( row );
+    }
+  }
+
   public DataRow[] getReadRows() {
     return getDataRows( read );
   }
@@ -65,6 +102,22 @@ public class PdiRowListener implements RowListener {
     return getDataRows( error );
   }
 
+  public long getReadCount() {
+    return readCount;
+  }
+
+  public long getWrittenCount() {
+    return writtenCount;
+  }
+
+  public long getErrorCount() {
+    return errorCount;
+  }
+
+  public int getSampleSize() {
+    return sampleSize;
+  }
+
   private DataRow[] getDataRows( List<Object[]> list ) {
     DataRow[] rows = new DataRow[ list.size() ];
     int idx = 0;
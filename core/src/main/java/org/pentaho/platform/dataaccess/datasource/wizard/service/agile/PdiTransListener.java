@@ -13,6 +13,9 @@
 
 package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransListener;
 import org.pentaho.di.trans.step.StepInterface;
@@ -26,6 +29,8 @@ public class PdiTransListener implements TransListener, Runnable {
 
   private FileTransformStats transformStats;
 
+  private Closeable onFinish;
+
   private boolean finished = false;
 
   private long rowsDone = 0;
@@ -36,6 +41,14 @@ public class PdiTransListener implements TransListener, Runnable {
     this.transformStats = transformStats;
   }
 
+  /**
+   * @param onFinish closed once the transformation is done, e.g. the file rejected rows are written to
+   */
+  public PdiTransListener( Trans trans, StepInterface step, FileTransformStats transformStats, Closeable onFinish ) {
+    this( trans, step, transformStats );
+    this.onFinish = onFinish;
+  }
+
   public void cancel() {
     finished = true;
   }
@@ -64,6 +77,13 @@ public class PdiTransListener implements TransListener, Runnable {
     } catch ( Exception e ) {
       //Do Nothing
     }
+    if ( onFinish != null ) {
+      try {
+        onFinish.close();
+      } catch ( IOException e ) {
+        //Do Nothing
+      }
+    }
     transformStats.setRowsFinished( true );
     transformStats.setTotalRecords( step.getLinesRead() );
 
@@ -0,0 +1,413 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Gzip compressed side file holding every row rejected while staging a file. It lives next to the staged file and
+ * holds one line per rejected row: the step that rejected it, the error codes, the offending field names, the error
+ * descriptions and then the row values, all tab separated.
+ * <p>
+ * The rows are compressed in blocks of {@link #ROWS_PER_BLOCK}, each block a gzip member of its own, and the byte
+ * offset of every block is kept in a small index file next to the side file. A page deep into the side file is read
+ * by seeking to the block it starts in rather than decompressing every row before it.
+ */
+public class RejectedRowsFile implements Closeable {
+
+  public static final String FILE_SUFFIX = ".rejects.gz"; //$NON-NLS-1$
+
+  /**
+   * The suffix of the index of the blocks of a side file.
+   */
+  public static final String INDEX_SUFFIX = FILE_SUFFIX + ".idx"; //$NON-NLS-1$
+
+  static final int ROWS_PER_BLOCK = 1000;
+
+  private static final int STEP = 0;
+  private static final int ERROR_CODES = 1;
+  private static final int FIELD_NAMES = 2;
+  private static final int ERROR_DESCRIPTIONS = 3;
+  private static final int FIRST_VALUE = 4;
+
+  private static final Log logger = LogFactory.getLog( RejectedRowsFile.class );
+
+  private final File file;
+
+  private final int rowsPerBlock;
+
+  private FileOutputStream out;
+
+  private GZIPOutputStream block;
+
+  private Writer writer;
+
+  private DataOutputStream indexOut;
+
+  private long rowCount = 0;
+
+  public RejectedRowsFile( File file ) {
+    this( file, ROWS_PER_BLOCK );
+  }
+
+  RejectedRowsFile( File file, int rowsPerBlock ) {
+    this.file = file;
+    this.rowsPerBlock = rowsPerBlock;
+  }
+
+  /**
+   * @return the side file used for the rows rejected while staging <code>stagedFile</code>
+   */
+  public static File forStagedFile( File stagedFile ) {
+    return new File( stagedFile.getPath() + FILE_SUFFIX );
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public File getIndexFile() {
+    return new File( file.getPath() + ".idx" ); //$NON-NLS-1$
+  }
+
+  /**
+   * Copies the side file of <code>from</code>, with its index, to the side file of <code>to</code>.
+   */
+  public static void copy( File fromStagedFile, File toStagedFile ) throws IOException {
+    RejectedRowsFile from = new RejectedRowsFile( forStagedFile( fromStagedFile ) );
+    RejectedRowsFile to = new RejectedRowsFile( forStagedFile( toStagedFile ) );
+    if ( from.getFile().exists() ) {
+      FileUtils.copyFile( from.getFile(), to.getFile() );
+      if ( from.getIndexFile().exists() ) {
+        FileUtils.copyFile( from.getIndexFile(), to.getIndexFile() );
+      } else {
+        to.getIndexFile().delete();
+      }
+    }
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Truncates the side file, any rejects from a previous staging of the same file are discarded.
+   */
+  public synchronized void open() throws IOException {
+    close();
+    rowCount = 0;
+    out = new FileOutputStream( file );
+    indexOut = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( getIndexFile() ) ) );
+    indexOut.writeInt( rowsPerBlock );
+    startBlock();
+  }
+
+  private void startBlock() throws IOException {
+    block = new GZIPOutputStream( out );
+    writer = new BufferedWriter( new OutputStreamWriter( block, StandardCharsets.UTF_8 ) );
+  }
+
+  /**
+   * Finishes the gzip member of the current block, without closing the file, and records where the next one starts.
+   */
+  private void nextBlock() throws IOException {
+    writer.flush();
+    block.finish();
+    indexOut.writeLong( out.getChannel().position() );
+    startBlock();
+  }
+
+  public synchronized boolean isOpen() {
+    return writer != null;
+  }
+
+  /**
+   * Appends a rejected row. The staging steps run in their own threads so this is synchronized. A failure to write is
+   * logged once and the side file is closed, staging itself carries on.
+   */
+  public synchronized void write( String stepName, Object[] row, String fieldNames, String errorCodes,
+                                  String errorDescriptions ) {
+    if ( writer == null ) {
+      return;
+    }
+    try {
+      writer.write( escape( stepName ) );
+      writer.write( '\t' );
+      writer.write( escape( errorCodes ) );
+      writer.write( '\t' );
+      writer.write( escape( fieldNames ) );
+      writer.write( '\t' );
+      writer.write( escape( errorDescriptions ) );
+      if ( row != null ) {
+        for ( Object value : row ) {
+          writer.write( '\t' );
+          writer.write( escape( value == null ? null : String.valueOf( value ) ) );
+        }
+      }
+      writer.write( '\n' );
+      rowCount++;
+      if ( rowCount % rowsPerBlock == 0 ) {
+        nextBlock();
+      }
+    } catch ( IOException e ) {
+      logger.error( "Could not write rejected row to " + file.getName() + ", no more rejects will be kept", e );
+      close();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if ( writer != null ) {
+      try {
+        writer.close();
+      } catch ( IOException e ) {
+        logger.warn( "Could not close " + file.getName(), e );
+      }
+      writer = null;
+      block = null;
+      out = null;
+    }
+    if ( indexOut != null ) {
+      try {
+        indexOut.close();
+      } catch ( IOException e ) {
+        logger.warn( "Could not close " + getIndexFile().getName(), e );
+      }
+      indexOut = null;
+    }
+  }
+
+  /**
+   * Reads a page of rejected rows. Rows are numbered from zero in the order they were rejected.
+   *
+   * @param offset the number of rows to skip
+   * @param count  the maximum number of rows to return
+   * @return the rows in the page, empty if the side file does not exist or <code>offset</code> is past the end
+   */
+  public List<RejectedRow> read( long offset, int count ) throws IOException {
+    List<RejectedRow> page = new ArrayList<RejectedRow>();
+    if ( !file.exists() || count <= 0 ) {
+      return page;
+    }
+    long[] start = findBlock( offset );
+    FileInputStream in = new FileInputStream( file );
+    BufferedReader reader;
+    try {
+      in.getChannel().position( start[ 1 ] );
+      reader = new BufferedReader( new InputStreamReader( new GZIPInputStream( in ), StandardCharsets.UTF_8 ) );
+    } catch ( IOException e ) {
+      in.close();
+      throw e;
+    }
+    try {
+      long lineNumber = start[ 0 ];
+      String line;
+      while ( page.size() < count && ( line = reader.readLine() ) != null ) {
+        if ( lineNumber >= offset ) {
+          page.add( parse( line ) );
+        }
+        lineNumber++;
+      }
+    } finally {
+      reader.close();
+    }
+    return page;
+  }
+
+  /**
+   * @return the number of the first row of the block <code>row</code> is in, and the byte offset of that block; the
+   *         start of the file when there is no index
+   */
+  private long[] findBlock( long row ) {
+    File indexFile = getIndexFile();
+    if ( row <= 0 || !indexFile.exists() ) {
+      return new long[] { 0, 0 };
+    }
+    try {
+      RandomAccessFile index = new RandomAccessFile( indexFile, "r" ); //$NON-NLS-1$
+      try {
+        long blockRows = index.readInt();
+        long blocks = ( index.length() - 4 ) / 8;
+        long blockNumber = blockRows <= 0 ? 0 : Math.min( row / blockRows, blocks );
+        if ( blockNumber == 0 ) {
+          return new long[] { 0, 0 };
+        }
+        index.seek( 4 + ( blockNumber - 1 ) * 8 );
+        return new long[] { blockNumber * blockRows, index.readLong() };
+      } finally {
+        index.close();
+      }
+    } catch ( IOException e ) {
+      logger.warn( "Could not read " + indexFile.getName() + ", reading " + file.getName() + " from its start", e );
+      return new long[] { 0, 0 };
+    }
+  }
+
+  public boolean delete() {
+    close();
+    File indexFile = getIndexFile();
+    if ( indexFile.exists() ) {
+      indexFile.delete();
+    }
+    return !file.exists() || file.delete();
+  }
+
+  private static RejectedRow parse( String line ) {
+    String[] parts = line.split( "\t", -1 );
+    RejectedRow row = new RejectedRow();
+    row.setStepName( unescape( parts[ STEP ] ) );
+    row.setErrorCodes( parts.length > ERROR_CODES ? unescape( parts[ ERROR_CODES ] ) : null );
+    row.setFieldNames( parts.length > FIELD_NAMES ? unescape( parts[ FIELD_NAMES ] ) : null );
+    row.setErrorDescriptions( parts.length > ERROR_DESCRIPTIONS ? unescape( parts[ ERROR_DESCRIPTIONS ] ) : null );
+    List<String> values = new ArrayList<String>();
+    for ( int i = FIRST_VALUE; i < parts.length; i++ ) {
+      values.add( unescape( parts[ i ] ) );
+    }
+    row.setValues( values );
+    return row;
+  }
+
+  static String escape( String value ) {
+    if ( value == null ) {
+      return "\\0"; //$NON-NLS-1$
+    }
+    StringBuilder sb = new StringBuilder( value.length() );
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      switch ( c ) {
+        case '\\':
+          sb.append( "\\\\" ); //$NON-NLS-1$
+          break;
+        case '\t':
+          sb.append( "\\t" ); //$NON-NLS-1$
+          break;
+        case '\n':
+          sb.append( "\\n" ); //$NON-NLS-1$
+          break;
+        case '\r':
+          sb.append( "\\r" ); //$NON-NLS-1$
+          break;
+        default:
+          sb.append( c );
+      }
+    }
+    return sb.toString();
+  }
+
+  static String unescape( String value ) {
+    if ( "\\0".equals( value ) ) { //$NON-NLS-1$
+      return null;
+    }
+    StringBuilder sb = new StringBuilder( value.length() );
+    for ( int i = 0; i < value.length(); i++ ) {
+      char c = value.charAt( i );
+      if ( c == '\\' && i + 1 < value.length() ) {
+        char next = value.charAt( ++i );
+        switch ( next ) {
+          case 't':
+            sb.append( '\t' );
+            break;
+          case 'n':
+            sb.append( '\n' );
+            break;
+          case 'r':
+            sb.append( '\r' );
+            break;
+          default:
+            sb.append( next );
+        }
+      } else {
+        sb.append( c );
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A single row read back from the side file.
+   */
+  public static class RejectedRow {
+
+    private String stepName;
+
+    private String errorCodes;
+
+    private String fieldNames;
+
+    private String errorDescriptions;
+
+    private List<String> values;
+
+    public String getStepName() {
+      return stepName;
+    }
+
+    public void setStepName( String stepName ) {
+      this.stepName = stepName;
+    }
+
+    public String getErrorCodes() {
+      return errorCodes;
+    }
+
+    public void setErrorCodes( String errorCodes ) {
+      this.errorCodes = errorCodes;
+    }
+
+    public String getFieldNames() {
+      return fieldNames;
+    }
+
+    public void setFieldNames( String fieldNames ) {
+      this.fieldNames = fieldNames;
+    }
+
+    public String getErrorDescriptions() {
+      return errorDescriptions;
+    }
+
+    public void setErrorDescriptions( String errorDescriptions ) {
+      this.errorDescriptions = errorDescriptions;
+    }
+
+    public List<String> getValues() {
+      return values;
+    }
+
+    public void setValues( List<String> values ) {
+      this.values = values;
+    }
+  }
+}
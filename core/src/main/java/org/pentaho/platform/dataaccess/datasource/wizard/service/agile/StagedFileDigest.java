@@ -0,0 +1,299 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+/**
+ * What was loaded into a stage table the last time it was staged: the length and SHA-256 digest of the file content,
+ * a digest of the layout (delimiter, enclosure, header, encoding and columns) it was loaded with and the number of rows.
+ * Comparing a new upload against it tells whether the table can be left alone, only needs the new tail of the file
+ * appended, or has to be reloaded.
+ */
+public class StagedFileDigest {
+
+  public enum Change {
+    /** Same content with the same layout, nothing to load. */
+    IDENTICAL,
+    /** The previous content followed by more complete records, only the tail needs loading. */
+    APPENDED,
+    /** Anything else, the table has to be reloaded. */
+    CHANGED
+  }
+
+  private static final String ALGORITHM = "SHA-256"; //$NON-NLS-1$
+  private static final String TABLE = "table"; //$NON-NLS-1$
+  private static final String LENGTH = "length"; //$NON-NLS-1$
+  private static final String DIGEST = "digest"; //$NON-NLS-1$
+  private static final String LAYOUT = "layout"; //$NON-NLS-1$
+  private static final String ROWS = "rows"; //$NON-NLS-1$
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private String tableName;
+
+  private long length;
+
+  private String digest;
+
+  private String layout;
+
+  private long rowCount;
+
+  /**
+   * Digest of <code>prefixLength</code> bytes of the file, only set by {@link #compute} when asked for.
+   */
+  private String prefixDigest;
+
+  /**
+   * Whether the byte just before <code>prefixLength</code> ends a line.
+   */
+  private boolean prefixEndsLine;
+
+  /**
+   * Reads the file once, computing the digest of the whole content and of its first <code>prefixLength</code> bytes.
+   *
+   * @param prefixLength the length of the previously staged content, or a negative value if there was none
+   */
+  public static StagedFileDigest compute( String tableName, File file, ModelInfo modelInfo, long prefixLength )
+    throws IOException {
+    StagedFileDigest result = new StagedFileDigest();
+    result.tableName = tableName;
+    result.layout = layoutDigest( modelInfo );
+    MessageDigest md = newDigest();
+    InputStream in = new FileInputStream( file );
+    try {
+      byte[] buffer = new byte[ BUFFER_SIZE ];
+      long position = 0;
+      int read;
+      while ( ( read = in.read( buffer ) ) != -1 ) {
+        if ( prefixLength > 0 && position < prefixLength && position + read >= prefixLength ) {
+          int inPrefix = (int) ( prefixLength - position );
+          md.update( buffer, 0, inPrefix );
+          result.prefixDigest = toHex( cloneDigest( md ).digest() );
+          byte last = buffer[ inPrefix - 1 ];
+          result.prefixEndsLine = last == '\n' || last == '\r';
+          md.update( buffer, inPrefix, read - inPrefix );
+        } else {
+          md.update( buffer, 0, read );
+        }
+        position += read;
+      }
+      result.length = position;
+    } finally {
+      in.close();
+    }
+    result.digest = toHex( md.digest() );
+    return result;
+  }
+
+  /**
+   * Compares this freshly computed digest with the one recorded for the previous load of the same table.
+   */
+  public Change compareTo( StagedFileDigest previous, String encoding ) {
+    if ( previous == null || !layout.equals( previous.layout ) || !tableName.equals( previous.tableName ) ) {
+      return Change.CHANGED;
+    }
+    if ( length == previous.length && digest.equals( previous.digest ) ) {
+      return Change.IDENTICAL;
+    }
+    if ( length > previous.length && previous.digest.equals( prefixDigest ) && prefixEndsLine
+      && isAppendSafe( encoding ) ) {
+      return Change.APPENDED;
+    }
+    return Change.CHANGED;
+  }
+
+  /**
+   * The tail of a file is only readable on its own when the encoding has no byte order mark and encodes line ends as
+   * single bytes.
+   */
+  private static boolean isAppendSafe( String encoding ) {
+    if ( encoding == null ) {
+      return true;
+    }
+    String upper = encoding.toUpperCase();
+    return !upper.startsWith( "UTF-16" ) && !upper.startsWith( "UTF-32" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * @return the file the digest of the given stage table is kept in, in a folder next to the uploaded files
+   */
+  public static File getDigestFile( File uploadFolder, String tableName ) {
+    return new File( new File( uploadFolder, ".staging" ), tableName + ".properties" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * @return the digest recorded in <code>file</code>, or null if there is none or it can't be read
+   */
+  public static StagedFileDigest load( File file ) {
+    if ( !file.exists() ) {
+      return null;
+    }
+    Properties props = new Properties();
+    try {
+      InputStream in = new FileInputStream( file );
+      try {
+        props.load( in );
+      } finally {
+        in.close();
+      }
+      StagedFileDigest result = new StagedFileDigest();
+      result.tableName = props.getProperty( TABLE );
+      result.length = Long.parseLong( props.getProperty( LENGTH ) );
+      result.digest = props.getProperty( DIGEST );
+      result.layout = props.getProperty( LAYOUT );
+      result.rowCount = Long.parseLong( props.getProperty( ROWS, "0" ) ); //$NON-NLS-1$
+      if ( result.tableName == null || result.digest == null || result.layout == null ) {
+        return null;
+      }
+      return result;
+    } catch ( IOException | NumberFormatException e ) {
+      return null;
+    }
+  }
+
+  public void save( File file ) throws IOException {
+    file.getParentFile().mkdirs();
+    Properties props = new Properties();
+    props.setProperty( TABLE, tableName );
+    props.setProperty( LENGTH, String.valueOf( length ) );
+    props.setProperty( DIGEST, digest );
+    props.setProperty( LAYOUT, layout );
+    props.setProperty( ROWS, String.valueOf( rowCount ) );
+    OutputStream out = new FileOutputStream( file );
+    try {
+      props.store( out, null );
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Copies the bytes of <code>source</code> from <code>offset</code> on to <code>target</code>, used to stage only the
+   * rows appended to a file.
+   */
+  public static void copyTail( File source, long offset, File target ) throws IOException {
+    RandomAccessFile in = new RandomAccessFile( source, "r" ); //$NON-NLS-1$
+    try {
+      OutputStream out = new FileOutputStream( target );
+      try {
+        in.seek( offset );
+        byte[] buffer = new byte[ BUFFER_SIZE ];
+        int read;
+        while ( ( read = in.read( buffer ) ) != -1 ) {
+          out.write( buffer, 0, read );
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public static void delete( File file ) {
+    if ( file.exists() ) {
+      file.delete();
+    }
+  }
+
+  /**
+   * Digest of everything about the model that changes what ends up in the table for the same file content.
+   */
+  static String layoutDigest( ModelInfo modelInfo ) {
+    StringBuilder sb = new StringBuilder();
+    CsvFileInfo fileInfo = modelInfo.getFileInfo();
+    sb.append( fileInfo.getDelimiter() ).append( '|' )
+      .append( fileInfo.getEnclosure() ).append( '|' )
+      .append( fileInfo.getHeaderRows() ).append( '|' )
+      .append( fileInfo.getEncoding() ).append( '|' )
+      .append( fileInfo.getNullStr() ).append( '|' )
+      .append( fileInfo.getIfNull() ).append( '|' )
+      .append( fileInfo.getCurrencySymbol() ).append( '|' )
+      .append( fileInfo.getGroupSymbol() ).append( '|' );
+    ColumnInfo[] columns = modelInfo.getColumns();
+    if ( columns != null ) {
+      for ( ColumnInfo column : columns ) {
+        sb.append( column.getId() ).append( ':' )
+          .append( column.getDataType() ).append( ':' )
+          .append( column.isIgnore() ).append( ':' )
+          .append( column.getFormat() ).append( ':' )
+          .append( column.getLength() ).append( ':' )
+          .append( column.getPrecision() ).append( ':' )
+          .append( column.isIndex() ).append( ';' );
+      }
+    }
+    MessageDigest md = newDigest();
+    return toHex( md.digest( sb.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance( ALGORITHM );
+    } catch ( NoSuchAlgorithmException e ) {
+      // every JRE ships SHA-256
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static MessageDigest cloneDigest( MessageDigest md ) {
+    try {
+      return (MessageDigest) md.clone();
+    } catch ( CloneNotSupportedException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static String toHex( byte[] bytes ) {
+    StringBuilder sb = new StringBuilder( bytes.length * 2 );
+    for ( byte b : bytes ) {
+      sb.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+    }
+    return sb.toString();
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public String getDigest() {
+    return digest;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public void setRowCount( long rowCount ) {
+    this.rowCount = rowCount;
+  }
+}
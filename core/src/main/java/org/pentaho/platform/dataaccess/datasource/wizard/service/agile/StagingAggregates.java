@@ -0,0 +1,556 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalColumn;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+import org.pentaho.metadata.model.olap.OlapCube;
+import org.pentaho.metadata.model.olap.OlapDimension;
+import org.pentaho.metadata.model.olap.OlapHierarchy;
+import org.pentaho.metadata.model.olap.OlapHierarchyLevel;
+import org.pentaho.metadata.model.olap.OlapMeasure;
+import org.xml.sax.SAXException;
+
+/**
+ * Aggregate tables of a stage table: the measures of its OLAP model summed up (or counted, averaged...) by a few
+ * combinations of levels, so that Mondrian can answer a query on those levels from a table that is much smaller than
+ * the staged one.
+ * <p>
+ * The combinations come from the configuration, or else are the dimension levels with the fewest distinct values
+ * according to the {@link ColumnStatistics} of the table, each with its parent levels. An aggregate is only planned
+ * when it has at least ten times fewer rows than the table.
+ * <p>
+ * The aggregates built for a table are recorded in the {@link #PROPERTY} of its OLAP logical model and in the
+ * <code>.staging</code> folder next to its {@link StagedFileDigest}. {@link #register} declares them in the Mondrian
+ * schema generated from that model. Mondrian only reads them when its <code>mondrian.rolap.aggregates.Use</code>
+ * property is set.
+ */
+public class StagingAggregates {
+
+  /**
+   * The property of the OLAP logical model holding the aggregates of its table, as written by {@link #format}.
+   */
+  public static final String PROPERTY = "staging_aggregates"; //$NON-NLS-1$
+
+  /**
+   * The column of an aggregate table holding the number of rows of the table it sums up.
+   */
+  public static final String FACT_COUNT = "FACT_COUNT"; //$NON-NLS-1$
+
+  /**
+   * Below this many rows a query on the table is fast enough without aggregates.
+   */
+  static final long MIN_ROWS = 100000;
+
+  /**
+   * How many times fewer rows an aggregate must have than the table.
+   */
+  static final int MIN_REDUCTION = 10;
+
+  private static final String OLAP_DIMENSIONS = "olap_dimensions"; //$NON-NLS-1$
+
+  private static final String OLAP_CUBES = "olap_cubes"; //$NON-NLS-1$
+
+  private static final Map<AggregationType, String> AGGREGATIONS = new HashMap<AggregationType, String>();
+
+  /**
+   * The SQL aggregate functions by Mondrian aggregator.
+   */
+  private static final Map<String, String> AGGREGATORS = new HashMap<String, String>();
+
+  static {
+    AGGREGATIONS.put( AggregationType.SUM, "sum" ); //$NON-NLS-1$
+    AGGREGATIONS.put( AggregationType.COUNT, "count" ); //$NON-NLS-1$
+    AGGREGATIONS.put( AggregationType.AVERAGE, "avg" ); //$NON-NLS-1$
+    AGGREGATIONS.put( AggregationType.MINIMUM, "min" ); //$NON-NLS-1$
+    AGGREGATIONS.put( AggregationType.MAXIMUM, "max" ); //$NON-NLS-1$
+
+    AGGREGATORS.put( "sum", "SUM" ); //$NON-NLS-1$ //$NON-NLS-2$
+    AGGREGATORS.put( "count", "COUNT" ); //$NON-NLS-1$ //$NON-NLS-2$
+    AGGREGATORS.put( "avg", "AVG" ); //$NON-NLS-1$ //$NON-NLS-2$
+    AGGREGATORS.put( "min", "MIN" ); //$NON-NLS-1$ //$NON-NLS-2$
+    AGGREGATORS.put( "max", "MAX" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * One aggregate table: the level columns it groups by, named as in the stage table, and the measure columns it
+   * holds, each named after the column it aggregates and the SQL function it aggregates it with, e.g.
+   * <code>AMOUNT_SUM</code>.
+   */
+  public static class AggregateTable {
+
+    private final String name;
+
+    private final List<String> levelColumns;
+
+    private final List<String> measureColumns;
+
+    AggregateTable( String name, List<String> levelColumns, List<String> measureColumns ) {
+      this.name = name;
+      this.levelColumns = levelColumns;
+      this.measureColumns = measureColumns;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public List<String> getLevelColumns() {
+      return levelColumns;
+    }
+
+    public List<String> getMeasureColumns() {
+      return measureColumns;
+    }
+
+    /**
+     * @param factTable the quoted name of the stage table
+     * @return the query computing the rows of this aggregate from <code>factTable</code>. The columns it computes
+     * are always quoted, so that they keep their case whatever the database does with names.
+     */
+    public String getSelectStatement( DatabaseMeta databaseMeta, String factTable ) {
+      String startQuote = databaseMeta.getStartQuote();
+      String endQuote = databaseMeta.getEndQuote();
+      StringBuilder levels = new StringBuilder();
+      for ( String column : levelColumns ) {
+        if ( levels.length() > 0 ) {
+          levels.append( ", " ); //$NON-NLS-1$
+        }
+        levels.append( databaseMeta.quoteField( column ) );
+      }
+      StringBuilder sql = new StringBuilder( "SELECT " ).append( levels ); //$NON-NLS-1$
+      sql.append( ", COUNT(*) AS " ).append( startQuote ).append( FACT_COUNT ).append( endQuote ); //$NON-NLS-1$
+      for ( String measure : measureColumns ) {
+        int separator = measure.lastIndexOf( '_' );
+        String column = databaseMeta.quoteField( measure.substring( 0, separator ) );
+        sql.append( ", " ).append( measure.substring( separator + 1 ) ).append( '(' ).append( column ) //$NON-NLS-1$
+          .append( ") AS " ).append( startQuote ).append( measure ).append( endQuote ); //$NON-NLS-1$
+      }
+      sql.append( " FROM " ).append( factTable ).append( " GROUP BY " ).append( levels ); //$NON-NLS-1$ //$NON-NLS-2$
+      return sql.toString();
+    }
+
+    @Override
+    public String toString() {
+      return name + ':' + StringUtils.join( levelColumns, ',' ) + ':' + StringUtils.join( measureColumns, ',' );
+    }
+
+    static AggregateTable parse( String definition ) {
+      String[] parts = definition.trim().split( ":", -1 ); //$NON-NLS-1$
+      if ( parts.length != 3 || parts[ 0 ].isEmpty() || parts[ 1 ].isEmpty() || parts[ 2 ].isEmpty() ) {
+        return null;
+      }
+      return new AggregateTable( parts[ 0 ], Arrays.asList( parts[ 1 ].split( "," ) ), //$NON-NLS-1$
+        Arrays.asList( parts[ 2 ].split( "," ) ) ); //$NON-NLS-1$
+    }
+  }
+
+  private StagingAggregates() {
+  }
+
+  /**
+   * @return where the aggregates built for the stage table are recorded, next to its {@link StagedFileDigest}
+   */
+  public static File getAggregatesFile( File uploadFolder, String tableName ) {
+    return new File( new File( uploadFolder, ".staging" ), tableName + ".aggregates" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * @return the aggregates recorded in the file, none if there is no such file or it can't be read
+   */
+  public static List<AggregateTable> load( File file ) {
+    if ( !file.exists() ) {
+      return Collections.emptyList();
+    }
+    try {
+      return parse( new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ) );
+    } catch ( IOException e ) {
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Records the aggregates, or deletes the file when there are none.
+   */
+  public static void save( File file, List<AggregateTable> aggregates ) throws IOException {
+    if ( aggregates.isEmpty() ) {
+      file.delete();
+      return;
+    }
+    file.getParentFile().mkdirs();
+    Files.write( file.toPath(), format( aggregates ).getBytes( StandardCharsets.UTF_8 ) );
+  }
+
+  public static String format( List<AggregateTable> aggregates ) {
+    return StringUtils.join( aggregates, ';' );
+  }
+
+  public static List<AggregateTable> parse( String definitions ) {
+    List<AggregateTable> aggregates = new ArrayList<AggregateTable>();
+    if ( definitions != null ) {
+      for ( String definition : definitions.split( ";" ) ) { //$NON-NLS-1$
+        AggregateTable aggregate = AggregateTable.parse( definition );
+        if ( aggregate != null ) {
+          aggregates.add( aggregate );
+        }
+      }
+    }
+    return aggregates;
+  }
+
+  /**
+   * Plans the aggregates of a stage table from the OLAP model of its domain.
+   *
+   * @param configuredLevels the level columns to aggregate by, separated by commas, each combination separated by
+   *                         semicolons, or blank to pick them from the statistics
+   * @param statistics       the statistics of the table, or null if they are not known
+   * @param maxCount         the maximum number of aggregates
+   */
+  public static List<AggregateTable> plan( Domain domain, String factTable, ColumnStatistics statistics,
+                                           String configuredLevels, int maxCount ) {
+    List<List<String>> hierarchies = getHierarchies( domain );
+    List<String> measures = getMeasureColumns( domain );
+    List<AggregateTable> aggregates = new ArrayList<AggregateTable>();
+    if ( hierarchies.isEmpty() || measures.isEmpty() || maxCount <= 0 ) {
+      return aggregates;
+    }
+    Map<String, List<String>> ancestors = new HashMap<String, List<String>>();
+    for ( List<String> levels : hierarchies ) {
+      for ( int i = 0; i < levels.size(); i++ ) {
+        ancestors.put( levels.get( i ).toUpperCase( Locale.ENGLISH ), levels.subList( 0, i + 1 ) );
+      }
+    }
+
+    List<Set<String>> groups = new ArrayList<Set<String>>();
+    if ( !StringUtils.isBlank( configuredLevels ) ) {
+      for ( String combination : configuredLevels.split( ";" ) ) { //$NON-NLS-1$
+        Set<String> group = expand( Arrays.asList( combination.split( "," ) ), ancestors ); //$NON-NLS-1$
+        if ( group != null && !groups.contains( group ) ) {
+          groups.add( group );
+        }
+      }
+    } else if ( statistics != null && statistics.getRowCount() >= MIN_ROWS ) {
+      groups = pickGroups( statistics, ancestors, maxCount );
+    }
+
+    for ( Set<String> group : groups.subList( 0, Math.min( maxCount, groups.size() ) ) ) {
+      // keep the levels in the order of the model
+      List<String> levels = new ArrayList<String>();
+      for ( List<String> hierarchy : hierarchies ) {
+        for ( String column : hierarchy ) {
+          if ( group.contains( column ) && !levels.contains( column ) ) {
+            levels.add( column );
+          }
+        }
+      }
+      String definition = factTable + ':' + levels + ':' + measures;
+      String name = String.format( "AGG_%08X", definition.hashCode() ); //$NON-NLS-1$
+      aggregates.add( new AggregateTable( name, levels, measures ) );
+    }
+    return aggregates;
+  }
+
+  /**
+   * Picks the levels with the fewest distinct values: the first few of them together, then one less, down to the
+   * first one alone, as long as they sum the table up to few enough rows.
+   */
+  private static List<Set<String>> pickGroups( final ColumnStatistics statistics,
+                                               Map<String, List<String>> ancestors, int maxCount ) {
+    List<String> candidates = new ArrayList<String>();
+    for ( List<String> levels : ancestors.values() ) {
+      String column = levels.get( levels.size() - 1 );
+      ColumnStatistics.Column columnStatistics = statistics.getColumn( column );
+      if ( columnStatistics != null && columnStatistics.getDistinctCount() >= 2 && !candidates.contains( column ) ) {
+        candidates.add( column );
+      }
+    }
+    Collections.sort( candidates, new Comparator<String>() {
+      public int compare( String column, String other ) {
+        int byCount = Long.compare( statistics.getColumn( column ).getDistinctCount(),
+          statistics.getColumn( other ).getDistinctCount() );
+        return byCount != 0 ? byCount : column.compareTo( other );
+      }
+    } );
+
+    List<Set<String>> groups = new ArrayList<Set<String>>();
+    for ( int size = Math.min( maxCount, candidates.size() ); size > 0; size-- ) {
+      Set<String> group = expand( candidates.subList( 0, size ), ancestors );
+      double rows = 1;
+      for ( String column : group ) {
+        rows *= statistics.getColumn( column ).getDistinctCount();
+      }
+      if ( rows * MIN_REDUCTION <= statistics.getRowCount() && !groups.contains( group ) ) {
+        groups.add( group );
+      }
+    }
+    return groups;
+  }
+
+  /**
+   * @return the columns with the columns of their parent levels, or null if one of them is not a level
+   */
+  private static Set<String> expand( Collection<String> columns, Map<String, List<String>> ancestors ) {
+    Set<String> group = new LinkedHashSet<String>();
+    for ( String column : columns ) {
+      if ( column.trim().isEmpty() ) {
+        continue;
+      }
+      List<String> levels = ancestors.get( column.trim().toUpperCase( Locale.ENGLISH ) );
+      if ( levels == null ) {
+        return null;
+      }
+      group.addAll( levels );
+    }
+    return group.isEmpty() ? null : group;
+  }
+
+  /**
+   * @return the level columns of each hierarchy of the OLAP model, from the top level down
+   */
+  @SuppressWarnings( "unchecked" )
+  static List<List<String>> getHierarchies( Domain domain ) {
+    List<List<String>> hierarchies = new ArrayList<List<String>>();
+    for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+      List<OlapDimension> dimensions = (List<OlapDimension>) logicalModel.getProperty( OLAP_DIMENSIONS );
+      if ( dimensions == null ) {
+        continue;
+      }
+      for ( OlapDimension dimension : dimensions ) {
+        for ( OlapHierarchy hierarchy : dimension.getHierarchies() ) {
+          List<String> levels = new ArrayList<String>();
+          for ( OlapHierarchyLevel level : hierarchy.getHierarchyLevels() ) {
+            String column = getTargetColumn( level.getReferenceColumn() );
+            if ( column == null ) {
+              // a level computed some other way, the ones below it can't be aggregated by column
+              break;
+            }
+            levels.add( column );
+          }
+          if ( !levels.isEmpty() ) {
+            hierarchies.add( levels );
+          }
+        }
+      }
+    }
+    return hierarchies;
+  }
+
+  /**
+   * @return the measure columns of the OLAP model an aggregate can hold, distinct counts can't be summed up
+   */
+  @SuppressWarnings( "unchecked" )
+  static List<String> getMeasureColumns( Domain domain ) {
+    Set<String> measures = new LinkedHashSet<String>();
+    for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+      List<OlapCube> cubes = (List<OlapCube>) logicalModel.getProperty( OLAP_CUBES );
+      if ( cubes == null ) {
+        continue;
+      }
+      for ( OlapCube cube : cubes ) {
+        for ( OlapMeasure measure : cube.getOlapMeasures() ) {
+          LogicalColumn column = measure.getLogicalColumn();
+          String target = getTargetColumn( column );
+          String aggregator = column == null ? null : AGGREGATIONS.get( column.getAggregationType() );
+          if ( target != null && aggregator != null ) {
+            measures.add( getMeasureColumn( target, aggregator ) );
+          }
+        }
+      }
+    }
+    return new ArrayList<String>( measures );
+  }
+
+  private static String getTargetColumn( LogicalColumn column ) {
+    if ( column != null && column.getPhysicalColumn() instanceof SqlPhysicalColumn ) {
+      return ( (SqlPhysicalColumn) column.getPhysicalColumn() ).getTargetColumn();
+    }
+    return null;
+  }
+
+  private static String getMeasureColumn( String column, String aggregator ) {
+    String function = AGGREGATORS.get( aggregator );
+    return function == null ? null : column + '_' + function;
+  }
+
+  /**
+   * Declares the aggregates in the cubes of a Mondrian schema, for the levels and measures of each cube they hold.
+   * An aggregate that holds none of the measures of a cube or misses a parent level is left out of that cube.
+   *
+   * @param definitions the aggregates, as written by {@link #format}
+   * @return the schema with its aggregates, or <code>schema</code> itself if there are none
+   */
+  public static String register( String schema, String definitions ) throws DocumentException {
+    List<AggregateTable> aggregates = parse( definitions );
+    if ( aggregates.isEmpty() ) {
+      return schema;
+    }
+    Document document = parseSchema( schema );
+    Element root = document.getRootElement();
+    Map<String, Element> sharedDimensions = new HashMap<String, Element>();
+    for ( Element dimension : root.elements( "Dimension" ) ) { //$NON-NLS-1$
+      sharedDimensions.put( dimension.attributeValue( "name" ), dimension ); //$NON-NLS-1$
+    }
+    boolean registered = false;
+    for ( Element cube : root.elements( "Cube" ) ) { //$NON-NLS-1$
+      Element table = cube.element( "Table" ); //$NON-NLS-1$
+      if ( table == null ) {
+        continue;
+      }
+      List<List<String[]>> hierarchies = getCubeHierarchies( cube, sharedDimensions );
+      Map<String, String> measures = new LinkedHashMap<String, String>();
+      for ( Element measure : cube.elements( "Measure" ) ) { //$NON-NLS-1$
+        String column = measure.attributeValue( "column" ); //$NON-NLS-1$
+        String aggregator = measure.attributeValue( "aggregator" ); //$NON-NLS-1$
+        String measureColumn = column == null || aggregator == null ? null
+          : getMeasureColumn( column, aggregator.toLowerCase( Locale.ENGLISH ) );
+        if ( measureColumn != null && !measures.containsKey( measureColumn ) ) {
+          String name = measure.attributeValue( "name" ); //$NON-NLS-1$
+          measures.put( measureColumn, bracket( "Measures" ) + '.' + bracket( name ) ); //$NON-NLS-1$
+        }
+      }
+      for ( AggregateTable aggregate : aggregates ) {
+        registered |= registerAggregate( table, aggregate, hierarchies, measures );
+      }
+    }
+    return registered ? document.asXML() : schema;
+  }
+
+  private static boolean registerAggregate( Element table, AggregateTable aggregate,
+                                            List<List<String[]>> hierarchies, Map<String, String> measures ) {
+    List<String[]> levels = new ArrayList<String[]>();
+    Set<String> levelColumns = new LinkedHashSet<String>( aggregate.getLevelColumns() );
+    for ( List<String[]> hierarchy : hierarchies ) {
+      boolean below = false;
+      for ( String[] level : hierarchy ) {
+        if ( levelColumns.contains( level[ 1 ] ) ) {
+          if ( below ) {
+            // a level without its parent level can't be rolled up
+            return false;
+          }
+          levels.add( level );
+        } else {
+          below = true;
+        }
+      }
+    }
+    List<String[]> aggregateMeasures = new ArrayList<String[]>();
+    List<String> ignored = new ArrayList<String>();
+    for ( String measureColumn : aggregate.getMeasureColumns() ) {
+      String measure = measures.get( measureColumn );
+      if ( measure != null ) {
+        aggregateMeasures.add( new String[] { measure, measureColumn } );
+      } else {
+        ignored.add( measureColumn );
+      }
+    }
+    if ( levels.isEmpty() || aggregateMeasures.isEmpty() ) {
+      return false;
+    }
+    for ( String[] level : levels ) {
+      levelColumns.remove( level[ 1 ] );
+    }
+    // levels the cube no longer has
+    ignored.addAll( levelColumns );
+
+    Element aggName = table.addElement( "AggName" ); //$NON-NLS-1$
+    aggName.addAttribute( "name", aggregate.getName() ); //$NON-NLS-1$
+    aggName.addElement( "AggFactCount" ).addAttribute( "column", FACT_COUNT ); //$NON-NLS-1$ //$NON-NLS-2$
+    for ( String column : ignored ) {
+      aggName.addElement( "AggIgnoreColumn" ).addAttribute( "column", column ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    for ( String[] measure : aggregateMeasures ) {
+      aggName.addElement( "AggMeasure" ).addAttribute( "name", measure[ 0 ] ) //$NON-NLS-1$ //$NON-NLS-2$
+        .addAttribute( "column", measure[ 1 ] ); //$NON-NLS-1$
+    }
+    for ( String[] level : levels ) {
+      aggName.addElement( "AggLevel" ).addAttribute( "name", level[ 0 ] ) //$NON-NLS-1$ //$NON-NLS-2$
+        .addAttribute( "column", level[ 1 ] ); //$NON-NLS-1$
+    }
+    return true;
+  }
+
+  /**
+   * @return the levels of each hierarchy of the cube from the top down, as their unique name and column
+   */
+  private static List<List<String[]>> getCubeHierarchies( Element cube, Map<String, Element> sharedDimensions ) {
+    List<List<String[]>> hierarchies = new ArrayList<List<String[]>>();
+    for ( Element element : cube.elements() ) {
+      Element dimension;
+      if ( "Dimension".equals( element.getName() ) ) { //$NON-NLS-1$
+        dimension = element;
+      } else if ( "DimensionUsage".equals( element.getName() ) ) { //$NON-NLS-1$
+        dimension = sharedDimensions.get( element.attributeValue( "source" ) ); //$NON-NLS-1$
+      } else {
+        continue;
+      }
+      if ( dimension == null ) {
+        continue;
+      }
+      String dimensionName = element.attributeValue( "name" ); //$NON-NLS-1$
+      for ( Element hierarchy : dimension.elements( "Hierarchy" ) ) { //$NON-NLS-1$
+        String hierarchyName = hierarchy.attributeValue( "name" ); //$NON-NLS-1$
+        String uniqueName = hierarchyName == null || hierarchyName.equals( dimensionName )
+          ? bracket( dimensionName ) : bracket( dimensionName + '.' + hierarchyName );
+        List<String[]> levels = new ArrayList<String[]>();
+        for ( Element level : hierarchy.elements( "Level" ) ) { //$NON-NLS-1$
+          String name = uniqueName + '.' + bracket( level.attributeValue( "name" ) ); //$NON-NLS-1$
+          levels.add( new String[] { name, level.attributeValue( "column" ) } ); //$NON-NLS-1$
+        }
+        hierarchies.add( levels );
+      }
+    }
+    return hierarchies;
+  }
+
+  private static String bracket( String name ) {
+    return '[' + name + ']';
+  }
+
+  private static Document parseSchema( String schema ) throws DocumentException {
+    SAXReader reader = new SAXReader();
+    try {
+      reader.setFeature( "http://apache.org/xml/features/disallow-doctype-decl", true ); //$NON-NLS-1$
+    } catch ( SAXException e ) {
+      // the parser does not know the feature, a schema we generated has no doctype anyway
+    }
+    return reader.read( new StringReader( schema ) );
+  }
+}
@@ -0,0 +1,546 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.dataaccess.datasource.wizard.csv.CsvRecordIndex;
+import org.pentaho.platform.engine.security.SecurityHelper;
+
+/**
+ * Drops the stage tables and deletes the uploaded files of deleted CSV data sources after the data source itself is
+ * gone, so that deleting a data source doesn't wait on the staging database or the file system.
+ * <p>
+ * Each item waits in a file of its own in the staging folder until it is cleaned up, so the items left when the server
+ * stops are cleaned up once it runs again. An item that fails is retried on every run until it failed the configured
+ * number of times, then it is kept as an orphan for an administrator to look at and retry. An item whose table or file
+ * a data source uses again by the time it runs, because a data source of the same name was published since, is
+ * dropped without cleaning anything up.
+ */
+public class StagingCleanupQueue {
+
+  public enum Kind {
+    TABLE, FILE
+  }
+
+  private static final String QUEUE_FOLDER = "cleanup"; //$NON-NLS-1$
+
+  private static final String ITEM_SUFFIX = ".cleanup"; //$NON-NLS-1$
+
+  private static final String ORPHAN_SUFFIX = ".orphan"; //$NON-NLS-1$
+
+  private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+  private static final String RUNNING_SUFFIX = ".running"; //$NON-NLS-1$
+
+  private static final String KIND = "kind"; //$NON-NLS-1$
+
+  private static final String NAME = "name"; //$NON-NLS-1$
+
+  private static final String QUEUED = "queued"; //$NON-NLS-1$
+
+  private static final String ATTEMPTS = "attempts"; //$NON-NLS-1$
+
+  private static final String ERROR = "error"; //$NON-NLS-1$
+
+  /**
+   * Guards the item files. It is only held to read, claim and write them, never while a table or file is cleaned up,
+   * so that queueing an item doesn't wait for a run.
+   */
+  private static final Object LOCK = new Object();
+
+  /**
+   * Held for a whole run, so that only one run cleans up at a time.
+   */
+  private static final Object DRAIN_LOCK = new Object();
+
+  private static final Log logger = LogFactory.getLog( StagingCleanupQueue.class );
+
+  private static ScheduledExecutorService scheduler;
+
+  /**
+   * Set while a run asked for by {@link #drainSoon()} waits to start, the items queued meanwhile are left to that run.
+   */
+  private static final AtomicBoolean drainPending = new AtomicBoolean();
+
+  private final File uploadFolder;
+
+  private final int maxAttempts;
+
+  private final StagingSweeper sweeper;
+
+  public StagingCleanupQueue( File uploadFolder, int maxAttempts ) {
+    this( uploadFolder, maxAttempts, new StagingSweeper( null, uploadFolder, 0, 0, 0, false ) );
+  }
+
+  /**
+   * @param sweeper reads the data sources and drops the tables for the queue
+   */
+  StagingCleanupQueue( File uploadFolder, int maxAttempts, StagingSweeper sweeper ) {
+    this.uploadFolder = uploadFolder;
+    this.maxAttempts = Math.max( 1, maxAttempts );
+    this.sweeper = sweeper;
+  }
+
+  /**
+   * @return the queue of the configured upload folder
+   */
+  public static StagingCleanupQueue fromSettings() {
+    return new StagingCleanupQueue( CsvTransformGenerator.getUploadFolder(), AgileHelper.getCleanupAttempts() );
+  }
+
+  /**
+   * Queues the stage table or uploaded file of a deleted data source, and cleans it up right away if the queue runs.
+   */
+  public static void schedule( Kind kind, String name ) throws IOException {
+    schedule( kind, name, true );
+  }
+
+  /**
+   * Queues the stage table or uploaded file of a deleted data source.
+   *
+   * @param drain false to leave it to the next run, for callers that queue many items and call {@link #drainSoon()}
+   *              once they are all queued
+   */
+  public static void schedule( Kind kind, String name, boolean drain ) throws IOException {
+    fromSettings().enqueue( kind, name );
+    if ( drain ) {
+      drainSoon();
+    }
+  }
+
+  /**
+   * Cleans up every <code>intervalMinutes</code> on a background thread until {@link #stop()}, besides right after an
+   * item is queued.
+   */
+  public static synchronized void start( long intervalMinutes ) {
+    if ( scheduler != null || intervalMinutes <= 0 ) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "data-access-staging-cleanup" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    scheduler.scheduleWithFixedDelay( new Runnable() {
+      public void run() {
+        drainAsSystem();
+      }
+    }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES );
+  }
+
+  public static synchronized void stop() {
+    if ( scheduler != null ) {
+      scheduler.shutdownNow();
+      scheduler = null;
+      drainPending.set( false );
+    }
+  }
+
+  /**
+   * Cleans up right away on the background thread if the queue runs, unless such a run waits to start already.
+   */
+  public static synchronized void drainSoon() {
+    if ( scheduler == null || !drainPending.compareAndSet( false, true ) ) {
+      return;
+    }
+    try {
+      scheduler.execute( new Runnable() {
+        public void run() {
+          drainPending.set( false );
+          drainAsSystem();
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      // stopping, what was queued is cleaned up on the next start
+      drainPending.set( false );
+    }
+  }
+
+  /**
+   * Cleans up once, as the system user so that all data sources are seen.
+   */
+  static void drainAsSystem() {
+    try {
+      SecurityHelper.getInstance().runAsSystem( new Callable<Void>() {
+        public Void call() throws Exception {
+          fromSettings().drain();
+          return null;
+        }
+      } );
+    } catch ( Exception e ) {
+      logger.warn( "Could not clean up the staging area", e ); //$NON-NLS-1$
+    }
+  }
+
+  public File getQueueFolder() {
+    return new File( StagingSweeper.getTableMarker( uploadFolder, "" ).getParentFile(), QUEUE_FOLDER ); //$NON-NLS-1$
+  }
+
+  /**
+   * Queues a stage table or uploaded file. Queueing one that waits already starts its attempts over.
+   */
+  public Item enqueue( Kind kind, String name ) throws IOException {
+    Item item = new Item( kind, name, System.currentTimeMillis(), 0, null, false );
+    synchronized ( LOCK ) {
+      File folder = getQueueFolder();
+      if ( !folder.isDirectory() && !folder.mkdirs() ) {
+        throw new IOException( "Could not create " + folder.getPath() ); //$NON-NLS-1$
+      }
+      getItemFile( item, true ).delete();
+      save( item );
+    }
+    return item;
+  }
+
+  /**
+   * Cleans up the items waiting, and keeps those that failed for the next run. Nothing is cleaned up when the data
+   * sources can't be read.
+   * <p>
+   * The items are claimed first by renaming their files, the tables and files are then cleaned up without holding the
+   * lock {@link #enqueue(Kind, String)} needs. An item queued again while it is cleaned up gets a new file, which is
+   * kept for the next run whatever the claimed one comes to.
+   *
+   * @return the items cleaned up
+   */
+  public List<Item> drain() {
+    List<Item> cleaned = new ArrayList<Item>();
+    synchronized ( DRAIN_LOCK ) {
+      List<Item> items = claim();
+      if ( items.isEmpty() ) {
+        return cleaned;
+      }
+      Set<String> tables = new HashSet<String>();
+      List<String> models = new ArrayList<String>();
+      try {
+        sweeper.collectReferences( tables, models );
+      } catch ( Exception e ) {
+        logger.warn( "Could not read the data sources, keeping " + items.size() //$NON-NLS-1$
+          + " stage tables and files to clean up", e ); //$NON-NLS-1$
+        synchronized ( LOCK ) {
+          for ( Item item : items ) {
+            release( item );
+          }
+        }
+        return cleaned;
+      }
+      for ( Item item : items ) {
+        boolean referenced = item.kind == Kind.TABLE
+          ? tables.contains( item.name.toUpperCase( Locale.ENGLISH ) )
+          : StagingSweeper.isFileReferenced( item.name, models );
+        if ( referenced ) {
+          logger.info( item + " is used by a data source again, not cleaning it up" ); //$NON-NLS-1$
+          getRunningFile( item ).delete();
+          continue;
+        }
+        try {
+          cleanUp( item );
+          getRunningFile( item ).delete();
+          cleaned.add( item );
+        } catch ( Exception e ) {
+          fail( item, e );
+        }
+      }
+    }
+    return cleaned;
+  }
+
+  /**
+   * Takes the items waiting for this run. Items a run that stopped with the server had claimed are waiting again.
+   */
+  private List<Item> claim() {
+    List<Item> claimed = new ArrayList<Item>();
+    synchronized ( LOCK ) {
+      File[] files = getQueueFolder().listFiles();
+      if ( files == null ) {
+        return claimed;
+      }
+      for ( File file : files ) {
+        if ( file.getName().endsWith( RUNNING_SUFFIX ) ) {
+          File itemFile = new File( file.getPath().substring( 0, file.getPath().length() - RUNNING_SUFFIX.length() ) );
+          if ( itemFile.exists() || !file.renameTo( itemFile ) ) {
+            file.delete();
+          }
+        }
+      }
+      for ( Item item : getItems( false ) ) {
+        File running = getRunningFile( item );
+        running.delete();
+        if ( getItemFile( item, false ).renameTo( running ) ) {
+          claimed.add( item );
+        } else {
+          logger.warn( "Could not claim " + item + ", leaving it to the next run" ); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+      }
+    }
+    return claimed;
+  }
+
+  /**
+   * Puts a claimed item back as it was, unless it was queued again meanwhile.
+   */
+  private void release( Item item ) {
+    File running = getRunningFile( item );
+    File itemFile = getItemFile( item, false );
+    if ( itemFile.exists() || !running.renameTo( itemFile ) ) {
+      running.delete();
+    }
+  }
+
+  private void fail( Item item, Exception e ) {
+    item.attempts++;
+    item.error = String.valueOf( e.getMessage() );
+    item.orphaned = item.attempts >= maxAttempts;
+    if ( item.orphaned ) {
+      logger.warn( "Giving up on " + item + " after " + item.attempts //$NON-NLS-1$ //$NON-NLS-2$
+        + " attempts, it is left orphaned", e ); //$NON-NLS-1$
+    } else {
+      logger.debug( "Could not clean up " + item + ", retrying later", e ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    synchronized ( LOCK ) {
+      File running = getRunningFile( item );
+      if ( getItemFile( item, false ).exists() ) {
+        // queued again while it was cleaned up, its attempts start over
+        running.delete();
+        return;
+      }
+      try {
+        save( item );
+        running.delete();
+      } catch ( IOException ioe ) {
+        logger.warn( "Could not record the attempt to clean up " + item, ioe ); //$NON-NLS-1$
+        release( item );
+      }
+    }
+  }
+
+  private void cleanUp( Item item ) throws Exception {
+    if ( item.kind == Kind.TABLE ) {
+      sweeper.dropTable( item.name );
+      sweeper.dropAggregateTables( item.name );
+      StagedFileDigest.delete( StagedFileDigest.getDigestFile( uploadFolder, item.name ) );
+      ColumnStatistics.getStatisticsFile( uploadFolder, item.name ).delete();
+      StagingSweeper.getTableMarker( uploadFolder, item.name ).delete();
+    } else {
+      File file = new File( uploadFolder, item.name );
+      if ( file.exists() && !file.delete() ) {
+        throw new IOException( "Could not delete " + file.getPath() ); //$NON-NLS-1$
+      }
+      new RejectedRowsFile( RejectedRowsFile.forStagedFile( file ) ).delete();
+      CsvRecordIndex.delete( file );
+    }
+  }
+
+  /**
+   * @return the items waiting to be cleaned up and the items given up on
+   */
+  public List<Item> getItems() {
+    synchronized ( LOCK ) {
+      return getItems( true );
+    }
+  }
+
+  /**
+   * Queues the orphaned items again, with their attempts started over, and cleans them up right away if the queue
+   * runs.
+   *
+   * @return the number of items queued again
+   */
+  public int retryOrphans() throws IOException {
+    int count = 0;
+    synchronized ( LOCK ) {
+      for ( Item item : getItems( true ) ) {
+        if ( item.orphaned ) {
+          enqueue( item.kind, item.name );
+          count++;
+        }
+      }
+    }
+    if ( count > 0 ) {
+      drainSoon();
+    }
+    return count;
+  }
+
+  private List<Item> getItems( boolean orphans ) {
+    List<Item> items = new ArrayList<Item>();
+    File[] files = getQueueFolder().listFiles();
+    if ( files == null ) {
+      return items;
+    }
+    for ( File file : files ) {
+      boolean orphan = file.getName().endsWith( ORPHAN_SUFFIX );
+      // the listing shows the items a run is cleaning up, unless they were queued again meanwhile
+      boolean running = orphans && file.getName().endsWith( ITEM_SUFFIX + RUNNING_SUFFIX )
+        && !new File( file.getPath().substring( 0, file.getPath().length() - RUNNING_SUFFIX.length() ) ).exists();
+      if ( !file.getName().endsWith( ITEM_SUFFIX ) && !( orphans && orphan ) && !running ) {
+        continue;
+      }
+      try {
+        items.add( load( file, orphan ) );
+      } catch ( Exception e ) {
+        logger.warn( "Could not read " + file.getPath() + ", removing it", e ); //$NON-NLS-1$ //$NON-NLS-2$
+        file.delete();
+      }
+    }
+    return items;
+  }
+
+  private File getRunningFile( Item item ) {
+    return new File( getItemFile( item, false ).getPath() + RUNNING_SUFFIX );
+  }
+
+  private File getItemFile( Item item, boolean orphan ) {
+    try {
+      return new File( getQueueFolder(), item.kind.name().toLowerCase( Locale.ENGLISH ) + "-" //$NON-NLS-1$
+        + URLEncoder.encode( item.name, "UTF-8" ) + ( orphan ? ORPHAN_SUFFIX : ITEM_SUFFIX ) ); //$NON-NLS-1$
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  private static Item load( File file, boolean orphan ) throws IOException {
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream( file );
+    try {
+      properties.load( in );
+    } finally {
+      in.close();
+    }
+    String name = properties.getProperty( NAME );
+    if ( name == null ) {
+      throw new IOException( "No name in " + file.getPath() ); //$NON-NLS-1$
+    }
+    return new Item( Kind.valueOf( properties.getProperty( KIND ) ), name,
+      Long.parseLong( properties.getProperty( QUEUED, "0" ) ), //$NON-NLS-1$
+      Integer.parseInt( properties.getProperty( ATTEMPTS, "0" ) ), //$NON-NLS-1$
+      properties.getProperty( ERROR ), orphan );
+  }
+
+  /**
+   * Writes the item next to its file first and moves it in place, so that a crash leaves the item as it was or as it
+   * is now.
+   */
+  private void save( Item item ) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty( KIND, item.kind.name() );
+    properties.setProperty( NAME, item.name );
+    properties.setProperty( QUEUED, String.valueOf( item.queued ) );
+    properties.setProperty( ATTEMPTS, String.valueOf( item.attempts ) );
+    if ( item.error != null ) {
+      properties.setProperty( ERROR, item.error );
+    }
+    File file = getItemFile( item, item.orphaned );
+    File tmpFile = new File( file.getPath() + TMP_SUFFIX );
+    OutputStream out = new FileOutputStream( tmpFile );
+    try {
+      properties.store( out, null );
+    } finally {
+      out.close();
+    }
+    if ( !tmpFile.renameTo( file ) ) {
+      file.delete();
+      if ( !tmpFile.renameTo( file ) ) {
+        tmpFile.delete();
+        throw new IOException( "Could not write " + file.getPath() ); //$NON-NLS-1$
+      }
+    }
+  }
+
+  /**
+   * A stage table or uploaded file to clean up.
+   */
+  public static class Item {
+    private final Kind kind;
+    private final String name;
+    private final long queued;
+    private int attempts;
+    private String error;
+    private boolean orphaned;
+
+    Item( Kind kind, String name, long queued, int attempts, String error, boolean orphaned ) {
+      this.kind = kind;
+      this.name = name;
+      this.queued = queued;
+      this.attempts = attempts;
+      this.error = error;
+      this.orphaned = orphaned;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return when the item was queued
+     */
+    public long getQueued() {
+      return queued;
+    }
+
+    /**
+     * @return the times cleaning up the item failed
+     */
+    public int getAttempts() {
+      return attempts;
+    }
+
+    /**
+     * @return why the last attempt failed, null if none did
+     */
+    public String getError() {
+      return error;
+    }
+
+    /**
+     * @return whether the item is given up on until it is retried
+     */
+    public boolean isOrphaned() {
+      return orphaned;
+    }
+
+    @Override
+    public String toString() {
+      return ( kind == Kind.TABLE ? "stage table " : "uploaded file " ) + name; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+  }
+}
@@ -0,0 +1,421 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.IPhysicalModel;
+import org.pentaho.metadata.model.IPhysicalTable;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+import org.pentaho.platform.dataaccess.datasource.wizard.csv.CsvRecordIndex;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvTransformGeneratorException;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
+
+/**
+ * Reclaims what the CSV data source wizard leaves behind when a wizard session is abandoned or a data source is
+ * replaced or deleted:
+ * <ul>
+ * <li>files uploaded to the tmp folder that were never saved as a data source,</li>
+ * <li>stage tables that no data source reads from any more, along with their aggregate tables,</li>
+ * <li>files in the upload folder that no data source refers to any more.</li>
+ * </ul>
+ * Each kind has its own time to live, counted from the last time the file was written or the table staged, and is
+ * kept for good with a time to live of 0. Only tables staged since this sweeper exists are known to it, each staging
+ * leaves a marker next to the digest of the table.
+ * <p>
+ * Nothing that a data source may still use is reclaimed when the data sources can't be read. In dry run mode the sweep
+ * only reports what it would reclaim.
+ */
+public class StagingSweeper {
+
+  public static final String TABLE_MARKER_SUFFIX = ".table"; //$NON-NLS-1$
+
+  private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+  private static final String DATASOURCE_MODEL = "datasourceModel"; //$NON-NLS-1$
+
+  private static final long HOUR_MILLIS = 60L * 60L * 1000L;
+
+  private static final Log logger = LogFactory.getLog( StagingSweeper.class );
+
+  private static ScheduledExecutorService scheduler;
+
+  private static volatile Report lastReport;
+
+  private final File tmpFolder;
+
+  private final File uploadFolder;
+
+  private final long tmpTtlMillis;
+
+  private final long tableTtlMillis;
+
+  private final long fileTtlMillis;
+
+  private final boolean dryRun;
+
+  public StagingSweeper( File tmpFolder, File uploadFolder, int tmpTtlHours, int tableTtlHours, int fileTtlHours,
+                         boolean dryRun ) {
+    this.tmpFolder = tmpFolder;
+    this.uploadFolder = uploadFolder;
+    this.tmpTtlMillis = tmpTtlHours * HOUR_MILLIS;
+    this.tableTtlMillis = tableTtlHours * HOUR_MILLIS;
+    this.fileTtlMillis = fileTtlHours * HOUR_MILLIS;
+    this.dryRun = dryRun;
+  }
+
+  /**
+   * @param dryRun whether to only report what would be reclaimed, regardless of the configured mode
+   * @return a sweeper for the configured folders and time to live settings
+   */
+  public static StagingSweeper fromSettings( boolean dryRun ) {
+    File tmpFolder = new File( PentahoSystem.getApplicationContext().getSolutionPath(
+      CsvTransformGenerator.TMP_FILE_PATH ) );
+    return new StagingSweeper( tmpFolder, CsvTransformGenerator.getUploadFolder(), AgileHelper.getSweepTmpTtl(),
+      AgileHelper.getSweepTableTtl(), AgileHelper.getSweepFileTtl(), dryRun || AgileHelper.isSweepDryRun() );
+  }
+
+  /**
+   * Records that a table was just staged, which starts its time to live.
+   */
+  public static void recordStagedTable( File uploadFolder, String tableName ) throws IOException {
+    File marker = getTableMarker( uploadFolder, tableName );
+    if ( !marker.exists() ) {
+      marker.getParentFile().mkdirs();
+      if ( !marker.createNewFile() && !marker.exists() ) {
+        throw new IOException( "Could not create " + marker.getPath() ); //$NON-NLS-1$
+      }
+    }
+    marker.setLastModified( System.currentTimeMillis() );
+  }
+
+  /**
+   * @return the marker left by {@link #recordStagedTable}, last modified when the table was last staged
+   */
+  public static File getTableMarker( File uploadFolder, String tableName ) {
+    return new File( StagedFileDigest.getDigestFile( uploadFolder, tableName ).getParentFile(),
+      tableName + TABLE_MARKER_SUFFIX );
+  }
+
+  /**
+   * Runs the sweep every <code>intervalMinutes</code> on a background thread until {@link #stop()}.
+   */
+  public static synchronized void start( long intervalMinutes ) {
+    if ( scheduler != null || intervalMinutes <= 0 ) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "data-access-staging-sweeper" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    scheduler.scheduleWithFixedDelay( new Runnable() {
+      public void run() {
+        try {
+          sweepAsSystem( false );
+        } catch ( Exception e ) {
+          logger.warn( "Could not sweep the staging area", e ); //$NON-NLS-1$
+        }
+      }
+    }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES );
+  }
+
+  public static synchronized void stop() {
+    if ( scheduler != null ) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Sweeps once with the configured settings, as the system user so that all data sources are seen.
+   */
+  public static Report sweepAsSystem( final boolean dryRun ) throws Exception {
+    return SecurityHelper.getInstance().runAsSystem( new Callable<Report>() {
+      public Report call() throws Exception {
+        Report report = fromSettings( dryRun ).sweep();
+        if ( !report.isEmpty() ) {
+          logger.info( report );
+        }
+        lastReport = report;
+        return report;
+      }
+    } );
+  }
+
+  /**
+   * @return the report of the last sweep, null if there was none yet
+   */
+  public static Report getLastReport() {
+    return lastReport;
+  }
+
+  public Report sweep() {
+    long now = System.currentTimeMillis();
+    Report report = new Report( dryRun );
+    if ( tmpTtlMillis > 0 ) {
+      sweepTmpFiles( now, report );
+    }
+    if ( tableTtlMillis <= 0 && fileTtlMillis <= 0 ) {
+      return report;
+    }
+    Set<String> tables = new HashSet<String>();
+    List<String> models = new ArrayList<String>();
+    try {
+      collectReferences( tables, models );
+    } catch ( Exception e ) {
+      logger.warn( "Could not read the data sources, keeping staged tables and files", e ); //$NON-NLS-1$
+      return report;
+    }
+    if ( tableTtlMillis > 0 ) {
+      sweepTables( now, tables, report );
+    }
+    if ( fileTtlMillis > 0 ) {
+      sweepUploadedFiles( now, models, report );
+    }
+    return report;
+  }
+
+  private void sweepTmpFiles( long now, Report report ) {
+    File[] files = tmpFolder.listFiles();
+    if ( files == null ) {
+      return;
+    }
+    for ( File file : files ) {
+      String stagedName = getStagedFileName( file.getName() );
+      if ( !file.isFile() || !stagedName.endsWith( TMP_SUFFIX ) ) {
+        continue;
+      }
+      // the side files of an upload live as long as the upload
+      File stagedFile = new File( tmpFolder, stagedName );
+      long lastModified = stagedFile.exists() ? stagedFile.lastModified() : file.lastModified();
+      if ( now - lastModified > tmpTtlMillis ) {
+        reclaimFile( file, report.tmpFiles, report );
+      }
+    }
+  }
+
+  private void sweepTables( long now, Set<String> referencedTables, Report report ) {
+    File stagingFolder = getTableMarker( uploadFolder, "" ).getParentFile(); //$NON-NLS-1$
+    File[] markers = stagingFolder.listFiles();
+    if ( markers == null ) {
+      return;
+    }
+    for ( File marker : markers ) {
+      String name = marker.getName();
+      if ( !name.endsWith( TABLE_MARKER_SUFFIX ) || now - marker.lastModified() <= tableTtlMillis ) {
+        continue;
+      }
+      String tableName = name.substring( 0, name.length() - TABLE_MARKER_SUFFIX.length() );
+      if ( referencedTables.contains( tableName.toUpperCase( Locale.ENGLISH ) ) ) {
+        continue;
+      }
+      if ( !dryRun ) {
+        try {
+          dropTable( tableName );
+          dropAggregateTables( tableName );
+        } catch ( Exception e ) {
+          logger.warn( "Could not drop stage table " + tableName, e ); //$NON-NLS-1$
+          continue;
+        }
+        StagedFileDigest.delete( StagedFileDigest.getDigestFile( uploadFolder, tableName ) );
+        ColumnStatistics.getStatisticsFile( uploadFolder, tableName ).delete();
+        marker.delete();
+      }
+      report.tables.add( tableName );
+    }
+  }
+
+  private void sweepUploadedFiles( long now, List<String> models, Report report ) {
+    File[] files = uploadFolder.listFiles();
+    if ( files == null ) {
+      return;
+    }
+    for ( File file : files ) {
+      if ( !file.isFile() || now - file.lastModified() <= fileTtlMillis ) {
+        continue;
+      }
+      if ( !isFileReferenced( getStagedFileName( file.getName() ), models ) ) {
+        reclaimFile( file, report.files, report );
+      }
+    }
+  }
+
+  /**
+   * @return whether one of the saved wizard states names <code>fileName</code> as its uploaded file
+   */
+  static boolean isFileReferenced( String fileName, List<String> models ) {
+    String reference = "<filename>" //$NON-NLS-1$
+      + StringEscapeUtils.escapeXml( fileName ) + "</filename>"; //$NON-NLS-1$
+    for ( String model : models ) {
+      if ( model.contains( reference ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void reclaimFile( File file, List<String> reclaimed, Report report ) {
+    long length = file.length();
+    if ( dryRun || file.delete() ) {
+      reclaimed.add( file.getName() );
+      report.bytes += length;
+    } else {
+      logger.warn( "Could not delete " + file.getPath() ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * @return the name of the uploaded file a side file belongs to, or the name itself if it is no side file
+   */
+  static String getStagedFileName( String name ) {
+    for ( String suffix : new String[] { RejectedRowsFile.FILE_SUFFIX, RejectedRowsFile.INDEX_SUFFIX,
+      CsvRecordIndex.FILE_SUFFIX } ) {
+      if ( name.endsWith( suffix ) ) {
+        return name.substring( 0, name.length() - suffix.length() );
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Collects the upper cased tables the data sources read from and the saved wizard state of their models, which
+   * names the uploaded file of a CSV data source.
+   */
+  void collectReferences( Set<String> tables, List<String> models ) throws Exception {
+    for ( Domain domain : getDomains() ) {
+      for ( IPhysicalModel physicalModel : domain.getPhysicalModels() ) {
+        for ( IPhysicalTable table : physicalModel.getPhysicalTables() ) {
+          if ( table instanceof SqlPhysicalTable && ( (SqlPhysicalTable) table ).getTargetTable() != null ) {
+            tables.add( ( (SqlPhysicalTable) table ).getTargetTable().toUpperCase( Locale.ENGLISH ) );
+          }
+        }
+      }
+      for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+        Object model = logicalModel.getProperty( DATASOURCE_MODEL );
+        if ( model instanceof String ) {
+          models.add( (String) model );
+        }
+      }
+    }
+  }
+
+  protected Collection<Domain> getDomains() throws Exception {
+    IMetadataDomainRepository repository = PentahoSystem.get( IMetadataDomainRepository.class, null );
+    List<Domain> domains = new ArrayList<Domain>();
+    for ( String domainId : repository.getDomainIds() ) {
+      Domain domain = repository.getDomain( domainId );
+      if ( domain != null ) {
+        domains.add( domain );
+      }
+    }
+    return domains;
+  }
+
+  protected void dropTable( String tableName ) throws CsvTransformGeneratorException {
+    new CsvTransformGenerator( new ModelInfo(), AgileHelper.getDatabaseMeta() ).dropTable( tableName );
+  }
+
+  /**
+   * Drops the {@link StagingAggregates} built from the stage table.
+   */
+  protected void dropAggregateTables( String tableName ) throws CsvTransformGeneratorException {
+    File aggregatesFile = StagingAggregates.getAggregatesFile( uploadFolder, tableName );
+    List<StagingAggregates.AggregateTable> aggregates = StagingAggregates.load( aggregatesFile );
+    if ( !aggregates.isEmpty() ) {
+      CsvTransformGenerator generator = new CsvTransformGenerator( new ModelInfo(), AgileHelper.getDatabaseMeta() );
+      for ( StagingAggregates.AggregateTable aggregate : aggregates ) {
+        generator.dropAggregateTable( aggregate.getName() );
+      }
+    }
+    aggregatesFile.delete();
+  }
+
+  /**
+   * What a sweep reclaimed, or would reclaim in dry run mode.
+   */
+  public static class Report {
+    private final boolean dryRun;
+    private final long time = System.currentTimeMillis();
+    private final List<String> tmpFiles = new ArrayList<String>();
+    private final List<String> tables = new ArrayList<String>();
+    private final List<String> files = new ArrayList<String>();
+    private long bytes;
+
+    Report( boolean dryRun ) {
+      this.dryRun = dryRun;
+    }
+
+    public boolean isDryRun() {
+      return dryRun;
+    }
+
+    public long getTime() {
+      return time;
+    }
+
+    public List<String> getTmpFiles() {
+      return tmpFiles;
+    }
+
+    public List<String> getTables() {
+      return tables;
+    }
+
+    public List<String> getFiles() {
+      return files;
+    }
+
+    /**
+     * @return the size of the files reclaimed
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    public boolean isEmpty() {
+      return tmpFiles.isEmpty() && tables.isEmpty() && files.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return ( dryRun ? "Staging sweep would reclaim " : "Staging sweep reclaimed " ) //$NON-NLS-1$ //$NON-NLS-2$
+        + tmpFiles.size() + " abandoned uploads " + tmpFiles + ", " //$NON-NLS-1$ //$NON-NLS-2$
+        + tables.size() + " stage tables " + tables + ", " //$NON-NLS-1$ //$NON-NLS-2$
+        + files.size() + " uploaded files " + files + ", " + bytes + " bytes"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+  }
+}
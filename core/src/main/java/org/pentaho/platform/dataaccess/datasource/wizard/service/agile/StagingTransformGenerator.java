@@ -13,11 +13,21 @@
 
 package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -60,14 +70,34 @@ public abstract class StagingTransformGenerator extends PentahoBase {
 
   private static final String TRANS_SESSION_ATTR = "PDI_Trans"; //$NON-NLS-1$
 
+  /**
+   * Suffix of the name a table is moved to while {@link #replaceTable} puts another one in its place.
+   */
+  private static final String REPLACED_SUFFIX = "_OLD"; //$NON-NLS-1$
+
   private static final Log log = LogFactory.getLog( StagingTransformGenerator.class );
 
+  /**
+   * Dialects that build several indices on the same table concurrently without serializing on a table lock.
+   */
+  private static final Set<String> CONCURRENT_INDEX_DIALECTS = new HashSet<String>( Arrays.asList(
+    "POSTGRESQL", "ORACLE", "MSSQL", "MSSQLNATIVE", "GREENPLUM" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+
+  /**
+   * Identifier length to fall back on for the dialects we know nothing about, the old Oracle limit fits nearly all.
+   */
+  private static final int DEFAULT_MAX_IDENTIFIER_LENGTH = 30;
+
   private DatabaseMeta targetDatabaseMeta;
 
   private String tableName = null;
 
   private FileTransformStats transformStats;
 
+  private RejectedRowsFile rejectedRowsFile;
+
+  private ColumnStatistics columnStatistics;
+
   protected abstract StepMeta[] getSteps( TransMeta transMeta );
 
   protected abstract String[] getIndexedColumnNames();
@@ -129,6 +159,17 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     }
   }
 
+  /**
+   * @return whether the given table exists in the staging schema
+   */
+  public boolean tableExists( String tableName ) throws CsvTransformGeneratorException {
+    if ( tableName == null ) {
+      throw new IllegalArgumentException( "Table Name cannot be null" ); //$NON-NLS-1$
+    }
+    return checkTableExists(
+      targetDatabaseMeta.getQuotedSchemaTableCombination( AgileHelper.getSchemaName(), tableName ) );
+  }
+
   public void createOrModifyTable( IPentahoSession session )
     throws CsvTransformGeneratorException, IllegalArgumentException {
 
@@ -201,8 +242,15 @@ public abstract class StagingTransformGenerator extends PentahoBase {
         getStackTraceAsString( e2 ) ); //$NON-NLS-1$
     }
 
+    openRejectedRowsFile();
+
     StepInterface step = trans.findRunThread( TABLE_OUTPUT );
-    PdiTransListener listener = new PdiTransListener( trans, step, transformStats );
+    columnStatistics = null;
+    if ( AgileHelper.isStagingColumnStatistics() && step != null ) {
+      columnStatistics = new ColumnStatistics();
+      step.addRowListener( new ColumnStatisticsListener( columnStatistics ) );
+    }
+    PdiTransListener listener = new PdiTransListener( trans, step, transformStats, rejectedRowsFile );
     // start the listener in a thread
     Thread listenerThread = new Thread( listener );
     listenerThread.start();
@@ -215,7 +263,27 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     }
   }
 
+  /**
+   * Creates the indices on the staged table. This is meant to run once the table is loaded, building an index over
+   * data that is already there is much cheaper than maintaining it row by row during the load. The statistics of the
+   * table are gathered in the same pass so the optimizer can use the new indices right away.
+   * <p>
+   * The statements go over one staging connection. When more than one index thread is configured and the dialect
+   * copes with concurrent DDL on the same table the indices are spread over a small pool, each worker with a
+   * connection of its own.
+   *
+   * @return the number of indices created
+   */
   public int createIndices( IPentahoSession session ) {
+    return createIndices( session, getIndexedColumnNames() );
+  }
+
+  /**
+   * Creates indices on the given columns of the staged table, the same way as {@link #createIndices(IPentahoSession)}.
+   *
+   * @return the number of indices created
+   */
+  public int createIndices( IPentahoSession session, String[] indexed ) {
 
     if ( transformStats != null ) {
       transformStats.setIndexFinished( false );
@@ -223,34 +291,29 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     }
 
     String tableName = getTableName();
-    Database db = new Database( targetDatabaseMeta );
-
-    String[] indexed = getIndexedColumnNames();
+    Database db = getDatabase( targetDatabaseMeta );
 
     List<String> commands = new ArrayList<String>();
     // TODO base this on the input rows meta for the table output step?
     for ( String columnName : indexed ) {
-      String indexSql = db.getCreateIndexStatement( tableName, columnName + "_idx", //$NON-NLS-1$
+      String indexSql = db.getCreateIndexStatement( tableName, getIndexName( tableName, columnName ),
         new String[] { columnName }, false, false, false, true );
       commands.add( indexSql );
     }
     if ( transformStats != null ) {
       transformStats.setIndexCount( commands.size() );
     }
-    int indexDone = 0;
+
+    int threads = Math.min( AgileHelper.getStagingIndexThreads(), commands.size() );
     int indexSuccess = 0;
-    for ( String command : commands ) {
-      try {
-        execSqlStatement( command, targetDatabaseMeta, null );
-        indexSuccess++;
-      } catch ( CsvTransformGeneratorException e ) {
-        // failed to execute
-      }
-      indexDone++;
-      if ( transformStats != null ) {
-        transformStats.setIndexDone( indexDone );
-      }
+    if ( commands.isEmpty() ) {
+      // nothing to index, leave the table alone
+    } else if ( threads > 1 && supportsConcurrentIndexBuild( targetDatabaseMeta ) ) {
+      indexSuccess = createIndicesInParallel( commands, threads );
+    } else {
+      indexSuccess = runIndexStatements( db, commands, new AtomicInteger(), true );
     }
+
     if ( transformStats != null ) {
       transformStats.setIndexFinished( true );
       transformStats.setIndexStarted( false );
@@ -258,6 +321,310 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     return indexSuccess;
   }
 
+  private int createIndicesInParallel( List<String> commands, int threads ) {
+    // deal the statements round robin, each worker keeps its own connection for all of its statements
+    List<List<String>> buckets = new ArrayList<List<String>>( threads );
+    for ( int i = 0; i < threads; i++ ) {
+      buckets.add( new ArrayList<String>() );
+    }
+    for ( int i = 0; i < commands.size(); i++ ) {
+      buckets.get( i % threads ).add( commands.get( i ) );
+    }
+
+    final AtomicInteger indexDone = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool( threads );
+    List<Future<Integer>> results = new ArrayList<Future<Integer>>( threads );
+    try {
+      for ( final List<String> bucket : buckets ) {
+        results.add( executor.submit( new Callable<Integer>() {
+          public Integer call() {
+            return runIndexStatements( getDatabase( targetDatabaseMeta ), bucket, indexDone, false );
+          }
+        } ) );
+      }
+      int indexSuccess = 0;
+      for ( Future<Integer> result : results ) {
+        try {
+          indexSuccess += result.get();
+        } catch ( ExecutionException e ) {
+          error( "Error creating indices", e.getCause() ); //$NON-NLS-1$
+        }
+      }
+      gatherTableStatistics( getDatabase( targetDatabaseMeta ), true );
+      return indexSuccess;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return 0;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs the index statements one after the other over a single connection.
+   *
+   * @param indexDone       shared count of the statements run so far, reported to the transform stats
+   * @param gatherStatistics whether to gather the table statistics over the same connection once done
+   * @return the number of statements that succeeded
+   */
+  private int runIndexStatements( Database db, List<String> commands, AtomicInteger indexDone,
+                                  boolean gatherStatistics ) {
+    int indexSuccess = 0;
+    try {
+      db.connect( null );
+      // a failing index must not take the ones after it down with a rolled back transaction
+      db.setAutoCommit( true );
+      for ( String command : commands ) {
+        try {
+          execSqlStatements( db, command );
+          indexSuccess++;
+        } catch ( CsvTransformGeneratorException e ) {
+          getLogger().warn( "Could not create index: " + command, e ); //$NON-NLS-1$
+        }
+        int done = indexDone.incrementAndGet();
+        if ( transformStats != null ) {
+          transformStats.setIndexDone( done );
+        }
+      }
+      if ( gatherStatistics ) {
+        gatherTableStatistics( db, false );
+      }
+    } catch ( KettleDatabaseException dbe ) {
+      error( "Connection error", dbe ); //$NON-NLS-1$
+    } finally {
+      db.disconnect();
+    }
+    return indexSuccess;
+  }
+
+  /**
+   * Asks the staging database to refresh the statistics of the staged table, for the dialects where we know how to.
+   *
+   * @param connect whether <code>db</code> still has to be connected, and disconnected afterwards
+   */
+  private void gatherTableStatistics( Database db, boolean connect ) {
+    String schemaTableName =
+      targetDatabaseMeta.getQuotedSchemaTableCombination( AgileHelper.getSchemaName(), getTableName() );
+    String sql = getGatherStatisticsStatement( targetDatabaseMeta, schemaTableName );
+    if ( sql == null ) {
+      return;
+    }
+    try {
+      if ( connect ) {
+        db.connect( null );
+      }
+      db.execStatement( sql );
+    } catch ( KettleDatabaseException dbe ) {
+      // statistics are an optimization only
+      getLogger().warn( "Could not gather statistics for " + schemaTableName, dbe ); //$NON-NLS-1$
+    } finally {
+      if ( connect ) {
+        db.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Names the index of a column after the table and the column, index names share one namespace per schema on most
+   * dialects so the column name alone clashes as soon as two staged tables index a column of the same name. Names
+   * longer than the dialect allows are cut and end with a hash of the full name to keep them apart.
+   */
+  String getIndexName( String tableName, String columnName ) {
+    String name = tableName + "_" + columnName + "_idx"; //$NON-NLS-1$ //$NON-NLS-2$
+    int max = getMaxIdentifierLength( targetDatabaseMeta );
+    if ( name.length() <= max ) {
+      return name;
+    }
+    String hash = Integer.toHexString( name.hashCode() );
+    return name.substring( 0, max - hash.length() - 1 ) + "_" + hash; //$NON-NLS-1$
+  }
+
+  protected int getMaxIdentifierLength( DatabaseMeta databaseMeta ) {
+    String pluginId = databaseMeta.getPluginId();
+    if ( pluginId == null ) {
+      return DEFAULT_MAX_IDENTIFIER_LENGTH;
+    }
+    pluginId = pluginId.toUpperCase();
+    if ( "POSTGRESQL".equals( pluginId ) || "GREENPLUM".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return 63;
+    } else if ( "MYSQL".equals( pluginId ) || "MARIADB".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return 64;
+    } else if ( "MSSQL".equals( pluginId ) || "MSSQLNATIVE".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return 128;
+    } else if ( "H2".equals( pluginId ) ) { //$NON-NLS-1$
+      return 256;
+    }
+    return DEFAULT_MAX_IDENTIFIER_LENGTH;
+  }
+
+  protected boolean supportsConcurrentIndexBuild( DatabaseMeta databaseMeta ) {
+    String pluginId = databaseMeta.getPluginId();
+    return pluginId != null && CONCURRENT_INDEX_DIALECTS.contains( pluginId.toUpperCase() );
+  }
+
+  protected String getGatherStatisticsStatement( DatabaseMeta databaseMeta, String schemaTableName ) {
+    String pluginId = databaseMeta.getPluginId();
+    if ( pluginId == null ) {
+      return null;
+    }
+    pluginId = pluginId.toUpperCase();
+    if ( "POSTGRESQL".equals( pluginId ) || "GREENPLUM".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return "ANALYZE " + schemaTableName; //$NON-NLS-1$
+    } else if ( "MYSQL".equals( pluginId ) || "MARIADB".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return "ANALYZE TABLE " + schemaTableName; //$NON-NLS-1$
+    } else if ( "MSSQL".equals( pluginId ) || "MSSQLNATIVE".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      return "UPDATE STATISTICS " + schemaTableName; //$NON-NLS-1$
+    } else if ( "ORACLE".equals( pluginId ) ) { //$NON-NLS-1$
+      String schema = AgileHelper.getSchemaName();
+      return "BEGIN DBMS_STATS.GATHER_TABLE_STATS(" //$NON-NLS-1$
+        + ( schema == null ? "USER" : "'" + schema.toUpperCase() + "'" ) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + ", '" + getTableName().toUpperCase() + "'); END;"; //$NON-NLS-1$ //$NON-NLS-2$
+    } else if ( "H2".equals( pluginId ) ) { //$NON-NLS-1$
+      return "ANALYZE"; //$NON-NLS-1$
+    }
+    return null;
+  }
+
+  /**
+   * Builds an aggregate table from the staged table, replacing the one of the same name if there is one. See {@link
+   * StagingAggregates}.
+   */
+  public void createAggregateTable( StagingAggregates.AggregateTable aggregate )
+    throws CsvTransformGeneratorException {
+    dropAggregateTable( aggregate.getName() );
+    String factTable =
+      targetDatabaseMeta.getQuotedSchemaTableCombination( AgileHelper.getSchemaName(), getTableName() );
+    String select = aggregate.getSelectStatement( targetDatabaseMeta, factTable );
+    execSqlStatement( getCreateTableAsStatement( targetDatabaseMeta, getQuotedAggregateName( aggregate.getName() ),
+      select ), targetDatabaseMeta, null );
+  }
+
+  public void dropAggregateTable( String name ) throws CsvTransformGeneratorException {
+    String schemaTableName = getQuotedAggregateName( name );
+    if ( checkTableExists( schemaTableName ) ) {
+      execSqlStatement( "DROP TABLE " + schemaTableName, targetDatabaseMeta, null ); //$NON-NLS-1$
+    }
+  }
+
+  public boolean aggregateTableExists( String name ) throws CsvTransformGeneratorException {
+    return checkTableExists( getQuotedAggregateName( name ) );
+  }
+
+  /**
+   * Aggregate table names are always quoted, Mondrian quotes them too when it reads from them.
+   */
+  private String getQuotedAggregateName( String name ) {
+    String quoted = targetDatabaseMeta.getStartQuote() + name + targetDatabaseMeta.getEndQuote();
+    String schema = AgileHelper.getSchemaName();
+    return Const.isEmpty( schema ) ? quoted : targetDatabaseMeta.quoteField( schema ) + "." + quoted; //$NON-NLS-1$
+  }
+
+  protected String getCreateTableAsStatement( DatabaseMeta databaseMeta, String schemaTableName, String select ) {
+    String pluginId = databaseMeta.getPluginId();
+    pluginId = pluginId == null ? "" : pluginId.toUpperCase(); //$NON-NLS-1$
+    if ( "MSSQL".equals( pluginId ) || "MSSQLNATIVE".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      int from = select.indexOf( " FROM " ); //$NON-NLS-1$
+      return select.substring( 0, from ) + " INTO " + schemaTableName + select.substring( from ); //$NON-NLS-1$
+    } else if ( "HYPERSONIC".equals( pluginId ) ) { //$NON-NLS-1$
+      return "CREATE TABLE " + schemaTableName + " AS (" + select //$NON-NLS-1$ //$NON-NLS-2$
+        + ") WITH DATA"; //$NON-NLS-1$
+    }
+    return "CREATE TABLE " + schemaTableName + " AS " + select; //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * Puts the staged table <code>replacementName</code> in the place of <code>tableName</code> and drops the table it
+   * replaces. Both renames run in one transaction, so readers never see the table missing on databases that rename
+   * several tables in one statement or run DDL in transactions, see {@link #isReplaceAtomic(DatabaseMeta)}. Elsewhere
+   * (Oracle, H2, Hypersonic and the like commit each DDL statement) the table is missing for the time between the two
+   * renames.
+   */
+  public void replaceTable( String tableName, String replacementName ) throws CsvTransformGeneratorException {
+    if ( tableName == null || replacementName == null ) {
+      throw new IllegalArgumentException( "Table Name cannot be null" ); //$NON-NLS-1$
+    }
+    String replacedName = tableName + REPLACED_SUFFIX;
+    // left over by a replacement that failed half way
+    dropTable( replacedName );
+    List<String> statements = getReplaceTableStatements( targetDatabaseMeta, tableName, replacementName,
+      tableExists( tableName ) ? replacedName : null );
+    if ( statements.size() > 1 && !isReplaceAtomic( targetDatabaseMeta ) ) {
+      getLogger().debug( "The database commits each rename, " + tableName //$NON-NLS-1$
+        + " is missing while it is replaced" ); //$NON-NLS-1$
+    }
+    Database db = getDatabase( targetDatabaseMeta );
+    try {
+      db.connect( null );
+      db.setAutoCommit( false );
+      for ( String sql : statements ) {
+        db.execStatement( sql );
+      }
+      db.commit();
+    } catch ( KettleDatabaseException dbe ) {
+      try {
+        db.rollback();
+      } catch ( KettleDatabaseException e ) {
+        // the connection is gone, so is the transaction
+      }
+      error( "Could not replace table " + tableName, dbe ); //$NON-NLS-1$
+      throw new CsvTransformGeneratorException( "Could not replace table " + tableName, dbe, //$NON-NLS-1$
+        getStackTraceAsString( dbe ) );
+    } finally {
+      db.disconnect();
+    }
+    dropTable( replacedName );
+  }
+
+  /**
+   * @param replacedName the name to move the current table to, null if there is no current table
+   * @return the statements renaming the tables for {@link #replaceTable}
+   */
+  protected List<String> getReplaceTableStatements( DatabaseMeta databaseMeta, String tableName,
+                                                    String replacementName, String replacedName ) {
+    String schema = AgileHelper.getSchemaName();
+    String table = databaseMeta.getQuotedSchemaTableCombination( schema, tableName );
+    String replacement = databaseMeta.getQuotedSchemaTableCombination( schema, replacementName );
+    String pluginId = databaseMeta.getPluginId();
+    pluginId = pluginId == null ? "" : pluginId.toUpperCase(); //$NON-NLS-1$
+    List<String> statements = new ArrayList<String>();
+    if ( "MYSQL".equals( pluginId ) || "MARIADB".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      String replaced = replacedName == null ? "" //$NON-NLS-1$
+        : table + " TO " + databaseMeta.getQuotedSchemaTableCombination( schema, replacedName ) + ", "; //$NON-NLS-1$
+      statements.add( "RENAME TABLE " + replaced + replacement + " TO " + table ); //$NON-NLS-1$ //$NON-NLS-2$
+    } else if ( "MSSQL".equals( pluginId ) || "MSSQLNATIVE".equals( pluginId ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+      if ( replacedName != null ) {
+        statements.add( "EXEC sp_rename '" + table + "', '" + replacedName + "'" ); //$NON-NLS-1$
+      }
+      statements.add( "EXEC sp_rename '" + replacement + "', '" + tableName + "'" ); //$NON-NLS-1$
+    } else if ( "DB2".equals( pluginId ) ) { //$NON-NLS-1$
+      if ( replacedName != null ) {
+        statements.add( "RENAME TABLE " + table + " TO " + databaseMeta.quoteField( replacedName ) ); //$NON-NLS-1$
+      }
+      statements.add( "RENAME TABLE " + replacement + " TO " + databaseMeta.quoteField( tableName ) ); //$NON-NLS-1$
+    } else {
+      if ( replacedName != null ) {
+        statements.add( "ALTER TABLE " + table + " RENAME TO " //$NON-NLS-1$ //$NON-NLS-2$
+          + databaseMeta.quoteField( replacedName ) );
+      }
+      statements.add( "ALTER TABLE " + replacement + " RENAME TO " //$NON-NLS-1$ //$NON-NLS-2$
+        + databaseMeta.quoteField( tableName ) );
+    }
+    return statements;
+  }
+
+  /**
+   * @return true if the statements of {@link #getReplaceTableStatements} replace the table at once: MySQL renames both
+   *         tables in one statement, PostgreSQL, SQL Server and DB2 roll back DDL with the transaction
+   */
+  protected boolean isReplaceAtomic( DatabaseMeta databaseMeta ) {
+    String pluginId = databaseMeta.getPluginId();
+    pluginId = pluginId == null ? "" : pluginId.toUpperCase(); //$NON-NLS-1$
+    return "MYSQL".equals( pluginId ) || "MARIADB".equals( pluginId ) //$NON-NLS-1$ //$NON-NLS-2$
+      || "POSTGRESQL".equals( pluginId ) || "GREENPLUM".equals( pluginId ) //$NON-NLS-1$ //$NON-NLS-2$
+      || "MSSQL".equals( pluginId ) || "MSSQLNATIVE".equals( pluginId ) //$NON-NLS-1$ //$NON-NLS-2$
+      || "DB2".equals( pluginId ); //$NON-NLS-1$
+  }
+
   public void cancelLoad( IPentahoSession session ) {
     Trans trans = (Trans) session.getAttribute( TRANS_SESSION_ATTR );
     trans.stopAll();
@@ -304,19 +671,7 @@ public abstract class StagingTransformGenerator extends PentahoBase {
       StepErrorMeta tableOutputErrorMeta = new StepErrorMeta( trans.getTransMeta(), tableOutputStep.getStepMeta() ) {
         public void addErrorRowData( Object[] row, int startIndex, long nrErrors, String errorDescriptions,
                                      String fieldNames, String errorCodes ) {
-          // don't overwhelm the user with too many errors
-          if ( errorRowCount < maxErrorRows ) {
-            StringBuffer sb = new StringBuffer();
-            sb.append( "Rejected Row: " );
-            for ( Object rowData : row ) {
-              sb.append( rowData );
-              sb.append( ", " );
-            }
-            sb.append( "\r\n" );
-            if ( transformStats != null ) {
-              transformStats.getErrors().add( sb.toString() + errorDescriptions );
-            }
-          }
+          recordRejectedRow( TABLE_OUTPUT, errorRowCount, row, errorDescriptions, fieldNames, errorCodes );
           errorRowCount++;
           transformStats.setErrorCount( errorRowCount );
           super.addErrorRowData( row, startIndex, nrErrors, errorDescriptions, fieldNames, errorCodes );
@@ -330,6 +685,67 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     }
   }
 
+  /**
+   * Records a row rejected by one of the steps. Only the first <code>maxErrorRows</code> rejects of a step are
+   * formatted into the stats shown to the user, every reject is counted by field and error code and spilled to the
+   * {@link RejectedRowsFile} when there is one.
+   *
+   * @param rejectedSoFar the number of rows the step rejected before this one
+   */
+  protected void recordRejectedRow( String stepName, long rejectedSoFar, Object[] row, String errorDescriptions,
+                                    String fieldNames, String errorCodes ) {
+    if ( transformStats != null ) {
+      // don't overwhelm the user with too many errors
+      if ( rejectedSoFar < maxErrorRows ) {
+        StringBuffer sb = new StringBuffer();
+        sb.append( "Rejected Row: " );
+        for ( Object rowData : row ) {
+          sb.append( rowData );
+          sb.append( ", " );
+        }
+        sb.append( "\r\n" );
+        transformStats.getErrors().add( sb.toString() + errorDescriptions );
+      }
+      transformStats.addErrorSummary( fieldNames, errorCodes );
+    }
+    RejectedRowsFile rejects = rejectedRowsFile;
+    if ( rejects != null ) {
+      rejects.write( stepName, row, fieldNames, errorCodes, errorDescriptions );
+    }
+  }
+
+  /**
+   * The side file rejected rows are spilled to while loading the table, or null to keep no rejected rows beyond the
+   * ones shown in the stats.
+   */
+  protected RejectedRowsFile createRejectedRowsFile() {
+    return null;
+  }
+
+  private void openRejectedRowsFile() {
+    rejectedRowsFile = createRejectedRowsFile();
+    if ( rejectedRowsFile != null ) {
+      try {
+        rejectedRowsFile.open();
+      } catch ( IOException e ) {
+        error( "Could not create the rejected rows file, rejected rows will not be kept", e ); //$NON-NLS-1$
+        rejectedRowsFile = null;
+      }
+    }
+  }
+
+  /**
+   * @return the statistics of the rows written by the last {@link #loadTable}, complete once the load has finished, or
+   * null if they were not gathered
+   */
+  public ColumnStatistics getColumnStatistics() {
+    return columnStatistics;
+  }
+
+  public RejectedRowsFile getRejectedRowsFile() {
+    return rejectedRowsFile;
+  }
+
   protected void executeTransformSync( Trans trans, String listenerStepName, IPentahoSession session )
     throws CsvTransformGeneratorException {
 
@@ -444,59 +860,65 @@ public abstract class StagingTransformGenerator extends PentahoBase {
     Database db = getDatabase( ci );
     try {
       db.connect( null );
+      execSqlStatements( db, sqlScript );
+    } catch ( KettleDatabaseException dbe ) {
+      error( "Connection error", dbe ); //$NON-NLS-1$
+      throw new CsvTransformGeneratorException( "Connection error", dbe, getStackTraceAsString( dbe ) ); //$NON-NLS-1$
+    } finally {
+      db.disconnect();
+    }
+  }
 
-      // Multiple statements have to be split into parts
-      // We use the ";" to separate statements...
-      String all = sqlScript + Const.CR;
-      int from = 0;
-      int to = 0;
-      int length = all.length();
-
-      while ( to < length ) {
-        char c = all.charAt( to );
-        if ( c == '"' ) {
+  /**
+   * Executes a script over an already connected database.
+   */
+  protected void execSqlStatements( Database db, String sqlScript ) throws CsvTransformGeneratorException {
+    // Multiple statements have to be split into parts
+    // We use the ";" to separate statements...
+    String all = sqlScript + Const.CR;
+    int from = 0;
+    int to = 0;
+    int length = all.length();
+
+    while ( to < length ) {
+      char c = all.charAt( to );
+      if ( c == '"' ) {
+        to++;
+        c = ' ';
+        while ( to < length && c != '"' ) {
+          c = all.charAt( to );
           to++;
-          c = ' ';
-          while ( to < length && c != '"' ) {
-            c = all.charAt( to );
-            to++;
-          }
-        } else if ( c == '\'' ) { // skip until next '
+        }
+      } else if ( c == '\'' ) { // skip until next '
+        to++;
+        c = ' ';
+        while ( to < length && c != '\'' ) {
+          c = all.charAt( to );
           to++;
-          c = ' ';
-          while ( to < length && c != '\'' ) {
-            c = all.charAt( to );
-            to++;
-          }
         }
-        c = all.charAt( to );
-        if ( c == ';' || to >= length - 1 ) { // end of statement
-          if ( to >= length - 1 ) {
-            to++; // grab last char also!
-          }
-
-          String stat = all.substring( from, to );
-          String sql = Const.trim( stat );
-          try {
-            if ( !sql.equals( "" ) ) { //$NON-NLS-1$
-              db.execStatement( sql );
-            }
+      }
+      c = all.charAt( to );
+      if ( c == ';' || to >= length - 1 ) { // end of statement
+        if ( to >= length - 1 ) {
+          to++; // grab last char also!
+        }
 
-          } catch ( Exception dbe ) {
-            error( "Error executing DDL", dbe ); //$NON-NLS-1$
-            throw new CsvTransformGeneratorException( dbe.getMessage(), dbe, getStackTraceAsString( dbe ) );
+        String stat = all.substring( from, to );
+        String sql = Const.trim( stat );
+        try {
+          if ( !sql.equals( "" ) ) { //$NON-NLS-1$
+            db.execStatement( sql );
           }
-          to++;
-          from = to;
-        } else {
-          to++;
+
+        } catch ( Exception dbe ) {
+          error( "Error executing DDL", dbe ); //$NON-NLS-1$
+          throw new CsvTransformGeneratorException( dbe.getMessage(), dbe, getStackTraceAsString( dbe ) );
         }
+        to++;
+        from = to;
+      } else {
+        to++;
       }
-    } catch ( KettleDatabaseException dbe ) {
-      error( "Connection error", dbe ); //$NON-NLS-1$
-      throw new CsvTransformGeneratorException( "Connection error", dbe, getStackTraceAsString( dbe ) ); //$NON-NLS-1$
-    } finally {
-      db.disconnect();
     }
   }
 
@@ -16,11 +16,13 @@ package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepErrorMeta;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.steps.tableinput.TableInputMeta;
-import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvTransformGeneratorException;
 
 public class TableInputTransformGenerator extends StagingTransformGenerator {
 
@@ -36,6 +38,8 @@ public class TableInputTransformGenerator extends StagingTransformGenerator {
 
   private int rowLimit = -1;
 
+  private long inputErrorRowCount;
+
   public TableInputTransformGenerator( DatabaseMeta sourceDatabaseMeta, DatabaseMeta targetDatabaseMeta ) {
     super( targetDatabaseMeta );
     this.sourceDatabaseMeta = sourceDatabaseMeta;
@@ -73,18 +77,12 @@ public class TableInputTransformGenerator extends StagingTransformGenerator {
     inputStepMeta.setStepErrorMeta( new StepErrorMeta( transMeta, inputStepMeta ) );
     transMeta.addStep( inputStepMeta );
 
-    final FileTransformStats stats = getTransformStats();
+    inputErrorRowCount = 0;
     StepErrorMeta inputErrorMeta = new StepErrorMeta( transMeta, inputStepMeta ) {
       public void addErrorRowData( Object[] row, int startIndex, long nrErrors, String errorDescriptions,
                                    String fieldNames, String errorCodes ) {
-        StringBuffer sb = new StringBuffer();
-        sb.append( "Rejected Row: " );
-        for ( Object rowData : row ) {
-          sb.append( rowData );
-          sb.append( ", " );
-        }
-        sb.append( "\r\n" );
-        stats.getErrors().add( sb.toString() + errorDescriptions );
+        recordRejectedRow( TABLE_INPUT, inputErrorRowCount, row, errorDescriptions, fieldNames, errorCodes );
+        inputErrorRowCount++;
         super.addErrorRowData( row, startIndex, nrErrors, errorDescriptions, fieldNames, errorCodes );
       }
     };
@@ -96,6 +94,21 @@ public class TableInputTransformGenerator extends StagingTransformGenerator {
     return inputStepMeta;
   }
 
+  /**
+   * A query that fails on the source database stops the transformation without a single row rejected, the table it
+   * was loading into is then incomplete and must not be used.
+   */
+  @Override
+  protected void executeTransformSync( Trans trans, String listenerStepName, IPentahoSession session )
+    throws CsvTransformGeneratorException {
+    super.executeTransformSync( trans, listenerStepName, session );
+    if ( trans.getErrors() > 0 ) {
+      error( "Table input failed: " + sql ); //$NON-NLS-1$
+      throw new CsvTransformGeneratorException( "Table input failed with " + trans.getErrors() //$NON-NLS-1$
+        + " errors" ); //$NON-NLS-1$
+    }
+  }
+
   @Override
   public Log getLogger() {
     return log;
@@ -46,6 +46,14 @@ public class CsvDatasourceServiceServlet extends RemoteServiceServlet implements
     return serviceImpl.getPreviewRows( filename, isFirstRowHeader, rows, encoding );
   }
 
+  public List<List<String>> getSampleRows( String filename, String delimiter, String enclosure,
+                                           boolean isFirstRowHeader, String encoding, int offset, int count,
+                                           int[] columns ) throws Exception {
+    CsvDatasourceServiceImpl serviceImpl = new CsvDatasourceServiceImpl();
+    return serviceImpl.getSampleRows( filename, delimiter, enclosure, isFirstRowHeader, encoding, offset, count,
+      columns );
+  }
+
   public String getEncoding( String fileName ) {
     CsvDatasourceServiceImpl serviceImpl = new CsvDatasourceServiceImpl();
     return serviceImpl.getEncoding( fileName );
@@ -23,6 +23,7 @@ import org.pentaho.platform.dataaccess.datasource.beans.BogoPojo;
 import org.pentaho.platform.dataaccess.datasource.beans.BusinessData;
 import org.pentaho.platform.dataaccess.datasource.beans.LogicalModelSummary;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.DatasourceDTO;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.InMemoryDSWDatasourceServiceImpl;
@@ -47,6 +48,23 @@ public class DSWDatasourceDebugGwtServlet extends RemoteServiceServlet implement
     return SERVICE.doPreview( connectionName, query, previewLimit );
   }
 
+  public SerializedResultSetPage openPreview( String connectionName, String query, int pageSize )
+    throws DatasourceServiceException {
+    return SERVICE.openPreview( connectionName, query, pageSize );
+  }
+
+  public SerializedResultSetPage fetchPreviewPage( String cursorId, int pageSize ) throws DatasourceServiceException {
+    return SERVICE.fetchPreviewPage( cursorId, pageSize );
+  }
+
+  public boolean closePreview( String cursorId ) {
+    return SERVICE.closePreview( cursorId );
+  }
+
+  public int cancelQueries() {
+    return SERVICE.cancelQueries();
+  }
+
   public BusinessData generateLogicalModel( String modelName, String connectionName, String dbType, String query,
                                             String previewLimit ) throws DatasourceServiceException {
     return SERVICE.generateLogicalModel( modelName, connectionName, dbType, query, previewLimit );
@@ -35,6 +35,10 @@ public interface ICsvDatasourceService extends RemoteService {
   public List<String> getPreviewRows( String filename, boolean isFirstRowHeader, int rows, String encoding )
     throws Exception;
 
+  public List<List<String>> getSampleRows( String filename, String delimiter, String enclosure,
+                                           boolean isFirstRowHeader, String encoding, int offset, int count,
+                                           int[] columns ) throws Exception;
+
   public String getEncoding( String fileName ) throws Exception;
 
   public BogoPojo gwtWorkaround( BogoPojo pojo );
@@ -35,6 +35,10 @@ public interface ICsvDatasourceServiceAsync {
   public void getPreviewRows( String filename, boolean isFirstRowHeader, int rows, String encoding,
                               AsyncCallback<List<String>> callback ) throws Exception;
 
+  public void getSampleRows( String filename, String delimiter, String enclosure, boolean isFirstRowHeader,
+                             String encoding, int offset, int count, int[] columns,
+                             AsyncCallback<List<List<String>>> callback );
+
   public void getEncoding( String fileName, AsyncCallback<String> callback );
 
   public void gwtWorkaround( BogoPojo pojo, AsyncCallback<BogoPojo> callback );
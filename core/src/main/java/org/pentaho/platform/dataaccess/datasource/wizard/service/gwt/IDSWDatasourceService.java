@@ -23,6 +23,7 @@ import org.pentaho.platform.dataaccess.datasource.beans.BogoPojo;
 import org.pentaho.platform.dataaccess.datasource.beans.BusinessData;
 import org.pentaho.platform.dataaccess.datasource.beans.LogicalModelSummary;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.DatasourceDTO;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.query.QueryDatasourceSummary;
@@ -54,6 +55,45 @@ public interface IDSWDatasourceService {
   public SerializedResultSet doPreview( String connectionName, String query, String previewLimit )
     throws DatasourceServiceException;
 
+  /**
+   * Runs the query once and returns the first page of its rows. The cursor is kept open on the server so that the next
+   * pages can be read with {@link #fetchPreviewPage} without running the query again.
+   *
+   * @param connectionName - Name of the connection
+   * @param query          - Query which needs to be executed
+   * @param pageSize       - Number of rows in a page, at most 1000
+   * @return SerializedResultSetPage - The first page, with the id of the cursor unless it was the last one
+   * @throws DatasourceServiceException
+   */
+  public SerializedResultSetPage openPreview( String connectionName, String query, int pageSize )
+    throws DatasourceServiceException;
+
+  /**
+   * Returns the next page of a preview opened with {@link #openPreview}. The cursor is closed after the last page.
+   *
+   * @param cursorId - The cursor id of the previous page
+   * @param pageSize - Number of rows in a page, at most 1000
+   * @return SerializedResultSetPage - The next page
+   * @throws DatasourceServiceException if the cursor was closed or timed out
+   */
+  public SerializedResultSetPage fetchPreviewPage( String cursorId, int pageSize ) throws DatasourceServiceException;
+
+  /**
+   * Closes the cursor of a preview that is not read to its end, for instance when the preview dialog is closed.
+   *
+   * @param cursorId - The cursor id of the last page read
+   * @return true if an open cursor was closed
+   */
+  public boolean closePreview( String cursorId );
+
+  /**
+   * Cancels the SQL queries the current session is running for previews and models, for instance when the user stops
+   * a preview that takes too long. The queries fail with an error and their connections are released right away.
+   *
+   * @return the number of queries cancelled
+   */
+  public int cancelQueries();
+
   /**
    * Returns the generated relational based logical model along with the sample data for the given connection name and
    * query
@@ -22,6 +22,7 @@ import org.pentaho.platform.dataaccess.datasource.beans.BogoPojo;
 import org.pentaho.platform.dataaccess.datasource.beans.BusinessData;
 import org.pentaho.platform.dataaccess.datasource.beans.LogicalModelSummary;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.DatasourceDTO;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.query.QueryDatasourceSummary;
 
@@ -35,6 +36,15 @@ public interface IGwtDSWDatasourceServiceAsync {
   void doPreview( String connectionName, String query, String previewLimit,
                   AsyncCallback<SerializedResultSet> callback );
 
+  void openPreview( String connectionName, String query, int pageSize,
+                    AsyncCallback<SerializedResultSetPage> callback );
+
+  void fetchPreviewPage( String cursorId, int pageSize, AsyncCallback<SerializedResultSetPage> callback );
+
+  void closePreview( String cursorId, AsyncCallback<Boolean> callback );
+
+  void cancelQueries( AsyncCallback<Integer> callback );
+
   void generateLogicalModel( String modelName, String connectionName, String dbType, String query, String previewLimit,
                              AsyncCallback<BusinessData> callback );
 
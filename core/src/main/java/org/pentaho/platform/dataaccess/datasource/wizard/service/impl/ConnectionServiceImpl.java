@@ -14,6 +14,7 @@ package org.pentaho.platform.dataaccess.datasource.wizard.service.impl;
 
 import java.lang.reflect.Constructor;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
@@ -36,7 +37,9 @@ import org.pentaho.platform.api.repository.datasource.IDatasourceMgmtService;
 import org.pentaho.platform.api.repository.datasource.NonExistingDatasourceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.IConnectionService;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.BulkOperations;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.ConnectionServiceHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceInMemoryServiceHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.UtilHtmlSanitizer;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 import org.pentaho.platform.engine.core.system.PentahoBase;
@@ -271,6 +274,21 @@ public class ConnectionServiceImpl extends PentahoBase implements IConnectionSer
 
   public boolean deleteConnection( String name ) throws ConnectionServiceException {
     ensureDataAccessPermission();
+    return doDeleteConnection( name );
+  }
+
+  /**
+   * Deletes several connections, checking the access of the user once for all of them. The pool of each connection
+   * is cleared on its own, as for a single connection.
+   *
+   * @return the failure of each name, null for the connections deleted
+   */
+  public Map<String, Exception> deleteConnections( List<String> names ) throws ConnectionServiceException {
+    ensureDataAccessPermission();
+    return BulkOperations.applyEach( names, this::doDeleteConnection );
+  }
+
+  private boolean doDeleteConnection( String name ) throws ConnectionServiceException {
     name = sanitizer.safeEscapeHtml( name );
     try {
       datasourceMgmtSvc.deleteDatasourceByName( name );
@@ -359,6 +377,7 @@ public class ConnectionServiceImpl extends PentahoBase implements IConnectionSer
   }
 
   private void clearDatasource( String name ) {
+    DatasourceInMemoryServiceHelper.invalidateConnectionPool( name );
     if ( datasourceService == null ) {
       logger.warn( "IDBDatasourceService bean not initialized. Unable to clear data source:  " + name );
       return;
@@ -24,11 +24,17 @@ import org.pentaho.agilebi.modeler.models.JoinRelationshipModel;
 import org.pentaho.agilebi.modeler.models.JoinTableModel;
 import org.pentaho.database.model.DatabaseType;
 import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalColumn;
 import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.olap.OlapDimension;
+import org.pentaho.metadata.model.olap.OlapHierarchy;
+import org.pentaho.metadata.model.olap.OlapHierarchyLevel;
 import org.pentaho.metadata.util.SerializationService;
 import org.pentaho.platform.api.engine.IAuthorizationPolicy;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.dataaccess.datasource.beans.BogoPojo;
+import org.pentaho.platform.dataaccess.datasource.wizard.csv.CsvSampleCache;
 import org.pentaho.platform.dataaccess.datasource.wizard.csv.CsvUtils;
 import org.pentaho.platform.dataaccess.datasource.wizard.csv.FileUtils;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
@@ -38,14 +44,18 @@ import org.pentaho.platform.dataaccess.datasource.wizard.models.FileInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.ColumnStatistics;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.CsvTransformGenerator;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.RejectedRowsFile;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagedFileDigest;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingAggregates;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingSweeper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.ICsvDatasourceService;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
 import org.pentaho.platform.dataaccess.metadata.messages.Messages;
 import org.pentaho.platform.engine.core.system.PentahoBase;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
-import org.pentaho.platform.plugin.action.kettle.KettleSystemListener;
 import org.pentaho.reporting.libraries.base.util.StringUtils;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.Aggregation;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
@@ -61,7 +71,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 @SuppressWarnings( "unchecked" )
 public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasourceService {
@@ -98,7 +112,7 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     checkPermissions();
     String encoding = null;
     try {
-      CsvUtils csvModelService = new CsvUtils();
+      CsvUtils csvModelService = createCsvUtils();
       encoding = csvModelService.getEncoding( fileName );
     } catch ( Exception e ) {
       logger.error( e );
@@ -106,6 +120,18 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     return encoding;
   }
 
+  /**
+   * The wizard asks for the encoding, the preview and the profile of the same file again every time a setting changes,
+   * they all share the sample of the file cached in the user's session.
+   */
+  protected CsvUtils createCsvUtils() {
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    if ( session == null ) {
+      return new CsvUtils();
+    }
+    return new CsvUtils( CsvSampleCache.forSession( session, AgileHelper.getCsvSampleRowSize() ) );
+  }
+
   public ModelInfo stageFile( String fileName, String delimiter, String enclosure, boolean isFirstRowHeader,
                               String encoding )
     throws Exception {
@@ -114,8 +140,10 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     fileName = FilenameUtils.getName( fileName );
     try {
       int headerRows = isFirstRowHeader ? 1 : 0;
-      modelInfo = new CsvUtils().generateFields( "", fileName, AgileHelper.getCsvSampleRowSize(),
-        delimiter, enclosure, headerRows, true, true, encoding ); //$NON-NLS-1$
+      modelInfo = createCsvUtils().generateFields( "", fileName, AgileHelper.getCsvSampleRowSize(),
+        delimiter, enclosure, headerRows, false, true, encoding ); //$NON-NLS-1$
+      // the profile only carries the column metadata, the rows are paged in through getSampleRows
+      modelInfo.getFileInfo().setContents( null );
     } catch ( FileNotFoundException e ) {
       logger.error( e );
       throw new Exception( "File was not found: " + fileName );
@@ -144,9 +172,10 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     synchronized ( lock ) {
       ModelInfo modelInfo = datasourceDto.getCsvModelInfo();
       IPentahoSession pentahoSession = null;
+      File appendedRowsFile = null;
       try {
         pentahoSession = PentahoSessionHolder.getSession();
-        KettleSystemListener.environmentInit( pentahoSession );
+        ModelerService.initKettleEnvironment();
 
         String statsKey =
           FileTransformStats.class.getSimpleName() + "_" + modelInfo.getFileInfo().getTmpFilename(); //$NON-NLS-1$
@@ -158,16 +187,55 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
         csvTransformGenerator.setTransformStats( stats );
 
 
-        try {
-          csvTransformGenerator.dropTable( modelInfo.getStageTableName() );
-        } catch ( CsvTransformGeneratorException e ) {
-          // this is ok, the table may not have existed.
-          logger.info( "Could not drop table before staging" ); //$NON-NLS-1$
+        String tableName = modelInfo.getStageTableName();
+        File digestFile = StagedFileDigest.getDigestFile( CsvTransformGenerator.getUploadFolder(), tableName );
+        StagedFileDigest previousDigest = null;
+        StagedFileDigest digest = null;
+        StagedFileDigest.Change change = StagedFileDigest.Change.CHANGED;
+        if ( AgileHelper.isIncrementalStaging() ) {
+          File stagedFile = CsvTransformGenerator.getStagedFile( modelInfo.getFileInfo().getTmpFilename() );
+          previousDigest = StagedFileDigest.load( digestFile );
+          if ( stagedFile.exists() ) {
+            digest = StagedFileDigest.compute( tableName, stagedFile, modelInfo,
+              previousDigest == null ? -1 : previousDigest.getLength() );
+            change = digest.compareTo( previousDigest, modelInfo.getFileInfo().getEncoding() );
+            if ( change != StagedFileDigest.Change.CHANGED && !csvTransformGenerator.tableExists( tableName ) ) {
+              change = StagedFileDigest.Change.CHANGED;
+            }
+            if ( change == StagedFileDigest.Change.APPENDED ) {
+              appendedRowsFile = File.createTempFile( tableName, ".append" ); //$NON-NLS-1$
+              StagedFileDigest.copyTail( stagedFile, previousDigest.getLength(), appendedRowsFile );
+            }
+          }
+        }
+        File statisticsFile = ColumnStatistics.getStatisticsFile( CsvTransformGenerator.getUploadFolder(), tableName );
+        ColumnStatistics previousStatistics =
+          change == StagedFileDigest.Change.CHANGED ? null : ColumnStatistics.load( statisticsFile );
+        // the table no longer matches the recorded digest until the new load has finished
+        StagedFileDigest.delete( digestFile );
+        statisticsFile.delete();
+
+        if ( change == StagedFileDigest.Change.IDENTICAL ) {
+          logger.info( "Staged file is unchanged, keeping table " + tableName ); //$NON-NLS-1$
+          stats.setRowsStarted( true );
+          stats.setTotalRecords( previousDigest.getRowCount() );
+          stats.setRowsFinished( true );
+        } else if ( change == StagedFileDigest.Change.APPENDED ) {
+          logger.info( "Staged file was appended to, loading the new rows into table " + tableName ); //$NON-NLS-1$
+          csvTransformGenerator.setAppendedRowsFile( appendedRowsFile );
+          csvTransformGenerator.loadTable( false, pentahoSession, true );
+        } else {
+          try {
+            csvTransformGenerator.dropTable( tableName );
+          } catch ( CsvTransformGeneratorException e ) {
+            // this is ok, the table may not have existed.
+            logger.info( "Could not drop table before staging" ); //$NON-NLS-1$
+          }
+          csvTransformGenerator.createOrModifyTable( pentahoSession );
+
+          // no longer need to truncate the table since we dropped it a few lines up, so just pass false
+          csvTransformGenerator.loadTable( false, pentahoSession, true );
         }
-        csvTransformGenerator.createOrModifyTable( pentahoSession );
-
-        // no longer need to truncate the table since we dropped it a few lines up, so just pass false
-        csvTransformGenerator.loadTable( false, pentahoSession, true );
 
         ArrayList<String> combinedErrors = new ArrayList<String>( modelInfo.getCsvInputErrors() );
         combinedErrors.addAll( modelInfo.getTableOutputErrors() );
@@ -182,6 +250,33 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
           Thread.sleep( 200 );
         }
 
+        // indices are built after the load, it is a lot cheaper than maintaining them while inserting. A table that
+        // was kept or appended to still has its indices.
+        if ( change == StagedFileDigest.Change.CHANGED ) {
+          csvTransformGenerator.createIndices( pentahoSession );
+        }
+
+        if ( digest != null ) {
+          long rowCount = stats.getTotalRecords() - stats.getErrorCount();
+          if ( change == StagedFileDigest.Change.IDENTICAL ) {
+            rowCount = previousDigest.getRowCount();
+          } else if ( change == StagedFileDigest.Change.APPENDED ) {
+            rowCount += previousDigest.getRowCount();
+          }
+          digest.setRowCount( rowCount );
+          try {
+            digest.save( digestFile );
+          } catch ( IOException e ) {
+            logger.warn( "Could not record the digest of the staged file, it will be fully staged next time", e );
+          }
+        }
+        // starts the time to live of the table, the staging sweeper drops it once no data source reads from it
+        try {
+          StagingSweeper.recordStagedTable( CsvTransformGenerator.getUploadFolder(), tableName );
+        } catch ( IOException e ) {
+          logger.warn( "Could not record the staged table, it will not be swept", e ); //$NON-NLS-1$
+        }
+
         modelerWorkspace.setDomain( modelerService.generateCSVDomain( modelInfo ) );
         modelerWorkspace.getWorkspaceHelper().autoModelFlat( modelerWorkspace );
         modelerWorkspace.getWorkspaceHelper().autoModelRelationalFlat( modelerWorkspace );
@@ -189,6 +284,19 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
         modelerWorkspace.getWorkspaceHelper().populateDomain( modelerWorkspace );
         Domain workspaceDomain = modelerWorkspace.getDomain();
 
+        ColumnStatistics statistics =
+          getColumnStatistics( change, csvTransformGenerator.getColumnStatistics(), previousStatistics );
+        if ( statistics != null ) {
+          recommendIndices( statistics, workspaceDomain, modelInfo, change == StagedFileDigest.Change.CHANGED
+            ? csvTransformGenerator : null, pentahoSession );
+          try {
+            statistics.save( statisticsFile );
+          } catch ( IOException e ) {
+            logger.warn( "Could not record the column statistics of table " + tableName, e ); //$NON-NLS-1$
+          }
+        }
+        buildAggregates( csvTransformGenerator, change, statistics, workspaceDomain );
+
         XStream xstream = SerializationService.createXStreamWithAllowedTypes(null, null);
         String serializedDto = xstream.toXML( datasourceDto );
         workspaceDomain.getLogicalModels().get( 0 ).setProperty( "datasourceModel", serializedDto );
@@ -203,6 +311,9 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
         logger.error( e.getMessage() );
         throw e;
       } finally {
+        if ( appendedRowsFile != null ) {
+          appendedRowsFile.delete();
+        }
         if ( pentahoSession != null ) {
           pentahoSession.destroy();
         }
@@ -210,6 +321,152 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     }
   }
 
+  /**
+   * @return the statistics of the whole table once loaded, or null if they are not known
+   */
+  private ColumnStatistics getColumnStatistics( StagedFileDigest.Change change, ColumnStatistics loaded,
+                                                ColumnStatistics previous ) {
+    if ( change == StagedFileDigest.Change.IDENTICAL ) {
+      return previous;
+    } else if ( change == StagedFileDigest.Change.APPENDED ) {
+      if ( previous == null || loaded == null ) {
+        // only part of the table was seen
+        return null;
+      }
+      previous.merge( loaded );
+      return previous;
+    }
+    return loaded;
+  }
+
+  /**
+   * Recommends indices on the dimension columns of the model that the user did not index already and have few enough
+   * distinct values for an index to narrow a scan down.
+   *
+   * @param generator the generator that rebuilt the table, to create the recommended indices with when configured
+   *                  to, or null if the table was kept along with its indices
+   */
+  private void recommendIndices( ColumnStatistics statistics, Domain domain, ModelInfo modelInfo,
+                                 CsvTransformGenerator generator, IPentahoSession session ) {
+    try {
+      Set<String> indexed = new HashSet<String>();
+      for ( ColumnInfo column : modelInfo.getColumns() ) {
+        if ( column.isIndex() ) {
+          indexed.add( column.getId().toUpperCase( Locale.ENGLISH ) );
+        }
+      }
+      Set<String> candidates = new LinkedHashSet<String>();
+      for ( String column : getDimensionColumns( domain ) ) {
+        if ( !indexed.contains( column.toUpperCase( Locale.ENGLISH ) ) ) {
+          candidates.add( column );
+        }
+      }
+      List<String> recommended =
+        statistics.recommendIndices( candidates, AgileHelper.getStagingIndexMaxSelectivity() );
+      if ( recommended.isEmpty() ) {
+        return;
+      }
+      if ( generator != null && AgileHelper.isStagingAutoIndex() ) {
+        int created = generator.createIndices( session, recommended.toArray( new String[ recommended.size() ] ) );
+        logger.info( "Created " + created + " recommended indices on table " //$NON-NLS-1$ //$NON-NLS-2$
+          + modelInfo.getStageTableName() + ": " + recommended ); //$NON-NLS-1$
+      } else {
+        logger.info( "Recommended indices on table " + modelInfo.getStageTableName() //$NON-NLS-1$
+          + ": " + recommended ); //$NON-NLS-1$
+      }
+    } catch ( RuntimeException e ) {
+      // indices are an optimization only
+      logger.warn( "Could not recommend indices for table " + modelInfo.getStageTableName(), e ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Builds the aggregate tables of the staged table when configured to, and records them in the OLAP model for the
+   * Mondrian schema to declare. The aggregates of a table that was kept as it was are only built if they are missing,
+   * the ones that are no longer planned are dropped.
+   */
+  private void buildAggregates( CsvTransformGenerator generator, StagedFileDigest.Change change,
+                                ColumnStatistics statistics, Domain domain ) {
+    String tableName = generator.getTableName();
+    File aggregatesFile = StagingAggregates.getAggregatesFile( CsvTransformGenerator.getUploadFolder(), tableName );
+    List<StagingAggregates.AggregateTable> previous = StagingAggregates.load( aggregatesFile );
+    List<StagingAggregates.AggregateTable> planned = new ArrayList<StagingAggregates.AggregateTable>();
+    if ( AgileHelper.isStagingAggregates() ) {
+      planned = StagingAggregates.plan( domain, tableName, statistics, AgileHelper.getStagingAggregateLevels(),
+        AgileHelper.getStagingAggregateCount() );
+    }
+    if ( previous.isEmpty() && planned.isEmpty() ) {
+      return;
+    }
+    Set<String> plannedNames = new HashSet<String>();
+    for ( StagingAggregates.AggregateTable aggregate : planned ) {
+      plannedNames.add( aggregate.getName() );
+    }
+    Set<String> previousNames = new HashSet<String>();
+    for ( StagingAggregates.AggregateTable aggregate : previous ) {
+      previousNames.add( aggregate.getName() );
+      if ( !plannedNames.contains( aggregate.getName() ) ) {
+        try {
+          generator.dropAggregateTable( aggregate.getName() );
+        } catch ( CsvTransformGeneratorException e ) {
+          logger.warn( "Could not drop aggregate table " + aggregate.getName(), e ); //$NON-NLS-1$
+        }
+      }
+    }
+    List<StagingAggregates.AggregateTable> built = new ArrayList<StagingAggregates.AggregateTable>();
+    for ( StagingAggregates.AggregateTable aggregate : planned ) {
+      try {
+        if ( change != StagedFileDigest.Change.IDENTICAL || !previousNames.contains( aggregate.getName() )
+          || !generator.aggregateTableExists( aggregate.getName() ) ) {
+          generator.createAggregateTable( aggregate );
+        }
+        built.add( aggregate );
+      } catch ( CsvTransformGeneratorException e ) {
+        logger.warn( "Could not build aggregate table " + aggregate.getName() + " of table " //$NON-NLS-1$ //$NON-NLS-2$
+          + tableName, e );
+      }
+    }
+    try {
+      StagingAggregates.save( aggregatesFile, built );
+    } catch ( IOException e ) {
+      logger.warn( "Could not record the aggregate tables of table " + tableName, e ); //$NON-NLS-1$
+    }
+    if ( !built.isEmpty() ) {
+      String definitions = StagingAggregates.format( built );
+      for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+        if ( logicalModel.getProperty( "olap_cubes" ) != null ) { //$NON-NLS-1$
+          logicalModel.setProperty( StagingAggregates.PROPERTY, definitions );
+        }
+      }
+      logger.info( "Built aggregate tables of table " + tableName + ": " + definitions ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+  }
+
+  /**
+   * @return the physical columns the levels of the OLAP dimensions of the domain read from
+   */
+  @SuppressWarnings( "unchecked" )
+  private Set<String> getDimensionColumns( Domain domain ) {
+    Set<String> columns = new LinkedHashSet<String>();
+    for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+      List<OlapDimension> dimensions = (List<OlapDimension>) logicalModel.getProperty( "olap_dimensions" ); //$NON-NLS-1$
+      if ( dimensions == null ) {
+        continue;
+      }
+      for ( OlapDimension dimension : dimensions ) {
+        for ( OlapHierarchy hierarchy : dimension.getHierarchies() ) {
+          for ( OlapHierarchyLevel level : hierarchy.getHierarchyLevels() ) {
+            LogicalColumn column = level.getReferenceColumn();
+            if ( column != null && column.getPhysicalColumn() instanceof SqlPhysicalColumn ) {
+              columns.add( ( (SqlPhysicalColumn) column.getPhysicalColumn() ).getTargetColumn() );
+            }
+          }
+        }
+      }
+    }
+    return columns;
+  }
+
   protected void prepareForSerialization( Domain domain ) throws IOException {
 
     /*
@@ -245,6 +502,8 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
       if ( tmpFile.exists() ) {
         File csvFile = new File( path + File.separatorChar + csvFileName );
         org.apache.commons.io.FileUtils.copyFile( tmpFile, csvFile );
+        // the rows rejected while staging travel with the file
+        RejectedRowsFile.copy( tmpFile, csvFile );
       }
 
       // Cleanup logic when updating from SQL datasource to CSV
@@ -261,7 +520,7 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     checkPermissions();
     List<String> previewRows = null;
     if ( !StringUtils.isEmpty( filename ) ) {
-      CsvUtils service = new CsvUtils();
+      CsvUtils service = createCsvUtils();
       ModelInfo mi = service.getFileContents( "", filename, ",", "\"", rows, isFirstRowHeader,
         encoding ); //$NON-NLS-1$  //$NON-NLS-2$  //$NON-NLS-3$
       previewRows = mi.getFileInfo().getContents();
@@ -269,6 +528,48 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     return previewRows;
   }
 
+  /**
+   * Returns a page of the records of a staged file, split into fields with the given settings.
+   *
+   * @param fileName the staged file, as passed to {@link #stageFile}
+   * @param offset   the number of records to skip after the header row
+   * @param count    the maximum number of records to return
+   * @param columns  the indices of the fields to return, null for all of them
+   */
+  public List<List<String>> getSampleRows( String fileName, String delimiter, String enclosure,
+                                           boolean isFirstRowHeader, String encoding, int offset, int count,
+                                           int[] columns ) throws Exception {
+    checkPermissions();
+    fileName = FilenameUtils.getName( fileName );
+    try {
+      return createCsvUtils().getRows( fileName, delimiter, enclosure, isFirstRowHeader ? 1 : 0, encoding, offset,
+        count, columns );
+    } catch ( Exception e ) {
+      logger.error( e );
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a page of the rows rejected the last time the given file was staged.
+   *
+   * @param fileName the staged file, as passed to {@link #stageFile}
+   * @param offset   the number of rejected rows to skip
+   * @param count    the maximum number of rejected rows to return
+   */
+  public List<RejectedRowsFile.RejectedRow> getRejectedRows( String fileName, long offset, int count )
+    throws Exception {
+    checkPermissions();
+    fileName = FilenameUtils.getName( fileName );
+    File stagedFile = CsvTransformGenerator.getStagedFile( fileName );
+    try {
+      return new RejectedRowsFile( RejectedRowsFile.forStagedFile( stagedFile ) ).read( offset, count );
+    } catch ( IOException e ) {
+      logger.error( e );
+      throw e;
+    }
+  }
+
   /**
    * Returns true if the current user has Manage Data Source Security. Otherwise returns false.
    * @return
@@ -289,7 +590,10 @@ public class CsvDatasourceServiceImpl extends PentahoBase implements ICsvDatasou
     }
   }
 
-  private void checkPermissions() throws SecurityException {
+  /**
+   * Checks that the current user may manage data sources, for callers that check before they queue work.
+   */
+  public void checkPermissions() throws SecurityException {
     if ( !hasManageDataAccessPermission() ) {
       throw new SecurityException( Messages.getErrorString( "CsvDatasourceServiceImpl.ERROR_0009_UNAUTHORIZED" ) );
     }
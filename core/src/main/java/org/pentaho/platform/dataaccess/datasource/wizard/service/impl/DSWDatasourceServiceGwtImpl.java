@@ -26,6 +26,7 @@ import org.pentaho.metadata.model.Domain;
 import org.pentaho.platform.dataaccess.datasource.beans.BusinessData;
 import org.pentaho.platform.dataaccess.datasource.beans.LogicalModelSummary;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
 import org.pentaho.platform.dataaccess.datasource.wizard.IDatasourceSummary;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.DatasourceDTO;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.IXulAsyncDSWDatasourceService;
@@ -103,6 +104,84 @@ public class DSWDatasourceServiceGwtImpl implements IXulAsyncDSWDatasourceServic
     } );
   }
 
+  public void openPreview( final String connectionName, final String query, final int pageSize,
+                           final XulServiceCallback<SerializedResultSetPage> xulCallback ) {
+    AuthenticatedGwtServiceUtil.invokeCommand( new IAuthenticatedGwtCommand() {
+      public void execute( AsyncCallback callback ) {
+
+        SERVICE.openPreview( connectionName, query, pageSize, callback );
+      }
+    }, new AsyncCallback<SerializedResultSetPage>() {
+
+      public void onFailure( Throwable arg0 ) {
+        xulCallback.error( arg0.getLocalizedMessage(), arg0 ); //$NON-NLS-1$
+      }
+
+      public void onSuccess( SerializedResultSetPage arg0 ) {
+        xulCallback.success( arg0 );
+      }
+
+    } );
+  }
+
+  public void fetchPreviewPage( final String cursorId, final int pageSize,
+                                final XulServiceCallback<SerializedResultSetPage> xulCallback ) {
+    AuthenticatedGwtServiceUtil.invokeCommand( new IAuthenticatedGwtCommand() {
+      public void execute( AsyncCallback callback ) {
+
+        SERVICE.fetchPreviewPage( cursorId, pageSize, callback );
+      }
+    }, new AsyncCallback<SerializedResultSetPage>() {
+
+      public void onFailure( Throwable arg0 ) {
+        xulCallback.error( arg0.getLocalizedMessage(), arg0 ); //$NON-NLS-1$
+      }
+
+      public void onSuccess( SerializedResultSetPage arg0 ) {
+        xulCallback.success( arg0 );
+      }
+
+    } );
+  }
+
+  public void closePreview( final String cursorId, final XulServiceCallback<Boolean> xulCallback ) {
+    AuthenticatedGwtServiceUtil.invokeCommand( new IAuthenticatedGwtCommand() {
+      public void execute( AsyncCallback callback ) {
+
+        SERVICE.closePreview( cursorId, callback );
+      }
+    }, new AsyncCallback<Boolean>() {
+
+      public void onFailure( Throwable arg0 ) {
+        xulCallback.error( arg0.getLocalizedMessage(), arg0 ); //$NON-NLS-1$
+      }
+
+      public void onSuccess( Boolean arg0 ) {
+        xulCallback.success( arg0 );
+      }
+
+    } );
+  }
+
+  public void cancelQueries( final XulServiceCallback<Integer> xulCallback ) {
+    AuthenticatedGwtServiceUtil.invokeCommand( new IAuthenticatedGwtCommand() {
+      public void execute( AsyncCallback callback ) {
+
+        SERVICE.cancelQueries( callback );
+      }
+    }, new AsyncCallback<Integer>() {
+
+      public void onFailure( Throwable arg0 ) {
+        xulCallback.error( arg0.getLocalizedMessage(), arg0 ); //$NON-NLS-1$
+      }
+
+      public void onSuccess( Integer arg0 ) {
+        xulCallback.success( arg0 );
+      }
+
+    } );
+  }
+
   public void generateLogicalModel( final String modelName, final String connectionName, final String dbType,
                                     final String query,
                                     final String previewLimit, final XulServiceCallback<BusinessData> xulCallback ) {
@@ -52,6 +52,7 @@ import org.pentaho.platform.dataaccess.datasource.beans.BogoPojo;
 import org.pentaho.platform.dataaccess.datasource.beans.BusinessData;
 import org.pentaho.platform.dataaccess.datasource.beans.LogicalModelSummary;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
 import org.pentaho.platform.dataaccess.datasource.utils.DataAccessPermissionUtil;
 import org.pentaho.platform.dataaccess.datasource.wizard.csv.FileUtils;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
@@ -64,8 +65,13 @@ import org.pentaho.platform.dataaccess.datasource.wizard.service.QueryValidation
 import org.pentaho.platform.dataaccess.datasource.wizard.service.SqlQueriesNotSupportedException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.CsvTransformGenerator;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingCleanupQueue;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.IDSWDatasourceService;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceCacheHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceServiceHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PreviewCursors;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PreviewSampler;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.RunningQueries;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.UtilHtmlSanitizer;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.query.QueryDatasourceSummary;
@@ -119,8 +125,6 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
 
   private static final String AFTER_QUERY = ") tbl"; //$NON-NLS-1$
 
-  private GeoContext geoContext;
-
   private ConnectionServiceImpl connService;
 
   public DSWDatasourceServiceImpl() {
@@ -161,12 +165,22 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
   }
 
   public boolean deleteLogicalModel( String domainId, String modelName ) throws DatasourceServiceException {
+    return deleteLogicalModel( domainId, modelName, true );
+  }
+
+  /**
+   * @param cleanUpNow false when the model is removed along with others, the caller then has the staging area
+   *                   cleaned up once they are all removed
+   */
+  public boolean deleteLogicalModel( String domainId, String modelName, boolean cleanUpNow )
+    throws DatasourceServiceException {
     if ( !hasDataAccessPermission() ) {
       logger.error( Messages.getErrorString( "DatasourceServiceImpl.ERROR_0001_PERMISSION_DENIED" ) ); //$NON-NLS-1$
       return false;
     }
     String catalogRef = null;
     String targetTable = null;
+    String fileName = null;
     try {
       // first load the model
       Domain domain = getMetadataDomainRepository().getDomain( domainId );
@@ -181,32 +195,18 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
       if ( logicalModelRep != null ) {
         String modelState = (String) logicalModelRep.getProperty( LM_PROP_DATASOURCE_MODEL );
 
-        // if CSV, drop the staged table
-        // TODO: use the edit story's stored info to do this
+        // if CSV, the staged table and the uploaded file are cleaned up once the data source is gone
         if ( "CSV".equals( logicalModelRep.getProperty( LM_PROP_DATASOURCE_TYPE ) )
           || "true".equalsIgnoreCase( (String) logicalModelRep.getProperty( LogicalModel.PROPERTY_TARGET_TABLE_STAGED ) ) ) {
-          targetTable = ( (SqlPhysicalTable) domain.getPhysicalModels().get( 0 ).getPhysicalTables().get( 0 ) ).getTargetTable();
           DatasourceDTO datasource = null;
 
           if ( modelState != null ) {
             datasource = deSerializeModelState( modelState );
           }
           if ( datasource != null ) {
-            CsvTransformGenerator csvTransformGenerator =
-              new CsvTransformGenerator( datasource.getCsvModelInfo(), AgileHelper.getDatabaseMeta() );
-            try {
-              csvTransformGenerator.dropTable( targetTable );
-            } catch ( CsvTransformGeneratorException e ) {
-              // table might not be there, it's OK that is what we were trying to do anyway
-              logger.warn( Messages.getErrorString(
-                "DatasourceServiceImpl.ERROR_0019_UNABLE_TO_DROP_TABLE", targetTable, domainId,
-                e.getLocalizedMessage() ), e ); //$NON-NLS-1$
-            }
-            String fileName = datasource.getCsvModelInfo().getFileInfo().getFilename();
-            FileUtils fileService = new FileUtils();
-            if ( fileName != null ) {
-              fileService.deleteFile( fileName );
-            }
+            targetTable = ( (SqlPhysicalTable) domain.getPhysicalModels().get( 0 ).getPhysicalTables().get( 0 ) )
+              .getTargetTable();
+            fileName = datasource.getCsvModelInfo().getFileInfo().getFilename();
           }
         }
       }
@@ -218,6 +218,7 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
         catalogRef = (String) logicalModel.getProperty( LM_PROP_MONDRIAN_CATALOG_REF );
         // check if the model is not already removed
         if ( service.getCatalog( catalogRef, PentahoSessionHolder.getSession() ) != null ) {
+          DatasourceCacheHelper.flushCatalog( catalogRef, PentahoSessionHolder.getSession() );
           service.removeCatalog( catalogRef, PentahoSessionHolder.getSession() );
         }
       }
@@ -228,6 +229,8 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
         getMetadataDomainRepository().removeModel( domainId, logicalModelRep.getId() );
       }
 
+      scheduleCleanup( domainId, targetTable, fileName, cleanUpNow );
+
       // get updated domain
       domain = getMetadataDomainRepository().getDomain( domainId );
 
@@ -258,9 +261,38 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
     return true;
   }
 
+  /**
+   * Queues the stage table and the uploaded file of a deleted CSV data source on the {@link StagingCleanupQueue}, what
+   * can't be queued is left for the staging sweep. The queue runs right away when <code>cleanUpNow</code> is true.
+   */
+  protected void scheduleCleanup( String domainId, String targetTable, String fileName, boolean cleanUpNow ) {
+    if ( targetTable != null ) {
+      try {
+        StagingCleanupQueue.schedule( StagingCleanupQueue.Kind.TABLE, targetTable, false );
+      } catch ( IOException e ) {
+        logger.warn( Messages.getErrorString(
+          "DatasourceServiceImpl.ERROR_0019_UNABLE_TO_DROP_TABLE", targetTable, domainId,
+          e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+      }
+    }
+    if ( fileName != null ) {
+      try {
+        StagingCleanupQueue.schedule( StagingCleanupQueue.Kind.FILE, fileName, false );
+      } catch ( IOException e ) {
+        logger.warn( Messages.getErrorString(
+          "DatasourceServiceImpl.ERROR_0027_UNABLE_TO_DELETE_FILE", fileName, domainId,
+          e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+      }
+    }
+    if ( cleanUpNow && ( targetTable != null || fileName != null ) ) {
+      StagingCleanupQueue.drainSoon();
+    }
+  }
+
   IPentahoResultSet executeQuery( String connectionName, String query, String previewLimit )
     throws QueryValidationException, SqlQueriesNotSupportedException {
     SQLConnection sqlConnection = null;
+    String runningQuery = null;
     try {
       checkSqlQueriesSupported( connectionName );
 
@@ -270,6 +302,11 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
         new SimpleLogger( DatasourceServiceHelper.class.getName() ) );
       sqlConnection.setMaxRows( limit );
       sqlConnection.setReadOnly( true );
+      int timeout = AgileHelper.getQueryTimeout();
+      if ( timeout > 0 ) {
+        sqlConnection.setQueryTimeout( timeout );
+      }
+      runningQuery = getRunningQueries().register( getPreviewOwner(), RunningQueries.forConnection( sqlConnection ) );
       return sqlConnection.executeQuery( BEFORE_QUERY + query + AFTER_QUERY );
     } catch ( SqlQueriesNotSupportedException e ) {
       logger.error( e.getLocalizedMessage() );
@@ -294,12 +331,71 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
         e.getLocalizedMessage() ), e );
       throw new QueryValidationException( e.getLocalizedMessage(), e );
     } finally {
+      getRunningQueries().unregister( runningQuery );
       if ( sqlConnection != null ) {
         sqlConnection.close();
       }
     }
   }
 
+  /**
+   * @return the query previews read their rows with: a sample of the rows of <code>query</code> when a sample
+   * percentage is configured and the database can sample, <code>query</code> itself otherwise
+   */
+  String getPreviewQuery( String connectionName, String query ) throws ConnectionServiceException {
+    double percent = AgileHelper.getPreviewSamplePercent();
+    if ( percent <= 0 || query == null ) {
+      return query;
+    }
+    IDatabaseConnection conn = connService.getConnectionByName( connectionName );
+    return PreviewSampler.sample( conn.getDatabaseType().getShortName(), query, percent );
+  }
+
+  /**
+   * Validates the query through the sampled preview query, or through the query itself when the database refuses the
+   * sampled one.
+   *
+   * @return the query that ran
+   */
+  private String validatePreviewQuery( String connectionName, String query, String previewQuery, String previewLimit )
+    throws QueryValidationException, SqlQueriesNotSupportedException {
+    if ( !StringUtils.equals( previewQuery, query ) ) {
+      try {
+        executeQuery( connectionName, previewQuery, previewLimit );
+        return previewQuery;
+      } catch ( QueryValidationException e ) {
+        logger.warn( "The sampled preview query failed, running the query itself", e ); //$NON-NLS-1$
+      }
+    }
+    executeQuery( connectionName, query, previewLimit );
+    return query;
+  }
+
+  /**
+   * Reads the preview rows with the sampled query, falling back to the first rows of the query when the sample came
+   * back empty, as sampling the pages of a small table may, or when the sampled query failed.
+   */
+  private SerializedResultSet getPreviewResultSet( String connectionName, String query, String previewQuery,
+                                                   int rowLimit ) throws DatasourceServiceException {
+    if ( StringUtils.equals( previewQuery, query ) ) {
+      return DatasourceServiceHelper.getSerializeableResultSet( connectionName, query, rowLimit,
+        PentahoSessionHolder.getSession() );
+    }
+    SerializedResultSet resultSet;
+    try {
+      resultSet = DatasourceServiceHelper.getSerializeableResultSet( connectionName, previewQuery, rowLimit,
+        PentahoSessionHolder.getSession() );
+    } catch ( DatasourceServiceException e ) {
+      logger.warn( "The sampled preview query failed, reading the query itself", e ); //$NON-NLS-1$
+      resultSet = null;
+    }
+    if ( resultSet == null || resultSet.getData().isEmpty() ) {
+      resultSet = DatasourceServiceHelper.getSerializeableResultSet( connectionName, query, rowLimit,
+        PentahoSessionHolder.getSession() );
+    }
+    return resultSet;
+  }
+
   /**
    * Method is designed to check whether sql queries can be executed via connection with a {@core connName}.
    * For now we can't allow sql queries for connections, that are based on Pentaho Data Services.
@@ -333,9 +429,11 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
     SerializedResultSet returnResultSet;
     try {
       connectionName = UtilHtmlSanitizer.getInstance().safeEscapeHtml( connectionName );
-      executeQuery( connectionName, query, previewLimit );
-      returnResultSet = DatasourceServiceHelper.getSerializeableResultSet( connectionName, query,
-        Integer.parseInt( previewLimit ), PentahoSessionHolder.getSession() );
+      String previewQuery =
+        validatePreviewQuery( connectionName, query, getPreviewQuery( connectionName, query ), previewLimit );
+      returnResultSet = getPreviewResultSet( connectionName, query, previewQuery, Integer.parseInt( previewLimit ) );
+    } catch ( ConnectionServiceException e ) {
+      throw new DatasourceServiceException( e.getLocalizedMessage(), e ); //$NON-NLS-1$
     } catch ( QueryValidationException e ) {
       throw new DatasourceServiceException( Messages.getErrorString(
         "DatasourceServiceImpl.ERROR_0009_QUERY_VALIDATION_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
@@ -346,6 +444,98 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
 
   }
 
+  public SerializedResultSetPage openPreview( String connectionName, String query, int pageSize )
+    throws DatasourceServiceException {
+    if ( !hasDataAccessPermission() ) {
+      logger.error( Messages.getErrorString( "DatasourceServiceImpl.ERROR_0001_PERMISSION_DENIED" ) ); //$NON-NLS-1$
+      throw new DatasourceServiceException( Messages
+        .getErrorString( "DatasourceServiceImpl.ERROR_0001_PERMISSION_DENIED" ) ); //$NON-NLS-1$
+    }
+    try {
+      connectionName = UtilHtmlSanitizer.getInstance().safeEscapeHtml( connectionName );
+      checkSqlQueriesSupported( connectionName );
+      String previewQuery = getPreviewQuery( connectionName, query );
+      if ( !StringUtils.equals( previewQuery, query ) ) {
+        try {
+          return openPreviewCursor( connectionName, previewQuery, pageSize );
+        } catch ( SQLException e ) {
+          logger.warn( "The sampled preview query failed, running the query itself", e ); //$NON-NLS-1$
+        }
+      }
+      return openPreviewCursor( connectionName, query, pageSize );
+    } catch ( SQLException e ) {
+      logger.error( Messages.getErrorString(
+        "DatasourceServiceImpl.ERROR_0009_QUERY_VALIDATION_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+      throw new DatasourceServiceException( Messages.getErrorString(
+        "DatasourceServiceImpl.ERROR_0009_QUERY_VALIDATION_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+    } catch ( ConnectionServiceException e ) {
+      throw new DatasourceServiceException( e.getLocalizedMessage(), e ); //$NON-NLS-1$
+    } catch ( SqlQueriesNotSupportedException e ) {
+      throw new DatasourceServiceException( e.getLocalizedMessage(), e ); //$NON-NLS-1$
+    }
+  }
+
+  private SerializedResultSetPage openPreviewCursor( String connectionName, String query, int pageSize )
+    throws DatasourceServiceException, SQLException {
+    java.sql.Connection conn =
+      DatasourceServiceHelper.getDataSourceConnection( connectionName, PentahoSessionHolder.getSession() );
+    if ( conn == null ) {
+      throw new DatasourceServiceException( Messages.getErrorString(
+        "DatasourceServiceImpl.ERROR_0018_UNABLE_TO_TEST_CONNECTION", connectionName ) ); //$NON-NLS-1$
+    }
+    return getPreviewCursors().open( getPreviewOwner(), conn, query, pageSize, AgileHelper.getQueryTimeout(),
+      AgileHelper.getPreviewCursorTimeout() * 1000L );
+  }
+
+  public SerializedResultSetPage fetchPreviewPage( String cursorId, int pageSize ) throws DatasourceServiceException {
+    if ( !hasDataAccessPermission() ) {
+      logger.error( Messages.getErrorString( "DatasourceServiceImpl.ERROR_0001_PERMISSION_DENIED" ) ); //$NON-NLS-1$
+      throw new DatasourceServiceException( Messages
+        .getErrorString( "DatasourceServiceImpl.ERROR_0001_PERMISSION_DENIED" ) ); //$NON-NLS-1$
+    }
+    SerializedResultSetPage page;
+    try {
+      page = getPreviewCursors().fetch( getPreviewOwner(), cursorId, pageSize );
+    } catch ( SQLException e ) {
+      logger.error( Messages.getErrorString(
+        "DatasourceServiceImpl.ERROR_0010_PREVIEW_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+      throw new DatasourceServiceException( Messages.getErrorString(
+        "DatasourceServiceImpl.ERROR_0010_PREVIEW_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+    }
+    if ( page == null ) {
+      throw new DatasourceServiceException( Messages
+        .getErrorString( "DatasourceServiceImpl.ERROR_0026_PREVIEW_EXPIRED" ) ); //$NON-NLS-1$
+    }
+    return page;
+  }
+
+  public boolean closePreview( String cursorId ) {
+    return getPreviewCursors().close( getPreviewOwner(), cursorId );
+  }
+
+  public int cancelQueries() {
+    int cancelled = getRunningQueries().cancel( getPreviewOwner() );
+    if ( cancelled > 0 ) {
+      logger.info( "Cancelled " + cancelled + " running queries" ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return cancelled;
+  }
+
+  protected PreviewCursors getPreviewCursors() {
+    return PreviewCursors.getInstance();
+  }
+
+  protected RunningQueries getRunningQueries() {
+    return RunningQueries.getInstance();
+  }
+
+  /**
+   * A preview cursor can only be read from, and a running query only be cancelled by, the session that opened it.
+   */
+  protected String getPreviewOwner() {
+    return PentahoSessionHolder.getSession() != null ? PentahoSessionHolder.getSession().getId() : ""; //$NON-NLS-1$
+  }
+
   public boolean testDataSourceConnection( String connectionName ) throws DatasourceServiceException {
     if ( !hasDataAccessPermission() ) {
       logger.error( Messages.getErrorString( "DatasourceServiceImpl.ERROR_0001_PERMISSION_DENIED" ) ); //$NON-NLS-1$
@@ -394,11 +584,13 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
     try {
       // Testing whether the query is correct or not
       connectionName = UtilHtmlSanitizer.getInstance().safeEscapeHtml( connectionName );
-      executeQuery( connectionName, query, previewLimit );
+      String previewQuery =
+        validatePreviewQuery( connectionName, query, getPreviewQuery( connectionName, query ), previewLimit );
       Boolean securityEnabled = ( getPermittedRoleList() != null && getPermittedRoleList().size() > 0 )
         || ( getPermittedUserList() != null && getPermittedUserList().size() > 0 );
-      SerializedResultSet resultSet = DatasourceServiceHelper.getSerializeableResultSet( connectionName, query,
-        Integer.parseInt( previewLimit ), PentahoSessionHolder.getSession() );
+      // the model is generated from the sampled rows, but keeps reading the rows of the query itself
+      SerializedResultSet resultSet =
+        getPreviewResultSet( connectionName, query, previewQuery, Integer.parseInt( previewLimit ) );
 
       SQLModelGenerator sqlModelGenerator =
         new SQLModelGenerator( modelName, connectionName, dbType, resultSet.getColumnTypes(), resultSet.getColumns(),
@@ -411,6 +603,8 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
         "DatasourceServiceImpl.ERROR_0011_UNABLE_TO_GENERATE_MODEL", smge.getLocalizedMessage() ), smge ); //$NON-NLS-1$
       throw new DatasourceServiceException( Messages.getErrorString(
         "DatasourceServiceImpl.ERROR_0011_UNABLE_TO_GENERATE_MODEL", smge.getLocalizedMessage() ), smge ); //$NON-NLS-1$
+    } catch ( ConnectionServiceException e ) {
+      throw new DatasourceServiceException( e.getLocalizedMessage(), e ); //$NON-NLS-1$
     } catch ( QueryValidationException e ) {
       throw new DatasourceServiceException( Messages.getErrorString(
         "DatasourceServiceImpl.ERROR_0009_QUERY_VALIDATION_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
@@ -718,9 +912,6 @@ public class DSWDatasourceServiceImpl implements IDSWDatasourceService {
 
   @Override
   public GeoContext getGeoContext() throws DatasourceServiceException {
-    if ( this.geoContext == null ) {
-      this.geoContext = DatasourceServiceHelper.getGeoContext();
-    }
-    return this.geoContext;
+    return DatasourceServiceHelper.getGeoContext();
   }
 }
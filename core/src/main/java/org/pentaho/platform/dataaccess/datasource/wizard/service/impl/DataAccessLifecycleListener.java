@@ -20,6 +20,13 @@ import org.pentaho.platform.api.engine.IPlatformReadyListener;
 import org.pentaho.platform.api.engine.IPluginLifecycleListener;
 import org.pentaho.platform.api.engine.IPluginResourceLoader;
 import org.pentaho.platform.api.engine.PluginLifecycleException;
+import org.pentaho.platform.dataaccess.datasource.api.DataSourceWizardService;
+import org.pentaho.platform.dataaccess.datasource.api.DatasourceJobs;
+import org.pentaho.platform.dataaccess.datasource.utils.DataAccessPermissionUtil;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingCleanupQueue;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingSweeper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PreviewCursors;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.security.SecurityHelper;
 import org.pentaho.platform.repository2.unified.lifecycle.DelegatingBackingRepositoryLifecycleManager;
@@ -40,6 +47,12 @@ public class DataAccessLifecycleListener implements IPluginLifecycleListener, IP
   @Override
   public void ready() throws PluginLifecycleException {
     // the platform is booted, spring initialized, all plugins init and loaded
+    try {
+      ModelerService.initKettleEnvironment();
+    } catch ( Throwable t ) {
+      // the first modeling request tries again
+      log.warn( t.getMessage(), t );
+    }
     boolean enableAgilemartDatasource = false;
     try {
       IPluginResourceLoader resLoader = PentahoSystem.get( IPluginResourceLoader.class, null );
@@ -65,10 +78,28 @@ public class DataAccessLifecycleListener implements IPluginLifecycleListener, IP
           .get( DelegatingBackingRepositoryLifecycleManager.class, "backingRepositoryLifecycleManager", null );
       manager.addLifeCycleManager( AgileMartDatasourceLifecycleManager.getInstance() );
     }
+
+    try {
+      int sweepInterval = AgileHelper.getSweepInterval();
+      if ( sweepInterval > 0 ) {
+        StagingSweeper.start( sweepInterval );
+      }
+      StagingCleanupQueue.start( AgileHelper.getCleanupInterval() );
+    } catch ( Throwable t ) {
+      log.warn( t.getMessage(), t );
+    }
+    QueryMaterializer.start();
   }
 
   @Override
   public void unLoaded() throws PluginLifecycleException {
+    StagingSweeper.stop();
+    StagingCleanupQueue.stop();
+    QueryMaterializer.stop();
+    PreviewCursors.stop();
+    DatasourceJobs.shutdown();
+    DataSourceWizardService.shutdown();
+    DataAccessPermissionUtil.invalidate();
   }
 
 }
@@ -28,6 +28,7 @@ import org.pentaho.database.model.IDatabaseConnection;
 import org.pentaho.database.service.DatabaseDialectService;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.IConnectionService;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceInMemoryServiceHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 
 public class InMemoryConnectionServiceImpl implements IConnectionService {
@@ -76,6 +77,7 @@ public class InMemoryConnectionServiceImpl implements IConnectionService {
       conn.setAccessType( connection.getAccessType() );
       conn.setPassword( connection.getPassword() );
       conn.setUsername( connection.getUsername() );
+      DatasourceInMemoryServiceHelper.invalidateConnectionPool( conn.getName() );
       return true;
     } else {
       logger.error( Messages.getErrorString( "ConnectionServiceInMemoryDelegate.ERROR_0005_UNABLE_TO_UPDATE_CONNECTION",
@@ -88,6 +90,7 @@ public class InMemoryConnectionServiceImpl implements IConnectionService {
 
   public boolean deleteConnection( IDatabaseConnection connection ) throws ConnectionServiceException {
     connectionList.remove( connectionList.indexOf( connection ) );
+    DatasourceInMemoryServiceHelper.invalidateConnectionPool( connection.getName() );
     return true;
   }
 
@@ -52,11 +52,15 @@ import org.pentaho.platform.dataaccess.datasource.beans.BogoPojo;
 import org.pentaho.platform.dataaccess.datasource.beans.BusinessData;
 import org.pentaho.platform.dataaccess.datasource.beans.LogicalModelSummary;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.DatasourceDTO;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.QueryValidationException;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.gwt.IDSWDatasourceService;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceInMemoryServiceHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PreviewCursors;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.RunningQueries;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 import org.pentaho.platform.dataaccess.datasource.wizard.sources.query.QueryDatasourceSummary;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
@@ -167,6 +171,54 @@ public class InMemoryDSWDatasourceServiceImpl implements IDSWDatasourceService {
 
   }
 
+  public SerializedResultSetPage openPreview( String connectionName, String query, int pageSize )
+    throws DatasourceServiceException {
+    java.sql.Connection conn = DatasourceInMemoryServiceHelper.getDataSourceConnection( connectionName );
+    if ( conn == null ) {
+      throw new DatasourceServiceException( Messages.getErrorString(
+        "InMemoryDatasourceServiceImpl.ERROR_0013_UNABLE_TO_CONNECT" ) ); //$NON-NLS-1$
+    }
+    try {
+      return PreviewCursors.getInstance().open( getPreviewOwner(), conn, query, pageSize,
+        AgileHelper.getQueryTimeout(), AgileHelper.getPreviewCursorTimeout() * 1000L );
+    } catch ( SQLException e ) {
+      logger.error( Messages.getErrorString(
+        "InMemoryDatasourceServiceImpl.ERROR_0009_QUERY_VALIDATION_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+      throw new DatasourceServiceException( Messages.getErrorString(
+        "InMemoryDatasourceServiceImpl.ERROR_0009_QUERY_VALIDATION_FAILED", e.getLocalizedMessage() ),
+        e ); //$NON-NLS-1$
+    }
+  }
+
+  public SerializedResultSetPage fetchPreviewPage( String cursorId, int pageSize ) throws DatasourceServiceException {
+    SerializedResultSetPage page;
+    try {
+      page = PreviewCursors.getInstance().fetch( getPreviewOwner(), cursorId, pageSize );
+    } catch ( SQLException e ) {
+      logger.error( Messages.getErrorString(
+        "InMemoryDatasourceServiceImpl.ERROR_0010_PREVIEW_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+      throw new DatasourceServiceException( Messages.getErrorString(
+        "InMemoryDatasourceServiceImpl.ERROR_0010_PREVIEW_FAILED", e.getLocalizedMessage() ), e ); //$NON-NLS-1$
+    }
+    if ( page == null ) {
+      throw new DatasourceServiceException( Messages
+        .getErrorString( "DatasourceServiceImpl.ERROR_0026_PREVIEW_EXPIRED" ) ); //$NON-NLS-1$
+    }
+    return page;
+  }
+
+  public boolean closePreview( String cursorId ) {
+    return PreviewCursors.getInstance().close( getPreviewOwner(), cursorId );
+  }
+
+  public int cancelQueries() {
+    return RunningQueries.getInstance().cancel( getPreviewOwner() );
+  }
+
+  private String getPreviewOwner() {
+    return PentahoSessionHolder.getSession() != null ? PentahoSessionHolder.getSession().getId() : ""; //$NON-NLS-1$
+  }
+
   public boolean testDataSourceConnection( String connectionName ) throws DatasourceServiceException {
     java.sql.Connection conn = null;
     try {
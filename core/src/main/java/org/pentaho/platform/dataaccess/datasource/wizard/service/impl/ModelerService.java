@@ -20,6 +20,7 @@ import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.dom4j.DocumentException;
 import org.pentaho.agilebi.modeler.BaseModelerWorkspaceHelper;
 import org.pentaho.agilebi.modeler.IModelerSource;
 import org.pentaho.agilebi.modeler.ModelerMessagesHolder;
@@ -45,6 +46,8 @@ import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingAggregates;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceCacheHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.InlineSqlModelerSource;
 import org.pentaho.platform.engine.core.system.PentahoBase;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
@@ -65,6 +68,7 @@ public class ModelerService extends PentahoBase implements IModelerService {
   private static final Log logger = LogFactory.getLog( ModelerService.class );
   public static final String TMP_FILE_PATH =
     File.separatorChar + "system" + File.separatorChar + File.separatorChar + "tmp" + File.separatorChar;
+  private static volatile boolean kettleInitialized;
   private SimpleDataAccessPermissionHandler dataAccessPermHandler;
   private DSWDatasourceServiceImpl datasourceService;
 
@@ -88,15 +92,31 @@ public class ModelerService extends PentahoBase implements IModelerService {
   }
 
   protected void initKettle() {
+    initKettleEnvironment();
+  }
 
-    try {
-      KettleSystemListener.environmentInit( PentahoSessionHolder.getSession() );
-      if ( Props.isInitialized() == false ) {
-        Props.init( Props.TYPE_PROPERTIES_EMPTY );
+  /**
+   * Initializes the Kettle environment the first time it is called, which the plugin does when the platform is
+   * ready. Later calls return right away rather than go through the plugin registry again.
+   */
+  public static void initKettleEnvironment() {
+    if ( kettleInitialized ) {
+      return;
+    }
+    synchronized ( ModelerService.class ) {
+      if ( kettleInitialized ) {
+        return;
+      }
+      try {
+        KettleSystemListener.environmentInit( PentahoSessionHolder.getSession() );
+        if ( Props.isInitialized() == false ) {
+          Props.init( Props.TYPE_PROPERTIES_EMPTY );
+        }
+        kettleInitialized = true;
+      } catch ( KettleException e ) {
+        logger.error( e );
+        throw new IllegalStateException( "Failed to initialize Kettle system" ); //$NON-NLS-1$
       }
-    } catch ( KettleException e ) {
-      logger.error( e );
-      throw new IllegalStateException( "Failed to initialize Kettle system" ); //$NON-NLS-1$
     }
   }
 
@@ -217,6 +237,14 @@ public class ModelerService extends PentahoBase implements IModelerService {
             if ( doOlap ) {
               MondrianModelExporter exporter = new MondrianModelExporter( lModel, Locale.getDefault().toString() );
               String mondrianSchema = exporter.createMondrianModelXML();
+              Object aggregates = lModel.getProperty( StagingAggregates.PROPERTY );
+              if ( aggregates instanceof String ) {
+                try {
+                  mondrianSchema = StagingAggregates.register( mondrianSchema, (String) aggregates );
+                } catch ( DocumentException e ) {
+                  logger.warn( "Could not declare the aggregate tables of " + catName, e ); //$NON-NLS-1$
+                }
+              }
               IPentahoSession session = PentahoSessionHolder.getSession();
               if ( session != null ) {
                 // first remove the existing schema, including any
@@ -227,8 +255,9 @@ public class ModelerService extends PentahoBase implements IModelerService {
                 // try to get the current catalog
                 MondrianCatalog currentCatalog = mondrianCatalogService.getCatalog( catName, session );
 
-                // if current catalog exists, remove it
+                // if current catalog exists, remove it, evicting only its own cubes and segments
                 if ( currentCatalog != null ) {
+                  DatasourceCacheHelper.flushCatalog( catName, session );
                   mondrianCatalogService.removeCatalog( catName, session );
                 }
 
@@ -0,0 +1,442 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.database.model.IDatabaseConnection;
+import org.pentaho.database.util.DatabaseUtil;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlDataSource;
+import org.pentaho.metadata.model.SqlDataSource.DataSourceType;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.model.concept.types.TargetTableType;
+import org.pentaho.metadata.repository.IMetadataDomainRepository;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvTransformGeneratorException;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.ConnectionServiceException;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.CsvTransformGenerator;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingSweeper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.TableInputTransformGenerator;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.ConnectionServiceHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceCacheHelper;
+import org.pentaho.platform.dataaccess.datasource.wizard.sources.csv.FileTransformStats;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.security.SecurityHelper;
+
+/**
+ * Copies the rows of a SQL query data source into a table of the staging database and points the data source at that
+ * table, so that reports and analysis stop running the query against its own database. The copy is refreshed every
+ * few minutes, as set for each data source, or on demand.
+ * <p>
+ * A refresh loads the rows into a table of their own and then puts it in the place of the current one, see
+ * {@link org.pentaho.platform.dataaccess.datasource.wizard.service.agile.StagingTransformGenerator#replaceTable}, the
+ * data source reads from the rows of one load or the other throughout. The query and the connection it ran on are
+ * kept in the domain so the data source can go back to the query.
+ */
+public class QueryMaterializer {
+
+  public static final String MATERIALIZED_QUERY = "materialized_query"; //$NON-NLS-1$
+
+  public static final String REFRESH_MINUTES = "materialized_refresh"; //$NON-NLS-1$
+
+  static final String SOURCE_CONNECTION = "materialized_connection"; //$NON-NLS-1$
+
+  static final String SOURCE_DATABASE = "materialized_database"; //$NON-NLS-1$
+
+  static final String SOURCE_TYPE = "materialized_type"; //$NON-NLS-1$
+
+  static final String SOURCE_DIALECT = "materialized_dialect"; //$NON-NLS-1$
+
+  private static final String DATASOURCE_TYPE = "DatasourceType"; //$NON-NLS-1$
+
+  private static final String SQL_DATASOURCE = "SQL-DS"; //$NON-NLS-1$
+
+  private static final String MONDRIAN_CATALOG_REF = "MondrianCatalogRef"; //$NON-NLS-1$
+
+  private static final String TABLE_PREFIX = "MQ_"; //$NON-NLS-1$
+
+  private static final String LOAD_SUFFIX = "_NEW"; //$NON-NLS-1$
+
+  /**
+   * Length of the part of the table name taken from the domain id, short enough for the table and the ones it is
+   * loaded and replaced through to fit in 30 characters.
+   */
+  private static final int NAME_LENGTH = 14;
+
+  private static final long CHECK_MINUTES = 1;
+
+  private static final long MINUTE_MILLIS = 60L * 1000L;
+
+  private static final Log logger = LogFactory.getLog( QueryMaterializer.class );
+
+  private static ScheduledExecutorService scheduler;
+
+  /**
+   * The refresh interval of the materialized data sources, read from all domains by the first scheduled check and
+   * kept up to date from then on.
+   */
+  private static final Map<String, Integer> refreshMinutes = new ConcurrentHashMap<String, Integer>();
+
+  private static volatile boolean refreshMinutesLoaded;
+
+  private static final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Checks every minute for materialized data sources due for a refresh, on a background thread until
+   * {@link #stop()}.
+   */
+  public static synchronized void start() {
+    if ( scheduler != null ) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "data-access-materialized-queries" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    scheduler.scheduleWithFixedDelay( new Runnable() {
+      public void run() {
+        try {
+          SecurityHelper.getInstance().runAsSystem( new Callable<Void>() {
+            public Void call() throws Exception {
+              new QueryMaterializer().refreshDue();
+              return null;
+            }
+          } );
+        } catch ( Exception e ) {
+          logger.warn( "Could not refresh the materialized query data sources", e ); //$NON-NLS-1$
+        }
+      }
+    }, CHECK_MINUTES, CHECK_MINUTES, TimeUnit.MINUTES );
+  }
+
+  public static synchronized void stop() {
+    if ( scheduler != null ) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Loads the rows of the query data source into the staging database and points the data source at them. A data
+   * source that is materialized already is loaded again with the new refresh interval.
+   *
+   * @param refreshMinutes the minutes between two refreshes, 0 to only refresh on demand
+   * @throws IllegalArgumentException if the domain is not a SQL query data source
+   */
+  public void materialize( String domainId, int refreshMinutes ) throws DatasourceServiceException {
+    Domain domain = getDomain( domainId );
+    if ( !isSqlDatasource( domain ) ) {
+      throw new IllegalArgumentException( domainId + " is not a SQL query data source" ); //$NON-NLS-1$
+    }
+    String tableName = getTableName( domainId );
+    DatabaseMeta staging = AgileHelper.getDatabaseMeta();
+    if ( !isMaterialized( domain ) ) {
+      keepQuery( domain );
+    }
+    setProperty( domain, REFRESH_MINUTES, String.valueOf( refreshMinutes ) );
+    if ( !load( domain, tableName ) ) {
+      throw new DatasourceServiceException( domainId + " is being loaded already" ); //$NON-NLS-1$
+    }
+    pointAtTable( domain, tableName, AgileHelper.getSchemaName(), AgileHelper.getJndiName(),
+      staging.getDatabaseTypeDesc() );
+    publish( domain );
+    QueryMaterializer.refreshMinutes.put( domainId, refreshMinutes );
+  }
+
+  /**
+   * Loads the rows of a materialized data source again.
+   *
+   * @return false if the data source is being loaded already
+   * @throws IllegalArgumentException if the data source is not materialized
+   */
+  public boolean refresh( String domainId ) throws DatasourceServiceException {
+    Domain domain = getDomain( domainId );
+    if ( !isMaterialized( domain ) ) {
+      refreshMinutes.remove( domainId );
+      throw new IllegalArgumentException( domainId + " is not materialized" ); //$NON-NLS-1$
+    }
+    if ( !load( domain, getTableName( domainId ) ) ) {
+      return false;
+    }
+    String catalog = getCatalog( domain );
+    if ( catalog != null ) {
+      DatasourceCacheHelper.flushCatalog( catalog, PentahoSessionHolder.getSession() );
+    }
+    return true;
+  }
+
+  /**
+   * Points the data source back at its query and drops the table it was materialized into.
+   *
+   * @return false if the data source was not materialized
+   */
+  public boolean dematerialize( String domainId ) throws DatasourceServiceException {
+    Domain domain = getDomain( domainId );
+    if ( !isMaterialized( domain ) ) {
+      return false;
+    }
+    restoreQuery( domain );
+    publish( domain );
+    refreshMinutes.remove( domainId );
+    String tableName = getTableName( domainId );
+    try {
+      new CsvTransformGenerator( new ModelInfo(), AgileHelper.getDatabaseMeta() ).dropTable( tableName );
+    } catch ( CsvTransformGeneratorException e ) {
+      // the staging sweeper drops it once it is unused long enough
+      logger.warn( "Could not drop the materialized table " + tableName, e ); //$NON-NLS-1$
+    }
+    return true;
+  }
+
+  /**
+   * Refreshes the materialized data sources whose interval passed since they were last loaded.
+   */
+  void refreshDue() throws Exception {
+    if ( !refreshMinutesLoaded ) {
+      IMetadataDomainRepository repository = getRepository();
+      for ( String domainId : repository.getDomainIds() ) {
+        Domain domain = repository.getDomain( domainId );
+        if ( isMaterialized( domain ) ) {
+          refreshMinutes.put( domainId, getRefreshMinutes( domain ) );
+        }
+      }
+      refreshMinutesLoaded = true;
+    }
+    long now = System.currentTimeMillis();
+    File uploadFolder = CsvTransformGenerator.getUploadFolder();
+    for ( Map.Entry<String, Integer> entry : refreshMinutes.entrySet() ) {
+      String domainId = entry.getKey();
+      File marker = StagingSweeper.getTableMarker( uploadFolder, getTableName( domainId ) );
+      if ( entry.getValue() <= 0 || now - marker.lastModified() < entry.getValue() * MINUTE_MILLIS ) {
+        continue;
+      }
+      try {
+        refresh( domainId );
+      } catch ( IllegalArgumentException e ) {
+        // removed or no longer materialized
+      } catch ( DatasourceServiceException e ) {
+        logger.warn( "Could not refresh " + domainId, e ); //$NON-NLS-1$
+      }
+    }
+  }
+
+  /**
+   * Runs the query of the data source into a table of its own and puts it in the place of <code>tableName</code>.
+   *
+   * @return false if the data source is being loaded already
+   */
+  protected boolean load( Domain domain, String tableName ) throws DatasourceServiceException {
+    if ( !loading.add( domain.getId() ) ) {
+      return false;
+    }
+    String loadName = tableName + LOAD_SUFFIX;
+    TableInputTransformGenerator generator = null;
+    try {
+      generator = new TableInputTransformGenerator( getSourceDatabaseMeta(
+        (String) getProperty( domain, SOURCE_CONNECTION ) ), AgileHelper.getDatabaseMeta() );
+      generator.setSql( (String) getProperty( domain, MATERIALIZED_QUERY ) );
+      generator.setTableName( loadName );
+      generator.setTransformStats( new FileTransformStats() );
+      IPentahoSession session = PentahoSessionHolder.getSession();
+      generator.dropTable( loadName );
+      generator.createOrModifyTable( session );
+      generator.loadTable( false, session, false );
+      generator.replaceTable( tableName, loadName );
+      StagingSweeper.recordStagedTable( CsvTransformGenerator.getUploadFolder(), tableName );
+      return true;
+    } catch ( CsvTransformGeneratorException | ConnectionServiceException | IOException e ) {
+      if ( generator != null ) {
+        try {
+          generator.dropTable( loadName );
+        } catch ( CsvTransformGeneratorException e1 ) {
+          // dropped by the next load
+        }
+      }
+      throw new DatasourceServiceException( "Could not materialize " + domain.getId(), e ); //$NON-NLS-1$
+    } finally {
+      loading.remove( domain.getId() );
+    }
+  }
+
+  protected DatabaseMeta getSourceDatabaseMeta( String connectionName ) throws ConnectionServiceException {
+    IDatabaseConnection connection = new ConnectionServiceImpl().getConnectionByName( connectionName, false );
+    connection.setPassword(
+      ConnectionServiceHelper.getConnectionPassword( connection.getName(), connection.getPassword() ) );
+    DatabaseMeta databaseMeta = DatabaseUtil.convertToDatabaseMeta( connection );
+    databaseMeta.getDatabaseInterface().setQuoteAllFields( true );
+    return databaseMeta;
+  }
+
+  /**
+   * Stores the domain and regenerates its Mondrian schema if it has one.
+   */
+  protected void publish( Domain domain ) throws DatasourceServiceException {
+    try {
+      new ModelerService().serializeModels( domain, domain.getId(), getCatalog( domain ) != null );
+    } catch ( Exception e ) {
+      throw new DatasourceServiceException( "Could not publish " + domain.getId(), e ); //$NON-NLS-1$
+    }
+  }
+
+  protected Domain getDomain( String domainId ) {
+    return getRepository().getDomain( domainId );
+  }
+
+  protected IMetadataDomainRepository getRepository() {
+    return PentahoSystem.get( IMetadataDomainRepository.class, null );
+  }
+
+  /**
+   * @return the table the data source is materialized into, named after the domain id
+   */
+  static String getTableName( String domainId ) {
+    String name = domainId.endsWith( ".xmi" ) //$NON-NLS-1$
+      ? domainId.substring( 0, domainId.length() - 4 ) : domainId;
+    name = name.replaceAll( "[^A-Za-z0-9]", "_" ).toUpperCase( Locale.ENGLISH ); //$NON-NLS-1$ //$NON-NLS-2$
+    if ( name.length() > NAME_LENGTH ) {
+      name = name.substring( 0, NAME_LENGTH );
+    }
+    // names that only differ in the characters replaced or cut off stay apart
+    return TABLE_PREFIX + name + String.format( "_%08X", domainId.hashCode() ); //$NON-NLS-1$
+  }
+
+  static boolean isSqlDatasource( Domain domain ) {
+    return domain != null && !domain.getLogicalModels().isEmpty()
+      && SQL_DATASOURCE.equals( domain.getLogicalModels().get( 0 ).getProperty( DATASOURCE_TYPE ) );
+  }
+
+  public static boolean isMaterialized( Domain domain ) {
+    return isSqlDatasource( domain ) && getProperty( domain, MATERIALIZED_QUERY ) != null;
+  }
+
+  /**
+   * @return the minutes between two refreshes of the materialized data source, 0 if it is only refreshed on demand
+   */
+  public static int getRefreshMinutes( Domain domain ) {
+    Object minutes = getProperty( domain, REFRESH_MINUTES );
+    try {
+      return minutes == null ? 0 : Integer.parseInt( minutes.toString() );
+    } catch ( NumberFormatException e ) {
+      return 0;
+    }
+  }
+
+  /**
+   * Keeps the query of the data source and the connection it runs on in the domain.
+   *
+   * @throws IllegalArgumentException if the data source does not read from a query
+   */
+  static void keepQuery( Domain domain ) {
+    SqlPhysicalModel physicalModel = (SqlPhysicalModel) domain.getPhysicalModels().get( 0 );
+    SqlPhysicalTable table = (SqlPhysicalTable) physicalModel.getPhysicalTables().get( 0 );
+    if ( table.getTargetTableType() != TargetTableType.INLINE_SQL ) {
+      throw new IllegalArgumentException( domain.getId() + " does not read from a query" ); //$NON-NLS-1$
+    }
+    SqlDataSource dataSource = physicalModel.getDatasource();
+    setProperty( domain, MATERIALIZED_QUERY, table.getTargetTable() );
+    setProperty( domain, SOURCE_CONNECTION, physicalModel.getId() );
+    setProperty( domain, SOURCE_DATABASE, dataSource.getDatabaseName() );
+    setProperty( domain, SOURCE_TYPE, dataSource.getType().name() );
+    setProperty( domain, SOURCE_DIALECT, dataSource.getDialectType() );
+  }
+
+  /**
+   * Points the data source at the table it is materialized into, the way a CSV data source points at its stage table.
+   */
+  static void pointAtTable( Domain domain, String tableName, String schema, String jndiName, String dialect ) {
+    SqlPhysicalModel physicalModel = (SqlPhysicalModel) domain.getPhysicalModels().get( 0 );
+    SqlPhysicalTable table = (SqlPhysicalTable) physicalModel.getPhysicalTables().get( 0 );
+    table.setTargetTableType( TargetTableType.TABLE );
+    table.setTargetTable( tableName );
+    table.setTargetSchema( schema );
+    SqlDataSource dataSource = new SqlDataSource();
+    dataSource.setType( DataSourceType.JNDI );
+    dataSource.setDatabaseName( jndiName );
+    dataSource.setDialectType( dialect );
+    physicalModel.setDatasource( dataSource );
+    physicalModel.setId( jndiName );
+  }
+
+  /**
+   * Points the data source back at the query kept by {@link #keepQuery} and forgets it.
+   */
+  static void restoreQuery( Domain domain ) {
+    SqlPhysicalModel physicalModel = (SqlPhysicalModel) domain.getPhysicalModels().get( 0 );
+    SqlPhysicalTable table = (SqlPhysicalTable) physicalModel.getPhysicalTables().get( 0 );
+    table.setTargetTableType( TargetTableType.INLINE_SQL );
+    table.setTargetTable( (String) getProperty( domain, MATERIALIZED_QUERY ) );
+    table.setTargetSchema( null );
+    SqlDataSource dataSource = new SqlDataSource();
+    dataSource.setType( DataSourceType.valueOf( (String) getProperty( domain, SOURCE_TYPE ) ) );
+    dataSource.setDatabaseName( (String) getProperty( domain, SOURCE_DATABASE ) );
+    dataSource.setDialectType( (String) getProperty( domain, SOURCE_DIALECT ) );
+    physicalModel.setDatasource( dataSource );
+    physicalModel.setId( (String) getProperty( domain, SOURCE_CONNECTION ) );
+    for ( String name : new String[] { MATERIALIZED_QUERY, REFRESH_MINUTES, SOURCE_CONNECTION, SOURCE_DATABASE,
+      SOURCE_TYPE, SOURCE_DIALECT } ) {
+      for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+        logicalModel.removeChildProperty( name );
+      }
+    }
+  }
+
+  /**
+   * @return the Mondrian catalog of the data source, null if it has none
+   */
+  private static String getCatalog( Domain domain ) {
+    for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+      Object catalog = logicalModel.getProperty( MONDRIAN_CATALOG_REF );
+      if ( catalog != null ) {
+        return catalog.toString();
+      }
+    }
+    return null;
+  }
+
+  private static Object getProperty( Domain domain, String name ) {
+    return domain.getLogicalModels().get( 0 ).getProperty( name );
+  }
+
+  /**
+   * Sets the property on all logical models, like the other properties of the data source.
+   */
+  private static void setProperty( Domain domain, String name, String value ) {
+    for ( LogicalModel logicalModel : domain.getLogicalModels() ) {
+      logicalModel.setProperty( name, value );
+    }
+  }
+}
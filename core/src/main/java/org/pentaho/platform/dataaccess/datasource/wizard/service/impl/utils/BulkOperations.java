@@ -0,0 +1,79 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs the requests that change many data sources or connections at once, one id after the other. An id that fails
+ * doesn't stop the others, and each id gets its own result.
+ */
+public class BulkOperations {
+
+  private static final Log logger = LogFactory.getLog( BulkOperations.class );
+
+  /**
+   * The change a bulk request makes to one of its data sources.
+   */
+  public interface DatasourceOperation {
+    void apply( String id ) throws Exception;
+  }
+
+  private BulkOperations() {
+  }
+
+  /**
+   * Applies an operation to each data source of a bulk request in turn, going on with the others when one of them
+   * fails. The caller checks the access of the user and flushes the caches once for the whole request.
+   *
+   * @return the failure of each id, null for those the operation succeeded for, in the order of the request; an id
+   *         given more than once is applied once
+   */
+  public static Map<String, Exception> applyEach( Collection<String> ids, DatasourceOperation operation ) {
+    Map<String, Exception> results = new LinkedHashMap<String, Exception>();
+    for ( String id : ids ) {
+      if ( id == null || results.containsKey( id ) ) {
+        continue;
+      }
+      try {
+        operation.apply( id );
+        results.put( id, null );
+      } catch ( Exception e ) {
+        logger.warn( "Bulk operation failed for " + id + ": " + e.getMessage() ); //$NON-NLS-1$ //$NON-NLS-2$
+        results.put( id, e );
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return the ids the operation succeeded for, in the order of the request
+   */
+  public static List<String> succeeded( Map<String, Exception> results ) {
+    List<String> ids = new ArrayList<String>();
+    for ( Map.Entry<String, Exception> result : results.entrySet() ) {
+      if ( result.getValue() == null ) {
+        ids.add( result.getKey() );
+      }
+    }
+    return ids;
+  }
+}
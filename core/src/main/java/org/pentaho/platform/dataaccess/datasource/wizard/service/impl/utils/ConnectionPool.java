@@ -0,0 +1,241 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A small pool of JDBC connections to one connection definition, used by {@link DatasourceInMemoryServiceHelper} so
+ * that every wizard action does not pay for a new connection. Closing a connection taken from the pool hands it back,
+ * the pool keeps at most <code>maxIdle</code> of them and closes the rest.
+ * <p>
+ * At most <code>maxActive</code> connections are handed out at a time. A caller asking for one more waits for one to be
+ * handed back, and gets an exception after <code>maxWaitMillis</code>.
+ * <p>
+ * Idle connections are checked before they are handed out again. Once the connection definition is edited the pool is
+ * invalidated: its idle connections are closed and the connections in use are closed when they are handed back.
+ */
+class ConnectionPool {
+
+  static final int DEFAULT_MAX_IDLE = 4;
+
+  static final int DEFAULT_MAX_ACTIVE = 8;
+
+  static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+
+  private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+  private static final Log logger = LogFactory.getLog( ConnectionPool.class );
+
+  private final String url;
+
+  private final String username;
+
+  private final String password;
+
+  private final int maxIdle;
+
+  private final long maxWaitMillis;
+
+  private final Semaphore active;
+
+  private final Deque<Connection> idle = new ArrayDeque<Connection>();
+
+  private boolean invalidated;
+
+  ConnectionPool( String url, String username, String password, int maxIdle ) {
+    this( url, username, password, maxIdle, DEFAULT_MAX_ACTIVE, DEFAULT_MAX_WAIT_MILLIS );
+  }
+
+  ConnectionPool( String url, String username, String password, int maxIdle, int maxActive, long maxWaitMillis ) {
+    this.url = url;
+    this.username = username;
+    this.password = password;
+    this.maxIdle = maxIdle;
+    this.maxWaitMillis = maxWaitMillis;
+    this.active = new Semaphore( maxActive, true );
+  }
+
+  /**
+   * @return whether the pool connects the way the connection definition says
+   */
+  boolean isFor( String url, String username, String password ) {
+    return ObjectUtils.equals( this.url, url ) && ObjectUtils.equals( this.username, username )
+      && ObjectUtils.equals( this.password, password );
+  }
+
+  /**
+   * @return an idle connection that is still usable, or a new one. Closing it hands it back to the pool.
+   * @throws SQLException if no connection was handed back within the wait time while all of them are in use
+   */
+  Connection getConnection() throws SQLException {
+    try {
+      if ( !active.tryAcquire( maxWaitMillis, TimeUnit.MILLISECONDS ) ) {
+        throw new SQLException( "Timed out waiting for a pooled connection to " + url ); //$NON-NLS-1$
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new SQLException( "Interrupted waiting for a pooled connection to " + url, e ); //$NON-NLS-1$
+    }
+    try {
+      Connection connection;
+      while ( ( connection = takeIdle() ) != null ) {
+        if ( isUsable( connection ) ) {
+          return wrap( connection );
+        }
+        closeQuietly( connection );
+      }
+      return wrap( DriverManager.getConnection( url, username, password ) );
+    } catch ( SQLException | RuntimeException e ) {
+      active.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Closes the idle connections, the ones in use are closed instead of handed back.
+   */
+  void invalidate() {
+    Connection[] connections;
+    synchronized ( this ) {
+      invalidated = true;
+      connections = idle.toArray( new Connection[ idle.size() ] );
+      idle.clear();
+    }
+    for ( Connection connection : connections ) {
+      closeQuietly( connection );
+    }
+  }
+
+  synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  private synchronized Connection takeIdle() {
+    return idle.pollFirst();
+  }
+
+  private synchronized boolean offerIdle( Connection connection ) {
+    if ( invalidated || idle.size() >= maxIdle ) {
+      return false;
+    }
+    idle.offerFirst( connection );
+    return true;
+  }
+
+  /**
+   * Puts a connection that was handed back into the state a new one would be in, or closes it if that fails or the
+   * pool is full.
+   */
+  private void recycle( Connection connection ) {
+    try {
+      if ( connection.isClosed() ) {
+        return;
+      }
+      if ( !connection.getAutoCommit() ) {
+        connection.rollback();
+        connection.setAutoCommit( true );
+      }
+      if ( connection.isReadOnly() ) {
+        connection.setReadOnly( false );
+      }
+    } catch ( SQLException e ) {
+      logger.debug( "Could not reset a pooled connection, closing it", e ); //$NON-NLS-1$
+      closeQuietly( connection );
+      return;
+    }
+    if ( !offerIdle( connection ) ) {
+      closeQuietly( connection );
+    }
+  }
+
+  private static boolean isUsable( Connection connection ) {
+    try {
+      return connection.isValid( VALIDATION_TIMEOUT_SECONDS );
+    } catch ( SQLException | AbstractMethodError e ) {
+      // drivers that predate JDBC 4
+      try {
+        return !connection.isClosed();
+      } catch ( SQLException e1 ) {
+        return false;
+      }
+    }
+  }
+
+  private static void closeQuietly( Connection connection ) {
+    try {
+      connection.close();
+    } catch ( SQLException e ) {
+      logger.debug( "Could not close a pooled connection", e ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * @return a connection that is handed back to the pool when it is closed and can't be used afterwards
+   */
+  private Connection wrap( final Connection connection ) {
+    return (Connection) Proxy.newProxyInstance( ConnectionPool.class.getClassLoader(),
+      new Class<?>[] { Connection.class }, new InvocationHandler() {
+        private boolean closed;
+
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+          String name = method.getName();
+          if ( "equals".equals( name ) ) { //$NON-NLS-1$
+            return proxy == args[ 0 ];
+          }
+          if ( "hashCode".equals( name ) ) { //$NON-NLS-1$
+            return System.identityHashCode( proxy );
+          }
+          synchronized ( this ) {
+            if ( "close".equals( name ) ) { //$NON-NLS-1$
+              if ( !closed ) {
+                closed = true;
+                try {
+                  recycle( connection );
+                } finally {
+                  active.release();
+                }
+              }
+              return null;
+            }
+            if ( "isClosed".equals( name ) ) { //$NON-NLS-1$
+              return closed || connection.isClosed();
+            }
+            if ( closed && !"toString".equals( name ) ) { //$NON-NLS-1$
+              throw new SQLException( "The connection was handed back to the pool" ); //$NON-NLS-1$
+            }
+          }
+          try {
+            return method.invoke( connection, args );
+          } catch ( InvocationTargetException e ) {
+            throw e.getCause();
+          }
+        }
+      } );
+  }
+}
@@ -0,0 +1,90 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import java.util.Collection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.plugin.action.mondrian.catalog.IMondrianCatalogService;
+import org.pentaho.platform.plugin.action.olap.IOlapService;
+
+/**
+ * Evicts what the server caches about a single data source when it is republished or deleted, so that the cubes and
+ * segments of every other catalog stay warm. Publishing through the Mondrian cache publisher or re-initializing the
+ * catalog service would flush all of them.
+ */
+public class DatasourceCacheHelper {
+
+  private static final Log logger = LogFactory.getLog( DatasourceCacheHelper.class );
+
+  private DatasourceCacheHelper() {
+  }
+
+  /**
+   * Flushes the schema and segment cache of one Mondrian catalog. Call it before the catalog is replaced or removed,
+   * while the cached schema can still be found by the catalog name.
+   *
+   * @param catalogName the name of the catalog, nothing is flushed if it is null
+   */
+  public static void flushCatalog( String catalogName, IPentahoSession session ) {
+    if ( catalogName == null ) {
+      return;
+    }
+    IOlapService olapService = PentahoSystem.get( IOlapService.class, "IOlapService", session ); //$NON-NLS-1$
+    if ( olapService != null ) {
+      flushCatalog( olapService, catalogName, session );
+      return;
+    }
+    // without the olap service there is no way to reach a single catalog
+    IMondrianCatalogService catalogService =
+      PentahoSystem.get( IMondrianCatalogService.class, "IMondrianCatalogService", session ); //$NON-NLS-1$
+    if ( catalogService != null ) {
+      catalogService.reInit( session );
+    }
+  }
+
+  /**
+   * Flushes the schema and segment cache of several Mondrian catalogs, for a request that replaces or removes all of
+   * them. Without the olap service the catalog service is re-initialized once for all of them.
+   */
+  public static void flushCatalogs( Collection<String> catalogNames, IPentahoSession session ) {
+    if ( catalogNames.isEmpty() ) {
+      return;
+    }
+    IOlapService olapService = PentahoSystem.get( IOlapService.class, "IOlapService", session ); //$NON-NLS-1$
+    if ( olapService != null ) {
+      for ( String catalogName : catalogNames ) {
+        flushCatalog( olapService, catalogName, session );
+      }
+      return;
+    }
+    IMondrianCatalogService catalogService =
+      PentahoSystem.get( IMondrianCatalogService.class, "IMondrianCatalogService", session ); //$NON-NLS-1$
+    if ( catalogService != null ) {
+      catalogService.reInit( session );
+    }
+  }
+
+  static void flushCatalog( IOlapService olapService, String catalogName, IPentahoSession session ) {
+    try {
+      olapService.flush( session, catalogName );
+    } catch ( RuntimeException e ) {
+      // the catalog may not exist yet, or never have been used, then there is nothing cached to flush
+      logger.debug( "Could not flush the cache of catalog " + catalogName, e ); //$NON-NLS-1$
+    }
+  }
+}
@@ -21,8 +21,11 @@ import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -48,8 +51,12 @@ import org.pentaho.platform.plugin.services.connections.sql.SQLMetaData;
 public class DatasourceInMemoryServiceHelper {
   private static final Log logger = LogFactory.getLog( DatasourceInMemoryServiceHelper.class );
 
+  private static final Map<String, Driver> registeredDrivers = new HashMap<String, Driver>();
+
+  private static final Map<String, ConnectionPool> connectionPools = new ConcurrentHashMap<String, ConnectionPool>();
+
   /**
-   * NOTE: caller is responsible for closing connection
+   * NOTE: caller is responsible for closing connection, which hands it back to the pool of the connection definition
    *
    * @param connectionName
    * @return
@@ -65,8 +72,6 @@ public class DatasourceInMemoryServiceHelper {
       //we should return null because we do not able to use connection 
       return null;
     }
-    java.sql.Connection conn = null;
-
     DatabaseDialectService dialectService = new DatabaseDialectService();
     IDatabaseDialect dialect = dialectService.getDialect( connection );
     String driverClass = null;
@@ -80,6 +85,57 @@ public class DatasourceInMemoryServiceHelper {
       throw new DatasourceServiceException( Messages
         .getErrorString( "DatasourceInMemoryServiceHelper.ERROR_0001_CONNECTION_ATTEMPT_FAILED" ) ); //$NON-NLS-1$
     }
+    registerDriver( driverClass );
+    try {
+      return getConnectionPool( connectionName, dialect.getURLWithExtraOptions( connection ),
+        connection.getUsername(), connection.getPassword() ).getConnection();
+    } catch ( SQLException e ) {
+      logger.error( Messages.getErrorString( "DatasourceInMemoryServiceHelper.ERROR_0004_UNABLE_TO_CONNECT" ),
+        e ); //$NON-NLS-1$
+      throw new DatasourceServiceException(
+        Messages.getErrorString( "DatasourceInMemoryServiceHelper.ERROR_0004_UNABLE_TO_CONNECT" ), e ); //$NON-NLS-1$
+    } catch ( DatabaseDialectException e ) {
+      throw new DatasourceServiceException(
+        Messages.getErrorString( "DatasourceInMemoryServiceHelper.ERROR_0004_UNABLE_TO_CONNECT" ), e ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Closes the pooled connections of a connection definition, to be called once the definition was edited or deleted.
+   *
+   * @param connectionName
+   */
+  public static void invalidateConnectionPool( String connectionName ) {
+    ConnectionPool pool = connectionPools.remove( connectionName );
+    if ( pool != null ) {
+      pool.invalidate();
+    }
+  }
+
+  /**
+   * @return the pool of the connection definition, a new one if the definition changed since the pool was created
+   */
+  private static synchronized ConnectionPool getConnectionPool( String connectionName, String url, String username,
+                                                                String password ) {
+    ConnectionPool pool = connectionPools.get( connectionName );
+    if ( pool != null && pool.isFor( url, username, password ) ) {
+      return pool;
+    }
+    if ( pool != null ) {
+      pool.invalidate();
+    }
+    pool = new ConnectionPool( url, username, password, ConnectionPool.DEFAULT_MAX_IDLE );
+    connectionPools.put( connectionName, pool );
+    return pool;
+  }
+
+  /**
+   * Loads and registers a driver class with the {@link DriverManager} the first time a connection needs it.
+   */
+  private static synchronized void registerDriver( String driverClass ) throws DatasourceServiceException {
+    if ( registeredDrivers.containsKey( driverClass ) ) {
+      return;
+    }
     Class<?> driverC = null;
 
     try {
@@ -120,18 +176,13 @@ public class DatasourceInMemoryServiceHelper {
     }
     try {
       DriverManager.registerDriver( driver );
-      conn = DriverManager.getConnection( dialect.getURLWithExtraOptions( connection ), connection.getUsername(),
-        connection.getPassword() );
-      return conn;
     } catch ( SQLException e ) {
       logger.error( Messages.getErrorString( "DatasourceInMemoryServiceHelper.ERROR_0004_UNABLE_TO_CONNECT" ),
         e ); //$NON-NLS-1$
       throw new DatasourceServiceException(
         Messages.getErrorString( "DatasourceInMemoryServiceHelper.ERROR_0004_UNABLE_TO_CONNECT" ), e ); //$NON-NLS-1$
-    } catch ( DatabaseDialectException e ) {
-      throw new DatasourceServiceException(
-        Messages.getErrorString( "DatasourceInMemoryServiceHelper.ERROR_0004_UNABLE_TO_CONNECT" ), e ); //$NON-NLS-1$
     }
+    registeredDrivers.put( driverClass, driver );
   }
 
   public static SQLConnection getConnection( String connectionName ) throws DatasourceServiceException {
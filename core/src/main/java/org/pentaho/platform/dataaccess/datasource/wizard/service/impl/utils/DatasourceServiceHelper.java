@@ -33,10 +33,13 @@ import org.pentaho.commons.connection.memory.MemoryMetaData;
 import org.pentaho.commons.connection.memory.MemoryResultSet;
 import org.pentaho.metadata.query.model.util.CsvDataReader;
 import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.engine.ISystemSettings;
 import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSet;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.DatasourceServiceException;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.messages.Messages;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.connection.PentahoConnectionFactory;
 import org.pentaho.platform.plugin.services.connections.sql.SQLConnection;
 import org.pentaho.platform.plugin.services.connections.sql.SQLMetaData;
@@ -50,6 +53,10 @@ public class DatasourceServiceHelper {
 
   private static GeoContextConfigProvider configProvider = new GeoContextSettingsProvider( SETTINGS_FILE );
 
+  private static volatile GeoContext geoContext;
+
+  private static volatile Object geoContextSettings;
+
   public static Connection getDataSourceConnection( String connectionName, IPentahoSession session ) {
     SQLConnection sqlConnection = (SQLConnection) PentahoConnectionFactory
       .getConnection( IPentahoConnection.SQL_DATASOURCE, connectionName, session,
@@ -62,11 +69,18 @@ public class DatasourceServiceHelper {
     throws DatasourceServiceException {
     SerializedResultSet serializedResultSet = null;
     SQLConnection sqlConnection = null;
+    String runningQuery = null;
     try {
       sqlConnection = (SQLConnection) PentahoConnectionFactory
         .getConnection( IPentahoConnection.SQL_DATASOURCE, connectionName, PentahoSessionHolder.getSession(), null );
       sqlConnection.setMaxRows( rowLimit );
       sqlConnection.setReadOnly( true );
+      int timeout = AgileHelper.getQueryTimeout();
+      if ( timeout > 0 ) {
+        sqlConnection.setQueryTimeout( timeout );
+      }
+      runningQuery = RunningQueries.getInstance().register( session != null ? session.getId() : "", //$NON-NLS-1$
+        RunningQueries.forConnection( sqlConnection ) );
       IPentahoResultSet resultSet = sqlConnection.executeQuery( query );
       logger.debug( "ResultSet is not scrollable. Copying into memory" ); //$NON-NLS-1$
       if ( !resultSet.isScrollable() ) {
@@ -111,6 +125,7 @@ public class DatasourceServiceHelper {
         .getErrorString( "DatasourceServiceHelper.ERROR_0001_QUERY_VALIDATION_FAILED", e.getLocalizedMessage() ),
         e ); //$NON-NLS-1$
     } finally {
+      RunningQueries.getInstance().unregister( runningQuery );
       if ( sqlConnection != null ) {
         sqlConnection.close();
       }
@@ -163,13 +178,35 @@ public class DatasourceServiceHelper {
 
   }
 
+  /**
+   * Gets the geographic roles configured in the settings of the plugin. They are read once and shared by all the
+   * services, until the platform reads the settings again.
+   */
   public static GeoContext getGeoContext() throws DatasourceServiceException {
-    try {
-      GeoContext geo = GeoContextFactory.create( configProvider );
+    Object settings = getSettingsDocument();
+    GeoContext geo = geoContext;
+    if ( geo != null && settings == geoContextSettings ) {
       return geo;
-    } catch ( ModelerException e ) {
-      throw new DatasourceServiceException( e );
     }
+    synchronized ( DatasourceServiceHelper.class ) {
+      if ( geoContext == null || settings != geoContextSettings ) {
+        try {
+          geoContext = GeoContextFactory.create( configProvider );
+          geoContextSettings = settings;
+        } catch ( ModelerException e ) {
+          throw new DatasourceServiceException( e );
+        }
+      }
+      return geoContext;
+    }
+  }
+
+  /**
+   * @return the settings of the plugin as the platform has them cached, a new document once they are read again
+   */
+  private static Object getSettingsDocument() {
+    ISystemSettings systemSettings = PentahoSystem.getSystemSettings();
+    return systemSettings == null ? null : systemSettings.getSystemSettingsDocument( SETTINGS_FILE );
   }
 
 }
@@ -0,0 +1,350 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
+
+/**
+ * The query previews of the SQL data source wizard that are read page by page. Each preview runs its query once and
+ * keeps the forward-only result set open between pages, so scrolling through the preview does not run the query again.
+ * <p>
+ * A cursor holds a database connection, so it is closed as soon as its last page was read, when the wizard closes it,
+ * when its owner opens more than {@link #MAX_CURSORS_PER_OWNER} of them, or when it was not read from for the idle
+ * timeout. Idle cursors are closed by a background sweep, and all of them when the plugin is unloaded, see {@link
+ * #stop()}.
+ * <p>
+ * A preview reads {@link #MAX_ROWS} rows at most. The query runs outside of auto-commit, some drivers, PostgreSQL among
+ * them, only stream a result set by the fetch size within a transaction and read it whole into memory otherwise.
+ */
+public class PreviewCursors {
+
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  public static final int MAX_ROWS = 100000;
+
+  static final int MAX_CURSORS_PER_OWNER = 2;
+
+  private static final long SWEEP_INTERVAL_MILLIS = 10000;
+
+  private static final Log logger = LogFactory.getLog( PreviewCursors.class );
+
+  private static final PreviewCursors instance = new PreviewCursors();
+
+  private final Map<String, Cursor> cursors = new ConcurrentHashMap<String, Cursor>();
+
+  private final RunningQueries runningQueries;
+
+  private final int maxRows;
+
+  private ScheduledExecutorService sweeper;
+
+  PreviewCursors() {
+    this( RunningQueries.getInstance() );
+  }
+
+  PreviewCursors( RunningQueries runningQueries ) {
+    this( runningQueries, MAX_ROWS );
+  }
+
+  PreviewCursors( RunningQueries runningQueries, int maxRows ) {
+    this.runningQueries = runningQueries;
+    this.maxRows = maxRows;
+  }
+
+  public static PreviewCursors getInstance() {
+    return instance;
+  }
+
+  /**
+   * Closes every open cursor and stops the background sweep. Cursors opened afterwards start the sweep again.
+   */
+  public static void stop() {
+    instance.closeAll();
+  }
+
+  /**
+   * Runs the query and reads its first page. The connection is owned by the cursor from here on and is closed with it,
+   * also when the query fails. While the query runs and while a page is read the owner can cancel it through
+   * {@link RunningQueries}.
+   *
+   * @param owner               the session the cursor belongs to, no other session can read from it
+   * @param queryTimeoutSeconds the time the query may take per page before the database stops it, 0 for no limit
+   * @param idleTimeoutMillis   the time after which a cursor that was not read from is closed
+   */
+  public SerializedResultSetPage open( String owner, Connection connection, String query, int pageSize,
+                                       int queryTimeoutSeconds, long idleTimeoutMillis ) throws SQLException {
+    Cursor cursor = new Cursor( UUID.randomUUID().toString(), owner, connection, idleTimeoutMillis );
+    String running = null;
+    try {
+      connection.setReadOnly( true );
+      connection.setAutoCommit( false );
+      cursor.statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+      cursor.statement.setFetchSize( Math.min( pageSize, MAX_PAGE_SIZE ) );
+      cursor.statement.setMaxRows( maxRows );
+      if ( queryTimeoutSeconds > 0 ) {
+        cursor.statement.setQueryTimeout( queryTimeoutSeconds );
+      }
+      running = runningQueries.register( owner, RunningQueries.forStatement( cursor.statement ) );
+      cursor.resultSet = cursor.statement.executeQuery( query );
+      ResultSetMetaData metaData = cursor.resultSet.getMetaData();
+      cursor.columns = new String[ metaData.getColumnCount() ];
+      cursor.columnTypes = new int[ cursor.columns.length ];
+      for ( int i = 0; i < cursor.columns.length; i++ ) {
+        cursor.columns[ i ] = metaData.getColumnLabel( i + 1 );
+        cursor.columnTypes[ i ] = metaData.getColumnType( i + 1 );
+      }
+    } catch ( SQLException e ) {
+      runningQueries.unregister( running );
+      cursor.close();
+      throw e;
+    }
+    closeEldest( owner );
+    cursors.put( cursor.id, cursor );
+    startSweeper();
+    try {
+      return next( cursor, pageSize );
+    } finally {
+      runningQueries.unregister( running );
+    }
+  }
+
+  /**
+   * Reads the next page of an open cursor.
+   *
+   * @return the page, or null if the cursor does not exist, belongs to another session or was closed
+   */
+  public SerializedResultSetPage fetch( String owner, String cursorId, int pageSize ) throws SQLException {
+    Cursor cursor = cursorId != null ? cursors.get( cursorId ) : null;
+    if ( cursor == null || !cursor.owner.equals( owner ) ) {
+      return null;
+    }
+    String running = runningQueries.register( owner, RunningQueries.forStatement( cursor.statement ) );
+    try {
+      return next( cursor, pageSize );
+    } finally {
+      runningQueries.unregister( running );
+    }
+  }
+
+  /**
+   * @return whether an open cursor was closed
+   */
+  public boolean close( String owner, String cursorId ) {
+    Cursor cursor = cursorId != null ? cursors.get( cursorId ) : null;
+    if ( cursor == null || !cursor.owner.equals( owner ) ) {
+      return false;
+    }
+    cursors.remove( cursorId );
+    return cursor.close();
+  }
+
+  /**
+   * Closes the cursors that were not read from for their idle timeout.
+   */
+  void closeIdle() {
+    long now = System.currentTimeMillis();
+    for ( Iterator<Cursor> it = cursors.values().iterator(); it.hasNext(); ) {
+      Cursor cursor = it.next();
+      if ( cursor.isIdle( now ) ) {
+        it.remove();
+        if ( cursor.close() ) {
+          logger.debug( "Closed idle preview cursor " + cursor.id ); //$NON-NLS-1$
+        }
+      }
+    }
+  }
+
+  synchronized void closeAll() {
+    if ( sweeper != null ) {
+      sweeper.shutdownNow();
+      sweeper = null;
+    }
+    for ( Iterator<Cursor> it = cursors.values().iterator(); it.hasNext(); ) {
+      Cursor cursor = it.next();
+      it.remove();
+      cursor.close();
+    }
+  }
+
+  int size() {
+    return cursors.size();
+  }
+
+  private SerializedResultSetPage next( Cursor cursor, int pageSize ) throws SQLException {
+    int count = Math.max( 1, Math.min( pageSize, MAX_PAGE_SIZE ) );
+    synchronized ( cursor ) {
+      if ( cursor.closed ) {
+        return null;
+      }
+      long offset = cursor.rowCount;
+      List<List<String>> data = new ArrayList<List<String>>( count );
+      boolean last = false;
+      try {
+        while ( data.size() < count ) {
+          if ( !cursor.resultSet.next() ) {
+            last = true;
+            break;
+          }
+          List<String> row = new ArrayList<String>( cursor.columns.length );
+          for ( int i = 0; i < cursor.columns.length; i++ ) {
+            Object value = cursor.resultSet.getObject( i + 1 );
+            row.add( value == null ? null : value.toString() );
+          }
+          data.add( row );
+        }
+      } catch ( SQLException e ) {
+        cursors.remove( cursor.id );
+        cursor.close();
+        throw e;
+      }
+      cursor.rowCount += data.size();
+      cursor.lastAccess = System.currentTimeMillis();
+      if ( last ) {
+        cursors.remove( cursor.id );
+        cursor.close();
+      }
+      return new SerializedResultSetPage( cursor.columnTypes, cursor.columns, data, last ? null : cursor.id, offset,
+        last );
+    }
+  }
+
+  /**
+   * Makes room for one more cursor of the owner by closing its least recently read ones.
+   */
+  private void closeEldest( String owner ) {
+    List<Cursor> owned = new ArrayList<Cursor>();
+    for ( Cursor cursor : cursors.values() ) {
+      if ( cursor.owner.equals( owner ) ) {
+        owned.add( cursor );
+      }
+    }
+    while ( owned.size() >= MAX_CURSORS_PER_OWNER ) {
+      Cursor eldest = owned.get( 0 );
+      for ( Cursor cursor : owned ) {
+        if ( cursor.lastAccess < eldest.lastAccess ) {
+          eldest = cursor;
+        }
+      }
+      owned.remove( eldest );
+      cursors.remove( eldest.id );
+      eldest.close();
+    }
+  }
+
+  private synchronized void startSweeper() {
+    if ( sweeper != null ) {
+      return;
+    }
+    sweeper = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable runnable ) {
+        Thread thread = new Thread( runnable, "data-access-preview-cursor-sweeper" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    sweeper.scheduleWithFixedDelay( new Runnable() {
+      public void run() {
+        try {
+          closeIdle();
+        } catch ( RuntimeException e ) {
+          logger.warn( "Could not close idle preview cursors", e ); //$NON-NLS-1$
+        }
+      }
+    }, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+  }
+
+  private static class Cursor {
+    private final String id;
+    private final String owner;
+    private final Connection connection;
+    private final long idleTimeoutMillis;
+    private Statement statement;
+    private ResultSet resultSet;
+    private String[] columns;
+    private int[] columnTypes;
+    private long rowCount;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private boolean closed;
+
+    Cursor( String id, String owner, Connection connection, long idleTimeoutMillis ) {
+      this.id = id;
+      this.owner = owner;
+      this.connection = connection;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    boolean isIdle( long now ) {
+      return now - lastAccess > idleTimeoutMillis;
+    }
+
+    /**
+     * @return false if the cursor was closed already
+     */
+    synchronized boolean close() {
+      if ( closed ) {
+        return false;
+      }
+      closed = true;
+      try {
+        if ( resultSet != null ) {
+          resultSet.close();
+        }
+      } catch ( SQLException e ) {
+        logger.debug( "Could not close the result set of preview cursor " + id, e ); //$NON-NLS-1$
+      }
+      try {
+        if ( statement != null ) {
+          statement.close();
+        }
+      } catch ( SQLException e ) {
+        logger.debug( "Could not close the statement of preview cursor " + id, e ); //$NON-NLS-1$
+      }
+      try {
+        // the query only read, end its transaction and hand the connection back to its pool as it was borrowed, the
+        // pool doesn't reset it and the next borrower may write
+        if ( !connection.getAutoCommit() ) {
+          connection.rollback();
+          connection.setAutoCommit( true );
+        }
+        connection.setReadOnly( false );
+      } catch ( SQLException e ) {
+        logger.debug( "Could not reset the connection of preview cursor " + id, e ); //$NON-NLS-1$
+      }
+      try {
+        connection.close();
+      } catch ( SQLException e ) {
+        logger.warn( "Could not close the connection of preview cursor " + id, e ); //$NON-NLS-1$
+      }
+      return true;
+    }
+  }
+}
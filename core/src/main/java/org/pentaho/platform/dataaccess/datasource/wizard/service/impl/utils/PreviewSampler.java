@@ -0,0 +1,117 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a preview query so that it reads a random sample of the rows instead of the first ones, which are often
+ * all alike on a large fact table and a poor base to infer the columns from. The row limit of the preview still
+ * applies on top of the sample.
+ * <p>
+ * A query that only reads a whole table uses the database's own table sampling (<code>TABLESAMPLE</code>,
+ * <code>SAMPLE</code>), which skips the pages it does not sample. Other queries keep the rows for which a random
+ * number falls under the sampled fraction. Databases known to have neither get their query back unchanged.
+ * <p>
+ * The rewritten query may still be refused where the original one runs, callers fall back to the original query then.
+ */
+public class PreviewSampler {
+
+  private static final Pattern TABLE_QUERY =
+    Pattern.compile( "\\s*select\\s+\\*\\s+from\\s+([\\w.$\"`\\[\\]]+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE );
+
+  private static final Pattern TERMINATOR = Pattern.compile( "[\\s;]+$" ); //$NON-NLS-1$
+
+  private static final String ALIAS = "sampled"; //$NON-NLS-1$
+
+  /**
+   * Table sampling clauses by database type, <code>{0}</code> is the percentage.
+   */
+  private static final Map<String, String> TABLE_SAMPLES = new HashMap<String, String>();
+
+  /**
+   * Random number functions returning a value between 0 and 1 for every row, by database type.
+   */
+  private static final Map<String, String> RANDOM_FUNCTIONS = new HashMap<String, String>();
+
+  static {
+    TABLE_SAMPLES.put( "POSTGRESQL", " TABLESAMPLE SYSTEM ({0})" ); //$NON-NLS-1$ //$NON-NLS-2$
+    TABLE_SAMPLES.put( "DB2", " TABLESAMPLE SYSTEM ({0})" ); //$NON-NLS-1$ //$NON-NLS-2$
+    TABLE_SAMPLES.put( "MSSQL", " TABLESAMPLE ({0} PERCENT)" ); //$NON-NLS-1$ //$NON-NLS-2$
+    TABLE_SAMPLES.put( "MSSQLNATIVE", " TABLESAMPLE ({0} PERCENT)" ); //$NON-NLS-1$ //$NON-NLS-2$
+    TABLE_SAMPLES.put( "ORACLE", " SAMPLE ({0})" ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    RANDOM_FUNCTIONS.put( "POSTGRESQL", "RANDOM()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "GREENPLUM", "RANDOM()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "REDSHIFT", "RANDOM()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "VERTICA", "RANDOM()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "VERTICA5", "RANDOM()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "NETEZZA", "RANDOM()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "MYSQL", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "MARIADB", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "INFOBRIGHT", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "H2", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "HYPERSONIC", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "DB2", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "HIVE2", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "IMPALA", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "GOOGLEBIGQUERY", "RAND()" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "ORACLE", "DBMS_RANDOM.VALUE" ); //$NON-NLS-1$ //$NON-NLS-2$
+    // RAND() is evaluated once per query on SQL Server, a new id per row is random for each of them
+    RANDOM_FUNCTIONS.put( "MSSQL", "RAND(CHECKSUM(NEWID()))" ); //$NON-NLS-1$ //$NON-NLS-2$
+    RANDOM_FUNCTIONS.put( "MSSQLNATIVE", "RAND(CHECKSUM(NEWID()))" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  private PreviewSampler() {
+  }
+
+  /**
+   * @param databaseType the short name of the database type of the connection
+   * @param query        the query to preview
+   * @param percent      the percentage of the rows to sample
+   * @return the query reading a sample of the rows, or <code>query</code> itself if the database can't sample or
+   * the percentage does not leave anything out
+   */
+  public static String sample( String databaseType, String query, double percent ) {
+    if ( databaseType == null || query == null || percent <= 0 || percent >= 100 ) {
+      return query;
+    }
+    String type = databaseType.toUpperCase( Locale.ENGLISH );
+    String tableSample = TABLE_SAMPLES.get( type );
+    if ( tableSample != null ) {
+      Matcher matcher = TABLE_QUERY.matcher( query );
+      if ( matcher.matches() ) {
+        return "SELECT * FROM " + matcher.group( 1 ) //$NON-NLS-1$
+          + tableSample.replace( "{0}", format( percent ) ); //$NON-NLS-1$
+      }
+    }
+    String random = RANDOM_FUNCTIONS.get( type );
+    if ( random != null ) {
+      // a statement terminator is not allowed within the subquery
+      String subquery = TERMINATOR.matcher( query ).replaceFirst( "" ); //$NON-NLS-1$
+      return "SELECT * FROM (" + subquery + ") " + ALIAS //$NON-NLS-1$ //$NON-NLS-2$
+        + " WHERE " + random + " < " + format( percent / 100 ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return query;
+  }
+
+  private static String format( double value ) {
+    return BigDecimal.valueOf( value ).stripTrailingZeros().toPlainString();
+  }
+}
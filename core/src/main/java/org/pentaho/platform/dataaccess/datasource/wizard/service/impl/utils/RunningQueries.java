@@ -0,0 +1,144 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.plugin.services.connections.sql.SQLConnection;
+
+/**
+ * The user queries that are executing right now, so that the session that started them can cancel them while they
+ * run. A query registers itself before it is executed and unregisters once it is done, cancelling it stops the
+ * statement on the database and releases its connection right away instead of when the query returns.
+ */
+public class RunningQueries {
+
+  private static final Log logger = LogFactory.getLog( RunningQueries.class );
+
+  private static final RunningQueries instance = new RunningQueries();
+
+  private final Map<String, Query> queries = new ConcurrentHashMap<String, Query>();
+
+  /**
+   * Stops a running query and releases what it holds.
+   */
+  public interface Cancellable {
+    void cancel() throws SQLException;
+  }
+
+  RunningQueries() {
+  }
+
+  public static RunningQueries getInstance() {
+    return instance;
+  }
+
+  /**
+   * @param owner the session that may cancel the query
+   * @return the id to unregister the query with once it is done
+   */
+  public String register( String owner, Cancellable cancellable ) {
+    String id = UUID.randomUUID().toString();
+    queries.put( id, new Query( owner, cancellable ) );
+    return id;
+  }
+
+  public void unregister( String id ) {
+    if ( id != null ) {
+      queries.remove( id );
+    }
+  }
+
+  /**
+   * Cancels all queries the owner is running.
+   *
+   * @return the number of queries cancelled
+   */
+  public int cancel( String owner ) {
+    int cancelled = 0;
+    for ( Iterator<Query> it = queries.values().iterator(); it.hasNext(); ) {
+      Query query = it.next();
+      if ( query.owner.equals( owner ) ) {
+        it.remove();
+        try {
+          query.cancellable.cancel();
+        } catch ( SQLException e ) {
+          logger.warn( "Could not cancel a query of " + owner, e ); //$NON-NLS-1$
+        }
+        cancelled++;
+      }
+    }
+    return cancelled;
+  }
+
+  int size() {
+    return queries.size();
+  }
+
+  /**
+   * Cancels the statement on the database, the thread running it gets an {@link SQLException} and closes its
+   * connection. The connection is not closed here, the thread running the statement may still be using it.
+   */
+  public static Cancellable forStatement( final Statement statement ) {
+    return new Cancellable() {
+      public void cancel() throws SQLException {
+        statement.cancel();
+      }
+    };
+  }
+
+  /**
+   * {@link SQLConnection} does not hand out its statements, so the native connection is aborted, which ends its
+   * statements, where the driver supports it and closed otherwise.
+   */
+  public static Cancellable forConnection( final SQLConnection sqlConnection ) {
+    return new Cancellable() {
+      public void cancel() throws SQLException {
+        Connection connection = sqlConnection.getNativeConnection();
+        if ( connection != null ) {
+          try {
+            connection.abort( new Executor() {
+              public void execute( Runnable command ) {
+                command.run();
+              }
+            } );
+          } catch ( SQLException | AbstractMethodError e ) {
+            // drivers and pools that predate JDBC 4.1
+            logger.debug( "Could not abort the connection, closing it", e ); //$NON-NLS-1$
+          }
+        }
+        sqlConnection.close();
+      }
+    };
+  }
+
+  private static class Query {
+    private final String owner;
+    private final Cancellable cancellable;
+
+    Query( String owner, Cancellable cancellable ) {
+      this.owner = owner;
+      this.cancellable = cancellable;
+    }
+  }
+}
@@ -19,6 +19,7 @@ import org.pentaho.platform.dataaccess.datasource.wizard.models.DataRow;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class FileTransformStats implements Serializable, IDatasourceSummary {
 
@@ -33,6 +34,7 @@ public class FileTransformStats implements Serializable, IDatasourceSummary {
   private boolean indexFinished = false;
   private int indexDone = 0;
   private ArrayList<String> errors = new ArrayList<String>();
+  private HashMap<String, HashMap<String, Long>> errorCounts = new HashMap<String, HashMap<String, Long>>();
   private transient DataRow[] rows = null;
   private long errorCount = 0;
   private Domain domain;
@@ -113,6 +115,63 @@ public class FileTransformStats implements Serializable, IDatasourceSummary {
     return errors;
   }
 
+  /**
+   * @return the number of rejected rows by column, and by error code for each column
+   */
+  public HashMap<String, HashMap<String, Long>> getErrorCounts() {
+    return errorCounts;
+  }
+
+  public void setErrorCounts( HashMap<String, HashMap<String, Long>> errorCounts ) {
+    this.errorCounts = errorCounts;
+  }
+
+  /**
+   * Counts a rejected row against each column and error code reported for it. The comma separated field names and
+   * error codes are paired up in order, one code for each field; when they don't line up every field is counted with
+   * every code. Only these counts and the first few formatted {@link #getErrors() errors} are kept in memory, the
+   * rejected rows themselves go to a side file on the server.
+   */
+  public synchronized void addErrorSummary( String fieldNames, String errorCodes ) {
+    String[] fields = split( fieldNames );
+    String[] codes = split( errorCodes );
+    if ( fields.length == codes.length ) {
+      for ( int i = 0; i < fields.length; i++ ) {
+        increment( fields[ i ], codes[ i ] );
+      }
+    } else {
+      for ( String field : fields.length == 0 ? new String[] { "" } : fields ) {
+        for ( String code : codes.length == 0 ? new String[] { "" } : codes ) {
+          increment( field, code );
+        }
+      }
+    }
+  }
+
+  private void increment( String field, String code ) {
+    HashMap<String, Long> counts = errorCounts.get( field );
+    if ( counts == null ) {
+      counts = new HashMap<String, Long>();
+      errorCounts.put( field, counts );
+    }
+    Long count = counts.get( code );
+    counts.put( code, count == null ? 1L : count + 1 );
+  }
+
+  private static String[] split( String keys ) {
+    if ( keys == null || keys.trim().length() == 0 ) {
+      return new String[ 0 ];
+    }
+    ArrayList<String> result = new ArrayList<String>();
+    for ( String key : keys.split( "," ) ) {
+      key = key.trim();
+      if ( key.length() > 0 ) {
+        result.add( key );
+      }
+    }
+    return result.toArray( new String[ result.size() ] );
+  }
+
   public long getErrorCount() {
     if ( errorCount > 0 ) {
       return errorCount;
@@ -26,6 +26,7 @@ import org.pentaho.metadata.query.model.util.QueryXmlHelper;
 import org.pentaho.metadata.repository.IMetadataDomainRepository;
 import org.pentaho.platform.api.engine.ILogger;
 import org.pentaho.platform.dataaccess.datasource.utils.DataAccessPermissionUtil;
+import org.pentaho.platform.dataaccess.datasource.wizard.service.agile.AgileHelper;
 import org.pentaho.platform.dataaccess.metadata.messages.Messages;
 import org.pentaho.platform.dataaccess.metadata.model.impl.Model;
 import org.pentaho.platform.dataaccess.metadata.model.impl.ModelInfo;
@@ -401,6 +402,10 @@ public class MetadataService extends PentahoBase {
       // set the row limit
       dataComponent.setMaxRows( rowLimit );
     }
+    int timeout = AgileHelper.getQueryTimeout();
+    if ( timeout > 0 ) {
+      dataComponent.setTimeout( timeout );
+    }
     if ( dataComponent.execute() ) {
       return dataComponent.getResultSet();
     }
@@ -15,14 +15,22 @@ package org.pentaho.platform.dataaccess;
 
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 
 import java.util.List;
 
+import org.dom4j.Document;
 import org.junit.Assert;
 import org.junit.Test;
 import org.pentaho.agilebi.modeler.geo.GeoContext;
 import org.pentaho.di.core.KettleEnvironment;
 import org.pentaho.di.core.Props;
+import org.pentaho.platform.api.engine.ISystemSettings;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.DatasourceServiceHelper;
 import org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils.PentahoSystemHelper;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -82,4 +90,25 @@ public class DatasourceServiceHelperTest {
 
   }
 
+  @Test
+  public void testGeoContextIsShared() throws Exception {
+    assertSame( DatasourceServiceHelper.getGeoContext(), DatasourceServiceHelper.getGeoContext() );
+  }
+
+  @Test
+  public void testGeoContextIsReloadedWhenTheSettingsChange() throws Exception {
+    GeoContext before = DatasourceServiceHelper.getGeoContext();
+    ISystemSettings settings = PentahoSystem.getSystemSettings();
+    ISystemSettings changed = spy( settings );
+    doReturn( mock( Document.class ) ).when( changed ).getSystemSettingsDocument( anyString() );
+    PentahoSystem.setSystemSettingsService( changed );
+    try {
+      GeoContext after = DatasourceServiceHelper.getGeoContext();
+      assertNotSame( before, after );
+      assertSame( after, DatasourceServiceHelper.getGeoContext() );
+    } finally {
+      PentahoSystem.setSystemSettingsService( settings );
+    }
+  }
+
 }
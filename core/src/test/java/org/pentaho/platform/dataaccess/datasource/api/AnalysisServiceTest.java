@@ -50,6 +50,7 @@ import org.pentaho.test.platform.engine.core.MicroPlatform;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Collections;
@@ -59,10 +60,12 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.isNull;
@@ -241,6 +244,37 @@ public class AnalysisServiceTest {
     Mockito.reset( policy, catalogService );
   }
 
+  @Test
+  public void testRemoveAnalysisBulkDecodesIdsAsForOne() throws Exception {
+    allAccess();
+    AnalysisService service = Mockito.spy( new AnalysisService() );
+    doReturn( Arrays.asList( "sales%2Fq1" ) ).when( service ).getHostedCatalogs();
+
+    Map<String, Exception> results = service.removeAnalysis( Arrays.asList( "sales/q1", "stock" ) );
+
+    assertNull( results.get( "sales/q1" ) );
+    assertTrue( results.get( "stock" ) instanceof FileNotFoundException );
+    verify( catalogService ).removeCatalog( eq( "sales%2Fq1" ), Mockito.<IPentahoSession>any() );
+    verify( catalogService, never() ).removeCatalog( eq( "stock" ), Mockito.<IPentahoSession>any() );
+  }
+
+  @Test
+  public void testSetAnalysisDatasourceAclBulkFlushesTheCatalogsUpdated() throws Exception {
+    allAccess();
+    AnalysisService service = Mockito.spy( new AnalysisService() );
+    doReturn( true ).when( service ).canManageACL();
+    doReturn( Arrays.asList( "sales%2Fq1", "returns" ) ).when( service ).getHostedCatalogs();
+    doNothing().when( service ).flushCatalogs( any() );
+
+    Map<String, Exception> results =
+      service.setAnalysisDatasourceAcl( Arrays.asList( "sales/q1", "stock" ), null );
+
+    assertNull( results.get( "sales/q1" ) );
+    assertTrue( results.get( "stock" ) instanceof FileNotFoundException );
+    verify( service ).flushCatalogs( Collections.singleton( "sales%2Fq1" ) );
+    verify( service, never() ).flushDataSources();
+  }
+
   @Test
   public void testGetAnalysisDatasourceIds() throws Exception {
     // Has xmi but it is not a DSW
@@ -17,6 +17,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.pentaho.agilebi.modeler.ModelerPerspective;
@@ -56,18 +57,21 @@ import org.pentaho.platform.repository2.unified.fs.FileSystemBackedUnifiedReposi
 import org.pentaho.platform.repository2.unified.webservices.RepositoryFileAclAdapter;
 import org.pentaho.test.platform.engine.core.MicroPlatform;
 
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
@@ -77,8 +81,10 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -234,6 +240,7 @@ public class DataSourceWizardServiceTest {
 
     dataSourceWizardService.removeDSW( dswId );
     assertEquals( "The method should call removal for original id", dswId, returnedDswId );
+    verify( dataSourceWizardService ).flushCatalog( mockObject );
     verify( dataSourceWizardService, times( 1 ) ).removeDSW( dswId );
 
   }
@@ -395,6 +402,12 @@ public class DataSourceWizardServiceTest {
 
     verify( dataSourceWizardService, times( 1 ) ).publishDsw( domainId, metadataFile, overwrite, checkConnection, aclDto );
     assertEquals( domainId, response );
+    InOrder flushes = inOrder( dataSourceWizardService );
+    flushes.verify( dataSourceWizardService ).flushCatalog( "domainId" );
+    flushes.verify( dataSourceWizardService ).importBundles( mockIPlatformImporter, mockMetadataBundle,
+        mockMondrianBundle );
+    flushes.verify( dataSourceWizardService ).flushCatalog( "domainId" );
+    verify( dataSourceWizardService, never() ).flushDataSources();
 
     checkConnection = true;
     String testName = "クイズ";
@@ -447,6 +460,50 @@ public class DataSourceWizardServiceTest {
     assertEquals( DOMAIN_ID + DataSourceWizardService.METADATA_EXT, response );
   }
 
+  @Test
+  public void testImportBundlesWaitsForBothImports() throws Exception {
+    IPlatformImportBundle metadataBundle = mock( IPlatformImportBundle.class );
+    IPlatformImportBundle mondrianBundle = mock( IPlatformImportBundle.class );
+    IPlatformImporter importer = mock( IPlatformImporter.class );
+    doReturn( "catalog" ).when( mondrianBundle ).getProperty( "domain-id" );
+    doReturn( Arrays.asList( "inventory" ) ).when( dataSourceWizardService ).getHostedCatalogs();
+    IllegalStateException failure = new IllegalStateException( "repository is down" );
+    doThrow( failure ).when( importer ).importFile( metadataBundle );
+
+    try {
+      dataSourceWizardService.importBundles( importer, metadataBundle, mondrianBundle );
+      fail( "expected the metadata import to fail" );
+    } catch ( IllegalStateException e ) {
+      assertSame( failure, e );
+    }
+
+    // the schema is imported on its own, then removed again as its metadata is missing
+    verify( importer ).importFile( mondrianBundle );
+    verify( dataSourceWizardService.mondrianCatalogService ).removeCatalog( eq( "catalog" ), any() );
+  }
+
+  @Test
+  public void testImportBundlesKeepsTheCatalogItReplaces() throws Exception {
+    IPlatformImportBundle metadataBundle = mock( IPlatformImportBundle.class );
+    IPlatformImportBundle mondrianBundle = mock( IPlatformImportBundle.class );
+    IPlatformImporter importer = mock( IPlatformImporter.class );
+    doReturn( "catalog" ).when( mondrianBundle ).getProperty( "domain-id" );
+    doReturn( Arrays.asList( "catalog" ) ).when( dataSourceWizardService ).getHostedCatalogs();
+    IllegalStateException failure = new IllegalStateException( "repository is down" );
+    doThrow( failure ).when( importer ).importFile( metadataBundle );
+
+    try {
+      dataSourceWizardService.importBundles( importer, metadataBundle, mondrianBundle );
+      fail( "expected the metadata import to fail" );
+    } catch ( IllegalStateException e ) {
+      assertSame( failure, e );
+    }
+
+    // the working schema is neither replaced nor removed
+    verify( importer, never() ).importFile( mondrianBundle );
+    verify( dataSourceWizardService.mondrianCatalogService, never() ).removeCatalog( anyString(), any() );
+  }
+
   @Test
   public void testPublishDswError() throws Exception {
     String domainId = "domainId";
@@ -532,6 +589,83 @@ public class DataSourceWizardServiceTest {
     verify( dataSourceWizardService, times( 1 ) ).publishDsw( domainId, metadataFile, overwrite, true, null );
   }
 
+  @Test
+  public void testDswExistsReadsOnlyIds() throws Exception {
+    doReturn( true ).when( dataSourceWizardService ).hasManageAccessCheck();
+    when( dataSourceWizardService.metadataDomainRepository.getDomainIds() )
+        .thenReturn( Collections.singleton( "sales.xmi" ) );
+    doReturn( Arrays.asList( "inventory" ) ).when( dataSourceWizardService ).getHostedCatalogs();
+
+    assertTrue( dataSourceWizardService.dswExists( "sales.xmi" ) );
+    assertTrue( dataSourceWizardService.dswExists( "inventory.xmi" ) );
+    assertFalse( dataSourceWizardService.dswExists( "returns.xmi" ) );
+
+    verify( dataSourceWizardService.metadataDomainRepository, never() ).getDomain( anyString() );
+    verify( dataSourceWizardService, never() ).doGetDSWFilesAsDownload( anyString() );
+  }
+
+  @Test
+  public void testSetDSWAclBulkFlushesOnce() throws Exception {
+    doReturn( true ).when( dataSourceWizardService ).canManageACL();
+    doNothing().when( dataSourceWizardService ).flushCatalogs( any() );
+    when( dataSourceWizardService.metadataDomainRepository.getDomainIds() )
+        .thenReturn( new HashSet<String>( Arrays.asList( "sales.xmi", "returns" ) ) );
+
+    Map<String, Exception> results =
+        dataSourceWizardService.setDSWAcl( Arrays.asList( "sales.xmi", "returns", "stock.xmi" ), null );
+
+    assertNull( results.get( "sales.xmi" ) );
+    assertTrue( results.get( "returns" ) instanceof IllegalArgumentException );
+    assertTrue( results.get( "stock.xmi" ) instanceof FileNotFoundException );
+    verify( dataSourceWizardService.aclAwareMondrianCatalogService, times( 1 ) )
+        .setAclFor( eq( "sales" ), (RepositoryFileAcl) isNull() );
+    verify( dataSourceWizardService.aclAwarePentahoMetadataDomainRepositoryImporter, times( 1 ) )
+        .setAclFor( eq( "sales.xmi" ), (RepositoryFileAcl) isNull() );
+    // only the catalog and domain updated are flushed
+    verify( dataSourceWizardService, times( 1 ) ).flushCatalogs( Collections.singleton( "sales" ) );
+    verify( dataSourceWizardService, times( 1 ) ).flushDomains( Collections.singletonList( "sales.xmi" ) );
+    verify( dataSourceWizardService, never() ).flushDataSources();
+  }
+
+  @Test
+  public void testRemoveDSWBulkFlushesOnce() throws Exception {
+    ModelerWorkspace mockModelerWorkspace = mock( ModelerWorkspace.class );
+    LogicalModel mockLogicalModel = mock( LogicalModel.class );
+    doNothing().when( dataSourceWizardService ).ensureDataAccessPermissionCheck();
+    doNothing().when( dataSourceWizardService ).flushCatalogs( any() );
+    when( dataSourceWizardService.metadataDomainRepository.getDomainIds() )
+        .thenReturn( new HashSet<String>( Arrays.asList( "sales.xmi", "returns.xmi" ) ) );
+    doReturn( mock( Domain.class ) ).when( dataSourceWizardService.metadataDomainRepository ).getDomain( anyString() );
+    doReturn( mockModelerWorkspace ).when( dataSourceWizardService ).createModelerWorkspace();
+    doReturn( mockLogicalModel ).when( mockModelerWorkspace ).getLogicalModel( ModelerPerspective.ANALYSIS );
+    doReturn( "sales" ).when( mockLogicalModel ).getProperty( "MondrianCatalogRef" );
+
+    Map<String, Exception> results =
+        dataSourceWizardService.removeDSW( Arrays.asList( "sales.xmi", "returns.xmi", "stock.xmi" ) );
+
+    assertNull( results.get( "sales.xmi" ) );
+    assertNull( results.get( "returns.xmi" ) );
+    assertTrue( results.get( "stock.xmi" ) instanceof FileNotFoundException );
+    verify( dataSourceWizardService, times( 1 ) ).flushCatalogs( Collections.singleton( "sales" ) );
+    verify( dataSourceWizardService, never() ).flushCatalog( anyString() );
+    verify( dataSourceWizardService.metadataDomainRepository ).removeDomain( "sales.xmi" );
+    verify( dataSourceWizardService.metadataDomainRepository ).removeDomain( "returns.xmi" );
+  }
+
+  @Test( expected = PentahoAccessControlException.class )
+  public void testRemoveDSWBulkNeedsAccessOnce() throws Exception {
+    doThrow( new ConnectionServiceException() ).when( dataSourceWizardService ).ensureDataAccessPermissionCheck();
+
+    dataSourceWizardService.removeDSW( Arrays.asList( "sales.xmi", "returns.xmi" ) );
+  }
+
+  @Test( expected = PentahoAccessControlException.class )
+  public void testDswExistsNeedsManageAccess() throws Exception {
+    doReturn( false ).when( dataSourceWizardService ).hasManageAccessCheck();
+
+    dataSourceWizardService.dswExists( "sales.xmi" );
+  }
+
   @Test
   public void testGetDSWAcl() throws Exception {
     String domainId = "domainId";
@@ -544,7 +678,8 @@ public class DataSourceWizardServiceTest {
     final IUnifiedRepository repository = mock( IUnifiedRepository.class );
     final RepositoryFile repositoryFile = mock( RepositoryFile.class );
     when( repository.getFileById( anyString() ) ).thenReturn( repositoryFile );
-    doReturn( new HashMap<String, InputStream>() ).when( dataSourceWizardService ).doGetDSWFilesAsDownload( domainId );
+    when( dataSourceWizardService.metadataDomainRepository.getDomainIds() )
+        .thenReturn( Collections.singleton( domainId ) );
 
     final RepositoryFileAclDto aclDto = dataSourceWizardService.getDSWAcl( domainId );
 
@@ -560,7 +695,8 @@ public class DataSourceWizardServiceTest {
     doReturn( true ).when( dataSourceWizardService ).canManageACL();
     when( dataSourceWizardService.aclAwarePentahoMetadataDomainRepositoryImporter.getAclFor( domainId ) )
         .thenReturn( null );
-    doReturn( new HashMap<String, InputStream>() ).when( dataSourceWizardService ).doGetDSWFilesAsDownload( domainId );
+    when( dataSourceWizardService.metadataDomainRepository.getDomainIds() )
+        .thenReturn( Collections.singleton( domainId ) );
 
     final RepositoryFileAclDto aclDto = dataSourceWizardService.getDSWAcl( domainId );
 
@@ -579,7 +715,8 @@ public class DataSourceWizardServiceTest {
     aclDto.setOwnerType( RepositoryFileSid.Type.USER.ordinal() );
 
     doReturn( true ).when( dataSourceWizardService ).canManageACL();
-    doReturn( new HashMap<String, InputStream>() ).when( dataSourceWizardService ).doGetDSWFilesAsDownload( domainId );
+    when( dataSourceWizardService.metadataDomainRepository.getDomainIds() )
+        .thenReturn( Collections.singleton( domainId ) );
 
     dataSourceWizardService.setDSWAcl( domainId, aclDto );
 
@@ -595,7 +732,8 @@ public class DataSourceWizardServiceTest {
     String domainIdWithoutExt = "domainId";
 
     doReturn( true ).when( dataSourceWizardService ).canManageACL();
-    doReturn( new HashMap<String, InputStream>() ).when( dataSourceWizardService ).doGetDSWFilesAsDownload( domainId );
+    when( dataSourceWizardService.metadataDomainRepository.getDomainIds() )
+        .thenReturn( Collections.singleton( domainId ) );
 
     dataSourceWizardService.setDSWAcl( domainId, null );
 
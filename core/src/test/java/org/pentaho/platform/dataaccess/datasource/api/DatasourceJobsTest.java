@@ -0,0 +1,156 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+public class DatasourceJobsTest {
+
+  private DatasourceJobs jobs;
+
+  private final CountDownLatch release = new CountDownLatch( 1 );
+
+  private final DatasourceJobs.Task blocking = job -> {
+    release.await();
+    return Response.ok().build();
+  };
+
+  @Before
+  public void setUp() {
+    PentahoSessionHolder.setSession( new StandaloneSession( "joe" ) );
+    jobs = new DatasourceJobs( 1, 1, 60 );
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    PentahoSessionHolder.removeSession();
+  }
+
+  @Test
+  public void testResultIsKept() throws Exception {
+    DatasourceJobs.Job job = jobs.submit( "dsw/import", null, j -> Response.ok( "sales.xmi" ).build() );
+
+    waitFor( job );
+
+    assertSame( job, jobs.getJob( job.getId() ) );
+    assertEquals( DatasourceJobs.State.SUCCEEDED, job.getState() );
+    assertEquals( 200, job.getStatus() );
+    assertEquals( "sales.xmi", job.getResult() );
+    assertEquals( "joe", job.getOwner() );
+  }
+
+  @Test
+  public void testErrorResponseFailsJob() throws Exception {
+    DatasourceJobs.Job job = jobs.submit( "dsw/import", null, j -> {
+      throw new WebApplicationException( Response.Status.CONFLICT );
+    } );
+
+    waitFor( job );
+
+    assertEquals( DatasourceJobs.State.FAILED, job.getState() );
+    assertEquals( 409, job.getStatus() );
+  }
+
+  @Test
+  public void testSameRequestKeyReturnsSameJob() throws Exception {
+    DatasourceJobs.Job job = jobs.submit( "dsw/import", "key", blocking );
+
+    assertSame( job, jobs.submit( "dsw/import", "key", blocking ) );
+    assertNotSame( job, jobs.submit( "dsw/import", "other", blocking ) );
+  }
+
+  @Test
+  public void testCancelQueuedJob() throws Exception {
+    final AtomicBoolean ran = new AtomicBoolean();
+    DatasourceJobs.Job running = jobs.submit( "dsw/import", null, blocking );
+    DatasourceJobs.Job queued = jobs.submit( "dsw/import", null, j -> {
+      ran.set( true );
+      return Response.ok().build();
+    } );
+
+    assertTrue( jobs.cancel( queued ) );
+    assertEquals( DatasourceJobs.State.CANCELLED, queued.getState() );
+
+    release.countDown();
+    waitFor( running );
+
+    assertFalse( jobs.cancel( running ) );
+    assertFalse( ran.get() );
+  }
+
+  @Test
+  public void testCleanupRunsOnceWhateverBecomesOfTheJob() throws Exception {
+    final AtomicInteger done = new AtomicInteger();
+    final AtomicInteger queued = new AtomicInteger();
+    final AtomicInteger resubmitted = new AtomicInteger();
+    final AtomicInteger rejected = new AtomicInteger();
+    DatasourceJobs.Job running = jobs.submit( "dsw/import", "key", blocking, done::incrementAndGet );
+    DatasourceJobs.Job waiting = jobs.submit( "dsw/import", null, blocking, queued::incrementAndGet );
+
+    assertSame( running, jobs.submit( "dsw/import", "key", blocking, resubmitted::incrementAndGet ) );
+    assertEquals( 1, resubmitted.get() );
+    try {
+      jobs.submit( "dsw/import", null, blocking, rejected::incrementAndGet );
+      fail();
+    } catch ( RejectedExecutionException e ) {
+      assertEquals( 1, rejected.get() );
+    }
+
+    assertTrue( jobs.cancel( waiting ) );
+    assertEquals( 1, queued.get() );
+
+    assertEquals( 0, done.get() );
+    release.countDown();
+    waitFor( running );
+    for ( int i = 0; i < 500 && done.get() == 0; i++ ) {
+      Thread.sleep( 10 );
+    }
+    assertEquals( 1, done.get() );
+    assertEquals( 1, queued.get() );
+  }
+
+  @Test( expected = RejectedExecutionException.class )
+  public void testFullQueueRejectsJob() {
+    jobs.submit( "dsw/import", null, blocking );
+    jobs.submit( "dsw/import", null, blocking );
+    jobs.submit( "dsw/import", null, blocking );
+  }
+
+  private static void waitFor( DatasourceJobs.Job job ) throws InterruptedException {
+    for ( int i = 0; i < 500 && !job.isDone(); i++ ) {
+      Thread.sleep( 10 );
+    }
+    assertTrue( job.isDone() );
+  }
+}
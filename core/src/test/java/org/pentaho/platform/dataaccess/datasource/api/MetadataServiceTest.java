@@ -171,6 +171,41 @@ public class MetadataServiceTest {
     verify( metadataService, times( 1 ) ).removeMetadata( "metadataId" );
   }
 
+  @Test
+  public void testRemoveMetadataBulk() throws Exception {
+    doNothing().when( metadataService ).ensureDataAccessPermissionCheck();
+    when( metadataService.metadataDomainRepository.getDomainIds() ).thenReturn( Collections.singleton( "sales.xmi" ) );
+
+    Map<String, Exception> results = metadataService.removeMetadata( Arrays.asList( "sales", "returns", "sales" ) );
+
+    assertEquals( 2, results.size() );
+    assertNull( results.get( "sales" ) );
+    assertTrue( results.get( "returns" ) instanceof FileNotFoundException );
+    verify( metadataService, times( 1 ) ).ensureDataAccessPermissionCheck();
+    verify( metadataService.metadataDomainRepository, times( 1 ) ).removeDomain( "sales.xmi" );
+    verify( metadataService.metadataDomainRepository, never() ).removeDomain( "returns.xmi" );
+  }
+
+  @Test
+  public void testSetMetadataAclBulkFlushesOnce() throws Exception {
+    doReturn( true ).when( metadataService ).canManageACL();
+    when( metadataService.metadataDomainRepository.getDomainIds() )
+      .thenReturn( new HashSet<String>( Arrays.asList( "sales.xmi", "returns.xmi" ) ) );
+
+    Map<String, Exception> results =
+      metadataService.setMetadataAcl( Arrays.asList( "sales.xmi", "returns.xmi", "stock.xmi" ), null );
+
+    assertNull( results.get( "sales.xmi" ) );
+    assertNull( results.get( "returns.xmi" ) );
+    assertTrue( results.get( "stock.xmi" ) instanceof FileNotFoundException );
+    verify( metadataService.aclAwarePentahoMetadataDomainRepositoryImporter, times( 2 ) )
+      .setAclFor( anyString(), (RepositoryFileAcl) isNull() );
+    // the catalogs are left alone, the repository is flushed once for the domains updated
+    verify( metadataService, times( 1 ) ).flushDomains( Arrays.asList( "sales.xmi", "returns.xmi" ) );
+    verify( metadataService.metadataDomainRepository, times( 1 ) ).flushDomains();
+    verify( metadataService, never() ).flushDataSources();
+  }
+
   @Test
   public void testGetMetadataDatasourceIds() {
     // SETUP
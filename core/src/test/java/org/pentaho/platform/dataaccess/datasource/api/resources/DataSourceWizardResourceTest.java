@@ -257,4 +257,19 @@ public class DataSourceWizardResourceTest {
     response = dataSourceWizardResource.doSetDSWAcl( domainId, null );
     assertEquals( Response.Status.CONFLICT.getStatusCode(), response.getStatus() );
   }
+
+  @Test
+  public void testExists() throws Exception {
+    String domainId = "domainId.xmi";
+
+    doReturn( true ).when( dataSourceWizardResource.service ).dswExists( domainId );
+    assertEquals( Response.Status.OK.getStatusCode(), dataSourceWizardResource.exists( domainId ).getStatus() );
+
+    doReturn( false ).when( dataSourceWizardResource.service ).dswExists( domainId );
+    assertEquals( Response.Status.NOT_FOUND.getStatusCode(), dataSourceWizardResource.exists( domainId ).getStatus() );
+
+    doThrow( new PentahoAccessControlException() ).when( dataSourceWizardResource.service ).dswExists( domainId );
+    assertEquals( Response.Status.UNAUTHORIZED.getStatusCode(),
+      dataSourceWizardResource.exists( domainId ).getStatus() );
+  }
 }
@@ -30,9 +30,13 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
@@ -90,6 +94,38 @@ public class JDBCDatasourceResourceTest {
     verify( service, times( 1 ) ).deleteConnection(  "Name" );
   }
 
+  @Test
+  public void testBulkDeleteConnections() throws Exception {
+    Map<String, Exception> results = new LinkedHashMap<String, Exception>();
+    results.put( "Name", null );
+    results.put( "Missing", new ConnectionServiceException( 404, "missing" ) );
+    results.put( "Broken", new IllegalStateException( "broken" ) );
+    doReturn( results ).when( service ).deleteConnections( Arrays.asList( "Name", "Missing", "Broken" ) );
+
+    List<BulkItemResultDto> items =
+      resource.bulkDeleteConnections( new BulkRequestDto( Arrays.asList( "Name", "Missing", "Broken" ) ) ).getItems();
+
+    assertEquals( 3, items.size() );
+    assertEquals( "Name", items.get( 0 ).getId() );
+    assertEquals( 200, items.get( 0 ).getStatus() );
+    assertEquals( 404, items.get( 1 ).getStatus() );
+    assertEquals( "missing", items.get( 1 ).getMessage() );
+    assertEquals( 500, items.get( 2 ).getStatus() );
+  }
+
+  @Test
+  public void testBulkDeleteConnectionsForbidden() throws Exception {
+    doThrow( new ConnectionServiceException( 403, "denied" ) ).when( service )
+      .deleteConnections( Arrays.asList( "Name" ) );
+
+    try {
+      resource.bulkDeleteConnections( new BulkRequestDto( Arrays.asList( "Name" ) ) );
+      fail();
+    } catch ( WebApplicationException e ) {
+      assertEquals( 403, e.getResponse().getStatus() );
+    }
+  }
+
   @Test
   public void testDeleteConnectionServerError() throws Exception {
     doThrow( mock( RuntimeException.class ) ).when( service ).deleteConnection( "Name" );
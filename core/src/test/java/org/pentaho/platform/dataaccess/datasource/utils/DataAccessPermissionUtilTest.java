@@ -0,0 +1,103 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.api.engine.IPentahoRequestContext;
+import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+public class DataAccessPermissionUtilTest {
+
+  private final AtomicInteger checks = new AtomicInteger();
+
+  private final BooleanSupplier check = () -> {
+    checks.incrementAndGet();
+    return true;
+  };
+
+  @Before
+  public void setUp() {
+    DataAccessPermissionUtil.invalidate();
+    PentahoRequestContextHolder.setRequestContext( mock( IPentahoRequestContext.class ) );
+  }
+
+  @After
+  public void tearDown() {
+    PentahoSessionHolder.removeSession();
+    PentahoRequestContextHolder.removeRequestContext();
+  }
+
+  @Test
+  public void testDecisionIsKeptForTheRequest() {
+    PentahoSessionHolder.setSession( new StandaloneSession( "joe" ) );
+
+    assertTrue( DataAccessPermissionUtil.decide( "manage", check ) );
+    assertTrue( DataAccessPermissionUtil.decide( "manage", check ) );
+    assertEquals( 1, checks.get() );
+
+    DataAccessPermissionUtil.decide( "view", check );
+    assertEquals( 2, checks.get() );
+
+    PentahoSessionHolder.setSession( new StandaloneSession( "suzy" ) );
+    DataAccessPermissionUtil.decide( "manage", check );
+    assertEquals( 3, checks.get() );
+  }
+
+  @Test
+  public void testInvalidateForgetsDecisions() {
+    PentahoSessionHolder.setSession( new StandaloneSession( "joe" ) );
+    DataAccessPermissionUtil.decide( "manage", check );
+
+    DataAccessPermissionUtil.invalidate();
+    DataAccessPermissionUtil.decide( "manage", check );
+
+    assertEquals( 2, checks.get() );
+  }
+
+  @Test
+  public void testNextRequestChecksAgain() {
+    PentahoSessionHolder.setSession( new StandaloneSession( "joe" ) );
+    DataAccessPermissionUtil.decide( "manage", check );
+
+    PentahoRequestContextHolder.setRequestContext( mock( IPentahoRequestContext.class ) );
+    DataAccessPermissionUtil.decide( "manage", check );
+    assertEquals( 2, checks.get() );
+
+    PentahoRequestContextHolder.removeRequestContext();
+    DataAccessPermissionUtil.decide( "manage", check );
+    DataAccessPermissionUtil.decide( "manage", check );
+    assertEquals( 4, checks.get() );
+  }
+
+  @Test
+  public void testNoSessionChecksEveryTime() {
+    PentahoSessionHolder.removeSession();
+
+    DataAccessPermissionUtil.decide( "manage", check );
+    DataAccessPermissionUtil.decide( "manage", check );
+
+    assertEquals( 2, checks.get() );
+  }
+}
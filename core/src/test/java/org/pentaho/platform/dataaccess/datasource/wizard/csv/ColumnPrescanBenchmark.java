@@ -0,0 +1,173 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.pentaho.di.core.util.StringEvaluator;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.DataRow;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+/**
+ * Times the column type inference of the CSV wizard with and without {@link ColumnPrescan}, over the sample files of
+ * the test resources and a generated wide file, and fails if the two infer a column differently. The name keeps it out
+ * of the default build, the <code>benchmark</code> profile runs it:
+ * <pre>
+ *   mvn -pl core -Pbenchmark test
+ * </pre>
+ * Other files can be timed by running the class with them as arguments, they are read as comma separated UTF-8 with a
+ * header row.
+ */
+public class ColumnPrescanBenchmark {
+
+  private static final String[] SAMPLE_FILES = {
+    "src/test/resources/example.csv",
+    "src/test/resources/solution1/system/metadata/csvfiles/countries.csv",
+    "src/test/resources/solution1/system/metadata/csvfiles/testfile.csv",
+    "src/test/resources/solution1/system/metadata/csvfiles/unit_test.csv",
+    "src/test/resources/solution1/system/metadata/csvfiles/badDataTest.csv"
+  };
+
+  private static final int ROWS = 10000;
+
+  private static final int WIDE_COLUMNS = 300;
+
+  private static final int RUNS = 5;
+
+  private static final String[] NAMES = { "North", "South", "East", "West", "Central" };
+
+  @Test
+  public void timeSampleFiles() throws Exception {
+    List<File> files = new ArrayList<File>();
+    for ( String sampleFile : SAMPLE_FILES ) {
+      files.add( new File( sampleFile ) );
+    }
+    files.add( createWideFile() );
+    run( files );
+  }
+
+  public static void main( String[] args ) throws Exception {
+    List<File> files = new ArrayList<File>();
+    for ( String arg : args ) {
+      files.add( new File( arg ) );
+    }
+    run( files );
+  }
+
+  private static void run( List<File> files ) throws Exception {
+    Locale.setDefault( new Locale( "en", "US" ) );
+    CsvUtils utils = new CsvUtils();
+    for ( File file : files ) {
+      if ( !file.exists() ) {
+        System.out.println( file + ": not found" );
+        continue;
+      }
+      List<List<String>> columns = readColumns( utils, file );
+      long full = Long.MAX_VALUE;
+      long prescanned = Long.MAX_VALUE;
+      for ( int run = 0; run < RUNS; run++ ) {
+        long start = System.nanoTime();
+        List<ColumnInfo> expected = new ArrayList<ColumnInfo>();
+        for ( List<String> samples : columns ) {
+          ColumnInfo column = new ColumnInfo();
+          utils.assumeColumnDetails( column, samples,
+            new StringEvaluator( false, CsvUtils.NUMBER_FORMATS, ColumnInfo.DATE_FORMATS ) );
+          expected.add( column );
+        }
+        full = Math.min( full, System.nanoTime() - start );
+
+        start = System.nanoTime();
+        List<ColumnInfo> actual = new ArrayList<ColumnInfo>();
+        for ( List<String> samples : columns ) {
+          ColumnInfo column = new ColumnInfo();
+          utils.assumeColumnDetails( column, samples );
+          actual.add( column );
+        }
+        prescanned = Math.min( prescanned, System.nanoTime() - start );
+
+        for ( int i = 0; i < expected.size(); i++ ) {
+          ColumnInfo e = expected.get( i );
+          ColumnInfo a = actual.get( i );
+          if ( e.getDataType() != a.getDataType() || e.getLength() != a.getLength()
+            || e.getPrecision() != a.getPrecision()
+            || ( e.getFormat() == null ? a.getFormat() != null : !e.getFormat().equals( a.getFormat() ) ) ) {
+            throw new IllegalStateException( file + ": column " + i + " is inferred differently" );
+          }
+        }
+      }
+      System.out.println( String.format( "%s: %d columns, %d rows, full %d ms, prescanned %d ms", file.getName(),
+        columns.size(), columns.isEmpty() ? 0 : columns.get( 0 ).size(), full / 1000000, prescanned / 1000000 ) );
+    }
+  }
+
+  private static List<List<String>> readColumns( CsvUtils utils, File file ) throws Exception {
+    ModelInfo info = utils.generateFields( "", file.getAbsolutePath(), file.getName(), ROWS + 1, ",", "\"", 1, true,
+      false, "UTF-8" );
+    List<List<String>> columns = new ArrayList<List<String>>();
+    for ( DataRow row : info.getData() ) {
+      Object[] cells = row.getCells();
+      for ( int i = 0; i < cells.length; i++ ) {
+        if ( columns.size() <= i ) {
+          columns.add( new ArrayList<String>() );
+        }
+        columns.get( i ).add( cells[ i ] == null ? null : String.valueOf( cells[ i ] ) );
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * A file as wide as the ones the wizard struggles with: text, integer, decimal and date columns taking turns.
+   */
+  private static File createWideFile() throws Exception {
+    File file = File.createTempFile( "ColumnPrescanBenchmark", ".csv" );
+    file.deleteOnExit();
+    PrintWriter pw = new PrintWriter( file, "UTF-8" );
+    try {
+      for ( int column = 0; column < WIDE_COLUMNS; column++ ) {
+        pw.print( column == 0 ? "" : "," );
+        pw.print( "col" + column );
+      }
+      pw.println();
+      for ( int row = 0; row < ROWS; row++ ) {
+        for ( int column = 0; column < WIDE_COLUMNS; column++ ) {
+          pw.print( column == 0 ? "" : "," );
+          switch ( column % 4 ) {
+            case 0:
+              pw.print( NAMES[ ( row + column ) % NAMES.length ] );
+              break;
+            case 1:
+              pw.print( row * column );
+              break;
+            case 2:
+              pw.print( row + "." + ( column % 100 ) );
+              break;
+            default:
+              pw.print( String.format( "%02d/%02d/2015", 1 + row % 12, 1 + row % 28 ) );
+          }
+        }
+        pw.println();
+      }
+    } finally {
+      pw.close();
+    }
+    return file;
+  }
+}
@@ -0,0 +1,139 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.util.StringEvaluator;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.DataRow;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnPrescanTest {
+
+  private Locale defaultLocale;
+
+  @Before
+  public void setUp() {
+    defaultLocale = Locale.getDefault();
+    Locale.setDefault( new Locale( "en", "US" ) );
+  }
+
+  @After
+  public void tearDown() {
+    Locale.setDefault( defaultLocale );
+  }
+
+  @Test
+  public void shouldRuleOutDateFormatsBySeparators() {
+    ColumnPrescan prescan =
+      ColumnPrescan.scan( asList( "2015-10-31", "2015-11-01", null, "" ), ColumnInfo.DATE_FORMATS );
+    List<String> possible = prescan.getPossibleDateFormats( ColumnInfo.DATE_FORMATS );
+    assertTrue( possible.contains( "yyyy-MM-dd" ) );
+    assertTrue( possible.contains( "yyyyMMdd" ) );
+    assertFalse( possible.contains( "yyyy/MM/dd" ) );
+    assertFalse( possible.contains( "yyyy-MM-dd HH:mm" ) );
+    assertFalse( prescan.isText() );
+  }
+
+  @Test
+  public void shouldPutTheValueRulingOutEverythingButTextFirst() {
+    List<String> samples = asList( "12", "Y", "NaN", "twelve", "13" );
+    ColumnPrescan prescan = ColumnPrescan.scan( samples, ColumnInfo.DATE_FORMATS );
+    assertTrue( prescan.isText() );
+    assertEquals( asList( "twelve", "12", "Y", "NaN", "13" ), prescan.getSamplesInEvaluationOrder() );
+    // nothing parses as a date, one format is left for the evaluator to rule out
+    assertEquals( 1, prescan.getPossibleDateFormats( ColumnInfo.DATE_FORMATS ).size() );
+  }
+
+  @Test
+  public void shouldKnowWhichPatternsNeedDigits() {
+    assertTrue( ColumnPrescan.needsDigit( "dd MMM yyyy" ) );
+    assertTrue( ColumnPrescan.needsDigit( "MM" ) );
+    assertFalse( ColumnPrescan.needsDigit( "MMM" ) );
+    assertFalse( ColumnPrescan.needsDigit( "EEE 'yy'" ) );
+    assertEquals( 2, ColumnPrescan.getSeparators( "dd/MM/yyyy HH:mm 'o''clock'" ).size() );
+  }
+
+  @Test
+  public void shouldAdviseTheSameAsTheFullEvaluation() {
+    List<List<String>> columns = asList(
+      asList( "1", "2", "3" ),
+      asList( "100.00", "100.08", "100.12" ),
+      asList( "12.009", "988,000.3", "9877.9991", "999" ),
+      asList( "$101.04", "$100.3", "($500.00)" ),
+      asList( "$101.04", "$100.3", "not currency" ),
+      asList( "Y", "N", "y" ),
+      asList( "true", "false", "" ),
+      asList( "NaN", "1.5" ),
+      asList( "20151110", "20151231" ),
+      asList( "10/31/2015", "11/01/2015", null ),
+      asList( "31-10-2015 11:57", "01-11-2015 11:57" ),
+      asList( "31 Oct 2015", "01 Nov 2015" ),
+      asList( "2015-10-31", "unknown" ),
+      asList( "abc", "def", "" ),
+      asList( "", " ", null ) );
+
+    assertSameAdvice( new CsvUtils(), columns );
+  }
+
+  @Test
+  public void shouldAdviseTheSameAsTheFullEvaluationOnTheSampleFiles() throws Exception {
+    CsvUtils utils = new CsvUtils();
+    for ( String name : new String[] { "countries.csv", "unit_test.csv", "badDataTest.csv" } ) {
+      File file = new File( "target/test-classes/solution1/system/metadata/csvfiles/" + name );
+      ModelInfo info = utils.generateFields( "", file.getAbsolutePath(), name, 1000, ",", "\"", 1, true, false,
+        "UTF-8" );
+      List<List<String>> columns = new ArrayList<List<String>>();
+      for ( DataRow row : info.getData() ) {
+        Object[] cells = row.getCells();
+        for ( int i = 0; i < cells.length; i++ ) {
+          if ( columns.size() <= i ) {
+            columns.add( new ArrayList<String>() );
+          }
+          columns.get( i ).add( cells[ i ] == null ? null : String.valueOf( cells[ i ] ) );
+        }
+      }
+      assertFalse( name, columns.isEmpty() );
+      assertSameAdvice( utils, columns );
+    }
+  }
+
+  private void assertSameAdvice( CsvUtils utils, List<List<String>> columns ) {
+    for ( List<String> samples : columns ) {
+      ColumnInfo expected = new ColumnInfo();
+      utils.assumeColumnDetails( expected, samples,
+        new StringEvaluator( false, CsvUtils.NUMBER_FORMATS, ColumnInfo.DATE_FORMATS ) );
+      ColumnInfo actual = new ColumnInfo();
+      utils.assumeColumnDetails( actual, samples );
+
+      String message = samples.toString();
+      assertEquals( message, expected.getDataType(), actual.getDataType() );
+      assertEquals( message, expected.getFormat(), actual.getFormat() );
+      assertEquals( message, expected.getLength(), actual.getLength() );
+      assertEquals( message, expected.getPrecision(), actual.getPrecision() );
+    }
+  }
+}
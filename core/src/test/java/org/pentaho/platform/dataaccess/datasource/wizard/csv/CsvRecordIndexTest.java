@@ -0,0 +1,144 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CsvRecordIndexTest {
+
+  private File tempFile;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFile = File.createTempFile( "CsvRecordIndexTest", ".csv" );
+    tempFile.deleteOnExit();
+  }
+
+  @After
+  public void tearDown() {
+    CsvRecordIndex.delete( tempFile );
+    tempFile.delete();
+  }
+
+  private void prepareFile( int rows, String lineBreak ) throws Exception {
+    PrintWriter pw = new PrintWriter( tempFile, "UTF-8" );
+    try {
+      pw.print( "id,comment" + lineBreak );
+      for ( int i = 0; i < rows; i++ ) {
+        // every seventh record has a line break in its enclosed comment
+        String comment = i % 7 == 0 ? "\"line one" + lineBreak + "line \"\"two\"\"\"" : "plain " + i;
+        pw.print( i + "," + comment + lineBreak );
+      }
+    } finally {
+      pw.close();
+    }
+  }
+
+  private String readRecordAt( CsvRecordIndex index, long record ) throws Exception {
+    RandomAccessFile file = new RandomAccessFile( tempFile, "r" );
+    try {
+      file.seek( index.getOffset( record ) );
+      byte[] start = new byte[ 8 ];
+      int read = file.read( start );
+      return new String( start, 0, Math.max( read, 0 ), "UTF-8" );
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void shouldIndexRecordsNotLines() throws Exception {
+    for ( String lineBreak : asList( "\n", "\r\n", "\r" ) ) {
+      prepareFile( 95, lineBreak );
+      CsvRecordIndex index = CsvRecordIndex.build( tempFile, "UTF-8", "\"", 10 );
+      assertEquals( 96, index.getRecordCount() );
+      assertEquals( 0, index.getIndexedRecord( 9 ) );
+      assertEquals( 50, index.getIndexedRecord( 57 ) );
+      assertEquals( 90, index.getIndexedRecord( 500 ) );
+      // record 50 holds row 49, the header is record 0
+      assertTrue( readRecordAt( index, 50 ).startsWith( "49,\"line" ) );
+      assertTrue( readRecordAt( index, 90 ).startsWith( "89,plain" ) );
+    }
+  }
+
+  @Test
+  public void shouldCountALastRecordWithoutLineBreak() throws Exception {
+    PrintWriter pw = new PrintWriter( tempFile, "UTF-8" );
+    try {
+      pw.print( "a\nb\nc" );
+    } finally {
+      pw.close();
+    }
+    CsvRecordIndex index = CsvRecordIndex.build( tempFile, "UTF-8", "\"", 3 );
+    assertEquals( 3, index.getRecordCount() );
+    assertEquals( 0, index.getIndexedRecord( 2 ) );
+  }
+
+  @Test
+  public void shouldOnlyIndexAsciiCompatibleEncodings() {
+    assertTrue( CsvRecordIndex.isIndexable( "UTF-8", "\"" ) );
+    assertTrue( CsvRecordIndex.isIndexable( "windows-1252", "'" ) );
+    assertTrue( CsvRecordIndex.isIndexable( "ISO-8859-1", "" ) );
+    assertFalse( CsvRecordIndex.isIndexable( "UTF-16", "\"" ) );
+    assertFalse( CsvRecordIndex.isIndexable( "UTF-16LE", "\"" ) );
+    assertFalse( CsvRecordIndex.isIndexable( "no-such-charset", "\"" ) );
+  }
+
+  @Test
+  public void shouldBeSavedNextToTheFileAndRebuiltOnceItChanges() throws Exception {
+    prepareFile( 3000, "\n" );
+    CsvRecordIndex index = CsvRecordIndex.getIndex( tempFile, "UTF-8", "\"" );
+    assertNotNull( index );
+    File indexFile = CsvRecordIndex.forStagedFile( tempFile );
+    assertTrue( indexFile.exists() );
+
+    CsvRecordIndex loaded = CsvRecordIndex.load( indexFile );
+    assertTrue( loaded.isCurrent( tempFile, "utf-8", "\"" ) );
+    assertFalse( loaded.isCurrent( tempFile, "UTF-8", "'" ) );
+    assertEquals( index.getRecordCount(), loaded.getRecordCount() );
+    assertEquals( index.getOffset( 3000 ), loaded.getOffset( 3000 ) );
+
+    prepareFile( 10, "\n" );
+    assertFalse( loaded.isCurrent( tempFile, "UTF-8", "\"" ) );
+    assertEquals( 11, CsvRecordIndex.getIndex( tempFile, "UTF-8", "\"" ).getRecordCount() );
+    assertNull( CsvRecordIndex.getIndex( tempFile, "UTF-16", "\"" ) );
+  }
+
+  @Test
+  public void shouldPageThroughTheIndexLikeThroughTheWholeFile() throws Exception {
+    prepareFile( 2500, "\r\n" );
+    CsvUtils utils = new CsvUtils();
+    List<List<String>> rows = utils.readRows( tempFile.getAbsolutePath(), ",", "\"", 1, "UTF-8", 2100, 3, null );
+    assertTrue( CsvRecordIndex.forStagedFile( tempFile ).exists() );
+    assertEquals( asList( asList( "2100", "line one\nline \"two\"" ), asList( "2101", "plain 2101" ),
+      asList( "2102", "plain 2102" ) ), rows );
+
+    assertEquals( asList( asList( "2499" ) ),
+      utils.readRows( tempFile.getAbsolutePath(), ",", "\"", 1, "UTF-8", 2499, 10, new int[] { 0 } ) );
+  }
+}
@@ -0,0 +1,139 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.csv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+import java.io.File;
+import java.io.PrintWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CsvSampleCacheTest {
+
+  private File tempFile;
+
+  private CsvSampleCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFile = File.createTempFile( "CsvSampleCacheTest", ".tmp" );
+    tempFile.deleteOnExit();
+    cache = new CsvSampleCache( 10 );
+  }
+
+  @After
+  public void tearDown() {
+    tempFile.delete();
+  }
+
+  private void prepareFile( int rows, String prefix ) throws Exception {
+    PrintWriter pw = new PrintWriter( tempFile );
+    try {
+      pw.print( "name;amount\r\n" );
+      for ( int i = 0; i < rows; i++ ) {
+        pw.print( prefix + i + ";" + i + ".5\r\n" );
+      }
+    } finally {
+      pw.close();
+    }
+  }
+
+  @Test
+  public void shouldReuseTheSampleWhileTheFileIsUnchanged() throws Exception {
+    prepareFile( 1000, "row number " );
+
+    CsvSampleCache.Sample sample = cache.getSample( tempFile, 1 );
+    assertFalse( sample.isComplete() );
+    assertTrue( sample.getLength() < tempFile.length() );
+    assertSame( sample, cache.getSample( tempFile, 5 ) );
+
+    assertNotSame( sample, cache.getSample( tempFile, 500 ) );
+  }
+
+  @Test
+  public void shouldReadTheFileAgainOnceItIsReplaced() throws Exception {
+    prepareFile( 5, "a" );
+    CsvSampleCache.Sample sample = cache.getSample( tempFile, 1 );
+    assertTrue( sample.isComplete() );
+    assertEquals( tempFile.length(), sample.getLength() );
+
+    prepareFile( 8, "b" );
+    tempFile.setLastModified( tempFile.lastModified() + 2000 );
+    assertNotSame( sample, cache.getSample( tempFile, 1 ) );
+  }
+
+  @Test
+  public void shouldProfileTheSameFromTheSampleAsFromTheFile() throws Exception {
+    prepareFile( 1000, "row number " );
+
+    CsvUtils uncached = new CsvUtils();
+    CsvUtils cached = new CsvUtils( cache );
+    for ( int rowLimit : new int[] { 1, 20, 2000 } ) {
+      ModelInfo expected = uncached.generateFields( "", tempFile.getAbsolutePath(), tempFile.getName(), rowLimit,
+        ";", "\"", 1, true, true, "UTF-8" );
+      ModelInfo actual = cached.generateFields( "", tempFile.getAbsolutePath(), tempFile.getName(), rowLimit,
+        ";", "\"", 1, true, true, "UTF-8" );
+      assertEquals( expected.getFileInfo().getContents(), actual.getFileInfo().getContents() );
+      assertEquals( expected.getData().length, actual.getData().length );
+      assertEquals( expected.getColumns().length, actual.getColumns().length );
+      for ( int i = 0; i < expected.getColumns().length; i++ ) {
+        ColumnInfo expectedColumn = expected.getColumns()[ i ];
+        ColumnInfo actualColumn = actual.getColumns()[ i ];
+        assertEquals( expectedColumn.getId(), actualColumn.getId() );
+        assertEquals( expectedColumn.getDataType(), actualColumn.getDataType() );
+        assertEquals( expectedColumn.getFormat(), actualColumn.getFormat() );
+        assertEquals( expectedColumn.getLength(), actualColumn.getLength() );
+      }
+    }
+    assertEquals( uncached.getLines( tempFile.getAbsolutePath(), 3, "UTF-8" ),
+      cached.getLines( tempFile.getAbsolutePath(), 3, "UTF-8" ) );
+  }
+
+  @Test
+  public void shouldCutTheSampleAtTheByteLimit() throws Exception {
+    prepareFile( 1000, "row number " );
+    cache = new CsvSampleCache( 10, 4096 );
+
+    CsvSampleCache.Sample sample = cache.getSample( tempFile, 500 );
+    assertTrue( sample.isCapped() );
+    assertEquals( 4096, sample.getLength() );
+    assertFalse( sample.covers( 500 ) );
+    assertSame( sample, cache.getSample( tempFile, 500 ) );
+
+    CsvUtils cached = new CsvUtils( cache );
+    assertEquals( new CsvUtils().getLinesList( tempFile.getAbsolutePath(), 500, "UTF-8" ),
+      cached.getLinesList( tempFile.getAbsolutePath(), 500, "UTF-8" ) );
+  }
+
+  @Test
+  public void shouldOnlyCountLinesOnBytesForSingleByteLineBreaks() {
+    assertTrue( CsvSampleCache.supports( "UTF-8" ) );
+    assertTrue( CsvSampleCache.supports( "ISO-8859-1" ) );
+    assertTrue( CsvSampleCache.supports( "windows-1252" ) );
+    assertFalse( CsvSampleCache.supports( "UTF-16LE" ) );
+    assertFalse( CsvSampleCache.supports( "UTF-16BE" ) );
+    assertFalse( CsvSampleCache.supports( "UTF-32" ) );
+    assertFalse( CsvSampleCache.supports( "no-such-charset" ) );
+    assertFalse( CsvSampleCache.supports( null ) );
+  }
+}
@@ -147,6 +147,22 @@ public class CsvUtilsTest {
     assertEquals( "2", data[ 0 ].getCells()[ 1 ] );
   }
 
+  @Test
+  public void readRows_ReturnsTheRequestedPageAndColumns() throws Exception {
+    prepareFile( new String[] { "col1", "col2", "col3" }, new String[] { "a", "1", "x" },
+      new String[] { "b", "2", "y" }, new String[] { "c", "3", "z" } );
+
+    List<List<String>> rows = utils.readRows( tempFile.getAbsolutePath(), DELIMITER, "\"", 1, "utf-8", 1, 5,
+      new int[] { 2, 0, 7 } );
+    assertEquals( 2, rows.size() );
+    assertEquals( Arrays.asList( "y", "b", null ), rows.get( 0 ) );
+    assertEquals( Arrays.asList( "z", "c", null ), rows.get( 1 ) );
+
+    rows = utils.readRows( tempFile.getAbsolutePath(), DELIMITER, "\"", 0, "utf-8", 0, 1, null );
+    assertEquals( 1, rows.size() );
+    assertEquals( Arrays.asList( "col1", "col2", "col3" ), rows.get( 0 ) );
+  }
+
   @Test
   public void ColumnOfIntegerType_HasCorrectLength() {
     ColumnInfo columnInfo = new ColumnInfo();
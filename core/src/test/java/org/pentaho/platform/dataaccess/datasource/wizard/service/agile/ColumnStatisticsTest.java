@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnStatisticsTest {
+
+  private static final String[] NAMES = { "REGION", "CUSTOMER", "AMOUNT", "ORDERED", "NOTE" };
+
+  private File statisticsFile;
+
+  @Before
+  public void setUp() throws Exception {
+    statisticsFile = File.createTempFile( "ColumnStatisticsTest", ".stats" );
+  }
+
+  @After
+  public void tearDown() {
+    statisticsFile.delete();
+  }
+
+  private static ColumnStatistics load( int from, int to ) {
+    ColumnStatistics statistics = new ColumnStatistics();
+    for ( int i = from; i < to; i++ ) {
+      statistics.offer( NAMES, new Object[] { "region" + ( i % 5 ), "customer" + i, (double) i,
+        new Date( 1000L * i ), i % 3 == 0 ? "note" : null } );
+    }
+    return statistics;
+  }
+
+  @Test
+  public void shouldGatherTheStatisticsOfEachColumn() {
+    ColumnStatistics statistics = load( 0, 2000 );
+    assertEquals( 2000, statistics.getRowCount() );
+    ColumnStatistics.Column region = statistics.getColumn( "region" );
+    assertEquals( "REGION", region.getName() );
+    assertEquals( 5, region.getDistinctCount() );
+    assertEquals( "region0", region.getMin() );
+    assertEquals( "region4", region.getMax() );
+    ColumnStatistics.Column amount = statistics.getColumn( "AMOUNT" );
+    assertEquals( 0.0, amount.getMin() );
+    assertEquals( 1999.0, amount.getMax() );
+    assertEquals( 1333, statistics.getColumn( "NOTE" ).getNullCount() );
+  }
+
+  @Test
+  public void shouldOnlyRecommendSelectiveDimensionColumns() {
+    ColumnStatistics statistics = load( 0, 2000 );
+    assertEquals( Collections.singletonList( "region" ),
+      statistics.recommendIndices( Arrays.asList( "region", "customer", "note", "missing" ), 0.1 ) );
+    assertTrue( statistics.getColumn( "REGION" ).isIndexRecommended() );
+    assertEquals( Collections.singletonList( "REGION" ), statistics.getRecommendedIndices() );
+
+    assertTrue( "Small tables are scanned anyway",
+      load( 0, 100 ).recommendIndices( Collections.singletonList( "REGION" ), 0.1 ).isEmpty() );
+  }
+
+  @Test
+  public void shouldSaveAndLoad() throws Exception {
+    ColumnStatistics statistics = load( 0, 2000 );
+    statistics.recommendIndices( Collections.singletonList( "REGION" ), 0.1 );
+    statistics.save( statisticsFile );
+
+    ColumnStatistics loaded = ColumnStatistics.load( statisticsFile );
+    assertEquals( 2000, loaded.getRowCount() );
+    assertEquals( Collections.singletonList( "REGION" ), loaded.getRecommendedIndices() );
+    ColumnStatistics.Column ordered = loaded.getColumn( "ORDERED" );
+    assertEquals( new Date( 0 ), ordered.getMin() );
+    assertEquals( new Date( 1999000L ), ordered.getMax() );
+    assertEquals( statistics.getColumn( "CUSTOMER" ).getDistinctCount(),
+      loaded.getColumn( "CUSTOMER" ).getDistinctCount() );
+    assertEquals( 1333, loaded.getColumn( "NOTE" ).getNullCount() );
+
+    assertNull( ColumnStatistics.load( new File( statisticsFile.getPath() + ".missing" ) ) );
+  }
+
+  @Test
+  public void shouldMergeTheAppendedRows() {
+    ColumnStatistics statistics = load( 0, 1000 );
+    statistics.merge( load( 1000, 1500 ) );
+    assertEquals( 1500, statistics.getRowCount() );
+    ColumnStatistics.Column amount = statistics.getColumn( "AMOUNT" );
+    assertEquals( 0.0, amount.getMin() );
+    assertEquals( 1499.0, amount.getMax() );
+    assertEquals( 5, statistics.getColumn( "REGION" ).getDistinctCount() );
+    assertEquals( 1000, statistics.getColumn( "NOTE" ).getNullCount() );
+  }
+
+  @Test
+  public void shouldDropTheRangeOfMixedTypes() {
+    ColumnStatistics statistics = new ColumnStatistics();
+    statistics.offer( new String[] { "CODE" }, new Object[] { "A" } );
+    statistics.offer( new String[] { "CODE" }, new Object[] { 1L } );
+    assertNull( statistics.getColumn( "CODE" ).getMin() );
+    assertFalse( statistics.getColumn( "CODE" ).isIndexRecommended() );
+    assertEquals( 2, statistics.getColumn( "CODE" ).getDistinctCount() );
+  }
+}
@@ -0,0 +1,58 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+  private static void assertEstimate( long expected, long actual ) {
+    assertTrue( "Estimated " + actual + " distinct values out of " + expected,
+      Math.abs( actual - expected ) <= expected * 0.05 );
+  }
+
+  @Test
+  public void shouldEstimateTheDistinctValues() {
+    HyperLogLog sketch = new HyperLogLog();
+    for ( int i = 0; i < 300000; i++ ) {
+      sketch.offer( "customer-" + ( i % 100000 ) );
+    }
+    assertEstimate( 100000, sketch.cardinality() );
+  }
+
+  @Test
+  public void shouldCountFewValuesExactly() {
+    HyperLogLog sketch = new HyperLogLog();
+    for ( int i = 0; i < 1000; i++ ) {
+      sketch.offer( (long) ( i % 7 ) );
+    }
+    sketch.offer( null );
+    assertEquals( 7, sketch.cardinality() );
+    assertEquals( 0, new HyperLogLog().cardinality() );
+  }
+
+  @Test
+  public void shouldMergeAndRestoreSketches() {
+    HyperLogLog first = new HyperLogLog();
+    HyperLogLog second = new HyperLogLog();
+    for ( int i = 0; i < 20000; i++ ) {
+      first.offer( i );
+      second.offer( i + 10000 );
+    }
+    first.merge( HyperLogLog.fromBytes( second.toBytes() ) );
+    assertEstimate( 30000, first.cardinality() );
+  }
+}
@@ -0,0 +1,57 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.DataRow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class PdiRowListenerTest {
+
+  @Test
+  public void shouldKeepOnlyTheSampleButCountEveryRow() throws Exception {
+    RowMetaInterface rowMeta = mock( RowMetaInterface.class );
+    PdiRowListener listener = new PdiRowListener( 3 );
+
+    Object[] first = new Object[] { "a", 1L };
+    listener.rowWrittenEvent( rowMeta, first );
+    for ( int i = 0; i < 9; i++ ) {
+      listener.rowWrittenEvent( rowMeta, new Object[] { "b", (long) i } );
+      listener.rowReadEvent( rowMeta, new Object[] { "c", (long) i } );
+      listener.errorRowWrittenEvent( rowMeta, new Object[] { "d", (long) i } );
+    }
+
+    DataRow[] written = listener.getWrittenRows();
+    assertEquals( 3, written.length );
+    assertSame( first, written[ 0 ].getCells() );
+    assertEquals( 3, listener.getReadRows().length );
+    assertEquals( 3, listener.getErrorRows().length );
+
+    assertEquals( 10, listener.getWrittenCount() );
+    assertEquals( 9, listener.getReadCount() );
+    assertEquals( 9, listener.getErrorCount() );
+  }
+
+  @Test
+  public void shouldKeepNothingWhenSampleSizeIsZero() throws Exception {
+    PdiRowListener listener = new PdiRowListener( 0 );
+    listener.rowWrittenEvent( mock( RowMetaInterface.class ), new Object[] { "a" } );
+
+    assertEquals( 0, listener.getWrittenRows().length );
+    assertEquals( 1, listener.getWrittenCount() );
+  }
+}
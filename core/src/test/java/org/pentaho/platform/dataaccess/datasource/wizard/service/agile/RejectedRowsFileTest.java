@@ -0,0 +1,104 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RejectedRowsFileTest {
+
+  private RejectedRowsFile rejects;
+
+  @Before
+  public void setUp() throws Exception {
+    File stagedFile = File.createTempFile( "RejectedRowsFileTest", ".tmp" );
+    stagedFile.deleteOnExit();
+    rejects = new RejectedRowsFile( RejectedRowsFile.forStagedFile( stagedFile ) );
+  }
+
+  @After
+  public void tearDown() {
+    rejects.delete();
+  }
+
+  @Test
+  public void shouldReadBackPagesOfWrittenRows() throws Exception {
+    rejects.open();
+    for ( int i = 0; i < 10; i++ ) {
+      rejects.write( "csvinput", new Object[] { "row" + i, i }, "PC_1", "CONV001", "bad number" );
+    }
+    rejects.close();
+
+    assertEquals( 10, rejects.getRowCount() );
+    List<RejectedRowsFile.RejectedRow> page = rejects.read( 8, 5 );
+    assertEquals( 2, page.size() );
+    assertEquals( "csvinput", page.get( 0 ).getStepName() );
+    assertEquals( "CONV001", page.get( 0 ).getErrorCodes() );
+    assertEquals( "PC_1", page.get( 0 ).getFieldNames() );
+    assertEquals( "bad number", page.get( 0 ).getErrorDescriptions() );
+    assertEquals( Arrays.asList( "row8", "8" ), page.get( 0 ).getValues() );
+    assertTrue( rejects.read( 20, 5 ).isEmpty() );
+  }
+
+  @Test
+  public void shouldSeekToTheBlockOfAPage() throws Exception {
+    RejectedRowsFile blocks = new RejectedRowsFile( rejects.getFile(), 3 );
+    blocks.open();
+    for ( int i = 0; i < 10; i++ ) {
+      blocks.write( "csvinput", new Object[] { "row" + i }, "PC_1", "CONV001", "bad number" );
+    }
+    blocks.close();
+
+    assertTrue( blocks.getIndexFile().exists() );
+    List<RejectedRowsFile.RejectedRow> page = rejects.read( 4, 4 );
+    assertEquals( 4, page.size() );
+    assertEquals( Arrays.asList( "row4" ), page.get( 0 ).getValues() );
+    assertEquals( Arrays.asList( "row7" ), page.get( 3 ).getValues() );
+    assertEquals( Arrays.asList( "row9" ), rejects.read( 9, 5 ).get( 0 ).getValues() );
+
+    assertTrue( rejects.getIndexFile().delete() );
+    assertEquals( Arrays.asList( "row4" ), rejects.read( 4, 1 ).get( 0 ).getValues() );
+
+    blocks.delete();
+    assertFalse( blocks.getFile().exists() );
+  }
+
+  @Test
+  public void shouldKeepSeparatorsAndNullsInValues() throws Exception {
+    rejects.open();
+    rejects.write( "output", new Object[] { "a\tb\nc\\d", null }, null, "", "line1\r\nline2" );
+    rejects.close();
+
+    RejectedRowsFile.RejectedRow row = rejects.read( 0, 1 ).get( 0 );
+    assertNull( row.getFieldNames() );
+    assertEquals( "", row.getErrorCodes() );
+    assertEquals( "line1\r\nline2", row.getErrorDescriptions() );
+    assertEquals( "a\tb\nc\\d", row.getValues().get( 0 ) );
+    assertNull( row.getValues().get( 1 ) );
+  }
+
+  @Test
+  public void shouldReturnNothingWhenThereIsNoSideFile() throws Exception {
+    assertTrue( rejects.read( 0, 10 ).isEmpty() );
+  }
+}
@@ -0,0 +1,139 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.model.concept.types.DataType;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvFileInfo;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StagedFileDigestTest {
+
+  private static final String TABLE = "SALES";
+
+  private File csvFile;
+
+  private File digestFile;
+
+  private ModelInfo modelInfo;
+
+  @Before
+  public void setUp() throws Exception {
+    csvFile = File.createTempFile( "StagedFileDigestTest", ".csv" );
+    digestFile = File.createTempFile( "StagedFileDigestTest", ".properties" );
+    CsvFileInfo fileInfo = new CsvFileInfo();
+    fileInfo.setEncoding( "UTF-8" );
+    ColumnInfo column = new ColumnInfo();
+    column.setId( "amount" );
+    column.setDataType( DataType.NUMERIC );
+    modelInfo = new ModelInfo();
+    modelInfo.setFileInfo( fileInfo );
+    modelInfo.setColumns( new ColumnInfo[] { column } );
+  }
+
+  @After
+  public void tearDown() {
+    csvFile.delete();
+    digestFile.delete();
+  }
+
+  @Test
+  public void shouldSkipAnIdenticalFile() throws Exception {
+    write( "amount\n1\n2\n", false );
+    StagedFileDigest previous = stage();
+
+    StagedFileDigest current = StagedFileDigest.compute( TABLE, csvFile, modelInfo, previous.getLength() );
+    assertEquals( StagedFileDigest.Change.IDENTICAL, current.compareTo( previous, "UTF-8" ) );
+    assertEquals( 2, previous.getRowCount() );
+  }
+
+  @Test
+  public void shouldAppendRowsAddedAfterTheLastLine() throws Exception {
+    write( "amount\n1\n2\n", false );
+    StagedFileDigest previous = stage();
+    write( "3\n4\n", true );
+
+    StagedFileDigest current = StagedFileDigest.compute( TABLE, csvFile, modelInfo, previous.getLength() );
+    assertEquals( StagedFileDigest.Change.APPENDED, current.compareTo( previous, "UTF-8" ) );
+    assertEquals( StagedFileDigest.Change.CHANGED, current.compareTo( previous, "UTF-16LE" ) );
+
+    File tail = File.createTempFile( "StagedFileDigestTest", ".append" );
+    try {
+      StagedFileDigest.copyTail( csvFile, previous.getLength(), tail );
+      assertEquals( "3\n4\n", new String( Files.readAllBytes( tail.toPath() ), StandardCharsets.UTF_8 ) );
+    } finally {
+      tail.delete();
+    }
+  }
+
+  @Test
+  public void shouldReloadWhenTheLastLineWasIncomplete() throws Exception {
+    write( "amount\n1\n2", false );
+    StagedFileDigest previous = stage();
+    write( "5\n", true );
+
+    StagedFileDigest current = StagedFileDigest.compute( TABLE, csvFile, modelInfo, previous.getLength() );
+    assertEquals( StagedFileDigest.Change.CHANGED, current.compareTo( previous, "UTF-8" ) );
+  }
+
+  @Test
+  public void shouldReloadWhenContentOrLayoutChanged() throws Exception {
+    write( "amount\n1\n2\n", false );
+    StagedFileDigest previous = stage();
+    write( "amount\n7\n2\n3\n", false );
+
+    StagedFileDigest current = StagedFileDigest.compute( TABLE, csvFile, modelInfo, previous.getLength() );
+    assertEquals( StagedFileDigest.Change.CHANGED, current.compareTo( previous, "UTF-8" ) );
+
+    write( "amount\n1\n2\n", false );
+    modelInfo.getFileInfo().setDelimiter( ";" );
+    current = StagedFileDigest.compute( TABLE, csvFile, modelInfo, previous.getLength() );
+    assertEquals( StagedFileDigest.Change.CHANGED, current.compareTo( previous, "UTF-8" ) );
+    assertEquals( StagedFileDigest.Change.CHANGED, current.compareTo( null, "UTF-8" ) );
+  }
+
+  @Test
+  public void shouldIgnoreAnUnreadableDigestFile() throws Exception {
+    write( "not a digest", false );
+    assertNull( StagedFileDigest.load( csvFile ) );
+    assertNull( StagedFileDigest.load( new File( csvFile.getPath() + ".missing" ) ) );
+  }
+
+  private StagedFileDigest stage() throws Exception {
+    StagedFileDigest digest = StagedFileDigest.compute( TABLE, csvFile, modelInfo, -1 );
+    digest.setRowCount( 2 );
+    digest.save( digestFile );
+    return StagedFileDigest.load( digestFile );
+  }
+
+  private void write( String content, boolean append ) throws Exception {
+    OutputStream out = new FileOutputStream( csvFile, append );
+    try {
+      out.write( content.getBytes( StandardCharsets.UTF_8 ) );
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalColumn;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+import org.pentaho.metadata.model.olap.OlapCube;
+import org.pentaho.metadata.model.olap.OlapDimension;
+import org.pentaho.metadata.model.olap.OlapHierarchy;
+import org.pentaho.metadata.model.olap.OlapHierarchyLevel;
+import org.pentaho.metadata.model.olap.OlapMeasure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StagingAggregatesTest {
+
+  private static final String SCHEMA = "<Schema name=\"sales\">"
+    + "<Dimension name=\"Region\"><Hierarchy hasAll=\"true\">"
+    + "<Level name=\"Region\" column=\"REGION\"/><Level name=\"City\" column=\"CITY\"/></Hierarchy></Dimension>"
+    + "<Cube name=\"sales\"><Table name=\"SALES\"/>"
+    + "<DimensionUsage name=\"Region\" source=\"Region\"/>"
+    + "<Dimension name=\"Product\"><Hierarchy name=\"Products\" hasAll=\"true\">"
+    + "<Level name=\"Product\" column=\"PRODUCT\"/></Hierarchy></Dimension>"
+    + "<Measure name=\"Amount\" column=\"AMOUNT\" aggregator=\"sum\"/>"
+    + "<Measure name=\"Customers\" column=\"CUSTOMER\" aggregator=\"distinct-count\"/>"
+    + "</Cube></Schema>";
+
+  private static LogicalColumn column( String targetColumn, AggregationType aggregation ) {
+    SqlPhysicalColumn physicalColumn = new SqlPhysicalColumn( new SqlPhysicalTable( new SqlPhysicalModel() ) );
+    physicalColumn.setTargetColumn( targetColumn );
+    LogicalColumn column = new LogicalColumn();
+    column.setPhysicalColumn( physicalColumn );
+    column.setAggregationType( aggregation );
+    return column;
+  }
+
+  private static OlapHierarchy hierarchy( String... columns ) {
+    List<OlapHierarchyLevel> levels = new ArrayList<OlapHierarchyLevel>();
+    for ( String name : columns ) {
+      OlapHierarchyLevel level = mock( OlapHierarchyLevel.class );
+      LogicalColumn column = column( name, AggregationType.NONE );
+      when( level.getReferenceColumn() ).thenReturn( column );
+      levels.add( level );
+    }
+    OlapHierarchy hierarchy = mock( OlapHierarchy.class );
+    when( hierarchy.getHierarchyLevels() ).thenReturn( levels );
+    return hierarchy;
+  }
+
+  private static OlapMeasure measure( String targetColumn, AggregationType aggregation ) {
+    OlapMeasure measure = mock( OlapMeasure.class );
+    LogicalColumn column = column( targetColumn, aggregation );
+    when( measure.getLogicalColumn() ).thenReturn( column );
+    return measure;
+  }
+
+  private static Domain domain() {
+    OlapDimension region = mock( OlapDimension.class );
+    List<OlapHierarchy> regions = Collections.singletonList( hierarchy( "REGION", "CITY" ) );
+    when( region.getHierarchies() ).thenReturn( regions );
+    OlapDimension product = mock( OlapDimension.class );
+    List<OlapHierarchy> products = Collections.singletonList( hierarchy( "PRODUCT" ) );
+    when( product.getHierarchies() ).thenReturn( products );
+    OlapCube cube = mock( OlapCube.class );
+    List<OlapMeasure> measures = Arrays.asList( measure( "AMOUNT", AggregationType.SUM ),
+      measure( "QTY", AggregationType.COUNT ), measure( "CUSTOMER", AggregationType.COUNT_DISTINCT ) );
+    when( cube.getOlapMeasures() ).thenReturn( measures );
+
+    LogicalModel logicalModel = new LogicalModel();
+    logicalModel.setProperty( "olap_dimensions", new ArrayList<OlapDimension>( Arrays.asList( region, product ) ) );
+    logicalModel.setProperty( "olap_cubes", new ArrayList<OlapCube>( Collections.singletonList( cube ) ) );
+    Domain domain = new Domain();
+    domain.addLogicalModel( logicalModel );
+    return domain;
+  }
+
+  private static ColumnStatistics statistics( long rows ) {
+    String[] names = { "REGION", "CITY", "PRODUCT", "AMOUNT", "QTY" };
+    ColumnStatistics statistics = new ColumnStatistics();
+    for ( long i = 0; i < rows; i++ ) {
+      statistics.offer( names, new Object[] { "region" + ( i % 4 ), "city" + ( i % 40 ), "product" + ( i % 50 ),
+        (double) i, i } );
+    }
+    return statistics;
+  }
+
+  @Test
+  public void shouldPlanTheLevelsWithTheFewestDistinctValues() {
+    List<StagingAggregates.AggregateTable> aggregates =
+      StagingAggregates.plan( domain(), "SALES", statistics( StagingAggregates.MIN_ROWS ), null, 3 );
+    assertEquals( 3, aggregates.size() );
+    assertEquals( Arrays.asList( "REGION", "CITY", "PRODUCT" ), aggregates.get( 0 ).getLevelColumns() );
+    assertEquals( Arrays.asList( "REGION", "CITY" ), aggregates.get( 1 ).getLevelColumns() );
+    assertEquals( Collections.singletonList( "REGION" ), aggregates.get( 2 ).getLevelColumns() );
+    assertEquals( Arrays.asList( "AMOUNT_SUM", "QTY_COUNT" ), aggregates.get( 2 ).getMeasureColumns() );
+    assertNotEquals( aggregates.get( 1 ).getName(), aggregates.get( 2 ).getName() );
+
+    assertTrue( "Small tables are not aggregated",
+      StagingAggregates.plan( domain(), "SALES", statistics( 1000 ), null, 3 ).isEmpty() );
+  }
+
+  @Test
+  public void shouldPlanTheConfiguredLevelsWithTheirParents() {
+    List<StagingAggregates.AggregateTable> aggregates =
+      StagingAggregates.plan( domain(), "SALES", null, "city; product, region ;unknown", 3 );
+    assertEquals( 2, aggregates.size() );
+    assertEquals( Arrays.asList( "REGION", "CITY" ), aggregates.get( 0 ).getLevelColumns() );
+    assertEquals( Arrays.asList( "REGION", "PRODUCT" ), aggregates.get( 1 ).getLevelColumns() );
+    assertEquals( 1, StagingAggregates.plan( domain(), "SALES", null, "city;product", 1 ).size() );
+  }
+
+  @Test
+  public void shouldSelectTheAggregatedRows() {
+    DatabaseMeta databaseMeta = mock( DatabaseMeta.class );
+    when( databaseMeta.getStartQuote() ).thenReturn( "\"" );
+    when( databaseMeta.getEndQuote() ).thenReturn( "\"" );
+    when( databaseMeta.quoteField( anyString() ) ).thenAnswer( new Answer<String>() {
+      public String answer( InvocationOnMock invocation ) {
+        return (String) invocation.getArguments()[ 0 ];
+      }
+    } );
+    StagingAggregates.AggregateTable aggregate =
+      StagingAggregates.parse( "AGG_1:REGION,CITY:AMOUNT_SUM,QTY_COUNT" ).get( 0 );
+    assertEquals( "SELECT REGION, CITY, COUNT(*) AS \"FACT_COUNT\", SUM(AMOUNT) AS \"AMOUNT_SUM\","
+        + " COUNT(QTY) AS \"QTY_COUNT\" FROM SALES GROUP BY REGION, CITY",
+      aggregate.getSelectStatement( databaseMeta, "SALES" ) );
+  }
+
+  @Test
+  public void shouldDeclareTheAggregatesInTheSchema() throws Exception {
+    String definitions = "AGG_1:REGION,PRODUCT:AMOUNT_SUM,QTY_COUNT;AGG_2:CITY:AMOUNT_SUM";
+    Document schema = DocumentHelper.parseText( StagingAggregates.register( SCHEMA, definitions ) );
+    List<Element> aggregates = schema.getRootElement().element( "Cube" ).element( "Table" ).elements( "AggName" );
+    assertEquals( "An aggregate without the parent level is left out", 1, aggregates.size() );
+    Element aggregate = aggregates.get( 0 );
+    assertEquals( "AGG_1", aggregate.attributeValue( "name" ) );
+    assertEquals( StagingAggregates.FACT_COUNT, aggregate.element( "AggFactCount" ).attributeValue( "column" ) );
+    assertEquals( "QTY_COUNT", aggregate.element( "AggIgnoreColumn" ).attributeValue( "column" ) );
+    Element measure = aggregate.element( "AggMeasure" );
+    assertEquals( "[Measures].[Amount]", measure.attributeValue( "name" ) );
+    assertEquals( "AMOUNT_SUM", measure.attributeValue( "column" ) );
+    List<Element> levels = aggregate.elements( "AggLevel" );
+    assertEquals( 2, levels.size() );
+    assertEquals( "[Region].[Region]", levels.get( 0 ).attributeValue( "name" ) );
+    assertEquals( "[Product.Products].[Product]", levels.get( 1 ).attributeValue( "name" ) );
+    assertEquals( "PRODUCT", levels.get( 1 ).attributeValue( "column" ) );
+
+    assertSame( SCHEMA, StagingAggregates.register( SCHEMA, "" ) );
+  }
+
+  @Test
+  public void shouldSaveAndLoad() throws Exception {
+    File file = File.createTempFile( "StagingAggregatesTest", ".aggregates" );
+    try {
+      List<StagingAggregates.AggregateTable> aggregates =
+        StagingAggregates.parse( "AGG_1:REGION,CITY:AMOUNT_SUM;AGG_2:REGION:AMOUNT_SUM" );
+      StagingAggregates.save( file, aggregates );
+      assertEquals( StagingAggregates.format( aggregates ),
+        StagingAggregates.format( StagingAggregates.load( file ) ) );
+      StagingAggregates.save( file, Collections.<StagingAggregates.AggregateTable>emptyList() );
+      assertTrue( StagingAggregates.load( file ).isEmpty() );
+    } finally {
+      file.delete();
+    }
+  }
+}
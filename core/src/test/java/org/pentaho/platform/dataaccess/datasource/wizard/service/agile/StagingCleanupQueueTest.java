@@ -0,0 +1,250 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.CsvTransformGeneratorException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StagingCleanupQueueTest {
+
+  private File uploadFolder;
+
+  private List<Domain> domains;
+
+  private List<String> droppedTables;
+
+  private boolean failing;
+
+  private Runnable whileDropping;
+
+  private StagingCleanupQueue queue;
+
+  @Before
+  public void setUp() throws Exception {
+    uploadFolder = Files.createTempDirectory( "StagingCleanupQueueTest" ).toFile();
+    domains = new ArrayList<Domain>();
+    droppedTables = new ArrayList<String>();
+    queue = new StagingCleanupQueue( uploadFolder, 2, new StagingSweeper( null, uploadFolder, 0, 0, 0, false ) {
+      @Override
+      protected Collection<Domain> getDomains() {
+        return domains;
+      }
+
+      @Override
+      protected void dropTable( String tableName ) throws CsvTransformGeneratorException {
+        if ( whileDropping != null ) {
+          whileDropping.run();
+        }
+        if ( failing ) {
+          throw new CsvTransformGeneratorException( "staging database is down" );
+        }
+        droppedTables.add( tableName );
+      }
+    } );
+  }
+
+  @After
+  public void tearDown() {
+    delete( uploadFolder );
+  }
+
+  private static void delete( File file ) {
+    File[] children = file.listFiles();
+    if ( children != null ) {
+      for ( File child : children ) {
+        delete( child );
+      }
+    }
+    file.delete();
+  }
+
+  private File createFile( String name ) throws IOException {
+    File file = new File( uploadFolder, name );
+    FileOutputStream out = new FileOutputStream( file );
+    try {
+      out.write( new byte[ 10 ] );
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private void addDomain( String tableName ) {
+    SqlPhysicalModel physicalModel = new SqlPhysicalModel();
+    SqlPhysicalTable table = new SqlPhysicalTable( physicalModel );
+    table.setTargetTable( tableName );
+    physicalModel.addPhysicalTable( table );
+    Domain domain = new Domain();
+    domain.addPhysicalModel( physicalModel );
+    domains.add( domain );
+  }
+
+  @Test
+  public void shouldDropTablesAndDeleteFilesQueued() throws Exception {
+    StagingSweeper.recordStagedTable( uploadFolder, "SALES" );
+    File marker = StagingSweeper.getTableMarker( uploadFolder, "SALES" );
+    File file = createFile( "sales & returns.csv" );
+    File index = createFile( "sales & returns.csv.index" );
+    queue.enqueue( StagingCleanupQueue.Kind.TABLE, "SALES" );
+    queue.enqueue( StagingCleanupQueue.Kind.FILE, "sales & returns.csv" );
+
+    assertEquals( 2, queue.getItems().size() );
+    assertEquals( 2, queue.drain().size() );
+
+    assertEquals( Collections.singletonList( "SALES" ), droppedTables );
+    assertFalse( marker.exists() );
+    assertFalse( file.exists() );
+    assertFalse( index.exists() );
+    assertTrue( queue.getItems().isEmpty() );
+  }
+
+  @Test
+  public void shouldKeepTablesUsedAgain() throws Exception {
+    queue.enqueue( StagingCleanupQueue.Kind.TABLE, "SALES" );
+    addDomain( "sales" );
+
+    assertTrue( queue.drain().isEmpty() );
+
+    assertTrue( droppedTables.isEmpty() );
+    assertTrue( queue.getItems().isEmpty() );
+  }
+
+  @Test
+  public void shouldRetryAndThenReportOrphans() throws Exception {
+    failing = true;
+    queue.enqueue( StagingCleanupQueue.Kind.TABLE, "SALES" );
+
+    queue.drain();
+    StagingCleanupQueue.Item item = queue.getItems().get( 0 );
+    assertEquals( 1, item.getAttempts() );
+    assertFalse( item.isOrphaned() );
+    assertEquals( "staging database is down", item.getError() );
+
+    queue.drain();
+    item = queue.getItems().get( 0 );
+    assertEquals( 2, item.getAttempts() );
+    assertTrue( item.isOrphaned() );
+
+    // orphans are only tried again on request
+    failing = false;
+    queue.drain();
+    assertTrue( droppedTables.isEmpty() );
+
+    assertEquals( 1, queue.retryOrphans() );
+    assertEquals( 0, queue.getItems().get( 0 ).getAttempts() );
+    queue.drain();
+    assertEquals( Collections.singletonList( "SALES" ), droppedTables );
+    assertTrue( queue.getItems().isEmpty() );
+  }
+
+  @Test
+  public void shouldKeepItemsWhenTheDomainsCanNotBeRead() throws Exception {
+    StagingCleanupQueue unreadable = new StagingCleanupQueue( uploadFolder, 2,
+      new StagingSweeper( null, uploadFolder, 0, 0, 0, false ) {
+        @Override
+        protected Collection<Domain> getDomains() throws Exception {
+          throw new IllegalStateException( "repository is down" );
+        }
+      } );
+    unreadable.enqueue( StagingCleanupQueue.Kind.FILE, "sales.csv" );
+    File file = createFile( "sales.csv" );
+
+    assertTrue( unreadable.drain().isEmpty() );
+
+    assertTrue( file.exists() );
+    assertEquals( 0, unreadable.getItems().get( 0 ).getAttempts() );
+  }
+
+  @Test
+  public void shouldQueueWhileATableIsDropped() throws Exception {
+    queue.enqueue( StagingCleanupQueue.Kind.TABLE, "SALES" );
+    final List<Exception> errors = new ArrayList<Exception>();
+    whileDropping = new Runnable() {
+      public void run() {
+        Thread thread = new Thread( new Runnable() {
+          public void run() {
+            try {
+              queue.enqueue( StagingCleanupQueue.Kind.TABLE, "RETURNS" );
+            } catch ( IOException e ) {
+              errors.add( e );
+            }
+          }
+        } );
+        thread.start();
+        try {
+          thread.join( 10000 );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+        }
+        assertFalse( "queueing waited for the drop", thread.isAlive() );
+      }
+    };
+
+    assertEquals( 1, queue.drain().size() );
+
+    assertTrue( errors.isEmpty() );
+    assertEquals( "RETURNS", queue.getItems().get( 0 ).getName() );
+  }
+
+  @Test
+  public void shouldStartOverAnItemQueuedAgainWhileItFails() throws Exception {
+    failing = true;
+    queue.enqueue( StagingCleanupQueue.Kind.TABLE, "SALES" );
+    whileDropping = new Runnable() {
+      public void run() {
+        try {
+          queue.enqueue( StagingCleanupQueue.Kind.TABLE, "SALES" );
+        } catch ( IOException e ) {
+          throw new IllegalStateException( e );
+        }
+      }
+    };
+
+    queue.drain();
+
+    assertEquals( 1, queue.getItems().size() );
+    assertEquals( 0, queue.getItems().get( 0 ).getAttempts() );
+  }
+
+  @Test
+  public void shouldCleanUpItemsClaimedBeforeTheServerStopped() throws Exception {
+    queue.enqueue( StagingCleanupQueue.Kind.TABLE, "SALES" );
+    File[] files = queue.getQueueFolder().listFiles();
+    assertEquals( 1, files.length );
+    assertTrue( files[ 0 ].renameTo( new File( files[ 0 ].getPath() + ".running" ) ) );
+    assertEquals( 1, queue.getItems().size() );
+
+    assertEquals( 1, queue.drain().size() );
+
+    assertEquals( Collections.singletonList( "SALES" ), droppedTables );
+    assertEquals( 0, queue.getQueueFolder().listFiles().length );
+  }
+}
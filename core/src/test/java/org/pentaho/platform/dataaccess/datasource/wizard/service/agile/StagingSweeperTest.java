@@ -0,0 +1,201 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StagingSweeperTest {
+
+  private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
+  private File tmpFolder;
+
+  private File uploadFolder;
+
+  private List<Domain> domains;
+
+  private List<String> droppedTables;
+
+  @Before
+  public void setUp() throws Exception {
+    tmpFolder = Files.createTempDirectory( "StagingSweeperTest" ).toFile();
+    uploadFolder = Files.createTempDirectory( "StagingSweeperTest" ).toFile();
+    domains = new ArrayList<Domain>();
+    droppedTables = new ArrayList<String>();
+  }
+
+  @After
+  public void tearDown() {
+    delete( tmpFolder );
+    delete( uploadFolder );
+  }
+
+  private static void delete( File file ) {
+    File[] children = file.listFiles();
+    if ( children != null ) {
+      for ( File child : children ) {
+        delete( child );
+      }
+    }
+    file.delete();
+  }
+
+  private static File createFile( File folder, String name, int length, long age ) throws IOException {
+    File file = new File( folder, name );
+    FileOutputStream out = new FileOutputStream( file );
+    try {
+      out.write( new byte[ length ] );
+    } finally {
+      out.close();
+    }
+    file.setLastModified( System.currentTimeMillis() - age );
+    return file;
+  }
+
+  private File stageTable( String tableName, long age ) throws IOException {
+    StagingSweeper.recordStagedTable( uploadFolder, tableName );
+    File marker = StagingSweeper.getTableMarker( uploadFolder, tableName );
+    marker.setLastModified( System.currentTimeMillis() - age );
+    return marker;
+  }
+
+  private void addDomain( String tableName, String fileName ) {
+    SqlPhysicalModel physicalModel = new SqlPhysicalModel();
+    SqlPhysicalTable table = new SqlPhysicalTable( physicalModel );
+    table.setTargetTable( tableName );
+    physicalModel.addPhysicalTable( table );
+    LogicalModel logicalModel = new LogicalModel();
+    logicalModel.setProperty( "datasourceModel", "<csvFileInfo><filename>" + fileName + "</filename></csvFileInfo>" );
+    Domain domain = new Domain();
+    domain.addPhysicalModel( physicalModel );
+    domain.addLogicalModel( logicalModel );
+    domains.add( domain );
+  }
+
+  private StagingSweeper createSweeper( int tmpTtlHours, int tableTtlHours, int fileTtlHours, boolean dryRun ) {
+    return new StagingSweeper( tmpFolder, uploadFolder, tmpTtlHours, tableTtlHours, fileTtlHours, dryRun ) {
+      @Override
+      protected Collection<Domain> getDomains() {
+        return domains;
+      }
+
+      @Override
+      protected void dropTable( String tableName ) {
+        droppedTables.add( tableName );
+      }
+    };
+  }
+
+  @Test
+  public void shouldDeleteAbandonedUploadsWithTheirSideFiles() throws Exception {
+    File abandoned = createFile( tmpFolder, "abandoned.csv.tmp", 10, 2 * DAY_MILLIS );
+    File rejects = createFile( tmpFolder, "abandoned.csv.tmp" + RejectedRowsFile.FILE_SUFFIX, 5, 0 );
+    File recent = createFile( tmpFolder, "recent.csv.tmp", 10, 0 );
+    File other = createFile( tmpFolder, "other.xmi", 10, 2 * DAY_MILLIS );
+
+    StagingSweeper.Report report = createSweeper( 24, 0, 0, false ).sweep();
+
+    assertEquals( 2, report.getTmpFiles().size() );
+    assertEquals( 15, report.getBytes() );
+    assertFalse( abandoned.exists() );
+    assertFalse( rejects.exists() );
+    assertTrue( recent.exists() );
+    assertTrue( other.exists() );
+  }
+
+  @Test
+  public void shouldOnlyDropTablesNoDomainReadsFrom() throws Exception {
+    File unused = stageTable( "UNUSED", 8 * DAY_MILLIS );
+    File used = stageTable( "USED", 8 * DAY_MILLIS );
+    File recent = stageTable( "RECENT", 0 );
+    File digest = createFile( unused.getParentFile(), "UNUSED.properties", 1, 0 );
+    addDomain( "used", "sales.csv" );
+
+    StagingSweeper.Report report = createSweeper( 0, 168, 0, false ).sweep();
+
+    assertEquals( Collections.singletonList( "UNUSED" ), report.getTables() );
+    assertEquals( Collections.singletonList( "UNUSED" ), droppedTables );
+    assertFalse( unused.exists() );
+    assertFalse( digest.exists() );
+    assertTrue( used.exists() );
+    assertTrue( recent.exists() );
+  }
+
+  @Test
+  public void shouldDeleteUploadedFilesNoDomainRefersTo() throws Exception {
+    File referenced = createFile( uploadFolder, "sales & returns.csv", 10, 2 * DAY_MILLIS );
+    File superseded = createFile( uploadFolder, "sales_old.csv", 10, 2 * DAY_MILLIS );
+    File index = createFile( uploadFolder, "sales_old.csv" + ".index", 4, 2 * DAY_MILLIS );
+    addDomain( "SALES", "sales &amp; returns.csv" );
+
+    StagingSweeper.Report report = createSweeper( 0, 0, 24, false ).sweep();
+
+    assertEquals( 2, report.getFiles().size() );
+    assertTrue( referenced.exists() );
+    assertFalse( superseded.exists() );
+    assertFalse( index.exists() );
+  }
+
+  @Test
+  public void shouldOnlyReportInDryRunMode() throws Exception {
+    File abandoned = createFile( tmpFolder, "abandoned.csv.tmp", 10, 2 * DAY_MILLIS );
+    File marker = stageTable( "UNUSED", 8 * DAY_MILLIS );
+    File superseded = createFile( uploadFolder, "sales_old.csv", 10, 2 * DAY_MILLIS );
+
+    StagingSweeper.Report report = createSweeper( 24, 168, 24, true ).sweep();
+
+    assertTrue( report.isDryRun() );
+    assertEquals( Arrays.asList( "abandoned.csv.tmp" ), report.getTmpFiles() );
+    assertEquals( Arrays.asList( "UNUSED" ), report.getTables() );
+    assertEquals( Arrays.asList( "sales_old.csv" ), report.getFiles() );
+    assertTrue( droppedTables.isEmpty() );
+    assertTrue( abandoned.exists() );
+    assertTrue( marker.exists() );
+    assertTrue( superseded.exists() );
+  }
+
+  @Test
+  public void shouldKeepTablesAndFilesWhenTheDomainsCanNotBeRead() throws Exception {
+    stageTable( "UNUSED", 8 * DAY_MILLIS );
+    File superseded = createFile( uploadFolder, "sales_old.csv", 10, 2 * DAY_MILLIS );
+    StagingSweeper sweeper = new StagingSweeper( tmpFolder, uploadFolder, 24, 168, 24, false ) {
+      @Override
+      protected Collection<Domain> getDomains() throws Exception {
+        throw new IllegalStateException( "repository is down" );
+      }
+    };
+
+    assertTrue( sweeper.sweep().isEmpty() );
+    assertTrue( superseded.exists() );
+  }
+}
@@ -12,20 +12,32 @@
 
 package org.pentaho.platform.dataaccess.datasource.wizard.service.agile;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.plugins.DatabasePluginType;
+import org.pentaho.platform.dataaccess.datasource.wizard.models.ColumnInfo;
 import org.pentaho.platform.dataaccess.datasource.wizard.models.ModelInfo;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -37,6 +49,8 @@ public class StagingTransformGeneratorTest {
 
   private DatabaseMeta databaseMeta;
 
+  private ModelInfo modelInfo;
+
   @BeforeClass
   public static void setUpOnce() throws KettlePluginException {
     // Register Natives to create a default DatabaseMeta
@@ -47,7 +61,8 @@ public class StagingTransformGeneratorTest {
   public void setUp() {
     database = mock( Database.class );
     databaseMeta = mock( DatabaseMeta.class );
-    stagingTransformGenerator = new CsvTransformGenerator( mock( ModelInfo.class ), databaseMeta ) {
+    modelInfo = mock( ModelInfo.class );
+    stagingTransformGenerator = new CsvTransformGenerator( modelInfo, databaseMeta ) {
       @Override Database getDatabase( DatabaseMeta databaseMeta ) {
         return database;
       }
@@ -89,4 +104,110 @@ public class StagingTransformGeneratorTest {
 
     verify( database, never() ).execStatement( anyString() );
   }
+
+  /**
+   * Given a staged table with several indexed columns.
+   * <br/>
+   * When StagingTransformGenerator is called to create the indices,
+   * then it should run every index statement over a single connection.
+   */
+  @Test
+  public void shouldCreateIndicesOverOneConnection() throws Exception {
+    ColumnInfo[] columns = new ColumnInfo[] { indexedColumn( "a" ), indexedColumn( "b" ), indexedColumn( "c" ) };
+    when( modelInfo.getColumns() ).thenReturn( columns );
+    when( database.getCreateIndexStatement( (String) any(), anyString(), any( String[].class ), anyBoolean(),
+      anyBoolean(), anyBoolean(), anyBoolean() ) ).thenReturn( "CREATE INDEX idx ON t(c);" );
+
+    int created = stagingTransformGenerator.createIndices( null );
+
+    assertEquals( 3, created );
+    verify( database, times( 1 ) ).connect( null );
+    verify( database, times( 3 ) ).execStatement( "CREATE INDEX idx ON t(c)" );
+    verify( database, times( 1 ) ).disconnect();
+  }
+
+  /**
+   * Given columns to index on a dialect with short identifiers.
+   * <br/>
+   * When StagingTransformGenerator names the indices,
+   * then it should name them after the table and column, cut to the dialect limit and still apart.
+   */
+  @Test
+  public void shouldNameIndicesAfterTableAndColumnWithinTheDialectLimit() throws Exception {
+    when( databaseMeta.getPluginId() ).thenReturn( "ORACLE" );
+
+    assertEquals( "sales_region_idx", stagingTransformGenerator.getIndexName( "sales", "region" ) );
+
+    String first = stagingTransformGenerator.getIndexName( "quarterly_sales_by_region", "customer_name" );
+    String second = stagingTransformGenerator.getIndexName( "quarterly_sales_by_region", "customer_number" );
+    assertEquals( 30, first.length() );
+    assertEquals( 30, second.length() );
+    assertTrue( first.startsWith( "quarterly_sales_by" ) );
+    assertNotEquals( first, second );
+  }
+
+  /**
+   * Given a loaded table to put in the place of an existing one.
+   * <br/>
+   * When StagingTransformGenerator is called to replace the table,
+   * then it should rename both tables in one transaction and drop the replaced one.
+   */
+  @Test
+  public void shouldReplaceTableInOneTransaction() throws Exception {
+    when( databaseMeta.getPluginId() ).thenReturn( "POSTGRESQL" );
+    when( databaseMeta.getQuotedSchemaTableCombination( (String) isNull(), anyString() ) )
+      .thenAnswer( invocation -> invocation.getArguments()[ 1 ] );
+    when( databaseMeta.quoteField( anyString() ) ).thenAnswer( invocation -> invocation.getArguments()[ 0 ] );
+    when( database.checkTableExists( "live" ) ).thenReturn( true );
+    when( database.checkTableExists( "live_OLD" ) ).thenReturn( false, true );
+
+    stagingTransformGenerator.replaceTable( "live", "live_NEW" );
+
+    InOrder inOrder = inOrder( database );
+    inOrder.verify( database ).setAutoCommit( false );
+    inOrder.verify( database ).execStatement( "ALTER TABLE live RENAME TO live_OLD" );
+    inOrder.verify( database ).execStatement( "ALTER TABLE live_NEW RENAME TO live" );
+    inOrder.verify( database ).commit();
+    inOrder.verify( database ).execStatement( "DROP TABLE live_OLD" );
+  }
+
+  @Test
+  public void shouldRenameBothTablesInOneStatementOnMySql() {
+    when( databaseMeta.getPluginId() ).thenReturn( "MYSQL" );
+    when( databaseMeta.getQuotedSchemaTableCombination( (String) isNull(), anyString() ) )
+      .thenAnswer( invocation -> invocation.getArguments()[ 1 ] );
+
+    assertEquals( Arrays.asList( "RENAME TABLE live TO live_OLD, live_NEW TO live" ),
+      stagingTransformGenerator.getReplaceTableStatements( databaseMeta, "live", "live_NEW", "live_OLD" ) );
+    assertEquals( Arrays.asList( "RENAME TABLE live_NEW TO live" ),
+      stagingTransformGenerator.getReplaceTableStatements( databaseMeta, "live", "live_NEW", null ) );
+  }
+
+  @Test
+  public void shouldRenameTablesWithTheDb2Statement() {
+    when( databaseMeta.getPluginId() ).thenReturn( "DB2" );
+    when( databaseMeta.getQuotedSchemaTableCombination( (String) isNull(), anyString() ) )
+      .thenAnswer( invocation -> invocation.getArguments()[ 1 ] );
+    when( databaseMeta.quoteField( anyString() ) ).thenAnswer( invocation -> invocation.getArguments()[ 0 ] );
+
+    assertEquals( Arrays.asList( "RENAME TABLE live TO live_OLD", "RENAME TABLE live_NEW TO live" ),
+      stagingTransformGenerator.getReplaceTableStatements( databaseMeta, "live", "live_NEW", "live_OLD" ) );
+    assertTrue( stagingTransformGenerator.isReplaceAtomic( databaseMeta ) );
+  }
+
+  @Test
+  public void shouldKnowWhereTheRenamesAreNotAtomic() {
+    when( databaseMeta.getPluginId() ).thenReturn( "ORACLE", "H2", "POSTGRESQL" );
+
+    assertFalse( stagingTransformGenerator.isReplaceAtomic( databaseMeta ) );
+    assertFalse( stagingTransformGenerator.isReplaceAtomic( databaseMeta ) );
+    assertTrue( stagingTransformGenerator.isReplaceAtomic( databaseMeta ) );
+  }
+
+  private ColumnInfo indexedColumn( String id ) {
+    ColumnInfo column = new ColumnInfo();
+    column.setId( id );
+    column.setIndex( true );
+    return column;
+  }
 }
@@ -42,11 +42,14 @@ import org.pentaho.platform.plugin.services.connections.sql.SQLConnection;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
@@ -57,6 +60,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -141,6 +145,20 @@ public class ConnectionServiceImplTest {
     verify( datasourceService ).clearDataSource( CONN_NAME );
   }
 
+  @Test
+  public void testDeleteConnections() throws Exception {
+    doNothing().when( connectionServiceImpl ).ensureDataAccessPermission();
+    doThrow( mock( NonExistingDatasourceException.class ) ).when( connectionServiceImpl.datasourceMgmtSvc )
+      .deleteDatasourceByName( "Missing" );
+
+    Map<String, Exception> results = connectionServiceImpl.deleteConnections( Arrays.asList( CONN_NAME, "Missing" ) );
+
+    assertNull( results.get( CONN_NAME ) );
+    assertEquals( 404, ( (ConnectionServiceException) results.get( "Missing" ) ).getStatusCode() );
+    verify( connectionServiceImpl, times( 1 ) ).ensureDataAccessPermission();
+    verify( datasourceService ).clearDataSource( CONN_NAME );
+  }
+
   @Test
   public void testDeleteConnectionStringError_NonExistingDatasourceException() throws Exception {
     testDeleteConnectionErrorString( mock( NonExistingDatasourceException.class ) );
@@ -34,11 +34,13 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
@@ -153,8 +155,10 @@ public class CsvDatasourceServiceImplTest {
       ModelInfo modelInfo = service.stageFile( filename, ",", "\n", true, "utf-8" );
       CsvFileInfo fileInfo = modelInfo.getFileInfo();
       assertEquals( "One header row", 1, fileInfo.getHeaderRows() );
-      assertEquals( "Header + content row", 2, fileInfo.getContents().size() );
+      assertNull( "Rows are paged in separately", fileInfo.getContents() );
       assertEquals( filename, fileInfo.getTmpFilename() );
+      assertEquals( Arrays.asList( Arrays.asList( "1", "2" ) ),
+        service.getSampleRows( filename, ",", "\"", true, "utf-8", 0, 10, null ) );
     } finally {
       file.delete();
     }
@@ -227,7 +231,7 @@ public class CsvDatasourceServiceImplTest {
       ModelInfo modelInfo = service.stageFile( filename, ",", "\n", true, "utf-8" );
       CsvFileInfo fileInfo = modelInfo.getFileInfo();
       assertEquals( "One header row", 1, fileInfo.getHeaderRows() );
-      assertEquals( "Header + content row", 2, fileInfo.getContents().size() );
+      assertNull( "Rows are paged in separately", fileInfo.getContents() );
       assertEquals( filename, fileInfo.getTmpFilename() );
 
       final FileInfo[] stagedFiles = service.getStagedFiles();
@@ -485,6 +485,21 @@ public class DSWDatasourceServiceImplTest {
     assertArrayEquals( columnTypes, result.getColumnTypes() );
   }
 
+  @Test
+  public void testDoPreview_SampledQueryFails() throws Exception {
+    doReturn( true ).when( dswService ).hasDataAccessPermission();
+    doReturn( "sampled rows" ).when( dswService ).getPreviewQuery( anyString(), eq( VALID_QUERY ) );
+    when( sqlConnection.executeQuery( matches( "(.*sampled rows.*)" ) ) ).thenThrow(
+      new SQLException( "No sampling here", "42000", 42 ) );
+
+    SerializedResultSet result = dswService.doPreview( CONNECTION_NAME, VALID_QUERY, PREVIEW_LIMIT );
+
+    verify( dswService ).executeQuery( anyString(), eq( "sampled rows" ), eq( PREVIEW_LIMIT ) );
+    verify( dswService ).executeQuery( anyString(), eq( VALID_QUERY ), eq( PREVIEW_LIMIT ) );
+    assertNotNull( result );
+    assertArrayEquals( columns, result.getColumns() );
+  }
+
   @Test( expected = DatasourceServiceException.class )
   public void testDoPreview_DoesNotHavePermission() throws DatasourceServiceException {
     doReturn( false ).when( dswService ).hasDataAccessPermission();
@@ -0,0 +1,104 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlDataSource;
+import org.pentaho.metadata.model.SqlDataSource.DataSourceType;
+import org.pentaho.metadata.model.SqlPhysicalModel;
+import org.pentaho.metadata.model.SqlPhysicalTable;
+import org.pentaho.metadata.model.concept.types.TargetTableType;
+
+public class QueryMaterializerTest {
+
+  private static final String QUERY = "select * from orders";
+
+  private Domain domain;
+
+  private SqlPhysicalModel physicalModel;
+
+  private SqlPhysicalTable table;
+
+  @Before
+  public void setUp() {
+    SqlDataSource dataSource = new SqlDataSource();
+    dataSource.setType( DataSourceType.JNDI );
+    dataSource.setDatabaseName( "SampleData" );
+    dataSource.setDialectType( "HYPERSONIC" );
+    physicalModel = new SqlPhysicalModel();
+    physicalModel.setId( "SampleData" );
+    physicalModel.setDatasource( dataSource );
+    table = new SqlPhysicalTable( physicalModel );
+    table.setTargetTableType( TargetTableType.INLINE_SQL );
+    table.setTargetTable( QUERY );
+    physicalModel.getPhysicalTables().add( table );
+    LogicalModel logicalModel = new LogicalModel();
+    logicalModel.setProperty( "DatasourceType", "SQL-DS" );
+    domain = new Domain();
+    domain.setId( "orders.xmi" );
+    domain.addPhysicalModel( physicalModel );
+    domain.addLogicalModel( logicalModel );
+  }
+
+  @Test
+  public void testPointAtTableAndBack() {
+    assertFalse( QueryMaterializer.isMaterialized( domain ) );
+
+    QueryMaterializer.keepQuery( domain );
+    QueryMaterializer.pointAtTable( domain, "MQ_ORDERS", "staging", "AgileBI", "POSTGRESQL" );
+
+    assertTrue( QueryMaterializer.isMaterialized( domain ) );
+    assertEquals( TargetTableType.TABLE, table.getTargetTableType() );
+    assertEquals( "MQ_ORDERS", table.getTargetTable() );
+    assertEquals( "staging", table.getTargetSchema() );
+    assertEquals( "AgileBI", physicalModel.getId() );
+    assertEquals( "AgileBI", physicalModel.getDatasource().getDatabaseName() );
+    assertEquals( "POSTGRESQL", physicalModel.getDatasource().getDialectType() );
+
+    QueryMaterializer.restoreQuery( domain );
+
+    assertFalse( QueryMaterializer.isMaterialized( domain ) );
+    assertEquals( TargetTableType.INLINE_SQL, table.getTargetTableType() );
+    assertEquals( QUERY, table.getTargetTable() );
+    assertNull( table.getTargetSchema() );
+    assertEquals( "SampleData", physicalModel.getId() );
+    assertEquals( DataSourceType.JNDI, physicalModel.getDatasource().getType() );
+    assertEquals( "SampleData", physicalModel.getDatasource().getDatabaseName() );
+    assertEquals( "HYPERSONIC", physicalModel.getDatasource().getDialectType() );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testOnlyQueriesAreMaterialized() {
+    table.setTargetTableType( TargetTableType.TABLE );
+
+    QueryMaterializer.keepQuery( domain );
+  }
+
+  @Test
+  public void testTableName() {
+    String name = QueryMaterializer.getTableName( "Sales by region, 2024.xmi" );
+
+    assertTrue( name, name.matches( "MQ_SALES_BY_REGIO_[0-9A-F]{8}" ) );
+    assertTrue( name.length() + "_NEW".length() <= 30 );
+    assertNotEquals( name, QueryMaterializer.getTableName( "Sales by region, 2025.xmi" ) );
+  }
+}
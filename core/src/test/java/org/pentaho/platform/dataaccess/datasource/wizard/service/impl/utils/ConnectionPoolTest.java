@@ -0,0 +1,114 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionPoolTest {
+
+  private static final String URL = "jdbc:h2:mem:ConnectionPoolTest";
+
+  private static void execute( Connection connection, String sql ) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      statement.execute( sql );
+    } finally {
+      statement.close();
+    }
+  }
+
+  private static Object mark( Connection connection ) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      ResultSet resultSet = statement.executeQuery( "SELECT @MARK" );
+      resultSet.next();
+      return resultSet.getObject( 1 );
+    } finally {
+      statement.close();
+    }
+  }
+
+  @Test
+  public void shouldHandClosedConnectionsOutAgain() throws Exception {
+    ConnectionPool pool = new ConnectionPool( URL, "sa", "", 1 );
+    Connection connection = pool.getConnection();
+    execute( connection, "SET @MARK = 42" );
+    connection.setReadOnly( true );
+    connection.close();
+    assertTrue( connection.isClosed() );
+    assertEquals( 1, pool.getIdleCount() );
+    try {
+      connection.createStatement();
+      fail( "A connection handed back can't be used" );
+    } catch ( SQLException e ) {
+      // expected
+    }
+
+    Connection again = pool.getConnection();
+    assertEquals( 0, pool.getIdleCount() );
+    assertEquals( 42, ( (Number) mark( again ) ).intValue() );
+    assertFalse( "The connection is reset when handed back", again.isReadOnly() );
+    again.close();
+  }
+
+  @Test
+  public void shouldKeepAtMostMaxIdleConnections() throws Exception {
+    ConnectionPool pool = new ConnectionPool( URL, "sa", "", 1 );
+    Connection first = pool.getConnection();
+    Connection second = pool.getConnection();
+    first.close();
+    second.close();
+    assertEquals( 1, pool.getIdleCount() );
+  }
+
+  @Test
+  public void shouldCloseConnectionsOnceInvalidated() throws Exception {
+    ConnectionPool pool = new ConnectionPool( URL, "sa", "", 2 );
+    Connection idle = pool.getConnection();
+    Connection inUse = pool.getConnection();
+    idle.close();
+    pool.invalidate();
+    assertEquals( 0, pool.getIdleCount() );
+    inUse.close();
+    assertEquals( "Connections in use are not handed back to an invalidated pool", 0, pool.getIdleCount() );
+    assertTrue( pool.isFor( URL, "sa", "" ) );
+    assertFalse( pool.isFor( URL, "sa", "changed" ) );
+  }
+
+  @Test
+  public void shouldMakeCallersWaitForAConnectionInUse() throws Exception {
+    ConnectionPool pool = new ConnectionPool( URL, "sa", "", 1, 1, 50 );
+    Connection first = pool.getConnection();
+    try {
+      pool.getConnection();
+      fail();
+    } catch ( SQLException e ) {
+      // timed out, the only connection is in use
+    }
+    first.close();
+    Connection second = pool.getConnection();
+    assertFalse( second.isClosed() );
+    second.close();
+  }
+}
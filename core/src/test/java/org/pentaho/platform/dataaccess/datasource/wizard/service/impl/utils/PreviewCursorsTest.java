@@ -0,0 +1,174 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.pentaho.platform.dataaccess.datasource.beans.SerializedResultSetPage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.spy;
+
+public class PreviewCursorsTest {
+
+  private static final String URL = "jdbc:h2:mem:PreviewCursorsTest;DB_CLOSE_DELAY=-1";
+
+  private static final String QUERY = "SELECT ID, NAME FROM PREVIEW ORDER BY ID";
+
+  private static Connection keepAlive;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    keepAlive = DriverManager.getConnection( URL );
+    Statement statement = keepAlive.createStatement();
+    statement.execute( "CREATE TABLE PREVIEW ( ID INT, NAME VARCHAR(20) )" );
+    for ( int i = 0; i < 25; i++ ) {
+      String name = i % 5 == 0 ? "NULL" : "'name" + i + "'";
+      statement.execute( "INSERT INTO PREVIEW VALUES ( " + i + ", " + name + " )" );
+    }
+    statement.close();
+  }
+
+  @AfterClass
+  public static void tearDownClass() throws Exception {
+    keepAlive.close();
+  }
+
+  @Test
+  public void shouldPageThroughTheQueryOnce() throws Exception {
+    PreviewCursors cursors = new PreviewCursors();
+    Connection connection = DriverManager.getConnection( URL );
+    SerializedResultSetPage page = cursors.open( "session", connection, QUERY, 10, 0, 60000 );
+    assertEquals( Arrays.asList( "ID", "NAME" ), Arrays.asList( page.getColumns() ) );
+    assertEquals( 10, page.getData().size() );
+    assertEquals( Arrays.asList( "0", null ), page.getData().get( 0 ) );
+    assertEquals( 0, page.getOffset() );
+    assertFalse( page.isLast() );
+    assertNotNull( page.getCursorId() );
+
+    String cursorId = page.getCursorId();
+    assertNull( "Only the owner reads from a cursor", cursors.fetch( "other session", cursorId, 10 ) );
+    page = cursors.fetch( "session", cursorId, 10 );
+    assertEquals( 10, page.getOffset() );
+    assertEquals( Arrays.asList( "11", "name11" ), page.getData().get( 1 ) );
+
+    page = cursors.fetch( "session", cursorId, 10 );
+    assertEquals( 5, page.getData().size() );
+    assertTrue( page.isLast() );
+    assertNull( page.getCursorId() );
+    assertTrue( "The last page closes the cursor", connection.isClosed() );
+    assertNull( cursors.fetch( "session", cursorId, 10 ) );
+  }
+
+  @Test
+  public void shouldCloseIdleAndSurplusCursors() throws Exception {
+    PreviewCursors cursors = new PreviewCursors();
+    Connection first = DriverManager.getConnection( URL );
+    String firstId = cursors.open( "session", first, QUERY, 1, 0, 60000 ).getCursorId();
+    Thread.sleep( 5 );
+    Connection second = DriverManager.getConnection( URL );
+    String secondId = cursors.open( "session", second, QUERY, 1, 0, 0 ).getCursorId();
+    Connection third = DriverManager.getConnection( URL );
+    cursors.open( "session", third, QUERY, 1, 0, 60000 );
+    assertTrue( "The least recently read cursor makes room", first.isClosed() );
+    assertEquals( PreviewCursors.MAX_CURSORS_PER_OWNER, cursors.size() );
+
+    Thread.sleep( 5 );
+    cursors.closeIdle();
+    assertTrue( second.isClosed() );
+    assertNull( cursors.fetch( "session", secondId, 1 ) );
+    assertNull( cursors.fetch( "session", firstId, 1 ) );
+    assertFalse( third.isClosed() );
+    assertEquals( 1, cursors.size() );
+  }
+
+  @Test
+  public void shouldCloseTheConnectionOfAFailingQuery() throws Exception {
+    PreviewCursors cursors = new PreviewCursors();
+    Connection connection = DriverManager.getConnection( URL );
+    try {
+      cursors.open( "session", connection, "SELECT * FROM NO_SUCH_TABLE", 10, 0, 60000 );
+      fail();
+    } catch ( SQLException e ) {
+      assertTrue( connection.isClosed() );
+    }
+    assertEquals( 0, cursors.size() );
+  }
+
+  @Test
+  public void shouldOnlyCloseTheOwnersCursors() throws Exception {
+    PreviewCursors cursors = new PreviewCursors();
+    Connection connection = DriverManager.getConnection( URL );
+    String cursorId = cursors.open( "session", connection, QUERY, 1, 0, 60000 ).getCursorId();
+    assertFalse( cursors.close( "other session", cursorId ) );
+    assertTrue( cursors.close( "session", cursorId ) );
+    assertTrue( connection.isClosed() );
+    assertFalse( cursors.close( "session", cursorId ) );
+  }
+
+  @Test
+  public void shouldHandTheConnectionBackWritable() throws Exception {
+    PreviewCursors cursors = new PreviewCursors();
+    Connection connection = spy( DriverManager.getConnection( URL ) );
+    String cursorId = cursors.open( "session", connection, QUERY, 1, 0, 60000 ).getCursorId();
+    assertTrue( cursors.close( "session", cursorId ) );
+
+    InOrder order = inOrder( connection );
+    order.verify( connection ).rollback();
+    order.verify( connection ).setAutoCommit( true );
+    order.verify( connection ).setReadOnly( false );
+    order.verify( connection ).close();
+  }
+
+  @Test
+  public void shouldStopReadingAtTheRowLimit() throws Exception {
+    PreviewCursors cursors = new PreviewCursors( RunningQueries.getInstance(), 12 );
+    Connection connection = DriverManager.getConnection( URL );
+    SerializedResultSetPage page = cursors.open( "session", connection, QUERY, 10, 0, 60000 );
+    assertFalse( page.isLast() );
+    page = cursors.fetch( "session", page.getCursorId(), 10 );
+    assertEquals( 2, page.getData().size() );
+    assertTrue( page.isLast() );
+    assertTrue( connection.isClosed() );
+  }
+
+  @Test
+  public void shouldCloseEveryCursorOnStop() throws Exception {
+    PreviewCursors cursors = new PreviewCursors();
+    Connection first = DriverManager.getConnection( URL );
+    String firstId = cursors.open( "session", first, QUERY, 1, 0, 60000 ).getCursorId();
+    Connection second = DriverManager.getConnection( URL );
+    cursors.open( "other session", second, QUERY, 1, 0, 60000 );
+
+    cursors.closeAll();
+    assertTrue( first.isClosed() );
+    assertTrue( second.isClosed() );
+    assertEquals( 0, cursors.size() );
+    assertNull( cursors.fetch( "session", firstId, 1 ) );
+  }
+}
@@ -0,0 +1,53 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreviewSamplerTest {
+
+  private static final String QUERY = "select region, sum(amount) from sales group by region";
+
+  @Test
+  public void shouldUseTableSamplingForWholeTables() {
+    assertEquals( "SELECT * FROM public.sales TABLESAMPLE SYSTEM (5)",
+      PreviewSampler.sample( "POSTGRESQL", "select * from public.sales", 5 ) );
+    assertEquals( "SELECT * FROM [dbo].[sales] TABLESAMPLE (2.5 PERCENT)",
+      PreviewSampler.sample( "MSSQL", "SELECT * FROM [dbo].[sales];", 2.5 ) );
+    assertEquals( "SELECT * FROM \"SALES\" SAMPLE (1)",
+      PreviewSampler.sample( "oracle", " SELECT *  FROM \"SALES\" ", 1 ) );
+  }
+
+  @Test
+  public void shouldFilterOtherQueriesRandomly() {
+    assertEquals( "SELECT * FROM (" + QUERY + ") sampled WHERE RANDOM() < 0.05",
+      PreviewSampler.sample( "POSTGRESQL", QUERY, 5 ) );
+    assertEquals( "SELECT * FROM (select * from sales) sampled WHERE RAND() < 0.1",
+      PreviewSampler.sample( "MYSQL", "select * from sales", 10 ) );
+    assertEquals( "SELECT * FROM (" + QUERY + ") sampled WHERE DBMS_RANDOM.VALUE < 0.01",
+      PreviewSampler.sample( "ORACLE", QUERY, 1 ) );
+    assertEquals( "SELECT * FROM (" + QUERY + ") sampled WHERE RAND() < 0.05",
+      PreviewSampler.sample( "MYSQL", QUERY + " ; \n", 5 ) );
+  }
+
+  @Test
+  public void shouldFallBackToTheQueryItself() {
+    assertEquals( QUERY, PreviewSampler.sample( "SYBASE", QUERY, 5 ) );
+    assertEquals( QUERY, PreviewSampler.sample( "POSTGRESQL", QUERY, 0 ) );
+    assertEquals( QUERY, PreviewSampler.sample( "POSTGRESQL", QUERY, 100 ) );
+    assertEquals( QUERY, PreviewSampler.sample( null, QUERY, 5 ) );
+  }
+}
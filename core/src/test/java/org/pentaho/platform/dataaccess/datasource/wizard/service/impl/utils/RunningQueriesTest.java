@@ -0,0 +1,59 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+
+package org.pentaho.platform.dataaccess.datasource.wizard.service.impl.utils;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class RunningQueriesTest {
+
+  @Test
+  public void shouldOnlyCancelTheOwnersQueries() throws Exception {
+    RunningQueries queries = new RunningQueries();
+    Statement statement = mock( Statement.class );
+    RunningQueries.Cancellable other = mock( RunningQueries.Cancellable.class );
+    queries.register( "session", RunningQueries.forStatement( statement ) );
+    String done = queries.register( "session", mock( RunningQueries.Cancellable.class ) );
+    queries.register( "other session", other );
+    queries.unregister( done );
+
+    assertEquals( 1, queries.cancel( "session" ) );
+    verify( statement ).cancel();
+    verify( other, never() ).cancel();
+    assertEquals( 1, queries.size() );
+    assertEquals( 0, queries.cancel( "session" ) );
+  }
+
+  @Test
+  public void shouldLeaveTheStatementToTheThreadRunningIt() throws Exception {
+    Statement statement = mock( Statement.class );
+    doThrow( new SQLException( "not supported" ) ).when( statement ).cancel();
+    try {
+      RunningQueries.forStatement( statement ).cancel();
+      fail();
+    } catch ( SQLException e ) {
+      // the thread running the statement still owns it and its connection
+      verify( statement, never() ).close();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.platform.dataaccess.datasource.wizard.sources.csv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class FileTransformStatsTest {
+
+  @Test
+  public void shouldCountEachColumnWithItsErrorCode() {
+    FileTransformStats stats = new FileTransformStats();
+    stats.addErrorSummary( "AMOUNT, DATE", "CONV001, CONV002" );
+    stats.addErrorSummary( "AMOUNT", "CONV001" );
+    stats.addErrorSummary( "AMOUNT", "LEN001" );
+
+    assertEquals( Long.valueOf( 2 ), stats.getErrorCounts().get( "AMOUNT" ).get( "CONV001" ) );
+    assertEquals( Long.valueOf( 1 ), stats.getErrorCounts().get( "AMOUNT" ).get( "LEN001" ) );
+    assertEquals( Long.valueOf( 1 ), stats.getErrorCounts().get( "DATE" ).get( "CONV002" ) );
+    assertFalse( stats.getErrorCounts().get( "DATE" ).containsKey( "CONV001" ) );
+  }
+
+  @Test
+  public void shouldCountEveryPairWhenFieldsAndCodesDoNotLineUp() {
+    FileTransformStats stats = new FileTransformStats();
+    stats.addErrorSummary( "AMOUNT,DATE", "CONV001" );
+    stats.addErrorSummary( null, "OUT001" );
+
+    assertEquals( Long.valueOf( 1 ), stats.getErrorCounts().get( "AMOUNT" ).get( "CONV001" ) );
+    assertEquals( Long.valueOf( 1 ), stats.getErrorCounts().get( "DATE" ).get( "CONV001" ) );
+    assertEquals( Long.valueOf( 1 ), stats.getErrorCounts().get( "" ).get( "OUT001" ) );
+  }
+}